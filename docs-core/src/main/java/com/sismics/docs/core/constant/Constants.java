@@ -83,6 +83,147 @@ public class Constants {
      */
     public static final String BCRYPT_WORK_ENV = "DOCS_BCRYPT_WORK";
 
+    /**
+     * Maximum delay between two Lucene commits in seconds (0 to commit after each operation).
+     */
+    public static final String LUCENE_COMMIT_INTERVAL_ENV = "DOCS_LUCENE_COMMIT_INTERVAL";
+
+    /**
+     * Number of pending Lucene operations triggering a commit.
+     */
+    public static final String LUCENE_COMMIT_OPERATIONS_ENV = "DOCS_LUCENE_COMMIT_OPERATIONS";
+
+    /**
+     * Minimum delay between two rebuilds of the search suggester in seconds.
+     */
+    public static final String LUCENE_SUGGEST_REBUILD_INTERVAL_ENV = "DOCS_LUCENE_SUGGEST_REBUILD_INTERVAL";
+
+    /**
+     * Maximum number of characters of file content stored in the index for highlighting (0 for no limit).
+     */
+    public static final String LUCENE_STORED_CONTENT_LIMIT_ENV = "DOCS_LUCENE_STORED_CONTENT_LIMIT";
+
+    /**
+     * Number of threads indexing documents and files during a full reindex.
+     */
+    public static final String LUCENE_REBUILD_THREADS_ENV = "DOCS_LUCENE_REBUILD_THREADS";
+
+    /**
+     * Memory-mapped Lucene files to load at startup: "all", or a comma-separated list of extensions (tim,tip,dvd...).
+     */
+    public static final String LUCENE_PRELOAD_ENV = "DOCS_LUCENE_PRELOAD";
+
+    /**
+     * Maximum size of the search result cache in megabytes (0 to disable it).
+     */
+    public static final String LUCENE_SEARCH_CACHE_SIZE_ENV = "DOCS_LUCENE_SEARCH_CACHE_SIZE";
+
+    /**
+     * Keep the persistence context for the whole request instead of clearing it on every DAO call (true/false).
+     */
+    public static final String JPA_REQUEST_CACHE_ENV = "DOCS_JPA_REQUEST_CACHE";
+
+    /**
+     * Maximum number of entries of each cache of read-mostly data (0 to disable them).
+     */
+    public static final String DAO_CACHE_SIZE_ENV = "DOCS_DAO_CACHE_SIZE";
+
+    /**
+     * Time to live of the principals resolved from authentication tokens in seconds (0 to disable their cache).
+     */
+    public static final String PRINCIPAL_CACHE_TTL_ENV = "DOCS_PRINCIPAL_CACHE_TTL";
+
+    /**
+     * Delay between two writes of the last connection dates of the sessions in seconds.
+     */
+    public static final String SESSION_FLUSH_INTERVAL_ENV = "DOCS_SESSION_FLUSH_INTERVAL";
+
+    /**
+     * Audit log writing mode: "sync" to write them before the transaction commit,
+     * or "async" to write them in the background after the commit (faster, but not durable).
+     */
+    public static final String AUDIT_LOG_MODE_ENV = "DOCS_AUDIT_LOG_MODE";
+
+    /**
+     * Maximum number of audit logs waiting to be written in asynchronous mode.
+     */
+    public static final String AUDIT_LOG_QUEUE_SIZE_ENV = "DOCS_AUDIT_LOG_QUEUE_SIZE";
+
+    /**
+     * Number of days the audit logs are kept in the database (0 to keep them forever).
+     */
+    public static final String AUDIT_LOG_RETENTION_ENV = "DOCS_AUDIT_LOG_RETENTION";
+
+    /**
+     * Archive the audit logs to compressed files before removing them from the database (true/false).
+     */
+    public static final String AUDIT_LOG_ARCHIVE_ENV = "DOCS_AUDIT_LOG_ARCHIVE";
+
+    /**
+     * Name of the JCE provider of the cipher encrypting the files.
+     */
+    public static final String CIPHER_PROVIDER_ENV = "DOCS_CIPHER_PROVIDER";
+
+    /**
+     * Store the identical files only once (true/false).
+     */
+    public static final String STORAGE_DEDUPLICATION_ENV = "DOCS_STORAGE_DEDUPLICATION";
+
+    /**
+     * Default maximum delay between two Lucene commits in seconds.
+     */
+    public static final long DEFAULT_LUCENE_COMMIT_INTERVAL = 5;
+
+    /**
+     * Default number of pending Lucene operations triggering a commit.
+     */
+    public static final long DEFAULT_LUCENE_COMMIT_OPERATIONS = 1000;
+
+    /**
+     * Default minimum delay between two rebuilds of the search suggester in seconds.
+     */
+    public static final long DEFAULT_LUCENE_SUGGEST_REBUILD_INTERVAL = 3600;
+
+    /**
+     * Default maximum size of the search result cache in megabytes.
+     */
+    public static final long DEFAULT_LUCENE_SEARCH_CACHE_SIZE = 16;
+
+    /**
+     * Default maximum number of entries of each cache of read-mostly data.
+     */
+    public static final long DEFAULT_DAO_CACHE_SIZE = 1000;
+
+    /**
+     * Default time to live of the principals resolved from authentication tokens in seconds.
+     */
+    public static final long DEFAULT_PRINCIPAL_CACHE_TTL = 60;
+
+    /**
+     * Default delay between two writes of the last connection dates of the sessions in seconds.
+     */
+    public static final long DEFAULT_SESSION_FLUSH_INTERVAL = 30;
+
+    /**
+     * Default maximum number of audit logs waiting to be written in asynchronous mode.
+     */
+    public static final long DEFAULT_AUDIT_LOG_QUEUE_SIZE = 10000;
+
+    /**
+     * Default provider of the cipher encrypting the files, using the AES-NI intrinsics of HotSpot.
+     */
+    public static final String DEFAULT_CIPHER_PROVIDER = "SunJCE";
+
+    /**
+     * Lifetime of the long lasted authentication tokens in seconds, since login.
+     */
+    public static final int AUTHENTICATION_TOKEN_LONG_LIFETIME = 3600 * 24 * 365 * 20;
+
+    /**
+     * Lifetime of the session authentication tokens in seconds, since last connection.
+     */
+    public static final int AUTHENTICATION_TOKEN_SESSION_LIFETIME = 3600 * 24;
+
     /**
      * Expiration time of the password recovery in hours.
      */
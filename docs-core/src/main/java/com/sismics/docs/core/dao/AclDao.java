@@ -6,6 +6,8 @@ import com.sismics.docs.core.constant.AuditLogType;
 import com.sismics.docs.core.constant.PermType;
 import com.sismics.docs.core.dao.dto.AclDto;
 import com.sismics.docs.core.model.jpa.Acl;
+import com.sismics.docs.core.model.jpa.Share;
+import com.sismics.docs.core.model.jpa.Tag;
 import com.sismics.docs.core.util.AuditLogUtil;
 import com.sismics.docs.core.util.SecurityUtil;
 import com.sismics.util.context.ThreadLocalContext;
@@ -13,8 +15,12 @@ import com.sismics.util.context.ThreadLocalContext;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -37,6 +43,9 @@ public class AclDao {
         // Create the ACL
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         em.persist(acl);
+        new DocumentPermissionDao().update(acl.getSourceId());
+        updateShareCount(acl.getSourceId(), acl.getTargetId());
+        invalidateTagCache(acl.getSourceId());
 
         // Create audit log
         AuditLogUtil.create(acl, AuditLogType.CREATE, userId);
@@ -65,23 +74,37 @@ public class AclDao {
      * @param sourceId Source ID
      * @return ACL DTO list
      */
-    @SuppressWarnings("unchecked")
     public List<AclDto> getBySourceId(String sourceId, AclType type) {
+        return getBySourceIdList(Collections.singletonList(sourceId), type);
+    }
+
+    /**
+     * Search ACLs by a set of sources.
+     *
+     * @param sourceIdList Source IDs
+     * @param type Filter on this type (optional)
+     * @return List of ACLs, with their source ID
+     */
+    @SuppressWarnings("unchecked")
+    public List<AclDto> getBySourceIdList(Collection<String> sourceIdList, AclType type) {
+        if (sourceIdList.isEmpty()) {
+            return new ArrayList<>();
+        }
         EntityManager em = ThreadLocalContext.get().getEntityManager();
-        StringBuilder sb = new StringBuilder("select a.ACL_ID_C, a.ACL_PERM_C, a.ACL_TARGETID_C, ")
+        StringBuilder sb = new StringBuilder("select a.ACL_ID_C, a.ACL_SOURCEID_C, a.ACL_PERM_C, a.ACL_TARGETID_C, ")
                 .append(" u.USE_USERNAME_C, s.SHA_ID_C, s.SHA_NAME_C, g.GRP_NAME_C ")
                 .append(" from T_ACL a ")
                 .append(" left join T_USER u on u.USE_ID_C = a.ACL_TARGETID_C ")
                 .append(" left join T_SHARE s on s.SHA_ID_C = a.ACL_TARGETID_C ")
                 .append(" left join T_GROUP g on g.GRP_ID_C = a.ACL_TARGETID_C ")
-                .append(" where a.ACL_DELETEDATE_D is null and a.ACL_SOURCEID_C = :sourceId ");
+                .append(" where a.ACL_DELETEDATE_D is null and a.ACL_SOURCEID_C in (:sourceIdList) ");
         if (type != null) {
             sb.append(" and a.ACL_TYPE_C = :type");
         }
 
         // Perform the query
         Query q = em.createNativeQuery(sb.toString());
-        q.setParameter("sourceId", sourceId);
+        q.setParameter("sourceIdList", sourceIdList);
         if (type != null) {
             q.setParameter("type", type.name());
         }
@@ -93,6 +116,7 @@ public class AclDao {
             int i = 0;
             AclDto aclDto = new AclDto();
             aclDto.setId((String) o[i++]);
+            aclDto.setSourceId((String) o[i++]);
             aclDto.setPerm(PermType.valueOf((String) o[i++]));
             aclDto.setTargetId((String) o[i++]);
             String userName = (String) o[i++];
@@ -125,28 +149,40 @@ public class AclDao {
      * @return True if the document is accessible
      */
     public boolean checkPermission(String sourceId, PermType perm, List<String> targetIdList) {
+        // We have a matching permission
+        return !findPermitted(Collections.singletonList(sourceId), perm, targetIdList).isEmpty();
+    }
+
+    /**
+     * Check if some sources are accessible to some targets, in one query.
+     * The permissions of documents include the ACLs inherited from their tags.
+     *
+     * @param sourceIdList List of source ID
+     * @param perm Permission needed
+     * @param targetIdList List of targets
+     * @return Accessible source IDs
+     */
+    @SuppressWarnings("unchecked")
+    public Set<String> findPermitted(Collection<String> sourceIdList, PermType perm, List<String> targetIdList) {
         if (SecurityUtil.skipAclCheck(targetIdList)) {
-            return true;
+            return new HashSet<>(sourceIdList);
         }
-        if (targetIdList.isEmpty()) {
-            return false;
+        if (targetIdList.isEmpty() || sourceIdList.isEmpty()) {
+            return new HashSet<>();
         }
 
+        // Documents permissions are materialized, other sources only have direct ACLs
         EntityManager em = ThreadLocalContext.get().getEntityManager();
-        StringBuilder sb = new StringBuilder("select a.ACL_ID_C from T_ACL a ");
-        sb.append(" where a.ACL_TARGETID_C in (:targetIdList) and a.ACL_SOURCEID_C = :sourceId and a.ACL_PERM_C = :perm and a.ACL_DELETEDATE_D is null ");
-        sb.append(" union all ");
-        sb.append(" select a.ACL_ID_C from T_ACL a, T_DOCUMENT_TAG dt, T_DOCUMENT d ");
-        sb.append(" where a.ACL_SOURCEID_C = dt.DOT_IDTAG_C and dt.DOT_IDDOCUMENT_C = d.DOC_ID_C and dt.DOT_DELETEDATE_D is null ");
-        sb.append(" and d.DOC_ID_C = :sourceId and d.DOC_DELETEDATE_D is null ");
-        sb.append(" and a.ACL_TARGETID_C in (:targetIdList) and a.ACL_PERM_C = :perm and a.ACL_DELETEDATE_D is null ");
+        StringBuilder sb = new StringBuilder("select p.DPE_IDDOCUMENT_C from T_DOCUMENT_PERMISSION p ");
+        sb.append(" where p.DPE_IDDOCUMENT_C in (:sourceIdList) and p.DPE_IDTARGET_C in (:targetIdList) and p.DPE_PERM_C = :perm ");
+        sb.append(" union ");
+        sb.append(" select a.ACL_SOURCEID_C from T_ACL a ");
+        sb.append(" where a.ACL_SOURCEID_C in (:sourceIdList) and a.ACL_TARGETID_C in (:targetIdList) and a.ACL_PERM_C = :perm and a.ACL_DELETEDATE_D is null ");
         Query q = em.createNativeQuery(sb.toString());
-        q.setParameter("sourceId", sourceId);
+        q.setParameter("sourceIdList", sourceIdList);
         q.setParameter("perm", perm.name());
         q.setParameter("targetIdList", targetIdList);
-
-        // We have a matching permission
-        return q.getResultList().size() > 0;
+        return new HashSet<>((List<String>) q.getResultList());
     }
 
     /**
@@ -181,5 +217,34 @@ public class AclDao {
         q.setParameter("type", type);
         q.setParameter("dateNow", new Date());
         q.executeUpdate();
+        new DocumentPermissionDao().update(sourceId);
+        ThreadLocalContext.get().clearEntityManager();
+        updateShareCount(sourceId, targetId);
+        invalidateTagCache(sourceId);
+    }
+
+    /**
+     * Update the number of shares of a document if an ACL targets a share.
+     *
+     * @param sourceId Source ID
+     * @param targetId Target ID
+     */
+    private void updateShareCount(String sourceId, String targetId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        if (em.find(Share.class, targetId) != null) {
+            new DocumentDao().updateShareCount(sourceId);
+        }
+    }
+
+    /**
+     * Invalidate the cached tag lists if an ACL is on a tag.
+     *
+     * @param sourceId Source ID
+     */
+    private void invalidateTagCache(String sourceId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        if (em.find(Tag.class, sourceId) != null) {
+            TagDao.invalidateCache();
+        }
     }
 }
\ No newline at end of file
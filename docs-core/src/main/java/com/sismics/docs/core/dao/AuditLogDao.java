@@ -11,8 +11,11 @@ import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.core.util.jpa.QueryParam;
 import com.sismics.docs.core.util.jpa.SortCriteria;
 import com.sismics.util.context.ThreadLocalContext;
+import org.hibernate.Session;
 
 import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.sql.PreparedStatement;
 import java.sql.Timestamp;
 import java.util.*;
 
@@ -23,23 +26,64 @@ import java.util.*;
  */
 public class AuditLogDao {
     /**
-     * Creates a new audit log.
+     * Creates new audit logs with a JDBC batch.
      * 
-     * @param auditLog Audit log
-     * @return New ID
+     * @param auditLogList Audit logs
      */
-    public String create(AuditLog auditLog) {
-        // Create the UUID
-        auditLog.setId(UUID.randomUUID().toString());
-        
-        // Create the audit log
+    public void create(List<AuditLog> auditLogList) {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
-        auditLog.setCreateDate(new Date());
-        em.persist(auditLog);
-        
-        return auditLog.getId();
+        em.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement ps = connection.prepareStatement("insert into T_AUDIT_LOG (LOG_ID_C, LOG_IDUSER_C, LOG_IDENTITY_C, LOG_CLASSENTITY_C, LOG_TYPE_C, LOG_MESSAGE_C, LOG_CREATEDATE_D) values (?, ?, ?, ?, ?, ?, ?)")) {
+                for (AuditLog auditLog : auditLogList) {
+                    // Create the UUID
+                    auditLog.setId(UUID.randomUUID().toString());
+                    if (auditLog.getCreateDate() == null) {
+                        auditLog.setCreateDate(new Date());
+                    }
+
+                    int i = 1;
+                    ps.setString(i++, auditLog.getId());
+                    ps.setString(i++, auditLog.getUserId());
+                    ps.setString(i++, auditLog.getEntityId());
+                    ps.setString(i++, auditLog.getEntityClass());
+                    ps.setString(i++, auditLog.getType().name());
+                    ps.setString(i++, auditLog.getMessage());
+                    ps.setTimestamp(i, new Timestamp(auditLog.getCreateDate().getTime()));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        });
     }
     
+    /**
+     * Returns the oldest audit logs created before a date.
+     *
+     * @param date Date
+     * @param limit Maximum number of audit logs
+     * @return Audit logs, from the oldest
+     */
+    @SuppressWarnings("unchecked")
+    public List<AuditLog> findCreatedBefore(Date date, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("select l from AuditLog l where l.createDate < :date order by l.createDate, l.id");
+        q.setParameter("date", date);
+        q.setMaxResults(limit);
+        return q.getResultList();
+    }
+
+    /**
+     * Hard deletes audit logs.
+     *
+     * @param idList List of audit log ID
+     */
+    public void deleteByIdList(List<String> idList) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("delete AuditLog l where l.id in (:idList)");
+        q.setParameter("idList", idList);
+        q.executeUpdate();
+    }
+
     /**
      * Searches audit logs by criteria.
      * 
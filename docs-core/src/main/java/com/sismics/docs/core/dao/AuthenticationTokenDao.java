@@ -1,6 +1,7 @@
 package com.sismics.docs.core.dao;
 
 import com.sismics.docs.core.model.jpa.AuthenticationToken;
+import com.sismics.docs.core.util.authentication.PrincipalCache;
 import com.sismics.util.context.ThreadLocalContext;
 import org.joda.time.DateTime;
 
@@ -8,6 +9,7 @@ import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -54,6 +56,7 @@ public class AuthenticationTokenDao {
         AuthenticationToken authenticationToken = em.find(AuthenticationToken.class, authenticationTokenId);
         if (authenticationToken != null) {
             em.remove(authenticationToken);
+            PrincipalCache.invalidateToken(authenticationTokenId);
         } else {
             throw new Exception("Token not found: " + authenticationTokenId);
         }
@@ -76,6 +79,7 @@ public class AuthenticationTokenDao {
         q.setParameter("longLasted", false);
         q.setParameter("minDate", DateTime.now().minusDays(1).toDate());
         q.executeUpdate();
+        PrincipalCache.invalidateUser(userId);
     }
 
     /**
@@ -95,6 +99,49 @@ public class AuthenticationTokenDao {
         q.setParameter("id", id);
         q.executeUpdate();
     }
+
+    /**
+     * Updates the last connection date of several tokens.
+     *
+     * @param connectionMap Last connection dates by token ID
+     */
+    public void updateLastConnectionDate(Map<String, Date> connectionMap) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("update T_AUTHENTICATION_TOKEN set AUT_LASTCONNECTIONDATE_D = :currentDate where AUT_ID_C = :id");
+        for (Map.Entry<String, Date> entry : connectionMap.entrySet()) {
+            q.setParameter("currentDate", entry.getValue());
+            q.setParameter("id", entry.getKey());
+            q.executeUpdate();
+        }
+    }
+
+    /**
+     * Deletes the expired tokens.
+     *
+     * @param sessionLifetime Lifetime of the session tokens in seconds, since last connection
+     * @param longLifetime Lifetime of the long lasted tokens in seconds, since login
+     * @return Number of deleted tokens
+     */
+    public int deleteExpired(int sessionLifetime, int longLifetime) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createQuery("select a.id from AuthenticationToken a where (a.longLasted = false and coalesce(a.lastConnectionDate, a.creationDate) < :sessionMinDate)"
+                + " or (a.longLasted = true and a.creationDate < :longMinDate)");
+        q.setParameter("sessionMinDate", DateTime.now().minusSeconds(sessionLifetime).toDate());
+        q.setParameter("longMinDate", DateTime.now().minusSeconds(longLifetime).toDate());
+        @SuppressWarnings("unchecked")
+        List<String> idList = q.getResultList();
+        if (idList.isEmpty()) {
+            return 0;
+        }
+
+        q = em.createQuery("delete AuthenticationToken a where a.id in (:idList)");
+        q.setParameter("idList", idList);
+        q.executeUpdate();
+        for (String id : idList) {
+            PrincipalCache.invalidateToken(id);
+        }
+        return idList.size();
+    }
     
     /**
      * Returns all authentication tokens of an user.
@@ -112,14 +159,27 @@ public class AuthenticationTokenDao {
     
     /**
      * Deletes all authentication tokens of an user.
+     *
+     * @param userId User ID
+     */
+    public void deleteByUserId(String userId) {
+        deleteByUserId(userId, null);
+    }
+
+    /**
+     * Deletes all authentication tokens of an user, except one.
      * 
      * @param userId
+     * @param id Token ID to keep, null to delete all tokens
      */
     public void deleteByUserId(String userId, String id) {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
-        Query q = em.createQuery("delete AuthenticationToken a where a.userId = :userId and a.id != :id");
+        Query q = em.createQuery("delete AuthenticationToken a where a.userId = :userId" + (id == null ? "" : " and a.id != :id"));
         q.setParameter("userId", userId);
-        q.setParameter("id", id);
+        if (id != null) {
+            q.setParameter("id", id);
+        }
         q.executeUpdate();
+        PrincipalCache.invalidateUser(userId);
     }
 }
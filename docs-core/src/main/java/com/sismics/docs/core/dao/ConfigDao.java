@@ -2,10 +2,11 @@ package com.sismics.docs.core.dao;
 
 import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.docs.core.model.jpa.Config;
+import com.sismics.docs.core.util.jpa.DaoCache;
 import com.sismics.util.context.ThreadLocalContext;
 
 import javax.persistence.EntityManager;
-import javax.persistence.NoResultException;
+import java.util.Optional;
 
 /**
  * Configuration parameter DAO.
@@ -13,6 +14,11 @@ import javax.persistence.NoResultException;
  * @author jtremeaux
  */
 public class ConfigDao {
+    /**
+     * Cache of the configuration values, the absence of a parameter is cached too.
+     */
+    private static final DaoCache<ConfigType, Optional<Config>> cache = new DaoCache<>("config");
+
     /**
      * Gets a configuration parameter by its ID.
      * 
@@ -27,11 +33,21 @@ public class ConfigDao {
             return null;
         }
         
-        try {
-            return em.find(Config.class, id);
-        } catch (NoResultException e) {
-            return null;
-        }
+        Optional<Config> cachedConfig = cache.get(id, () -> Optional.ofNullable(em.find(Config.class, id)).map(this::copy));
+        return cachedConfig.map(this::copy).orElse(null);
+    }
+
+    /**
+     * Returns a detached copy of a configuration parameter.
+     *
+     * @param config Configuration parameter
+     * @return Copy
+     */
+    private Config copy(Config config) {
+        Config copy = new Config();
+        copy.setId(config.getId());
+        copy.setValue(config.getValue());
+        return copy;
     }
 
     /**
@@ -42,7 +58,7 @@ public class ConfigDao {
      */
     public void update(ConfigType id, String value) {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
-        Config config = getById(id);
+        Config config = em.find(Config.class, id);
         if (config == null) {
             config = new Config();
             config.setId(id);
@@ -51,5 +67,6 @@ public class ConfigDao {
         } else {
             config.setValue(value);
         }
+        cache.invalidate();
     }
 }
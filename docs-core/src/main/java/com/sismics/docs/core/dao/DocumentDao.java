@@ -45,20 +45,36 @@ public class DocumentDao {
     }
     
     /**
-     * Returns the list of all active documents.
+     * Returns a page of all active documents, ordered by ID.
      *
-     * @param offset Offset
+     * @param lastId ID of the last document of the previous page (null for the first page)
      * @param limit Limit
      * @return List of documents
      */
-    public List<Document> findAll(int offset, int limit) {
+    public List<Document> findAll(String lastId, int limit) {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
-        TypedQuery<Document> q = em.createQuery("select d from Document d where d.deleteDate is null", Document.class);
-        q.setFirstResult(offset);
+        TypedQuery<Document> q = em.createQuery("select d from Document d where d.deleteDate is null" +
+                (lastId == null ? "" : " and d.id > :lastId") + " order by d.id", Document.class);
+        if (lastId != null) {
+            q.setParameter("lastId", lastId);
+        }
         q.setMaxResults(limit);
         return q.getResultList();
     }
 
+    /**
+     * Returns the IDs of the documents updated or deleted since a date.
+     *
+     * @param date Date
+     * @return List of document IDs
+     */
+    public List<String> findIdsModifiedSince(Date date) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<String> q = em.createQuery("select d.id from Document d where d.updateDate >= :date or d.deleteDate >= :date", String.class);
+        q.setParameter("date", date);
+        return q.getResultList();
+    }
+
     /**
      * Returns the list of all active documents from a user.
      * 
@@ -71,7 +87,25 @@ public class DocumentDao {
         q.setParameter("userId", userId);
         return q.getResultList();
     }
-    
+
+    /**
+     * Returns the active documents linked to a tag, including links deleted with the tag.
+     *
+     * @param tagId Tag ID
+     * @param offset Offset
+     * @param limit Limit
+     * @return List of documents
+     */
+    public List<Document> findByTagId(String tagId, int offset, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<Document> q = em.createQuery("select d from Document d where d.deleteDate is null and d.id in " +
+                "(select dt.documentId from DocumentTag dt where dt.tagId = :tagId) order by d.id", Document.class);
+        q.setParameter("tagId", tagId);
+        q.setFirstResult(offset);
+        q.setMaxResults(limit);
+        return q.getResultList();
+    }
+
     /**
      * Returns an active document with permission checking.
      * 
@@ -88,8 +122,7 @@ public class DocumentDao {
 
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         StringBuilder sb = new StringBuilder("select distinct d.DOC_ID_C, d.DOC_TITLE_C, d.DOC_DESCRIPTION_C, d.DOC_SUBJECT_C, d.DOC_IDENTIFIER_C, d.DOC_PUBLISHER_C, d.DOC_FORMAT_C, d.DOC_SOURCE_C, d.DOC_TYPE_C, d.DOC_COVERAGE_C, d.DOC_RIGHTS_C, d.DOC_CREATEDATE_D, d.DOC_UPDATEDATE_D, d.DOC_LANGUAGE_C, ");
-        sb.append(" (select count(s.SHA_ID_C) from T_SHARE s, T_ACL ac where ac.ACL_SOURCEID_C = d.DOC_ID_C and ac.ACL_TARGETID_C = s.SHA_ID_C and ac.ACL_DELETEDATE_D is null and s.SHA_DELETEDATE_D is null) shareCount, ");
-        sb.append(" (select count(f.FIL_ID_C) from T_FILE f where f.FIL_DELETEDATE_D is null and f.FIL_IDDOC_C = d.DOC_ID_C) fileCount, ");
+        sb.append(" d.DOC_SHARECOUNT_N, d.DOC_FILECOUNT_N, ");
         sb.append(" u.USE_USERNAME_C ");
         sb.append(" from T_DOCUMENT d ");
         sb.append(" join T_USER u on d.DOC_IDUSER_C = u.USE_ID_C ");
@@ -155,6 +188,7 @@ public class DocumentDao {
         q.setParameter("documentId", id);
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        new DocumentPermissionDao().update(id);
         
         q = em.createQuery("update DocumentTag dt set dt.deleteDate = :dateNow where dt.documentId = :documentId and dt.deleteDate is not null");
         q.setParameter("documentId", id);
@@ -165,6 +199,9 @@ public class DocumentDao {
         q.setParameter("documentId", id);
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+
+        // Detach the entities updated in bulk
+        ThreadLocalContext.get().clearEntityManager();
         
         // Create audit log
         AuditLogUtil.create(documentDb, AuditLogType.DELETE, userId);
@@ -236,6 +273,7 @@ public class DocumentDao {
         query.setParameter("fileId", document.getFileId());
         query.setParameter("id", document.getId());
         query.executeUpdate();
+        ThreadLocalContext.get().clearEntityManager();
     }
 
     /**
@@ -248,4 +286,55 @@ public class DocumentDao {
         Query query = em.createNativeQuery("select count(d.DOC_ID_C) from T_DOCUMENT d where d.DOC_DELETEDATE_D is null");
         return ((Number) query.getSingleResult()).longValue();
     }
+
+    /**
+     * Update the number of shares of a document.
+     * Does nothing if the ID is not a document.
+     *
+     * @param id Document ID
+     */
+    public void updateShareCount(String id) {
+        executeUpdate("update T_DOCUMENT set DOC_SHARECOUNT_N = (select count(s.SHA_ID_C) from T_SHARE s, T_ACL ac " +
+                " where ac.ACL_SOURCEID_C = :id and ac.ACL_TARGETID_C = s.SHA_ID_C and ac.ACL_DELETEDATE_D is null and s.SHA_DELETEDATE_D is null) " +
+                " where DOC_ID_C = :id", id);
+    }
+
+    /**
+     * Update the number of files of a document, all versions included.
+     *
+     * @param id Document ID
+     */
+    public void updateFileCount(String id) {
+        executeUpdate("update T_DOCUMENT set DOC_FILECOUNT_N = (select count(f.FIL_ID_C) from T_FILE f " +
+                " where f.FIL_IDDOC_C = :id and f.FIL_DELETEDATE_D is null) " +
+                " where DOC_ID_C = :id", id);
+    }
+
+    /**
+     * Update the current route step of a document: the first step not ended of its active route.
+     *
+     * @param id Document ID
+     */
+    public void updateCurrentStep(String id) {
+        executeUpdate("update T_DOCUMENT set DOC_IDCURRENTSTEP_C = (select rs.RTP_ID_C from T_ROUTE_STEP rs " +
+                " join T_ROUTE r on r.RTE_ID_C = rs.RTP_IDROUTE_C and r.RTE_DELETEDATE_D is null " +
+                " where r.RTE_IDDOCUMENT_C = :id and rs.RTP_DELETEDATE_D is null and rs.RTP_ENDDATE_D is null " +
+                " order by rs.RTP_ORDER_N asc limit 1) " +
+                " where DOC_ID_C = :id", id);
+    }
+
+    /**
+     * Execute an update of the computed columns of a document.
+     * These columns are not mapped on the entity, so that they are never overwritten by an entity update.
+     *
+     * @param query Native query
+     * @param id Document ID
+     */
+    private void executeUpdate(String query, String id) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        em.flush();
+        em.createNativeQuery(query)
+                .setParameter("id", id)
+                .executeUpdate();
+    }
 }
@@ -0,0 +1,114 @@
+package com.sismics.docs.core.dao;
+
+import com.sismics.util.context.ThreadLocalContext;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Effective permissions on documents DAO.
+ * The effective permissions are the ACLs of the documents and the ACLs inherited from their tags,
+ * they are computed again on every change of these ACLs or tag links.
+ */
+public class DocumentPermissionDao {
+    /**
+     * Version of the effective permissions, incremented on each change and after its commit.
+     */
+    private static final AtomicLong version = new AtomicLong();
+
+    /**
+     * Returns the version of the effective permissions.
+     * A result computed with a previous version may show outdated permissions.
+     *
+     * @return Version
+     */
+    public static long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Update the effective permissions of a document, or of all documents linked to a tag.
+     *
+     * @param sourceId Document or tag ID
+     */
+    public void update(String sourceId) {
+        String documentIdQuery = "select d.DOC_ID_C from T_DOCUMENT d where d.DOC_ID_C = :sourceId " +
+                " union select dt.DOT_IDDOCUMENT_C from T_DOCUMENT_TAG dt where dt.DOT_IDTAG_C = :sourceId";
+        update(" in (" + documentIdQuery + ")", sourceId);
+    }
+
+    /**
+     * Delete the effective permissions given to a target.
+     * All ACLs of the target must have been deleted.
+     *
+     * @param targetId Target ID
+     */
+    public void deleteByTargetId(String targetId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        em.flush();
+        em.createNativeQuery("delete from T_DOCUMENT_PERMISSION where DPE_IDTARGET_C = :targetId")
+                .setParameter("targetId", targetId)
+                .executeUpdate();
+        incrementVersion();
+    }
+
+    /**
+     * Compute again the effective permissions of all documents.
+     */
+    public void rebuild() {
+        update(null, null);
+    }
+
+    /**
+     * Compute again the effective permissions of some documents.
+     *
+     * @param documentIdFilter Filter on the document IDs (null for all documents)
+     * @param sourceId Source ID parameter of the filter
+     */
+    private void update(String documentIdFilter, String sourceId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        em.flush();
+
+        StringBuilder sb = new StringBuilder("delete from T_DOCUMENT_PERMISSION ");
+        if (documentIdFilter != null) {
+            sb.append(" where DPE_IDDOCUMENT_C ").append(documentIdFilter);
+        }
+        executeUpdate(em, sb.toString(), sourceId);
+
+        sb = new StringBuilder("insert into T_DOCUMENT_PERMISSION (DPE_IDDOCUMENT_C, DPE_IDTARGET_C, DPE_PERM_C) ");
+        sb.append(" select a.ACL_SOURCEID_C, a.ACL_TARGETID_C, a.ACL_PERM_C from T_ACL a ");
+        sb.append(" join T_DOCUMENT d on d.DOC_ID_C = a.ACL_SOURCEID_C and d.DOC_DELETEDATE_D is null ");
+        sb.append(" where a.ACL_DELETEDATE_D is null ");
+        if (documentIdFilter != null) {
+            sb.append(" and a.ACL_SOURCEID_C ").append(documentIdFilter);
+        }
+        sb.append(" union ");
+        sb.append(" select dt.DOT_IDDOCUMENT_C, a.ACL_TARGETID_C, a.ACL_PERM_C from T_DOCUMENT_TAG dt ");
+        sb.append(" join T_DOCUMENT d on d.DOC_ID_C = dt.DOT_IDDOCUMENT_C and d.DOC_DELETEDATE_D is null ");
+        sb.append(" join T_ACL a on a.ACL_SOURCEID_C = dt.DOT_IDTAG_C and a.ACL_DELETEDATE_D is null ");
+        sb.append(" where dt.DOT_DELETEDATE_D is null ");
+        if (documentIdFilter != null) {
+            sb.append(" and dt.DOT_IDDOCUMENT_C ").append(documentIdFilter);
+        }
+        executeUpdate(em, sb.toString(), sourceId);
+        incrementVersion();
+    }
+
+    /**
+     * Increment the version at once and after the transaction commit.
+     * Another request may have read the previous permissions in the meantime.
+     */
+    private static void incrementVersion() {
+        version.incrementAndGet();
+        ThreadLocalContext.get().addCommitInvalidation(version::incrementAndGet);
+    }
+
+    private void executeUpdate(EntityManager em, String query, String sourceId) {
+        Query q = em.createNativeQuery(query);
+        if (sourceId != null) {
+            q.setParameter("sourceId", sourceId);
+        }
+        q.executeUpdate();
+    }
+}
@@ -0,0 +1,118 @@
+package com.sismics.docs.core.dao;
+
+import com.sismics.docs.core.dao.dto.FileBlobDto;
+import com.sismics.util.context.ThreadLocalContext;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Deduplicated blob DAO.
+ * A blob is referenced by the active files sharing its content, it is deleted with the last of them.
+ */
+public class FileBlobDao {
+    /**
+     * Creates a new blob referenced by one file.
+     *
+     * @param hash SHA-256 of the unencrypted content
+     * @param key Key of the blob, wrapped with a key derived from the content
+     * @return New blob ID
+     */
+    public String create(String hash, String key) {
+        String id = UUID.randomUUID().toString();
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        em.createNativeQuery("insert into T_FILE_BLOB (FBL_ID_C, FBL_HASH_C, FBL_KEY_C, FBL_REFCOUNT_N, FBL_CREATEDATE_D) " +
+                        " values (:id, :hash, :key, 1, :createDate)")
+                .setParameter("id", id)
+                .setParameter("hash", hash)
+                .setParameter("key", key)
+                .setParameter("createDate", new Date())
+                .executeUpdate();
+        return id;
+    }
+
+    /**
+     * Returns the blobs with some content.
+     *
+     * @param hash SHA-256 of the unencrypted content
+     * @return List of blobs
+     */
+    @SuppressWarnings("unchecked")
+    public List<FileBlobDto> findByHash(String hash) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select b.FBL_ID_C, b.FBL_HASH_C, b.FBL_KEY_C, b.FBL_REFCOUNT_N from T_FILE_BLOB b " +
+                " where b.FBL_HASH_C = :hash and b.FBL_REFCOUNT_N > 0");
+        q.setParameter("hash", hash);
+        List<Object[]> resultList = q.getResultList();
+        List<FileBlobDto> blobDtoList = new ArrayList<>();
+        for (Object[] o : resultList) {
+            int i = 0;
+            blobDtoList.add(new FileBlobDto()
+                    .setId((String) o[i++])
+                    .setHash((String) o[i++])
+                    .setKey((String) o[i++])
+                    .setRefCount(((Number) o[i]).longValue()));
+        }
+        return blobDtoList;
+    }
+
+    /**
+     * Add a reference to a blob.
+     *
+     * @param id Blob ID
+     * @return True if the blob still exists and is now referenced once more
+     */
+    public boolean acquire(String id) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        return em.createNativeQuery("update T_FILE_BLOB set FBL_REFCOUNT_N = FBL_REFCOUNT_N + 1 " +
+                        " where FBL_ID_C = :id and FBL_REFCOUNT_N > 0")
+                .setParameter("id", id)
+                .executeUpdate() == 1;
+    }
+
+    /**
+     * Remove a reference to a blob, and delete the blob if it is not referenced anymore.
+     *
+     * @param id Blob ID
+     * @return True if the blob has been deleted
+     */
+    public boolean release(String id) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        em.createNativeQuery("update T_FILE_BLOB set FBL_REFCOUNT_N = FBL_REFCOUNT_N - 1 where FBL_ID_C = :id")
+                .setParameter("id", id)
+                .executeUpdate();
+        return em.createNativeQuery("delete from T_FILE_BLOB where FBL_ID_C = :id and FBL_REFCOUNT_N <= 0")
+                .setParameter("id", id)
+                .executeUpdate() == 1;
+    }
+
+    /**
+     * Count again the references of all blobs from the active files, and delete the blobs not referenced anymore.
+     *
+     * @return Number of blobs deleted
+     */
+    public int rebuildReferenceCounts() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        em.flush();
+        em.createNativeQuery("update T_FILE_BLOB set FBL_REFCOUNT_N = (select count(f.FIL_ID_C) from T_FILE f " +
+                        " where f.FIL_IDBLOB_C = FBL_ID_C and f.FIL_DELETEDATE_D is null)")
+                .executeUpdate();
+        return em.createNativeQuery("delete from T_FILE_BLOB where FBL_REFCOUNT_N <= 0")
+                .executeUpdate();
+    }
+
+    /**
+     * Returns the IDs of all blobs.
+     *
+     * @return List of blob IDs
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> findAllIds() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        return em.createNativeQuery("select b.FBL_ID_C from T_FILE_BLOB b").getResultList();
+    }
+}
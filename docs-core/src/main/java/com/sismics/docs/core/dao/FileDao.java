@@ -7,10 +7,12 @@ import com.sismics.util.context.ThreadLocalContext;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
+import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 
 /**
@@ -34,6 +36,9 @@ public class FileDao {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         file.setCreateDate(new Date());
         em.persist(file);
+        if (file.getDocumentId() != null) {
+            new DocumentDao().updateFileCount(file.getDocumentId());
+        }
         
         // Create audit log
         AuditLogUtil.create(file, AuditLogType.CREATE, userId);
@@ -56,6 +61,48 @@ public class FileDao {
         return q.getResultList();
     }
     
+    /**
+     * Returns a page of all active files, ordered by ID.
+     *
+     * @param lastId ID of the last file of the previous page (null for the first page)
+     * @param limit Limit
+     * @return List of files
+     */
+    public List<File> findAll(String lastId, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<File> q = em.createQuery("select f from File f where f.deleteDate is null" +
+                (lastId == null ? "" : " and f.id > :lastId") + " order by f.id", File.class);
+        if (lastId != null) {
+            q.setParameter("lastId", lastId);
+        }
+        q.setMaxResults(limit);
+        return q.getResultList();
+    }
+
+    /**
+     * Returns the IDs of the files created or deleted since a date.
+     *
+     * @param date Date
+     * @return List of file IDs
+     */
+    public List<String> findIdsModifiedSince(Date date) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<String> q = em.createQuery("select f.id from File f where f.createDate >= :date or f.deleteDate >= :date", String.class);
+        q.setParameter("date", date);
+        return q.getResultList();
+    }
+
+    /**
+     * Returns the number of active files.
+     *
+     * @return Number of files
+     */
+    public long getFileCount() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query query = em.createNativeQuery("select count(f.FIL_ID_C) from T_FILE f where f.FIL_DELETEDATE_D is null");
+        return ((Number) query.getSingleResult()).longValue();
+    }
+
     /**
      * Returns the list of all files from a user.
      * 
@@ -69,6 +116,24 @@ public class FileDao {
         return q.getResultList();
     }
 
+    /**
+     * Returns the text content already extracted from an active file sharing a blob.
+     *
+     * @param blobId Blob ID
+     * @param excludedFileId ID of the file to ignore
+     * @return Text content, or null if none has been extracted yet
+     */
+    public String getContentByBlobId(String blobId, String excludedFileId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<String> q = em.createQuery("select f.content from File f where f.blobId = :blobId and f.id <> :excludedFileId " +
+                " and f.content is not null and f.deleteDate is null", String.class);
+        q.setParameter("blobId", blobId);
+        q.setParameter("excludedFileId", excludedFileId);
+        q.setMaxResults(1);
+        List<String> contentList = q.getResultList();
+        return contentList.isEmpty() ? null : contentList.get(0);
+    }
+
     /**
      * Returns a list of active files.
      *
@@ -133,6 +198,9 @@ public class FileDao {
         // Delete the file
         Date dateNow = new Date();
         fileDb.setDeleteDate(dateNow);
+        if (fileDb.getDocumentId() != null) {
+            new DocumentDao().updateFileCount(fileDb.getDocumentId());
+        }
         
         // Create audit log
         AuditLogUtil.create(fileDb, AuditLogType.DELETE, userId);
@@ -153,6 +221,7 @@ public class FileDao {
         File fileDb = q.getSingleResult();
 
         // Update the file
+        String previousDocumentId = fileDb.getDocumentId();
         fileDb.setDocumentId(file.getDocumentId());
         fileDb.setName(file.getName());
         fileDb.setContent(file.getContent());
@@ -161,6 +230,17 @@ public class FileDao {
         fileDb.setVersionId(file.getVersionId());
         fileDb.setLatestVersion(file.isLatestVersion());
 
+        // Update the file count of the documents
+        if (!Objects.equals(previousDocumentId, file.getDocumentId())) {
+            DocumentDao documentDao = new DocumentDao();
+            if (previousDocumentId != null) {
+                documentDao.updateFileCount(previousDocumentId);
+            }
+            if (file.getDocumentId() != null) {
+                documentDao.updateFileCount(file.getDocumentId());
+            }
+        }
+
         return file;
     }
 
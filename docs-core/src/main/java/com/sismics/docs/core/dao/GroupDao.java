@@ -7,6 +7,8 @@ import com.sismics.docs.core.dao.dto.GroupDto;
 import com.sismics.docs.core.model.jpa.Group;
 import com.sismics.docs.core.model.jpa.UserGroup;
 import com.sismics.docs.core.util.AuditLogUtil;
+import com.sismics.docs.core.util.authentication.PrincipalCache;
+import com.sismics.docs.core.util.jpa.DaoCache;
 import com.sismics.docs.core.util.jpa.QueryParam;
 import com.sismics.docs.core.util.jpa.QueryUtil;
 import com.sismics.docs.core.util.jpa.SortCriteria;
@@ -23,6 +25,16 @@ import java.util.*;
  * @author bgamard
  */
 public class GroupDao {
+    /**
+     * Cache of the group hierarchy, it has a single entry.
+     */
+    private static final DaoCache<String, GroupGraph> cache = new DaoCache<>("group");
+
+    /**
+     * Key of the group hierarchy in the cache.
+     */
+    private static final String GRAPH_KEY = "graph";
+
     /**
      * Returns a group by name.
      * 
@@ -71,6 +83,7 @@ public class GroupDao {
         // Create the group
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         em.persist(group);
+        cache.invalidate();
         
         // Create audit log
         AuditLogUtil.create(group, AuditLogType.CREATE, userId);
@@ -95,6 +108,8 @@ public class GroupDao {
         // Delete the group
         Date dateNow = new Date();
         groupDb.setDeleteDate(dateNow);
+        cache.invalidate();
+        PrincipalCache.invalidateAll();
         
         // Delete linked data
         q = em.createQuery("update UserGroup ug set ug.deleteDate = :dateNow where ug.groupId = :groupId and ug.deleteDate is not null");
@@ -106,11 +121,16 @@ public class GroupDao {
         q.setParameter("groupId", groupDb.getId());
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        new DocumentPermissionDao().deleteByTargetId(groupDb.getId());
+        TagDao.invalidateCache();
 
         q = em.createQuery("update Group g set g.parentId = null where g.parentId = :groupId and g.deleteDate is null");
         q.setParameter("groupId", groupDb.getId());
         q.executeUpdate();
 
+        // Detach the entities updated in bulk
+        ThreadLocalContext.get().clearEntityManager();
+
         // Create audit log
         AuditLogUtil.create(groupDb, AuditLogType.DELETE, userId);
     }
@@ -128,6 +148,7 @@ public class GroupDao {
         // Create the user group
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         em.persist(userGroup);
+        PrincipalCache.invalidateUser(userGroup.getUserId());
         
         return userGroup.getId();
     }
@@ -150,6 +171,7 @@ public class GroupDao {
         // Delete the user group
         Date dateNow = new Date();
         userGroupDb.setDeleteDate(dateNow);
+        PrincipalCache.invalidateUser(userId);
     }
     
     /**
@@ -160,13 +182,14 @@ public class GroupDao {
      * @return List of groups
      */
     public List<GroupDto> findByCriteria(GroupCriteria criteria, SortCriteria sortCriteria) {
+        if (criteria.getUserId() != null && criteria.isRecursive()) {
+            return findRecursiveByUserId(criteria.getUserId(), criteria.getSearch());
+        }
+
         Map<String, Object> parameterMap = new HashMap<>();
         List<String> criteriaList = new ArrayList<>();
         
         StringBuilder sb = new StringBuilder("select g.GRP_ID_C as c0, g.GRP_NAME_C as c1, g.GRP_IDPARENT_C as c2, gp.GRP_NAME_C as c3, g.GRP_IDROLE_C ");
-        if (criteria.getUserId() != null) {
-            sb.append(" , ug.UGP_ID_C ");
-        }
         sb.append(" from T_GROUP g ");
         sb.append(" left join T_GROUP gp on g.GRP_IDPARENT_C = gp.GRP_ID_C ");
         
@@ -176,8 +199,6 @@ public class GroupDao {
             parameterMap.put("search", "%" + criteria.getSearch() + "%");
         }
         if (criteria.getUserId() != null) {
-            // Left join and post-filtering for recursive groups
-            sb.append(criteria.isRecursive() ? " left " : "");
             sb.append(" join T_USER_GROUP ug on ug.UGP_IDGROUP_C = g.GRP_ID_C and ug.UGP_IDUSER_C = :userId and ug.UGP_DELETEDATE_D is null ");
             parameterMap.put("userId", criteria.getUserId());
         }
@@ -194,7 +215,6 @@ public class GroupDao {
         
         // Assemble results
         List<GroupDto> groupDtoList = new ArrayList<>();
-        List<GroupDto> userGroupDtoList = new ArrayList<>();
         for (Object[] o : l) {
             int i = 0;
             GroupDto groupDto = new GroupDto()
@@ -202,45 +222,104 @@ public class GroupDao {
                 .setName((String) o[i++])
                 .setParentId((String) o[i++])
                 .setParentName((String) o[i++])
-                .setRoleId((String) o[i++]);
+                .setRoleId((String) o[i]);
             groupDtoList.add(groupDto);
-            if (criteria.getUserId() != null && o[i] != null) {
-                userGroupDtoList.add(groupDto);
-            }
         }
         
-        // Post-query filtering for recursive groups
-        if (criteria.getUserId() != null && criteria.isRecursive()) {
-            Set<GroupDto> filteredGroupDtoSet = new HashSet<>();
-            for (GroupDto userGroupDto : userGroupDtoList) {
-                filteredGroupDtoSet.add(userGroupDto); // Direct group
-                findGroupParentHierarchy(filteredGroupDtoSet, groupDtoList, userGroupDto, 0); // Indirect groups
+        return groupDtoList;
+    }
+
+    /**
+     * Returns the groups of a user, directly or through their parents.
+     *
+     * @param userId User ID
+     * @param search Search on the group name (optional)
+     * @return List of groups
+     */
+    private List<GroupDto> findRecursiveByUserId(String userId, String search) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select ug.UGP_IDGROUP_C from T_USER_GROUP ug where ug.UGP_IDUSER_C = :userId and ug.UGP_DELETEDATE_D is null");
+        q.setParameter("userId", userId);
+        @SuppressWarnings("unchecked")
+        List<String> directGroupIdList = q.getResultList();
+
+        // Add the precomputed ancestors of each direct group
+        GroupGraph groupGraph = cache.get(GRAPH_KEY, this::loadGraph);
+        Set<String> groupIdSet = new HashSet<>();
+        for (String groupId : directGroupIdList) {
+            groupIdSet.addAll(groupGraph.getAncestorIdSet(groupId));
+        }
+
+        List<GroupDto> groupDtoList = new ArrayList<>();
+        for (String groupId : groupIdSet) {
+            GroupDto groupDto = groupGraph.groupMap.get(groupId);
+            if (search == null || groupDto.getName().toLowerCase().contains(search.toLowerCase())) {
+                groupDtoList.add(new GroupDto()
+                        .setId(groupDto.getId())
+                        .setName(groupDto.getName())
+                        .setParentId(groupDto.getParentId())
+                        .setParentName(groupDto.getParentName())
+                        .setRoleId(groupDto.getRoleId()));
             }
-            groupDtoList = new ArrayList<>(filteredGroupDtoSet);
         }
-        
         return groupDtoList;
     }
-    
+
     /**
-     * Recursively search group's parents.
-     * 
-     * @param parentGroupDtoSet Resulting parents
-     * @param groupDtoList All groups
-     * @param userGroupDto Reference group to search from
-     * @param depth Depth
+     * Load the hierarchy of the active groups.
+     *
+     * @return Group hierarchy
      */
-    private void findGroupParentHierarchy(Set<GroupDto> parentGroupDtoSet, List<GroupDto> groupDtoList, GroupDto userGroupDto, int depth) {
-        if (userGroupDto.getParentId() == null || depth == 10) { // Max depth 10 to avoid infinite loop
-            return;
+    private GroupGraph loadGraph() {
+        Map<String, GroupDto> groupMap = new HashMap<>();
+        for (GroupDto groupDto : findByCriteria(new GroupCriteria(), null)) {
+            groupMap.put(groupDto.getId(), groupDto);
         }
-        
-        for (GroupDto groupDto : groupDtoList) {
-            if (groupDto.getId().equals(userGroupDto.getParentId())) {
-                parentGroupDtoSet.add(groupDto); // Add parent
-                findGroupParentHierarchy(parentGroupDtoSet, groupDtoList, groupDto, depth + 1); // Find parent's parents
+        return new GroupGraph(groupMap);
+    }
+
+    /**
+     * Hierarchy of the active groups, with the ancestors of each group.
+     */
+    private static class GroupGraph {
+        /**
+         * Groups by ID.
+         */
+        private final Map<String, GroupDto> groupMap;
+
+        /**
+         * Ancestors of each group by ID, including the group itself.
+         */
+        private final Map<String, Set<String>> ancestorMap = new HashMap<>();
+
+        /**
+         * Build the hierarchy and compute the ancestors of all groups.
+         *
+         * @param groupMap Groups by ID
+         */
+        private GroupGraph(Map<String, GroupDto> groupMap) {
+            this.groupMap = groupMap;
+            for (String groupId : groupMap.keySet()) {
+                // Walk up the active parents, a cycle stops when it comes back to a group already added
+                Set<String> ancestorSet = new HashSet<>();
+                String ancestorId = groupId;
+                while (ancestorId != null && groupMap.containsKey(ancestorId) && ancestorSet.add(ancestorId)) {
+                    ancestorId = groupMap.get(ancestorId).getParentId();
+                }
+                ancestorMap.put(groupId, Collections.unmodifiableSet(ancestorSet));
             }
         }
+
+        /**
+         * Returns the ancestors of a group.
+         *
+         * @param groupId Group ID
+         * @return Ancestors of the group, including itself (empty if the group is not active)
+         */
+        private Set<String> getAncestorIdSet(String groupId) {
+            Set<String> ancestorSet = ancestorMap.get(groupId);
+            return ancestorSet == null ? Collections.emptySet() : ancestorSet;
+        }
     }
     
     /**
@@ -261,6 +340,8 @@ public class GroupDao {
         // Update the group
         groupDb.setName(group.getName());
         groupDb.setParentId(group.getParentId());
+        cache.invalidate();
+        PrincipalCache.invalidateAll();
         
         // Create audit log
         AuditLogUtil.create(groupDb, AuditLogType.UPDATE, userId);
@@ -7,6 +7,7 @@ import com.sismics.docs.core.dao.criteria.MetadataCriteria;
 import com.sismics.docs.core.dao.dto.MetadataDto;
 import com.sismics.docs.core.model.jpa.Metadata;
 import com.sismics.docs.core.util.AuditLogUtil;
+import com.sismics.docs.core.util.jpa.DaoCache;
 import com.sismics.docs.core.util.jpa.QueryParam;
 import com.sismics.docs.core.util.jpa.QueryUtil;
 import com.sismics.docs.core.util.jpa.SortCriteria;
@@ -23,6 +24,11 @@ import java.util.*;
  * @author bgamard
  */
 public class MetadataDao {
+    /**
+     * Cache of the list of all metadata by sort.
+     */
+    private static final DaoCache<List<Object>, List<MetadataDto>> cache = new DaoCache<>("metadata");
+
     /**
      * Creates a new metdata.
      *
@@ -37,6 +43,7 @@ public class MetadataDao {
         // Create the metadata
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         em.persist(metadata);
+        cache.invalidate();
 
         // Create audit log
         AuditLogUtil.create(metadata, AuditLogType.CREATE, userId);
@@ -61,6 +68,7 @@ public class MetadataDao {
 
         // Update the metadata
         metadataDb.setName(metadata.getName());
+        cache.invalidate();
 
         // Create audit log
         AuditLogUtil.create(metadataDb, AuditLogType.UPDATE, userId);
@@ -102,6 +110,7 @@ public class MetadataDao {
         // Delete the metadata
         Date dateNow = new Date();
         metadataDb.setDeleteDate(dateNow);
+        cache.invalidate();
 
         // Create audit log
         AuditLogUtil.create(metadataDb, AuditLogType.DELETE, userId);
@@ -115,6 +124,18 @@ public class MetadataDao {
      * @return List of metadata
      */
     public List<MetadataDto> findByCriteria(MetadataCriteria criteria, SortCriteria sortCriteria) {
+        // The criteria have no field, all metadata are returned
+        List<Object> key = sortCriteria == null ? Collections.emptyList() : Arrays.asList(sortCriteria.getColumn(), sortCriteria.isAsc());
+        return new ArrayList<>(cache.get(key, () -> Collections.unmodifiableList(load(sortCriteria))));
+    }
+
+    /**
+     * Load the list of all metadata from the database.
+     *
+     * @param sortCriteria Sort criteria
+     * @return List of metadata
+     */
+    private List<MetadataDto> load(SortCriteria sortCriteria) {
         Map<String, Object> parameterMap = new HashMap<>();
         List<String> criteriaList = new ArrayList<>();
 
@@ -1,6 +1,9 @@
 package com.sismics.docs.core.dao;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Sets;
+import com.sismics.docs.core.util.jpa.DaoCache;
 import com.sismics.util.context.ThreadLocalContext;
 
 import javax.persistence.EntityManager;
@@ -13,14 +16,30 @@ import java.util.Set;
  * @author jtremeaux
  */
 public class RoleBaseFunctionDao {
+    /**
+     * Cache of the base functions by set of roles.
+     * The roles and their base functions are only modified by database updates.
+     */
+    private static final DaoCache<Set<String>, Set<String>> cache = new DaoCache<>("role_base_function");
+
     /**
      * Find the set of base functions of a role.
      * 
      * @param roleIdSet Set of role ID
      * @return Set of base functions
      */
-    @SuppressWarnings("unchecked")
     public Set<String> findByRoleId(Set<String> roleIdSet) {
+        return Sets.newHashSet(cache.get(ImmutableSortedSet.copyOf(roleIdSet), () -> ImmutableSet.copyOf(load(roleIdSet))));
+    }
+
+    /**
+     * Load the set of base functions of a role from the database.
+     *
+     * @param roleIdSet Set of role ID
+     * @return Set of base functions
+     */
+    @SuppressWarnings("unchecked")
+    private Set<String> load(Set<String> roleIdSet) {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         StringBuilder sb = new StringBuilder("select rbf.RBF_IDBASEFUNCTION_C from T_ROLE_BASE_FUNCTION rbf, T_ROLE r");
         sb.append(" where rbf.RBF_IDROLE_C in (:roleIdSet) and rbf.RBF_DELETEDATE_D is null");
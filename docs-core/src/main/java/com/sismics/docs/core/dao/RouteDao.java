@@ -107,5 +107,7 @@ public class RouteDao {
                 .setParameter("routeId", routeId)
                 .setParameter("dateNow", new Date())
                 .executeUpdate();
+        ThreadLocalContext.get().clearEntityManager();
+        new DocumentDao().updateCurrentStep(route.getDocumentId());
     }
 }
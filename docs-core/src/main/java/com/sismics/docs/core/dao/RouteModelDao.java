@@ -7,6 +7,7 @@ import com.sismics.docs.core.dao.dto.RouteModelDto;
 import com.sismics.docs.core.model.jpa.RouteModel;
 import com.sismics.docs.core.util.AuditLogUtil;
 import com.sismics.docs.core.util.SecurityUtil;
+import com.sismics.docs.core.util.jpa.DaoCache;
 import com.sismics.docs.core.util.jpa.QueryParam;
 import com.sismics.docs.core.util.jpa.QueryUtil;
 import com.sismics.docs.core.util.jpa.SortCriteria;
@@ -17,6 +18,7 @@ import javax.persistence.NoResultException;
 import javax.persistence.Query;
 import java.sql.Timestamp;
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * Route model DAO.
@@ -24,6 +26,11 @@ import java.util.*;
  * @author bgamard
  */
 public class RouteModelDao {
+    /**
+     * Cache of the list of all route models.
+     */
+    private static final DaoCache<String, List<RouteModel>> cache = new DaoCache<>("route_model");
+
     /**
      * Creates a new route model.
      *
@@ -39,6 +46,7 @@ public class RouteModelDao {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         routeModel.setCreateDate(new Date());
         em.persist(routeModel);
+        cache.invalidate();
 
         // Create audit log
         AuditLogUtil.create(routeModel, AuditLogType.CREATE, userId);
@@ -64,6 +72,7 @@ public class RouteModelDao {
         // Update the route model
         routeModelDb.setName(routeModel.getName());
         routeModelDb.setSteps(routeModel.getSteps());
+        cache.invalidate();
 
         // Create audit log
         AuditLogUtil.create(routeModelDb, AuditLogType.UPDATE, userId);
@@ -95,9 +104,30 @@ public class RouteModelDao {
      */
     @SuppressWarnings("unchecked")
     public List<RouteModel> findAll() {
-        EntityManager em = ThreadLocalContext.get().getEntityManager();
-        Query q = em.createQuery("select r from RouteModel r where r.deleteDate is null");
-        return q.getResultList();
+        List<RouteModel> routeModelList = cache.get("all", () -> {
+            EntityManager em = ThreadLocalContext.get().getEntityManager();
+            Query q = em.createQuery("select r from RouteModel r where r.deleteDate is null");
+            List<RouteModel> routeModelDbList = q.getResultList();
+            return routeModelDbList.stream().map(this::copy).collect(Collectors.toList());
+        });
+
+        // Callers get their own detached copies
+        return routeModelList.stream().map(this::copy).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns a detached copy of a route model.
+     *
+     * @param routeModel Route model
+     * @return Copy
+     */
+    private RouteModel copy(RouteModel routeModel) {
+        return new RouteModel()
+                .setId(routeModel.getId())
+                .setName(routeModel.getName())
+                .setSteps(routeModel.getSteps())
+                .setCreateDate(routeModel.getCreateDate())
+                .setDeleteDate(routeModel.getDeleteDate());
     }
 
     /**
@@ -117,6 +147,7 @@ public class RouteModelDao {
         // Delete the route model
         Date dateNow = new Date();
         routeModelDb.setDeleteDate(dateNow);
+        cache.invalidate();
 
         // Create audit log
         AuditLogUtil.create(routeModelDb, AuditLogType.DELETE, userId);
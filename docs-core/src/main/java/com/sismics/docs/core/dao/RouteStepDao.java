@@ -6,6 +6,7 @@ import com.sismics.docs.core.constant.RouteStepTransition;
 import com.sismics.docs.core.constant.RouteStepType;
 import com.sismics.docs.core.dao.criteria.RouteStepCriteria;
 import com.sismics.docs.core.dao.dto.RouteStepDto;
+import com.sismics.docs.core.model.jpa.Route;
 import com.sismics.docs.core.model.jpa.RouteStep;
 import com.sismics.docs.core.util.jpa.QueryParam;
 import com.sismics.docs.core.util.jpa.QueryUtil;
@@ -37,6 +38,7 @@ public class RouteStepDao {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         routeStep.setCreateDate(new Date());
         em.persist(routeStep);
+        updateCurrentStep(routeStep.getRouteId());
 
         return routeStep.getId();
     }
@@ -150,5 +152,17 @@ public class RouteStepDao {
         q.setParameter("validatorUserId", validatorUserId);
         q.setParameter("id", id);
         q.executeUpdate();
+        ThreadLocalContext.get().clearEntityManager();
+        updateCurrentStep(em.find(RouteStep.class, id).getRouteId());
+    }
+
+    /**
+     * Update the current route step of the document of a route.
+     *
+     * @param routeId Route ID
+     */
+    private void updateCurrentStep(String routeId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        new DocumentDao().updateCurrentStep(em.find(Route.class, routeId).getDocumentId());
     }
 }
@@ -1,11 +1,13 @@
 package com.sismics.docs.core.dao;
 
+import com.sismics.docs.core.model.jpa.Acl;
 import com.sismics.docs.core.model.jpa.Share;
 import com.sismics.util.context.ThreadLocalContext;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -50,9 +52,19 @@ public class ShareDao {
         shareDb.setDeleteDate(dateNow);
         
         // Delete the linked ACL
+        List<Acl> aclList = new AclDao().getByTargetId(id);
         q = em.createQuery("update Acl a set a.deleteDate = :dateNow where a.targetId = :targetId");
         q.setParameter("targetId", id);
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        ThreadLocalContext.get().clearEntityManager();
+        new DocumentPermissionDao().deleteByTargetId(id);
+        TagDao.invalidateCache();
+
+        // Update the number of shares of the shared documents
+        DocumentDao documentDao = new DocumentDao();
+        for (Acl acl : aclList) {
+            documentDao.updateShareCount(acl.getSourceId());
+        }
     }
 }
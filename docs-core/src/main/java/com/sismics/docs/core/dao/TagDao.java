@@ -8,6 +8,7 @@ import com.sismics.docs.core.model.jpa.DocumentTag;
 import com.sismics.docs.core.model.jpa.Tag;
 import com.sismics.docs.core.util.AuditLogUtil;
 import com.sismics.docs.core.util.SecurityUtil;
+import com.sismics.docs.core.util.jpa.DaoCache;
 import com.sismics.docs.core.util.jpa.QueryParam;
 import com.sismics.docs.core.util.jpa.QueryUtil;
 import com.sismics.docs.core.util.jpa.SortCriteria;
@@ -24,6 +25,11 @@ import java.util.*;
  * @author bgamard
  */
 public class TagDao {
+    /**
+     * Cache of the tag lists not restricted to a document, by criteria and sort.
+     */
+    private static final DaoCache<List<Object>, List<TagDto>> cache = new DaoCache<>("tag");
+
     /**
      * Gets a tag by its ID.
      * 
@@ -79,6 +85,9 @@ public class TagDao {
                 em.persist(documentTag);
             }
         }
+
+        // The document inherits the ACLs of its tags
+        new DocumentPermissionDao().update(documentId);
     }
     
     /**
@@ -96,6 +105,7 @@ public class TagDao {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         tag.setCreateDate(new Date());
         em.persist(tag);
+        cache.invalidate();
         
         // Create audit log
         AuditLogUtil.create(tag, AuditLogType.CREATE, userId);
@@ -120,6 +130,7 @@ public class TagDao {
         // Delete the tag
         Date dateNow = new Date();
         tagDb.setDeleteDate(dateNow);
+        cache.invalidate();
 
         // Delete linked data
         q = em.createQuery("update DocumentTag dt set dt.deleteDate = :dateNow where dt.tagId = :tagId and dt.deleteDate is not null");
@@ -131,10 +142,14 @@ public class TagDao {
         q.setParameter("tagId", tagId);
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        new DocumentPermissionDao().update(tagId);
 
         q = em.createQuery("update Tag t set t.parentId = null where t.parentId = :tagId and t.deleteDate is null");
         q.setParameter("tagId", tagId);
         q.executeUpdate();
+
+        // Detach the entities updated in bulk
+        ThreadLocalContext.get().clearEntityManager();
         
         // Create audit log
         AuditLogUtil.create(tagDb, AuditLogType.DELETE, userId);
@@ -159,6 +174,7 @@ public class TagDao {
         tagDb.setName(tag.getName());
         tagDb.setColor(tag.getColor());
         tagDb.setParentId(tag.getParentId());
+        cache.invalidate();
         
         // Create audit log
         AuditLogUtil.create(tagDb, AuditLogType.UPDATE, userId);
@@ -174,6 +190,32 @@ public class TagDao {
      * @return List of groups
      */
     public List<TagDto> findByCriteria(TagCriteria criteria, SortCriteria sortCriteria) {
+        if (criteria.getDocumentId() != null) {
+            // The tags of documents change too often to be cached
+            return load(criteria, sortCriteria);
+        }
+
+        List<String> targetIdList = criteria.getTargetIdList() == null ? null : new ArrayList<>(new TreeSet<>(criteria.getTargetIdList()));
+        List<Object> key = Arrays.asList(criteria.getId(), targetIdList,
+                sortCriteria == null ? null : sortCriteria.getColumn(), sortCriteria == null ? null : sortCriteria.isAsc());
+        return new ArrayList<>(cache.get(key, () -> Collections.unmodifiableList(load(criteria, sortCriteria))));
+    }
+
+    /**
+     * Invalidate the cached tag lists, called when the ACL of tags are modified.
+     */
+    static void invalidateCache() {
+        cache.invalidate();
+    }
+
+    /**
+     * Load a list of tags from the database.
+     *
+     * @param criteria Search criteria
+     * @param sortCriteria Sort criteria
+     * @return List of tags
+     */
+    private List<TagDto> load(TagCriteria criteria, SortCriteria sortCriteria) {
         Map<String, Object> parameterMap = new HashMap<>();
         List<String> criteriaList = new ArrayList<>();
 
@@ -222,5 +264,51 @@ public class TagDao {
 
         return tagDtoList;
     }
-}
 
+    /**
+     * Returns the tags of a set of documents, sorted by name.
+     * The ACL on tags are checked in the same query for all documents.
+     *
+     * @param documentIdList Document IDs
+     * @param targetIdList Targets reading the tags (null to skip the ACL check)
+     * @return Tags by document ID, documents without tags are absent
+     */
+    public Map<String, List<TagDto>> getByDocumentIdList(Collection<String> documentIdList, List<String> targetIdList) {
+        Map<String, List<TagDto>> tagDtoMap = new HashMap<>();
+        if (documentIdList.isEmpty()) {
+            return tagDtoMap;
+        }
+
+        Map<String, Object> parameterMap = new HashMap<>();
+        StringBuilder sb = new StringBuilder("select dt.DOT_IDDOCUMENT_C, t.TAG_ID_C, t.TAG_NAME_C, t.TAG_COLOR_C, t.TAG_IDPARENT_C, u.USE_USERNAME_C ");
+        sb.append(" from T_DOCUMENT_TAG dt ");
+        sb.append(" join T_TAG t on t.TAG_ID_C = dt.DOT_IDTAG_C and t.TAG_DELETEDATE_D is null ");
+        sb.append(" join T_USER u on t.TAG_IDUSER_C = u.USE_ID_C ");
+        sb.append(" where dt.DOT_IDDOCUMENT_C in (:documentIdList) and dt.DOT_DELETEDATE_D is null ");
+        parameterMap.put("documentIdList", documentIdList);
+        if (targetIdList != null && !SecurityUtil.skipAclCheck(targetIdList)) {
+            sb.append(" and exists (select a.ACL_ID_C from T_ACL a where a.ACL_TARGETID_C in (:targetIdList) and a.ACL_SOURCEID_C = t.TAG_ID_C and a.ACL_PERM_C = 'READ' and a.ACL_DELETEDATE_D is null) ");
+            parameterMap.put("targetIdList", targetIdList);
+        }
+        sb.append(" order by t.TAG_NAME_C asc ");
+
+        // Perform the search
+        @SuppressWarnings("unchecked")
+        List<Object[]> l = QueryUtil.getNativeQuery(new QueryParam(sb.toString(), parameterMap)).getResultList();
+
+        // Assemble results
+        for (Object[] o : l) {
+            int i = 0;
+            String documentId = (String) o[i++];
+            TagDto tagDto = new TagDto()
+                    .setId((String) o[i++])
+                    .setName((String) o[i++])
+                    .setColor((String) o[i++])
+                    .setParentId((String) o[i++])
+                    .setCreator((String) o[i]);
+            tagDtoMap.computeIfAbsent(documentId, k -> new ArrayList<>()).add(tagDto);
+        }
+
+        return tagDtoMap;
+    }
+}
@@ -14,6 +14,9 @@ import com.sismics.docs.core.dao.dto.UserDto;
 import com.sismics.docs.core.model.jpa.User;
 import com.sismics.docs.core.util.AuditLogUtil;
 import com.sismics.docs.core.util.EncryptionUtil;
+import com.sismics.docs.core.util.authentication.PrincipalCache;
+import com.sismics.docs.core.util.jpa.PaginatedList;
+import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.core.util.jpa.QueryParam;
 import com.sismics.docs.core.util.jpa.QueryUtil;
 import com.sismics.docs.core.util.jpa.SortCriteria;
@@ -22,6 +25,7 @@ import com.sismics.util.context.ThreadLocalContext;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.Query;
+import javax.persistence.TypedQuery;
 import java.sql.Timestamp;
 import java.util.*;
 
@@ -114,6 +118,7 @@ public class UserDao {
         userDb.setStorageCurrent(user.getStorageCurrent());
         userDb.setTotpKey(user.getTotpKey());
         userDb.setDisableDate(user.getDisableDate());
+        PrincipalCache.invalidateUser(userDb.getId());
 
         // Create audit log
         AuditLogUtil.create(userDb, AuditLogType.UPDATE, userId);
@@ -217,6 +222,22 @@ public class UserDao {
         }
     }
     
+    /**
+     * Gets users by their IDs.
+     *
+     * @param idList User IDs
+     * @return Users, deleted ones included
+     */
+    public List<User> getByIdList(Collection<String> idList) {
+        if (idList.isEmpty()) {
+            return new ArrayList<>();
+        }
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<User> q = em.createQuery("select u from User u where u.id in :idList", User.class);
+        q.setParameter("idList", idList);
+        return q.getResultList();
+    }
+
     /**
      * Gets an active user by its username.
      * 
@@ -251,6 +272,8 @@ public class UserDao {
         // Delete the user
         Date dateNow = new Date();
         userDb.setDeleteDate(dateNow);
+        PrincipalCache.invalidateUser(userDb.getId());
+        EncryptionUtil.evictKey(userDb.getPrivateKey());
 
         // Delete linked data
         q = em.createQuery("delete from AuthenticationToken at where at.userId = :userId");
@@ -271,11 +294,16 @@ public class UserDao {
         q.setParameter("userId", userDb.getId());
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+        new DocumentPermissionDao().deleteByTargetId(userDb.getId());
+        TagDao.invalidateCache();
         
         q = em.createQuery("update Comment c set c.deleteDate = :dateNow where c.userId = :userId and c.deleteDate is null");
         q.setParameter("userId", userDb.getId());
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+
+        // Detach the entities updated in bulk
+        ThreadLocalContext.get().clearEntityManager();
         
         // Create audit log
         AuditLogUtil.create(userDb, AuditLogType.DELETE, userId);
@@ -313,6 +341,31 @@ public class UserDao {
      * @return List of users
      */
     public List<UserDto> findByCriteria(UserCriteria criteria, SortCriteria sortCriteria) {
+        QueryParam queryParam = QueryUtil.getSortedQueryParam(getQueryParam(criteria), sortCriteria);
+        @SuppressWarnings("unchecked")
+        List<Object[]> l = QueryUtil.getNativeQuery(queryParam).getResultList();
+        return assembleResults(l);
+    }
+
+    /**
+     * Searches users by criteria, one page at a time.
+     *
+     * @param paginatedList List of users (updated by side effects)
+     * @param criteria Search criteria
+     * @param sortCriteria Sort criteria
+     */
+    public void findByCriteria(PaginatedList<UserDto> paginatedList, UserCriteria criteria, SortCriteria sortCriteria) {
+        List<Object[]> l = PaginatedLists.executePaginatedQuery(paginatedList, getQueryParam(criteria), sortCriteria);
+        paginatedList.setResultList(assembleResults(l));
+    }
+
+    /**
+     * Returns the query of a search by criteria.
+     *
+     * @param criteria Search criteria
+     * @return Query parameters
+     */
+    private QueryParam getQueryParam(UserCriteria criteria) {
         Map<String, Object> parameterMap = new HashMap<>();
         List<String> criteriaList = new ArrayList<>();
         
@@ -344,12 +397,16 @@ public class UserDao {
             sb.append(Joiner.on(" and ").join(criteriaList));
         }
         
-        // Perform the search
-        QueryParam queryParam = QueryUtil.getSortedQueryParam(new QueryParam(sb.toString(), parameterMap), sortCriteria);
-        @SuppressWarnings("unchecked")
-        List<Object[]> l = QueryUtil.getNativeQuery(queryParam).getResultList();
-        
-        // Assemble results
+        return new QueryParam(sb.toString(), parameterMap);
+    }
+
+    /**
+     * Assemble the users of a search.
+     *
+     * @param l Records of the search
+     * @return List of users
+     */
+    private List<UserDto> assembleResults(List<Object[]> l) {
         List<UserDto> userDtoList = new ArrayList<>();
         for (Object[] o : l) {
             int i = 0;
@@ -1,6 +1,7 @@
 package com.sismics.docs.core.dao;
 
 import com.sismics.docs.core.model.jpa.Vocabulary;
+import com.sismics.docs.core.util.jpa.DaoCache;
 import com.sismics.util.context.ThreadLocalContext;
 
 import javax.persistence.EntityManager;
@@ -8,6 +9,7 @@ import javax.persistence.NoResultException;
 import javax.persistence.Query;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 /**
  * Vocabulary DAO.
@@ -15,6 +17,11 @@ import java.util.UUID;
  * @author bgamard
  */
 public class VocabularyDao {
+    /**
+     * Cache of the vocabulary entries by name.
+     */
+    private static final DaoCache<String, List<Vocabulary>> cache = new DaoCache<>("vocabulary");
+
     /**
      * Creates a new vocabulary entry.
      * 
@@ -28,6 +35,7 @@ public class VocabularyDao {
         // Create the comment
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         em.persist(vocabulary);
+        cache.invalidate();
         
         return vocabulary.getId();
     }
@@ -40,12 +48,33 @@ public class VocabularyDao {
      */
     @SuppressWarnings("unchecked")
     public List<Vocabulary> getByName(String name) {
-        EntityManager em = ThreadLocalContext.get().getEntityManager();
-        
-        // Get the entries
-        Query q = em.createQuery("select v from Vocabulary v where v.name = :name order by v.order");
-        q.setParameter("name", name);
-        return q.getResultList();
+        List<Vocabulary> vocabularyList = cache.get(name, () -> {
+            EntityManager em = ThreadLocalContext.get().getEntityManager();
+
+            // Get the entries
+            Query q = em.createQuery("select v from Vocabulary v where v.name = :name order by v.order");
+            q.setParameter("name", name);
+            List<Vocabulary> vocabularyDbList = q.getResultList();
+            return vocabularyDbList.stream().map(this::copy).collect(Collectors.toList());
+        });
+
+        // Callers get their own detached copies
+        return vocabularyList.stream().map(this::copy).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns a detached copy of a vocabulary entry.
+     *
+     * @param vocabulary Vocabulary entry
+     * @return Copy
+     */
+    private Vocabulary copy(Vocabulary vocabulary) {
+        Vocabulary copy = new Vocabulary();
+        copy.setId(vocabulary.getId());
+        copy.setName(vocabulary.getName());
+        copy.setValue(vocabulary.getValue());
+        copy.setOrder(vocabulary.getOrder());
+        return copy;
     }
 
     /**
@@ -80,6 +109,7 @@ public class VocabularyDao {
         vocabularyDb.setName(vocabulary.getName());
         vocabularyDb.setValue(vocabulary.getValue());
         vocabularyDb.setOrder(vocabulary.getOrder());
+        cache.invalidate();
         
         return vocabularyDb;
     }
@@ -98,5 +128,6 @@ public class VocabularyDao {
         Vocabulary vocabularyDb = (Vocabulary) q.getSingleResult();
         
         em.remove(vocabularyDb);
+        cache.invalidate();
     }
 }
@@ -0,0 +1,75 @@
+package com.sismics.docs.core.dao.dto;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Facet counts of a document search.
+ * Each map associates a value to its number of matching documents, by decreasing count.
+ */
+public class DocumentFacetsDto {
+    /**
+     * Number of documents by tag ID.
+     */
+    private Map<String, Long> tagCountMap = new LinkedHashMap<>();
+
+    /**
+     * Number of documents by MIME type of their files.
+     */
+    private Map<String, Long> mimeTypeCountMap = new LinkedHashMap<>();
+
+    /**
+     * Number of documents by language.
+     */
+    private Map<String, Long> languageCountMap = new LinkedHashMap<>();
+
+    /**
+     * Number of documents by creator ID.
+     */
+    private Map<String, Long> creatorCountMap = new LinkedHashMap<>();
+
+    /**
+     * Number of documents by creation year.
+     */
+    private Map<String, Long> yearCountMap = new LinkedHashMap<>();
+
+    public Map<String, Long> getTagCountMap() {
+        return tagCountMap;
+    }
+
+    public void setTagCountMap(Map<String, Long> tagCountMap) {
+        this.tagCountMap = tagCountMap;
+    }
+
+    public Map<String, Long> getMimeTypeCountMap() {
+        return mimeTypeCountMap;
+    }
+
+    public void setMimeTypeCountMap(Map<String, Long> mimeTypeCountMap) {
+        this.mimeTypeCountMap = mimeTypeCountMap;
+    }
+
+    public Map<String, Long> getLanguageCountMap() {
+        return languageCountMap;
+    }
+
+    public void setLanguageCountMap(Map<String, Long> languageCountMap) {
+        this.languageCountMap = languageCountMap;
+    }
+
+    public Map<String, Long> getCreatorCountMap() {
+        return creatorCountMap;
+    }
+
+    public void setCreatorCountMap(Map<String, Long> creatorCountMap) {
+        this.creatorCountMap = creatorCountMap;
+    }
+
+    public Map<String, Long> getYearCountMap() {
+        return yearCountMap;
+    }
+
+    public void setYearCountMap(Map<String, Long> yearCountMap) {
+        this.yearCountMap = yearCountMap;
+    }
+}
@@ -0,0 +1,62 @@
+package com.sismics.docs.core.dao.dto;
+
+/**
+ * Deduplicated blob DTO.
+ */
+public class FileBlobDto {
+    /**
+     * Blob ID.
+     */
+    private String id;
+
+    /**
+     * SHA-256 of the unencrypted content.
+     */
+    private String hash;
+
+    /**
+     * Key of the blob, wrapped with a key derived from the content.
+     */
+    private String key;
+
+    /**
+     * Number of files referencing the blob.
+     */
+    private long refCount;
+
+    public String getId() {
+        return id;
+    }
+
+    public FileBlobDto setId(String id) {
+        this.id = id;
+        return this;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public FileBlobDto setHash(String hash) {
+        this.hash = hash;
+        return this;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public FileBlobDto setKey(String key) {
+        this.key = key;
+        return this;
+    }
+
+    public long getRefCount() {
+        return refCount;
+    }
+
+    public FileBlobDto setRefCount(long refCount) {
+        this.refCount = refCount;
+        return this;
+    }
+}
@@ -13,6 +13,11 @@ public class FileDeletedAsyncEvent extends UserEvent {
      */
     private String fileId;
 
+    /**
+     * Deduplicated blob ID of the file.
+     */
+    private String blobId;
+
     public String getFileId() {
         return fileId;
     }
@@ -21,10 +26,19 @@ public class FileDeletedAsyncEvent extends UserEvent {
         this.fileId = fileId;
     }
 
+    public String getBlobId() {
+        return blobId;
+    }
+
+    public void setBlobId(String blobId) {
+        this.blobId = blobId;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
             .add("fileId", fileId)
+            .add("blobId", blobId)
             .toString();
     }
 }
\ No newline at end of file
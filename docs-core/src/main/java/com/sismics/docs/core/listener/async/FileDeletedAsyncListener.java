@@ -2,6 +2,7 @@ package com.sismics.docs.core.listener.async;
 
 import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.Subscribe;
+import com.sismics.docs.core.dao.FileBlobDao;
 import com.sismics.docs.core.event.FileDeletedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.util.FileUtil;
@@ -9,6 +10,8 @@ import com.sismics.docs.core.util.TransactionUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Listener on file deleted.
  * 
@@ -36,9 +39,20 @@ public class FileDeletedAsyncListener {
         // Delete the file from storage
         FileUtil.delete(event.getFileId());
 
+        AtomicBoolean blobDeleted = new AtomicBoolean();
         TransactionUtil.handle(() -> {
             // Update index
             AppContext.getInstance().getIndexingHandler().deleteDocument(event.getFileId());
+
+            // Release the deduplicated blob
+            if (event.getBlobId() != null) {
+                blobDeleted.set(new FileBlobDao().release(event.getBlobId()));
+            }
         });
+
+        // Delete the blob from storage if it was its last file
+        if (blobDeleted.get()) {
+            FileUtil.deleteBlob(event.getBlobId());
+        }
     }
 }
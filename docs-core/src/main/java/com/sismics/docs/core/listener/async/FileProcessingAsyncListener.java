@@ -10,7 +10,6 @@ import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
-import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.EncryptionUtil;
 import com.sismics.docs.core.util.FileUtil;
 import com.sismics.docs.core.util.TransactionUtil;
@@ -53,7 +52,11 @@ public class FileProcessingAsyncListener {
             log.info("File created event: " + event.toString());
         }
 
-        processFile(event, true);
+        try {
+            processFile(event, true);
+        } finally {
+            deleteUnencryptedFile(event);
+        }
     }
 
     /**
@@ -66,7 +69,24 @@ public class FileProcessingAsyncListener {
     public void on(final FileUpdatedAsyncEvent event) {
         log.info("File updated event: " + event.toString());
 
-        processFile(event, false);
+        try {
+            processFile(event, false);
+        } finally {
+            deleteUnencryptedFile(event);
+        }
+    }
+
+    /**
+     * Delete the temporary unencrypted file of an event as soon as it is processed.
+     *
+     * @param event File event
+     */
+    private void deleteUnencryptedFile(FileEvent event) {
+        try {
+            AppContext.getInstance().getFileService().deleteTemporaryFile(event.getUnencryptedFile());
+        } catch (Exception e) {
+            log.error("Unable to delete the temporary file: " + event.getUnencryptedFile(), e);
+        }
     }
 
     /**
@@ -80,6 +100,7 @@ public class FileProcessingAsyncListener {
     private void processFile(FileEvent event, boolean isFileCreated) {
         AtomicReference<File> file = new AtomicReference<>();
         AtomicReference<User> user = new AtomicReference<>();
+        AtomicReference<String> blobContent = new AtomicReference<>();
 
         // Open a first transaction to get what we need to start the processing
         TransactionUtil.handle(() -> {
@@ -93,6 +114,11 @@ public class FileProcessingAsyncListener {
             // Get the creating user from the database for its private key
             UserDao userDao = new UserDao();
             user.set(userDao.getById(file.get().getUserId()));
+
+            // A new file sharing its content with a processed file reuses its content and thumbnails
+            if (isFileCreated && file.get().getBlobId() != null) {
+                blobContent.set(new FileDao().getContentByBlobId(file.get().getBlobId(), file.get().getId()));
+            }
         });
 
         // Process the file outside of a transaction
@@ -101,7 +127,13 @@ public class FileProcessingAsyncListener {
             FileUtil.endProcessingFile(event.getFileId());
             return;
         }
-        String content = extractContent(event, user.get(), file.get());
+        String content;
+        if (blobContent.get() == null) {
+            content = extractContent(event, user.get(), file.get());
+        } else {
+            log.info("Content reused from the blob of: " + file.get());
+            content = blobContent.get();
+        }
 
         // Open a new transaction to save the file content
         TransactionUtil.handle(() -> {
@@ -146,7 +178,7 @@ public class FileProcessingAsyncListener {
 
         // Generate file variations
         try {
-            Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
+            Cipher cipher = EncryptionUtil.getEncryptionCipher(FileUtil.getPrivateKey(file, user.getPrivateKey()));
             BufferedImage image = formatHandler.generateThumbnail(event.getUnencryptedFile());
             if (image != null) {
                 // Generate thumbnails from image
@@ -155,13 +187,13 @@ public class FileProcessingAsyncListener {
                 image.flush();
 
                 // Write "web" encrypted image
-                Path outputFile = DirectoryUtil.getStorageDirectory().resolve(file.getId() + "_web");
+                Path outputFile = FileUtil.getStoredFile(file, "web");
                 try (OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(outputFile), cipher)) {
                     ImageUtil.writeJpeg(web, outputStream);
                 }
 
                 // Write "thumb" encrypted image
-                outputFile = DirectoryUtil.getStorageDirectory().resolve(file.getId() + "_thumb");
+                outputFile = FileUtil.getStoredFile(file, "thumb");
                 try (OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(outputFile), cipher)) {
                     ImageUtil.writeJpeg(thumbnail, outputStream);
                 }
@@ -8,8 +8,12 @@ import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.listener.async.*;
 import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.service.AuditLogArchiveService;
+import com.sismics.docs.core.service.AuditLogService;
 import com.sismics.docs.core.service.FileService;
 import com.sismics.docs.core.service.InboxService;
+import com.sismics.docs.core.service.SessionService;
+import com.sismics.docs.core.util.ConfigUtil;
 import com.sismics.docs.core.util.PdfUtil;
 import com.sismics.docs.core.util.indexing.IndexingHandler;
 import com.sismics.util.ClasspathScanner;
@@ -65,6 +69,21 @@ public class AppContext {
      */
     private FileService fileService;
 
+    /**
+     * Session service.
+     */
+    private SessionService sessionService;
+
+    /**
+     * Audit log service (null if the audit logs are written synchronously).
+     */
+    private AuditLogService auditLogService;
+
+    /**
+     * Audit log archive service (null if the audit logs are kept forever).
+     */
+    private AuditLogArchiveService auditLogArchiveService;
+
     /**
      * Asynchronous executors.
      */
@@ -102,6 +121,24 @@ public class AppContext {
         inboxService.startAsync();
         inboxService.awaitRunning();
 
+        // Start session service
+        sessionService = new SessionService();
+        sessionService.startAsync();
+        sessionService.awaitRunning();
+
+        // Start audit log service, idle unless the audit logs are written asynchronously
+        auditLogService = new AuditLogService();
+        auditLogService.startAsync();
+        auditLogService.awaitRunning();
+
+        // Start audit log archive service
+        long auditLogRetention = ConfigUtil.getEnvLongValue(Constants.AUDIT_LOG_RETENTION_ENV, 0);
+        if (auditLogRetention > 0) {
+            auditLogArchiveService = new AuditLogArchiveService(auditLogRetention);
+            auditLogArchiveService.startAsync();
+            auditLogArchiveService.awaitRunning();
+        }
+
         // Register fonts
         PdfUtil.registerFonts();
 
@@ -214,6 +251,18 @@ public class AppContext {
         return fileService;
     }
 
+    public SessionService getSessionService() {
+        return sessionService;
+    }
+
+    public AuditLogService getAuditLogService() {
+        return auditLogService;
+    }
+
+    public AuditLogArchiveService getAuditLogArchiveService() {
+        return auditLogArchiveService;
+    }
+
     public void shutDown() {
         for (ExecutorService executor : asyncExecutorList) {
             // Shutdown executor, don't accept any more tasks (can cause error with nested events)
@@ -238,6 +287,22 @@ public class AppContext {
             fileService.stopAsync();
         }
 
+        if (sessionService != null) {
+            sessionService.stopAsync();
+            sessionService.awaitTerminated();
+        }
+
+        if (auditLogArchiveService != null) {
+            auditLogArchiveService.stopAsync();
+            auditLogArchiveService.awaitTerminated();
+        }
+
+        if (auditLogService != null) {
+            // Stopped last to write the audit logs of the other services
+            auditLogService.stopAsync();
+            auditLogService.awaitTerminated();
+        }
+
         instance = null;
     }
 }
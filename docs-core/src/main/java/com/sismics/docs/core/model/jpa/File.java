@@ -88,6 +88,24 @@ public class File implements Loggable {
     @Column(name = "FIL_LATESTVERSION_B", nullable = false)
     private boolean latestVersion;
 
+    /**
+     * SHA-256 of the unencrypted content, in hexadecimal.
+     */
+    @Column(name = "FIL_HASH_C", length = 64)
+    private String hash;
+
+    /**
+     * Deduplicated blob ID, null if the file is stored alone.
+     */
+    @Column(name = "FIL_IDBLOB_C", length = 36)
+    private String blobId;
+
+    /**
+     * Key of the blob, wrapped with the private key of the creator.
+     */
+    @Column(name = "FIL_BLOBKEY_C", length = 100)
+    private String blobKey;
+
     /**
      * Private key to decrypt the file.
      * Not saved to database, of course.
@@ -204,6 +222,33 @@ public class File implements Loggable {
         return this;
     }
 
+    public String getHash() {
+        return hash;
+    }
+
+    public File setHash(String hash) {
+        this.hash = hash;
+        return this;
+    }
+
+    public String getBlobId() {
+        return blobId;
+    }
+
+    public File setBlobId(String blobId) {
+        this.blobId = blobId;
+        return this;
+    }
+
+    public String getBlobKey() {
+        return blobKey;
+    }
+
+    public File setBlobKey(String blobKey) {
+        this.blobKey = blobKey;
+        return this;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
@@ -0,0 +1,170 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.dao.AuditLogDao;
+import com.sismics.docs.core.model.jpa.AuditLog;
+import com.sismics.docs.core.util.ConfigUtil;
+import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.util.JsonUtil;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.json.Json;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Audit log archive service.
+ * Removes the audit logs older than the retention period from the database,
+ * after writing them to gzipped NDJSON files in the data directory.
+ */
+public class AuditLogArchiveService extends AbstractScheduledService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(AuditLogArchiveService.class);
+
+    /**
+     * Number of audit logs archived in one transaction.
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Number of days the audit logs are kept in the database.
+     */
+    private final long retention;
+
+    /**
+     * True if the audit logs are archived before being removed.
+     */
+    private final boolean archive;
+
+    /**
+     * Number of audit logs removed from the database since startup.
+     */
+    private final AtomicLong removedCount = new AtomicLong();
+
+    /**
+     * Create the service.
+     *
+     * @param retention Number of days the audit logs are kept in the database
+     */
+    public AuditLogArchiveService(long retention) {
+        this.retention = retention;
+        this.archive = ConfigUtil.getEnvBooleanValue(Constants.AUDIT_LOG_ARCHIVE_ENV, true);
+    }
+
+    @Override
+    protected void startUp() {
+        log.info("Audit log archive service starting up");
+    }
+
+    @Override
+    protected void shutDown() {
+        log.info("Audit log archive service shutting down");
+    }
+
+    @Override
+    protected void runOneIteration() {
+        try {
+            archiveAuditLogs();
+        } catch (Throwable e) {
+            log.error("Exception during audit log archive service iteration", e);
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(1, 60, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Archive and remove the audit logs older than the retention period.
+     * An audit log is removed in the transaction following its archiving,
+     * so it may be archived twice if this transaction fails.
+     */
+    public void archiveAuditLogs() throws IOException {
+        Date minDate = DateTime.now().minusDays((int) retention).toDate();
+        Path archiveFile = DirectoryUtil.getAuditLogArchiveDirectory()
+                .resolve("audit_log_" + new SimpleDateFormat("yyyyMMddHHmmss").format(new Date()) + ".ndjson.gz");
+        Writer writer = null;
+        long count = 0;
+        String previousFirstId = null;
+        try {
+            while (true) {
+                List<AuditLog> auditLogList = new ArrayList<>();
+                TransactionUtil.handle(() -> auditLogList.addAll(new AuditLogDao().findCreatedBefore(minDate, BATCH_SIZE)));
+                if (auditLogList.isEmpty()) {
+                    break;
+                }
+                if (auditLogList.get(0).getId().equals(previousFirstId)) {
+                    log.error("The previous batch of audit logs has not been removed, retrying on the next iteration");
+                    break;
+                }
+                previousFirstId = auditLogList.get(0).getId();
+
+                // Write the audit logs to the archive, one JSON object per line
+                List<String> idList = new ArrayList<>();
+                if (archive && writer == null) {
+                    writer = new BufferedWriter(new OutputStreamWriter(
+                            new GZIPOutputStream(Files.newOutputStream(archiveFile), true), StandardCharsets.UTF_8));
+                }
+                for (AuditLog auditLog : auditLogList) {
+                    if (writer != null) {
+                        writer.write(Json.createObjectBuilder()
+                                .add("id", auditLog.getId())
+                                .add("user_id", auditLog.getUserId())
+                                .add("entity_id", auditLog.getEntityId())
+                                .add("entity_class", auditLog.getEntityClass())
+                                .add("type", auditLog.getType().name())
+                                .add("message", JsonUtil.nullable(auditLog.getMessage()))
+                                .add("create_date", auditLog.getCreateDate().getTime())
+                                .build().toString());
+                        writer.write('\n');
+                    }
+                    idList.add(auditLog.getId());
+                }
+                if (writer != null) {
+                    writer.flush();
+                }
+
+                // Remove them from the database
+                TransactionUtil.handle(() -> new AuditLogDao().deleteByIdList(idList));
+                count += idList.size();
+                removedCount.addAndGet(idList.size());
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+
+        if (count > 0) {
+            log.info("Removed " + count + " audit logs older than " + retention + " days" + (archive ? ", archived to " + archiveFile : ""));
+        }
+    }
+
+    /**
+     * Returns the number of audit logs removed from the database since startup.
+     *
+     * @return Number of audit logs
+     */
+    public long getRemovedCount() {
+        return removedCount.get();
+    }
+}
@@ -0,0 +1,103 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.model.jpa.AuditLog;
+import com.sismics.docs.core.util.AuditLogUtil;
+import com.sismics.docs.core.util.ConfigUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Audit log service.
+ * Writes the audit logs of the committed transactions in batches, in asynchronous mode.
+ */
+public class AuditLogService extends AbstractScheduledService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(AuditLogService.class);
+
+    /**
+     * Maximum number of audit logs written in one transaction.
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Audit logs waiting to be written.
+     */
+    private final BlockingQueue<AuditLog> queue;
+
+    public AuditLogService() {
+        int queueSize = (int) ConfigUtil.getEnvLongValue(Constants.AUDIT_LOG_QUEUE_SIZE_ENV, Constants.DEFAULT_AUDIT_LOG_QUEUE_SIZE);
+        queue = new LinkedBlockingQueue<>(Math.max(queueSize, BATCH_SIZE));
+    }
+
+    @Override
+    protected void startUp() {
+        log.info("Audit log service starting up");
+    }
+
+    @Override
+    protected void shutDown() {
+        log.info("Audit log service shutting down");
+        writeAll();
+    }
+
+    @Override
+    protected void runOneIteration() {
+        writeAll();
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(0, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Queue audit logs, waiting for some room if the queue is full.
+     *
+     * @param auditLogList Audit logs
+     */
+    public void add(List<AuditLog> auditLogList) {
+        try {
+            for (AuditLog auditLog : auditLogList) {
+                queue.put(auditLog);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while queuing audit logs, some of them are lost", e);
+        }
+    }
+
+    /**
+     * Write all queued audit logs, one transaction per batch.
+     */
+    private void writeAll() {
+        List<AuditLog> auditLogList = new ArrayList<>();
+        while (queue.drainTo(auditLogList, BATCH_SIZE) > 0) {
+            try {
+                TransactionUtil.handle(() -> AuditLogUtil.write(auditLogList));
+            } catch (Throwable e) {
+                log.error("Error writing " + auditLogList.size() + " audit logs", e);
+            }
+            auditLogList.clear();
+        }
+    }
+
+    /**
+     * Returns the number of audit logs waiting to be written.
+     *
+     * @return Number of audit logs
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+}
@@ -10,8 +10,8 @@ import java.lang.ref.ReferenceQueue;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -29,7 +29,7 @@ public class FileService extends AbstractScheduledService {
      * Phantom references queue.
      */
     private final ReferenceQueue<Path> referenceQueue = new ReferenceQueue<>();
-    private final Set<TemporaryPathReference> referenceSet = new HashSet<>();
+    private final Map<String, TemporaryPathReference> referenceMap = new ConcurrentHashMap<>();
 
     public FileService() {
     }
@@ -59,8 +59,8 @@ public class FileService extends AbstractScheduledService {
     private void deleteTemporaryFiles() throws Exception {
         TemporaryPathReference ref;
         while ((ref = (TemporaryPathReference) referenceQueue.poll()) != null) {
-            Files.delete(Paths.get(ref.path));
-            referenceSet.remove(ref);
+            Files.deleteIfExists(Paths.get(ref.path));
+            referenceMap.remove(ref.path, ref);
         }
     }
 
@@ -81,10 +81,28 @@ public class FileService extends AbstractScheduledService {
      */
     public Path createTemporaryFile(String name) throws IOException {
         Path path = Files.createTempFile("sismics_docs", name);
-        referenceSet.add(new TemporaryPathReference(path, referenceQueue));
+        TemporaryPathReference ref = new TemporaryPathReference(path, referenceQueue);
+        referenceMap.put(ref.path, ref);
         return path;
     }
 
+    /**
+     * Delete a temporary file now, instead of waiting for it to be unreferenced.
+     * Files which are not temporary files are left untouched.
+     *
+     * @param path Temporary file
+     */
+    public void deleteTemporaryFile(Path path) throws IOException {
+        if (path == null) {
+            return;
+        }
+        TemporaryPathReference ref = referenceMap.remove(path.toAbsolutePath().toString());
+        if (ref != null) {
+            ref.clear();
+            Files.deleteIfExists(path);
+        }
+    }
+
     /**
      * Phantom reference to a temporary file.
      *
@@ -0,0 +1,175 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.dao.AuthenticationTokenDao;
+import com.sismics.docs.core.util.ConfigUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BinaryOperator;
+
+/**
+ * Session service.
+ * Accumulates the last connection dates of the authentication tokens and writes them in batches,
+ * then deletes the expired tokens.
+ */
+public class SessionService extends AbstractScheduledService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(SessionService.class);
+
+    /**
+     * Last connection dates not yet written, by token ID.
+     */
+    private final Map<String, Date> pendingConnectionMap = new ConcurrentHashMap<>();
+
+    /**
+     * Number of last connection dates written since startup.
+     */
+    private final AtomicLong flushedConnectionCount = new AtomicLong();
+
+    /**
+     * Number of expired tokens deleted since startup.
+     */
+    private final AtomicLong purgedTokenCount = new AtomicLong();
+
+    public SessionService() {
+    }
+
+    @Override
+    protected void startUp() {
+        log.info("Session service starting up");
+    }
+
+    @Override
+    protected void shutDown() {
+        log.info("Session service shutting down");
+        try {
+            flushConnections();
+        } catch (Throwable e) {
+            log.error("Error writing the last connection dates", e);
+        }
+    }
+
+    @Override
+    protected void runOneIteration() {
+        try {
+            flushConnections();
+            purgeExpiredTokens();
+        } catch (Throwable e) {
+            log.error("Exception during session service iteration", e);
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        long interval = ConfigUtil.getEnvLongValue(Constants.SESSION_FLUSH_INTERVAL_ENV, Constants.DEFAULT_SESSION_FLUSH_INTERVAL);
+        return Scheduler.newFixedDelaySchedule(interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Record a connection with an authentication token, it is written with the next batch.
+     *
+     * @param tokenId Token ID
+     */
+    public void updateLastConnectionDate(String tokenId) {
+        pendingConnectionMap.put(tokenId, new Date());
+    }
+
+    /**
+     * Returns the last connection date of a token not yet written.
+     *
+     * @param tokenId Token ID
+     * @return Last connection date, or null if none is pending
+     */
+    public Date getPendingConnectionDate(String tokenId) {
+        return pendingConnectionMap.get(tokenId);
+    }
+
+    /**
+     * Write the pending last connection dates in a single transaction.
+     * If the transaction fails, the dates are kept for the next batch.
+     */
+    public void flushConnections() {
+        if (pendingConnectionMap.isEmpty()) {
+            return;
+        }
+
+        Map<String, Date> connectionMap = new HashMap<>();
+        for (String tokenId : pendingConnectionMap.keySet()) {
+            Date date = pendingConnectionMap.remove(tokenId);
+            if (date != null) {
+                connectionMap.put(tokenId, date);
+            }
+        }
+
+        // The batch is only written if the commit succeeds, errors are logged by the transaction
+        AtomicBoolean written = new AtomicBoolean();
+        TransactionUtil.handle(() -> {
+            new AuthenticationTokenDao().updateLastConnectionDate(connectionMap);
+            TransactionUtil.commit();
+            written.set(true);
+        });
+        if (!written.get()) {
+            // Retry with the next batch, unless a newer connection has been recorded in the meantime
+            log.warn("Last connection dates not written, retrying with the next batch");
+            for (Map.Entry<String, Date> entry : connectionMap.entrySet()) {
+                pendingConnectionMap.merge(entry.getKey(), entry.getValue(), BinaryOperator.maxBy(Comparator.naturalOrder()));
+            }
+            return;
+        }
+        flushedConnectionCount.addAndGet(connectionMap.size());
+    }
+
+    /**
+     * Delete the expired authentication tokens.
+     */
+    public void purgeExpiredTokens() {
+        TransactionUtil.handle(() -> {
+            int count = new AuthenticationTokenDao().deleteExpired(
+                    Constants.AUTHENTICATION_TOKEN_SESSION_LIFETIME, Constants.AUTHENTICATION_TOKEN_LONG_LIFETIME);
+            if (count > 0) {
+                log.info("Deleted " + count + " expired authentication tokens");
+            }
+            purgedTokenCount.addAndGet(count);
+        });
+    }
+
+    /**
+     * Returns the number of last connection dates written since startup.
+     *
+     * @return Number of last connection dates
+     */
+    public long getFlushedConnectionCount() {
+        return flushedConnectionCount.get();
+    }
+
+    /**
+     * Returns the number of last connection dates not yet written.
+     *
+     * @return Number of last connection dates
+     */
+    public long getPendingConnectionCount() {
+        return pendingConnectionMap.size();
+    }
+
+    /**
+     * Returns the number of expired tokens deleted since startup.
+     *
+     * @return Number of tokens
+     */
+    public long getPurgedTokenCount() {
+        return purgedTokenCount.get();
+    }
+}
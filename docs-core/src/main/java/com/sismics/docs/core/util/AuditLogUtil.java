@@ -1,19 +1,47 @@
 package com.sismics.docs.core.util;
 
 import com.sismics.docs.core.constant.AuditLogType;
+import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.AuditLogDao;
+import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.AuditLog;
 import com.sismics.docs.core.model.jpa.Loggable;
 import com.sismics.util.context.ThreadLocalContext;
 
 import javax.persistence.EntityManager;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Audit log utilities.
+ * The audit logs of a transaction are written together: in the transaction before its commit,
+ * or by the audit log service after its commit in asynchronous mode.
  * 
  * @author bgamard
  */
 public class AuditLogUtil {
+    /**
+     * True if the audit logs are written by the audit log service after the commit.
+     * They are lost if the server stops abruptly before they are written.
+     */
+    private static volatile boolean async = "async".equals(System.getenv(Constants.AUDIT_LOG_MODE_ENV));
+
+    /**
+     * Number of audit logs written since startup.
+     */
+    private static final AtomicLong writtenCount = new AtomicLong();
+
+    /**
+     * Number of audit log batches written since startup.
+     */
+    private static final AtomicLong batchCount = new AtomicLong();
+
+    /**
+     * Total time spent writing audit log batches in nanoseconds.
+     */
+    private static final AtomicLong batchTime = new AtomicLong();
+
     /**
      * Create an audit log.
      * 
@@ -30,14 +58,99 @@ public class AuditLogUtil {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         String entityId = (String) em.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(loggable);
         
-        // Create the audit log
-        AuditLogDao auditLogDao = new AuditLogDao();
+        // Create the audit log, it is written with the others of the transaction
         AuditLog auditLog = new AuditLog();
         auditLog.setUserId(userId);
         auditLog.setEntityId(entityId);
         auditLog.setEntityClass(loggable.getClass().getSimpleName());
         auditLog.setType(type);
         auditLog.setMessage(loggable.toMessage());
-        auditLogDao.create(auditLog);
+        auditLog.setCreateDate(new Date());
+        ThreadLocalContext.get().addAuditLog(auditLog);
+    }
+
+    /**
+     * Write the audit logs of the current transaction, called before its commit.
+     */
+    public static void beforeCommit() {
+        if (async) {
+            return;
+        }
+        List<AuditLog> auditLogList = ThreadLocalContext.get().drainAuditLogs();
+        if (!auditLogList.isEmpty()) {
+            write(auditLogList);
+        }
+    }
+
+    /**
+     * Queue the audit logs of the committed transaction in asynchronous mode.
+     */
+    public static void afterCommit() {
+        if (!async) {
+            return;
+        }
+        List<AuditLog> auditLogList = ThreadLocalContext.get().drainAuditLogs();
+        if (!auditLogList.isEmpty()) {
+            AppContext.getInstance().getAuditLogService().add(auditLogList);
+        }
+    }
+
+    /**
+     * Write a batch of audit logs in the current transaction.
+     *
+     * @param auditLogList Audit logs
+     */
+    public static void write(List<AuditLog> auditLogList) {
+        long startTime = System.nanoTime();
+        new AuditLogDao().create(auditLogList);
+        batchTime.addAndGet(System.nanoTime() - startTime);
+        batchCount.incrementAndGet();
+        writtenCount.addAndGet(auditLogList.size());
+    }
+
+    /**
+     * Returns true if the audit logs are written after the commit.
+     *
+     * @return True in asynchronous mode
+     */
+    public static boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Write the audit logs after the commit or not.
+     *
+     * @param async True for the asynchronous mode
+     */
+    public static void setAsync(boolean async) {
+        AuditLogUtil.async = async;
+    }
+
+    /**
+     * Returns the number of audit logs written since startup.
+     *
+     * @return Number of audit logs
+     */
+    public static long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    /**
+     * Returns the number of audit log batches written since startup.
+     *
+     * @return Number of batches
+     */
+    public static long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * Returns the average time to write a batch of audit logs.
+     *
+     * @return Average latency in milliseconds
+     */
+    public static double getAverageBatchLatency() {
+        long count = batchCount.get();
+        return count == 0 ? 0 : batchTime.get() / 1e6 / count;
     }
 }
@@ -3,6 +3,8 @@ package com.sismics.docs.core.util;
 import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.docs.core.dao.ConfigDao;
 import com.sismics.docs.core.model.jpa.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ResourceBundle;
 
@@ -12,6 +14,11 @@ import java.util.ResourceBundle;
  * @author jtremeaux
  */
 public class ConfigUtil {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ConfigUtil.class);
+
     /**
      * Returns the textual value of a configuration parameter.
      * 
@@ -75,4 +82,40 @@ public class ConfigUtil {
         
         return Boolean.parseBoolean(value);
     }
+
+    /**
+     * Returns the long value of an environment variable.
+     *
+     * @param name Name of the environment variable
+     * @param defaultValue Value used if the variable is undefined or invalid
+     * @return Long value of the environment variable
+     */
+    public static long getEnvLongValue(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn(name + " needs to be a number. Falling back to " + defaultValue + ".");
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the boolean value of an environment variable.
+     *
+     * @param name Name of the environment variable
+     * @param defaultValue Value used if the variable is undefined
+     * @return Boolean value of the environment variable
+     */
+    public static boolean getEnvBooleanValue(String name, boolean defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
 }
@@ -0,0 +1,182 @@
+package com.sismics.docs.core.util;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read-only channel decrypting an AES/CTR encrypted file, with random access.
+ * Seeking computes the counter block of the new position, so the previous bytes are not decrypted.
+ */
+class DecryptingChannel implements SeekableByteChannel {
+    /**
+     * AES block size.
+     */
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Size of the read buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Encrypted file channel.
+     */
+    private final SeekableByteChannel channel;
+
+    /**
+     * AES key.
+     */
+    private final SecretKey key;
+
+    /**
+     * Initial counter block.
+     */
+    private final BigInteger iv;
+
+    /**
+     * Cipher decrypting from the current block.
+     */
+    private Cipher cipher;
+
+    /**
+     * Encrypted bytes read from the file.
+     */
+    private final ByteBuffer encryptedBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * Decrypted bytes not yet returned.
+     */
+    private final ByteBuffer decryptedBuffer = ByteBuffer.allocate(BUFFER_SIZE + 2 * BLOCK_SIZE);
+
+    /**
+     * True if the end of the file has been decrypted.
+     */
+    private boolean finished;
+
+    /**
+     * Position of the next byte returned.
+     */
+    private long position;
+
+    /**
+     * Create a decrypting channel, positioned at the start of the file.
+     *
+     * @param channel Encrypted file channel
+     * @param key AES key
+     * @param iv Initial counter block
+     * @throws IOException e
+     */
+    DecryptingChannel(SeekableByteChannel channel, SecretKey key, byte[] iv) throws IOException {
+        this.channel = channel;
+        this.key = key;
+        this.iv = new BigInteger(1, iv);
+        position(0);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!decryptedBuffer.hasRemaining()) {
+            fill();
+            if (!decryptedBuffer.hasRemaining()) {
+                return -1;
+            }
+        }
+
+        int length = Math.min(dst.remaining(), decryptedBuffer.remaining());
+        ByteBuffer slice = decryptedBuffer.slice();
+        slice.limit(length);
+        dst.put(slice);
+        decryptedBuffer.position(decryptedBuffer.position() + length);
+        position += length;
+        return length;
+    }
+
+    /**
+     * Decrypt the next bytes of the file.
+     *
+     * @throws IOException e
+     */
+    private void fill() throws IOException {
+        while (!decryptedBuffer.hasRemaining() && !finished) {
+            encryptedBuffer.clear();
+            int read = channel.read(encryptedBuffer);
+            encryptedBuffer.flip();
+            decryptedBuffer.clear();
+            try {
+                if (read < 0) {
+                    cipher.doFinal(encryptedBuffer, decryptedBuffer);
+                    finished = true;
+                } else {
+                    cipher.update(encryptedBuffer, decryptedBuffer);
+                }
+            } catch (Exception e) {
+                throw new IOException("Error decrypting the file", e);
+            }
+            decryptedBuffer.flip();
+        }
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        // Start decrypting at the block containing the new position
+        long block = newPosition / BLOCK_SIZE;
+        byte[] counter = new byte[BLOCK_SIZE];
+        byte[] value = iv.add(BigInteger.valueOf(block)).toByteArray();
+        int length = Math.min(value.length, BLOCK_SIZE);
+        System.arraycopy(value, value.length - length, counter, BLOCK_SIZE - length, length);
+        try {
+            cipher = EncryptionUtil.getStreamCipher();
+            cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(counter));
+        } catch (Exception e) {
+            throw new IOException("Error initializing the cipher", e);
+        }
+        channel.position(block * BLOCK_SIZE);
+        decryptedBuffer.clear().flip();
+        finished = false;
+        position = block * BLOCK_SIZE;
+
+        // Skip the start of the block
+        ByteBuffer skipBuffer = ByteBuffer.allocate((int) (newPosition - position));
+        while (skipBuffer.hasRemaining() && read(skipBuffer) >= 0) {
+            // NOP
+        }
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        // CTR doesn't change the size
+        return channel.size();
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
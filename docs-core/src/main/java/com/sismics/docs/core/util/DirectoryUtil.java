@@ -68,6 +68,33 @@ public class DirectoryUtil {
         return getDataSubDirectory("lucene");
     }
     
+    /**
+     * Returns the lucene search suggester directory.
+     *
+     * @return Lucene search suggester directory.
+     */
+    public static Path getLuceneSuggestDirectory() {
+        return getDataSubDirectory("lucene_suggest");
+    }
+
+    /**
+     * Returns the lucene shadow indexes directory, used while rebuilding the index.
+     *
+     * @return Lucene shadow indexes directory.
+     */
+    public static Path getLuceneShadowDirectory() {
+        return getDataSubDirectory("lucene_shadow");
+    }
+
+    /**
+     * Returns the directory of the archived audit logs.
+     *
+     * @return Audit log archive directory.
+     */
+    public static Path getAuditLogArchiveDirectory() {
+        return getDataSubDirectory("audit_log");
+    }
+
     /**
      * Returns the storage directory.
      * 
@@ -77,6 +104,15 @@ public class DirectoryUtil {
         return getDataSubDirectory("storage");
     }
     
+    /**
+     * Returns the directory of the deduplicated blobs.
+     *
+     * @return Blob directory.
+     */
+    public static Path getBlobDirectory() {
+        return getDataSubDirectory("blob");
+    }
+
     /**
      * Returns the log directory.
      * 
@@ -1,22 +1,39 @@
 package com.sismics.docs.core.util;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.io.BaseEncoding;
+import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.model.context.AppContext;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.jcajce.provider.symmetric.util.BCPBEKey;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
-import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.security.Key;
 import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
 import java.security.SecureRandom;
 import java.security.Security;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Encryption utilities.
@@ -24,15 +41,54 @@ import java.security.Security;
  * @author bgamard
  */
 public class EncryptionUtil {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(EncryptionUtil.class);
+
+    /**
+     * Transformation of the cipher encrypting the files.
+     */
+    private static final String STREAM_CIPHER_TRANSFORMATION = "AES/CTR/NOPADDING";
+
     /**
      * Salt.
      */
     private static final String SALT = "LEpxZmm2SMu2PeKzPNrar2rhVAS6LrrgvXKeL9uyXC4vgKHg";
+
+    /**
+     * Maximum number of cached derived keys.
+     */
+    private static final long KEY_CACHE_SIZE = 1000;
+
+    /**
+     * Keys derived from the private keys, wiped when they are evicted.
+     */
+    private static final Cache<String, DerivedKey> keyCache = CacheBuilder.newBuilder()
+            .maximumSize(KEY_CACHE_SIZE)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .removalListener((RemovalListener<String, DerivedKey>) notification -> notification.getValue().wipe())
+            .build();
+
+    /**
+     * Provider of the cipher encrypting the files, null to let the JCE choose.
+     */
+    private static final Provider streamCipherProvider;
     
     static {
         // Initialize Bouncy Castle provider
         Security.insertProviderAt(new BouncyCastleProvider(), 1);
         Security.removeProvider("SunRsaSign");
+
+        // Bouncy Castle only derives the keys, the bulk encryption uses the JDK's AES intrinsics
+        String providerName = System.getenv(Constants.CIPHER_PROVIDER_ENV);
+        if (Strings.isNullOrEmpty(providerName)) {
+            providerName = Constants.DEFAULT_CIPHER_PROVIDER;
+        }
+        streamCipherProvider = Security.getProvider(providerName.trim());
+        if (streamCipherProvider == null) {
+            log.warn("Unknown cipher provider " + providerName + ", falling back to the default provider");
+        }
     }
     
     /**
@@ -49,6 +105,104 @@ public class EncryptionUtil {
         }
     }
     
+    /**
+     * Generate the key of a deduplicated blob.
+     *
+     * @return New random key
+     */
+    public static String generateBlobKey() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return BaseEncoding.base16().lowerCase().encode(key);
+    }
+
+    /**
+     * Wrap a key with the key derived from a private key.
+     *
+     * @param key Key to wrap, its length must be a multiple of 8
+     * @param privateKey Private key
+     * @return Wrapped key
+     * @throws Exception e
+     */
+    public static String wrapKey(String key, String privateKey) throws Exception {
+        return wrapKey(key, getDerivedKey(privateKey));
+    }
+
+    /**
+     * Unwrap a key wrapped with the key derived from a private key.
+     *
+     * @param wrappedKey Wrapped key
+     * @param privateKey Private key
+     * @return Key
+     * @throws Exception e, if the private key is not the one used to wrap the key
+     */
+    public static String unwrapKey(String wrappedKey, String privateKey) throws Exception {
+        return unwrapKey(wrappedKey, getDerivedKey(privateKey));
+    }
+
+    /**
+     * Wrap a key with the key derived from a file content key.
+     * The derived key is not cached, a content key is only used by the upload of its content.
+     *
+     * @param key Key to wrap, its length must be a multiple of 8
+     * @param contentKey Content key
+     * @return Wrapped key
+     * @throws Exception e
+     */
+    public static String wrapContentKey(String key, String contentKey) throws Exception {
+        return wrapKey(key, deriveKey(contentKey));
+    }
+
+    /**
+     * Unwrap a key wrapped with the key derived from a file content key.
+     * The derived key is not cached, a content key is only used by the upload of its content.
+     *
+     * @param wrappedKey Wrapped key
+     * @param contentKey Content key
+     * @return Key
+     * @throws Exception e, if the content key is not the one used to wrap the key
+     */
+    public static String unwrapContentKey(String wrappedKey, String contentKey) throws Exception {
+        return unwrapKey(wrappedKey, deriveKey(contentKey));
+    }
+
+    /**
+     * Wrap a key with a derived key, then wipe the derived key.
+     *
+     * @param key Key to wrap, its length must be a multiple of 8
+     * @param derivedKey Derived key
+     * @return Wrapped key
+     * @throws Exception e
+     */
+    private static String wrapKey(String key, DerivedKey derivedKey) throws Exception {
+        try {
+            Cipher cipher = getKeyWrapCipher();
+            cipher.init(Cipher.WRAP_MODE, new SecretKeySpec(derivedKey.key, "AES"));
+            return BaseEncoding.base64().encode(cipher.wrap(new SecretKeySpec(key.getBytes(StandardCharsets.US_ASCII), "AES")));
+        } finally {
+            derivedKey.wipe();
+        }
+    }
+
+    /**
+     * Unwrap a key with a derived key, then wipe the derived key.
+     *
+     * @param wrappedKey Wrapped key
+     * @param derivedKey Derived key
+     * @return Key
+     * @throws Exception e, if the derived key is not the one used to wrap the key
+     */
+    private static String unwrapKey(String wrappedKey, DerivedKey derivedKey) throws Exception {
+        try {
+            Cipher cipher = getKeyWrapCipher();
+            cipher.init(Cipher.UNWRAP_MODE, new SecretKeySpec(derivedKey.key, "AES"));
+            Key key = cipher.unwrap(BaseEncoding.base64().decode(wrappedKey), "AES", Cipher.SECRET_KEY);
+            return new String(key.getEncoded(), StandardCharsets.US_ASCII);
+        } finally {
+            derivedKey.wipe();
+        }
+    }
+
     /**
      * Decrypt an InputStream using the specified private key.
      * 
@@ -61,6 +215,23 @@ public class EncryptionUtil {
         return new CipherInputStream(is, getCipher(privateKey, Cipher.DECRYPT_MODE));
     }
 
+    /**
+     * Open a file encrypted with the specified private key, for reading with random access.
+     *
+     * @param file Encrypted file
+     * @param privateKey Private key
+     * @return Decrypting channel
+     * @throws Exception e
+     */
+    public static SeekableByteChannel decryptChannel(Path file, String privateKey) throws Exception {
+        DerivedKey derivedKey = getDerivedKey(privateKey);
+        try {
+            return new DecryptingChannel(Files.newByteChannel(file), new SecretKeySpec(derivedKey.key, "AES"), derivedKey.iv);
+        } finally {
+            derivedKey.wipe();
+        }
+    }
+
     /**
      * Decrypt a file to a temporary file using the specified private key.
      *
@@ -105,11 +276,159 @@ public class EncryptionUtil {
      * @throws Exception e
      */
     private static Cipher getCipher(String privateKey, int mode) throws Exception {
+        return getCipher(privateKey, mode, streamCipherProvider);
+    }
+
+    /**
+     * Initialize a Cipher from a specific provider.
+     *
+     * @param privateKey Private key
+     * @param mode Mode (encrypt or decrypt)
+     * @param provider Provider, null to let the JCE choose
+     * @return Cipher
+     * @throws Exception e
+     */
+    static Cipher getCipher(String privateKey, int mode, Provider provider) throws Exception {
+        DerivedKey derivedKey = getDerivedKey(privateKey);
+        try {
+            Cipher cipher = getStreamCipher(provider);
+            cipher.init(mode, new SecretKeySpec(derivedKey.key, "AES"), new IvParameterSpec(derivedKey.iv));
+            return cipher;
+        } finally {
+            derivedKey.wipe();
+        }
+    }
+
+    /**
+     * Returns the key derived from a private key, from the cache if possible.
+     *
+     * @param privateKey Private key
+     * @return Copy of the derived key, to wipe after use
+     * @throws Exception e
+     */
+    private static DerivedKey getDerivedKey(String privateKey) throws Exception {
+        DerivedKey derivedKey = keyCache.get(privateKey, () -> deriveKey(privateKey)).copy();
+        if (derivedKey == null) {
+            // Evicted in the meantime
+            derivedKey = deriveKey(privateKey);
+        }
+        return derivedKey;
+    }
+
+    /**
+     * Derive the AES key and initial counter block of a private key.
+     *
+     * @param privateKey Private key
+     * @return Derived key
+     * @throws Exception e
+     */
+    private static DerivedKey deriveKey(String privateKey) throws Exception {
         PBEKeySpec keySpec = new PBEKeySpec(privateKey.toCharArray(), SALT.getBytes(), 2000, 256);
-        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBEWITHSHA256AND256BITAES-CBC-BC");
-        SecretKey desKey = skf.generateSecret(keySpec);
-        Cipher cipher = Cipher.getInstance("AES/CTR/NOPADDING");
-        cipher.init(mode, desKey);
-        return cipher;
+        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBEWITHSHA256AND256BITAES-CBC-BC", BouncyCastleProvider.PROVIDER_NAME);
+        BCPBEKey pbeKey = (BCPBEKey) skf.generateSecret(keySpec);
+        keySpec.clearPassword();
+        ParametersWithIV parameters = (ParametersWithIV) pbeKey.getParam();
+        return new DerivedKey(((KeyParameter) parameters.getParameters()).getKey(), parameters.getIV());
+    }
+
+    /**
+     * Forget the derived key of a private key, when its user is deleted.
+     *
+     * @param privateKey Private key
+     */
+    public static void evictKey(String privateKey) {
+        if (privateKey != null) {
+            keyCache.invalidate(privateKey);
+        }
+    }
+
+    /**
+     * Returns the number of cached derived keys.
+     *
+     * @return Number of keys
+     */
+    static long getKeyCacheSize() {
+        keyCache.cleanUp();
+        return keyCache.size();
+    }
+
+    /**
+     * Returns an uninitialized cipher encrypting the files.
+     *
+     * @return Cipher
+     * @throws Exception e
+     */
+    static Cipher getStreamCipher() throws Exception {
+        return getStreamCipher(streamCipherProvider);
+    }
+
+    /**
+     * Returns an uninitialized cipher encrypting the files, from a specific provider.
+     *
+     * @param provider Provider, null to let the JCE choose
+     * @return Cipher
+     * @throws Exception e
+     */
+    private static Cipher getStreamCipher(Provider provider) throws Exception {
+        if (provider == null) {
+            return Cipher.getInstance(STREAM_CIPHER_TRANSFORMATION);
+        }
+        return Cipher.getInstance(STREAM_CIPHER_TRANSFORMATION, provider);
+    }
+
+    /**
+     * Returns an uninitialized cipher wrapping the keys (RFC 3394).
+     *
+     * @return Cipher
+     * @throws Exception e
+     */
+    private static Cipher getKeyWrapCipher() throws Exception {
+        if (streamCipherProvider == null) {
+            return Cipher.getInstance("AESWrap");
+        }
+        return Cipher.getInstance("AESWrap", streamCipherProvider);
+    }
+
+    /**
+     * AES key and initial counter block derived from a private key.
+     */
+    private static class DerivedKey {
+        /**
+         * AES key.
+         */
+        private final byte[] key;
+
+        /**
+         * Initial counter block.
+         */
+        private final byte[] iv;
+
+        /**
+         * True if the key has been wiped.
+         */
+        private boolean wiped;
+
+        private DerivedKey(byte[] key, byte[] iv) {
+            this.key = key;
+            this.iv = iv;
+        }
+
+        /**
+         * Returns a copy of this key.
+         *
+         * @return Copy, or null if the key has been wiped
+         */
+        private synchronized DerivedKey copy() {
+            return wiped ? null : new DerivedKey(key.clone(), iv.clone());
+        }
+
+        /**
+         * Overwrite the key.
+         */
+        private synchronized void wipe() {
+            Arrays.fill(key, (byte) 0);
+            Arrays.fill(iv, (byte) 0);
+            wiped = true;
+        }
     }
 }
@@ -2,15 +2,20 @@ package com.sismics.docs.core.util;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
 import com.google.common.io.CharStreams;
 import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.dao.FileBlobDao;
 import com.sismics.docs.core.dao.FileDao;
 import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.dao.dto.FileBlobDto;
 import com.sismics.docs.core.event.DocumentUpdatedAsyncEvent;
 import com.sismics.docs.core.event.FileCreatedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.service.FileService;
+import com.sismics.docs.core.util.format.FormatHandlerUtil;
 import com.sismics.util.ImageDeskew;
 import com.sismics.util.Scalr;
 import com.sismics.util.context.ThreadLocalContext;
@@ -21,15 +26,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.util.*;
 
 /**
@@ -47,6 +57,21 @@ public class FileUtil {
      * File ID of files currently being processed.
      */
     private static Set<String> processingFileSet = Collections.synchronizedSet(new HashSet<>());
+
+    /**
+     * Size of the buffers used to copy the files.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Salt of the keys derived from the content of the deduplicated files.
+     */
+    private static final String CONTENT_KEY_SALT = "bKpwGGxRv3Y2vNt9vXwHm7mGdq4TfQ8N";
+
+    /**
+     * True if the new files are stored in deduplicated blobs.
+     */
+    private static volatile boolean deduplicationEnabled = ConfigUtil.getEnvBooleanValue(Constants.STORAGE_DEDUPLICATION_ENV, false);
     
     /**
      * Optical character recognition on an image.
@@ -102,7 +127,80 @@ public class FileUtil {
     }
 
     /**
-     * Create a new file.
+     * Remove a deduplicated blob from the storage filesystem.
+     *
+     * @param blobId ID of the blob to delete
+     */
+    public static void deleteBlob(String blobId) throws IOException {
+        Files.deleteIfExists(DirectoryUtil.getBlobDirectory().resolve(blobId));
+        Files.deleteIfExists(DirectoryUtil.getBlobDirectory().resolve(blobId + "_web"));
+        Files.deleteIfExists(DirectoryUtil.getBlobDirectory().resolve(blobId + "_thumb"));
+    }
+
+    /**
+     * Returns true if the new files are stored in deduplicated blobs.
+     *
+     * @return Deduplication enabled
+     */
+    public static boolean isDeduplicationEnabled() {
+        return deduplicationEnabled;
+    }
+
+    /**
+     * Store the new files in deduplicated blobs or not.
+     *
+     * @param deduplicationEnabled Deduplication enabled
+     */
+    public static void setDeduplicationEnabled(boolean deduplicationEnabled) {
+        FileUtil.deduplicationEnabled = deduplicationEnabled;
+    }
+
+    /**
+     * Returns the stored encrypted content of a file.
+     *
+     * @param file File
+     * @return Stored file
+     */
+    public static Path getStoredFile(File file) {
+        return getStoredFile(file, null);
+    }
+
+    /**
+     * Returns the stored encrypted content of a file variation.
+     *
+     * @param file File
+     * @param variation Variation (web or thumb), null for the original content
+     * @return Stored file
+     */
+    public static Path getStoredFile(File file, String variation) {
+        String suffix = variation == null ? "" : "_" + variation;
+        if (file.getBlobId() == null) {
+            return DirectoryUtil.getStorageDirectory().resolve(file.getId() + suffix);
+        }
+        return DirectoryUtil.getBlobDirectory().resolve(file.getBlobId() + suffix);
+    }
+
+    /**
+     * Returns the key encrypting the stored content of a file.
+     * Files are encrypted by the private key of their creator, or by the key of their deduplicated blob.
+     *
+     * @param file File
+     * @param privateKey Private key of the creator of the file
+     * @return Key to decrypt the stored file
+     */
+    public static String getPrivateKey(File file, String privateKey) {
+        if (file.getBlobId() == null || privateKey == null) {
+            return privateKey;
+        }
+        try {
+            return EncryptionUtil.unwrapKey(file.getBlobKey(), privateKey);
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to unwrap the key of the file " + file.getId(), e);
+        }
+    }
+
+    /**
+     * Create a new file from an unencrypted file.
      *
      * @param name File name, can be null
      * @param previousFileId ID of the previous version of the file, if the new file is a new version
@@ -115,100 +213,238 @@ public class FileUtil {
      * @throws Exception e
      */
     public static String createFile(String name, String previousFileId, Path unencryptedFile, long fileSize, String language, String userId, String documentId) throws Exception {
+        try (InputStream inputStream = Files.newInputStream(unencryptedFile)) {
+            return createFile(name, previousFileId, inputStream, unencryptedFile, fileSize, language, userId, documentId);
+        }
+    }
+
+    /**
+     * Create a new file from a stream, read only once.
+     * The MIME type is guessed from the first bytes, the size and hash are computed while encrypting the file,
+     * and the unencrypted content is kept in a temporary file only if a format handler needs it.
+     *
+     * @param name File name, can be null
+     * @param previousFileId ID of the previous version of the file, if the new file is a new version
+     * @param inputStream Unencrypted content
+     * @param minimumSize Size the file reaches at least, to check the quotas before reading it, or -1 if unknown
+     * @param language File language, can be null if associated to no document
+     * @param userId User ID creating the file
+     * @param documentId Associated document ID or null if no document
+     * @return File ID
+     * @throws Exception e
+     */
+    public static String createFile(String name, String previousFileId, InputStream inputStream, long minimumSize, String language, String userId, String documentId) throws Exception {
+        return createFile(name, previousFileId, inputStream, null, minimumSize, language, userId, documentId);
+    }
+
+    /**
+     * Create a new file.
+     *
+     * @param name File name, can be null
+     * @param previousFileId ID of the previous version of the file, if the new file is a new version
+     * @param inputStream Unencrypted content
+     * @param unencryptedFile Unencrypted file already on disk, or null to write one if needed
+     * @param minimumSize Size the file reaches at least, or -1 if unknown
+     * @param language File language, can be null if associated to no document
+     * @param userId User ID creating the file
+     * @param documentId Associated document ID or null if no document
+     * @return File ID
+     * @throws Exception e
+     */
+    private static String createFile(String name, String previousFileId, InputStream inputStream, Path unencryptedFile,
+                                     long minimumSize, String language, String userId, String documentId) throws Exception {
+        // Validate the quotas before reading anything
+        UserDao userDao = new UserDao();
+        User user = userDao.getById(userId);
+        if (minimumSize >= 0) {
+            validateQuota(userDao, user, minimumSize);
+        }
+
         // Validate mime type
+        InputStream bufferedInputStream = new BufferedInputStream(inputStream, BUFFER_SIZE);
         String mimeType;
         try {
-            mimeType = MimeTypeUtil.guessMimeType(unencryptedFile, name);
+            bufferedInputStream.mark(MimeTypeUtil.HEADER_SIZE);
+            byte[] header = bufferedInputStream.readNBytes(MimeTypeUtil.HEADER_SIZE);
+            bufferedInputStream.reset();
+            mimeType = MimeTypeUtil.guessMimeType(header, name);
         } catch (IOException e) {
             throw new IOException("ErrorGuessMime", e);
         }
 
-        // Validate user quota
-        UserDao userDao = new UserDao();
-        User user = userDao.getById(userId);
-        if (user.getStorageCurrent() + fileSize > user.getStorageQuota()) {
-            throw new IOException("QuotaReached");
+        // Keep the unencrypted content on disk only for the format handlers
+        FileService fileService = AppContext.getInstance().getFileService();
+        Path temporaryFile = null;
+        if (unencryptedFile == null && FormatHandlerUtil.find(mimeType) != null) {
+            temporaryFile = fileService.createTemporaryFile(name);
+            unencryptedFile = temporaryFile;
         }
 
-        // Validate global quota
-        String globalStorageQuotaStr = System.getenv(Constants.GLOBAL_QUOTA_ENV);
-        if (!Strings.isNullOrEmpty(globalStorageQuotaStr)) {
-            long globalStorageQuota = Long.parseLong(globalStorageQuotaStr);
-            long globalStorageCurrent = userDao.getGlobalStorageCurrent();
-            if (globalStorageCurrent + fileSize > globalStorageQuota) {
-                throw new IOException("QuotaReached");
-            }
+        // Encrypt the file to the storage, hashing it on the way
+        // A deduplicated file is encrypted with a new blob key, and its content derives the key wrapping the blob key
+        boolean deduplication = deduplicationEnabled;
+        String blobKey = deduplication ? EncryptionUtil.generateBlobKey() : null;
+        Cipher cipher = EncryptionUtil.getEncryptionCipher(deduplication ? blobKey : user.getPrivateKey());
+        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+        MessageDigest contentKeyDigest = null;
+        if (deduplication) {
+            contentKeyDigest = MessageDigest.getInstance("SHA-256");
+            contentKeyDigest.update(CONTENT_KEY_SALT.getBytes(StandardCharsets.UTF_8));
         }
+        Path uploadFile = Files.createTempFile(deduplication ?
+                DirectoryUtil.getBlobDirectory() : DirectoryUtil.getStorageDirectory(), "upload", null);
+        long fileSize = 0;
+        try {
+            try (OutputStream storageOutputStream = new CipherOutputStream(Files.newOutputStream(uploadFile), cipher);
+                 OutputStream temporaryOutputStream = temporaryFile == null ? null : Files.newOutputStream(temporaryFile)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int length;
+                while ((length = bufferedInputStream.read(buffer)) != -1) {
+                    messageDigest.update(buffer, 0, length);
+                    if (contentKeyDigest != null) {
+                        contentKeyDigest.update(buffer, 0, length);
+                    }
+                    storageOutputStream.write(buffer, 0, length);
+                    if (temporaryOutputStream != null) {
+                        temporaryOutputStream.write(buffer, 0, length);
+                    }
+                    fileSize += length;
+                }
+            } catch (IOException e) {
+                throw new IOException("StreamError", e);
+            }
+
+            // Validate the quotas with the actual size
+            validateQuota(userDao, user, fileSize);
+            String hash = BaseEncoding.base16().lowerCase().encode(messageDigest.digest());
 
-        // Prepare the file
-        File file = new File();
-        file.setOrder(0);
-        file.setVersion(0);
-        file.setLatestVersion(true);
-        file.setDocumentId(documentId);
-        file.setName(StringUtils.abbreviate(name, 200));
-        file.setMimeType(mimeType);
-        file.setUserId(userId);
-
-        // Get files of this document
-        FileDao fileDao = new FileDao();
-        if (documentId != null) {
-            if (previousFileId == null) {
-                // It's not a new version, so put it in last order
-                file.setOrder(fileDao.getByDocumentId(userId, documentId).size());
-            } else {
-                // It's a new version, update the previous version
-                File previousFile = fileDao.getActiveById(previousFileId);
-                if (previousFile == null || !previousFile.getDocumentId().equals(documentId)) {
-                    throw new IOException("Previous version mismatch");
+            // Store the content only once, sharing a blob with the same content if any
+            String blobId = null;
+            if (deduplication) {
+                String contentKey = BaseEncoding.base16().lowerCase().encode(contentKeyDigest.digest());
+                FileBlobDao fileBlobDao = new FileBlobDao();
+                for (FileBlobDto fileBlobDto : fileBlobDao.findByHash(hash)) {
+                    String existingBlobKey;
+                    try {
+                        existingBlobKey = EncryptionUtil.unwrapContentKey(fileBlobDto.getKey(), contentKey);
+                    } catch (GeneralSecurityException e) {
+                        // Another content with the same hash
+                        continue;
+                    }
+                    if (fileBlobDao.acquire(fileBlobDto.getId())) {
+                        blobId = fileBlobDto.getId();
+                        blobKey = existingBlobKey;
+                        Files.delete(uploadFile);
+                        break;
+                    }
                 }
 
-                if (previousFile.getVersionId() == null) {
-                    previousFile.setVersionId(UUID.randomUUID().toString());
+                if (blobId == null) {
+                    blobId = fileBlobDao.create(hash, EncryptionUtil.wrapContentKey(blobKey, contentKey));
+                    Files.move(uploadFile, DirectoryUtil.getBlobDirectory().resolve(blobId), StandardCopyOption.ATOMIC_MOVE);
                 }
+            }
+
+            // Prepare the file
+            File file = new File();
+            file.setOrder(0);
+            file.setVersion(0);
+            file.setLatestVersion(true);
+            file.setDocumentId(documentId);
+            file.setName(StringUtils.abbreviate(name, 200));
+            file.setMimeType(mimeType);
+            file.setUserId(userId);
+            file.setHash(hash);
+            if (blobId != null) {
+                file.setBlobId(blobId);
+                file.setBlobKey(EncryptionUtil.wrapKey(blobKey, user.getPrivateKey()));
+            }
+
+            // Get files of this document
+            FileDao fileDao = new FileDao();
+            if (documentId != null) {
+                if (previousFileId == null) {
+                    // It's not a new version, so put it in last order
+                    file.setOrder(fileDao.getByDocumentId(userId, documentId).size());
+                } else {
+                    // It's a new version, update the previous version
+                    File previousFile = fileDao.getActiveById(previousFileId);
+                    if (previousFile == null || !previousFile.getDocumentId().equals(documentId)) {
+                        throw new IOException("Previous version mismatch");
+                    }
 
-                // Copy the previous file metadata
-                file.setOrder(previousFile.getOrder());
-                file.setVersionId(previousFile.getVersionId());
-                file.setVersion(previousFile.getVersion() + 1);
+                    if (previousFile.getVersionId() == null) {
+                        previousFile.setVersionId(UUID.randomUUID().toString());
+                    }
 
-                // Update the previous file
-                previousFile.setLatestVersion(false);
-                fileDao.update(previousFile);
+                    // Copy the previous file metadata
+                    file.setOrder(previousFile.getOrder());
+                    file.setVersionId(previousFile.getVersionId());
+                    file.setVersion(previousFile.getVersion() + 1);
+
+                    // Update the previous file
+                    previousFile.setLatestVersion(false);
+                    fileDao.update(previousFile);
+                }
             }
-        }
 
-        // Create the file
-        String fileId = fileDao.create(file, userId);
+            // Create the file
+            String fileId = fileDao.create(file, userId);
+            if (blobId == null) {
+                Files.move(uploadFile, DirectoryUtil.getStorageDirectory().resolve(fileId), StandardCopyOption.ATOMIC_MOVE);
+            }
 
-        // Save the file
-        Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
-        Path path = DirectoryUtil.getStorageDirectory().resolve(file.getId());
-        try (InputStream inputStream = Files.newInputStream(unencryptedFile)) {
-            Files.copy(new CipherInputStream(inputStream, cipher), path);
-        }
+            // Update the user quota
+            user.setStorageCurrent(user.getStorageCurrent() + fileSize);
+            userDao.updateQuota(user);
 
-        // Update the user quota
-        user.setStorageCurrent(user.getStorageCurrent() + fileSize);
-        userDao.updateQuota(user);
+            // Raise a new file created event and document updated event if we have a document
+            startProcessingFile(fileId);
+            FileCreatedAsyncEvent fileCreatedAsyncEvent = new FileCreatedAsyncEvent();
+            fileCreatedAsyncEvent.setUserId(userId);
+            fileCreatedAsyncEvent.setLanguage(language);
+            fileCreatedAsyncEvent.setFileId(file.getId());
+            fileCreatedAsyncEvent.setUnencryptedFile(unencryptedFile);
+            ThreadLocalContext.get().addAsyncEvent(fileCreatedAsyncEvent);
 
-        // Raise a new file created event and document updated event if we have a document
-        startProcessingFile(fileId);
-        FileCreatedAsyncEvent fileCreatedAsyncEvent = new FileCreatedAsyncEvent();
-        fileCreatedAsyncEvent.setUserId(userId);
-        fileCreatedAsyncEvent.setLanguage(language);
-        fileCreatedAsyncEvent.setFileId(file.getId());
-        fileCreatedAsyncEvent.setUnencryptedFile(unencryptedFile);
-        ThreadLocalContext.get().addAsyncEvent(fileCreatedAsyncEvent);
+            if (documentId != null) {
+                DocumentUpdatedAsyncEvent documentUpdatedAsyncEvent = new DocumentUpdatedAsyncEvent();
+                documentUpdatedAsyncEvent.setUserId(userId);
+                documentUpdatedAsyncEvent.setDocumentId(documentId);
+                ThreadLocalContext.get().addAsyncEvent(documentUpdatedAsyncEvent);
+            }
+
+            return fileId;
+        } catch (Exception e) {
+            Files.deleteIfExists(uploadFile);
+            fileService.deleteTemporaryFile(temporaryFile);
+            throw e;
+        }
+    }
 
-        if (documentId != null) {
-            DocumentUpdatedAsyncEvent documentUpdatedAsyncEvent = new DocumentUpdatedAsyncEvent();
-            documentUpdatedAsyncEvent.setUserId(userId);
-            documentUpdatedAsyncEvent.setDocumentId(documentId);
-            ThreadLocalContext.get().addAsyncEvent(documentUpdatedAsyncEvent);
+    /**
+     * Validate the user and global quotas before adding a file.
+     *
+     * @param userDao User DAO
+     * @param user User adding the file
+     * @param fileSize File size
+     * @throws IOException QuotaReached if a quota would be exceeded
+     */
+    private static void validateQuota(UserDao userDao, User user, long fileSize) throws IOException {
+        // Validate user quota
+        if (user.getStorageCurrent() + fileSize > user.getStorageQuota()) {
+            throw new IOException("QuotaReached");
         }
 
-        return fileId;
+        // Validate global quota
+        String globalStorageQuotaStr = System.getenv(Constants.GLOBAL_QUOTA_ENV);
+        if (!Strings.isNullOrEmpty(globalStorageQuotaStr)) {
+            long globalStorageQuota = Long.parseLong(globalStorageQuotaStr);
+            long globalStorageCurrent = userDao.getGlobalStorageCurrent();
+            if (globalStorageCurrent + fileSize > globalStorageQuota) {
+                throw new IOException("QuotaReached");
+            }
+        }
     }
 
     /**
@@ -240,4 +476,24 @@ public class FileUtil {
     public static boolean isProcessingFile(String fileId) {
         return processingFileSet.contains(fileId);
     }
+
+    /**
+     * Set the key needed to decrypt them on files, from the private key of their creator.
+     * The creators of all files are loaded at once.
+     *
+     * @param fileList Files (updated by side effects)
+     */
+    public static void setPrivateKeys(List<File> fileList) {
+        Set<String> userIdSet = new HashSet<>();
+        for (File file : fileList) {
+            userIdSet.add(file.getUserId());
+        }
+        Map<String, String> privateKeyMap = new HashMap<>();
+        for (User user : new UserDao().getByIdList(userIdSet)) {
+            privateKeyMap.put(user.getId(), user.getPrivateKey());
+        }
+        for (File file : fileList) {
+            file.setPrivateKey(getPrivateKey(file, privateKeyMap.get(file.getUserId())));
+        }
+    }
 }
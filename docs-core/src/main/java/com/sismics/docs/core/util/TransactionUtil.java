@@ -68,7 +68,27 @@ public class TransactionUtil {
         // No error in the current request : commit the transaction
         if (em.isOpen()) {
             if (em.getTransaction() != null && em.getTransaction().isActive()) {
-                em.getTransaction().commit();
+                try {
+                    AuditLogUtil.beforeCommit();
+                    em.getTransaction().commit();
+                } catch (Exception e) {
+                    ThreadLocalContext.cleanup();
+                    log.error("Error during commit", e);
+                    rollback(em);
+                    try {
+                        em.close();
+                    } catch (Exception ce) {
+                        log.error("Error closing entity manager", ce);
+                    }
+                    return;
+                }
+
+                // The data is written, an error here must not fail the process
+                try {
+                    AuditLogUtil.afterCommit();
+                } catch (Exception e) {
+                    log.error("Error after commit", e);
+                }
                 
                 try {
                     em.close();
@@ -78,6 +98,8 @@ public class TransactionUtil {
             }
         }
 
+        context.invalidateModifiedCaches();
+
         // Fire all pending async events after request transaction commit.
         // This way, all modifications done during this request are available in the listeners.
         context.fireAllAsyncEvents();
@@ -90,7 +112,37 @@ public class TransactionUtil {
      */
     public static void commit() {
         EntityTransaction tx = ThreadLocalContext.get().getEntityManager().getTransaction();
-        tx.commit();
+        try {
+            AuditLogUtil.beforeCommit();
+            tx.commit();
+        } catch (RuntimeException e) {
+            // Leave a new transaction for the caller, as after a successful commit
+            rollback(ThreadLocalContext.get().getEntityManager());
+            tx.begin();
+            throw e;
+        }
+
+        try {
+            AuditLogUtil.afterCommit();
+        } catch (Exception e) {
+            log.error("Error after commit", e);
+        }
+        ThreadLocalContext.get().invalidateModifiedCaches();
         tx.begin();
     }
+
+    /**
+     * Rollback the transaction after a failed commit, if it is still active.
+     *
+     * @param em Entity manager
+     */
+    private static void rollback(EntityManager em) {
+        try {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+        } catch (Exception e) {
+            log.error("Error during rollback", e);
+        }
+    }
 }
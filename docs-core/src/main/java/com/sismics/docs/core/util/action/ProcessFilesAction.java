@@ -1,12 +1,9 @@
 package com.sismics.docs.core.util.action;
 
 import com.sismics.docs.core.dao.FileDao;
-import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.dao.dto.DocumentDto;
 import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
 import com.sismics.docs.core.model.jpa.File;
-import com.sismics.docs.core.model.jpa.User;
-import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.EncryptionUtil;
 import com.sismics.docs.core.util.FileUtil;
 import com.sismics.util.context.ThreadLocalContext;
@@ -34,14 +31,12 @@ public class ProcessFilesAction implements Action {
         List<File> fileList = fileDao.getByDocumentId(null, documentDto.getId());
 
         try {
+            // Files are encrypted by their creator
+            FileUtil.setPrivateKeys(fileList);
             for (File file : fileList) {
-                // Get the creating user
-                UserDao userDao = new UserDao();
-                User user = userDao.getById(file.getUserId());
-
                 // Decrypt the file
-                Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
-                Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.getPrivateKey());
+                Path storedFile = FileUtil.getStoredFile(file);
+                Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, file.getPrivateKey());
 
                 // Start the asynchronous processing
                 FileUtil.startProcessingFile(file.getId());
@@ -0,0 +1,181 @@
+package com.sismics.docs.core.util.authentication;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.util.ConfigUtil;
+import com.sismics.util.context.ThreadLocalContext;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Cache of the principals resolved from authentication tokens, with their groups and base functions.
+ * The DAO writes on tokens, users and groups invalidate the cached principals at once and after the transaction commit.
+ * A principal resolved before an invalidation is not cached, and a principal is never returned after its token expiration.
+ *
+ * @param <P> Principal type
+ */
+public class PrincipalCache<P> {
+    /**
+     * All principal caches.
+     */
+    private static final List<PrincipalCache<?>> cacheList = new CopyOnWriteArrayList<>();
+
+    /**
+     * Maximum number of cached principals.
+     */
+    private static final long MAX_SIZE = 10000;
+
+    /**
+     * Number of invalidations.
+     */
+    private static final AtomicLong version = new AtomicLong();
+
+    /**
+     * Cached principals by token ID (null if disabled).
+     */
+    private final Cache<String, Entry<P>> cache;
+
+    /**
+     * Create a principal cache.
+     */
+    public PrincipalCache() {
+        long ttl = ConfigUtil.getEnvLongValue(Constants.PRINCIPAL_CACHE_TTL_ENV, Constants.DEFAULT_PRINCIPAL_CACHE_TTL);
+        if (ttl > 0) {
+            cache = CacheBuilder.newBuilder()
+                    .maximumSize(MAX_SIZE)
+                    .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                    .build();
+        } else {
+            cache = null;
+        }
+        cacheList.add(this);
+    }
+
+    /**
+     * Returns the cached principal of a token.
+     *
+     * @param tokenId Token ID
+     * @return Principal or null if not cached
+     */
+    public P get(String tokenId) {
+        if (cache == null) {
+            return null;
+        }
+        Entry<P> entry = cache.getIfPresent(tokenId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiryDate != null && System.currentTimeMillis() >= entry.expiryDate.getTime()) {
+            cache.invalidate(tokenId);
+            return null;
+        }
+        return entry.principal;
+    }
+
+    /**
+     * Cache the principal of a token.
+     *
+     * @param tokenId Token ID
+     * @param userId User ID of the principal
+     * @param principal Principal, it must not be modified anymore
+     * @param loadVersion Version read before resolving the principal
+     * @param expiryDate Expiration date of the token when resolving the principal, null if it doesn't expire
+     */
+    public void put(String tokenId, String userId, P principal, long loadVersion, Date expiryDate) {
+        if (cache == null) {
+            return;
+        }
+        cache.put(tokenId, new Entry<>(userId, principal, expiryDate));
+        if (version.get() != loadVersion) {
+            // The principal may have been resolved before an invalidation
+            cache.invalidate(tokenId);
+        }
+    }
+
+    /**
+     * Returns the version to read before resolving a principal.
+     *
+     * @return Version
+     */
+    public static long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Invalidate the principal of a token.
+     *
+     * @param tokenId Token ID
+     */
+    public static void invalidateToken(String tokenId) {
+        invalidate(principalCache -> principalCache.cache.invalidate(tokenId));
+    }
+
+    /**
+     * Invalidate the principals of a user.
+     *
+     * @param userId User ID
+     */
+    public static void invalidateUser(String userId) {
+        invalidate(principalCache -> principalCache.cache.asMap().values().removeIf(entry -> entry.userId.equals(userId)));
+    }
+
+    /**
+     * Invalidate all principals.
+     */
+    public static void invalidateAll() {
+        invalidate(principalCache -> principalCache.cache.invalidateAll());
+    }
+
+    /**
+     * Invalidate principals at once and after the transaction commit.
+     * Another request may have cached the previous principals in the meantime.
+     *
+     * @param invalidation Invalidation applied to each enabled cache
+     */
+    private static void invalidate(Consumer<PrincipalCache<?>> invalidation) {
+        Runnable runnable = () -> {
+            version.incrementAndGet();
+            for (PrincipalCache<?> principalCache : cacheList) {
+                if (principalCache.cache != null) {
+                    invalidation.accept(principalCache);
+                }
+            }
+        };
+        runnable.run();
+        ThreadLocalContext.get().addCommitInvalidation(runnable);
+    }
+
+    /**
+     * Cached principal.
+     *
+     * @param <P> Principal type
+     */
+    private static class Entry<P> {
+        /**
+         * User ID.
+         */
+        private final String userId;
+
+        /**
+         * Principal.
+         */
+        private final P principal;
+
+        /**
+         * Expiration date of the token (null if it doesn't expire).
+         */
+        private final Date expiryDate;
+
+        private Entry(String userId, P principal, Date expiryDate) {
+            this.userId = userId;
+            this.principal = principal;
+            this.expiryDate = expiryDate;
+        }
+    }
+}
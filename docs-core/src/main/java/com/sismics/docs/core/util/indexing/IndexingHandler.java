@@ -3,6 +3,7 @@ package com.sismics.docs.core.util.indexing;
 import com.sismics.docs.core.constant.PermType;
 import com.sismics.docs.core.dao.criteria.DocumentCriteria;
 import com.sismics.docs.core.dao.dto.DocumentDto;
+import com.sismics.docs.core.dao.dto.DocumentFacetsDto;
 import com.sismics.docs.core.model.jpa.Document;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.util.jpa.PaginatedList;
@@ -36,23 +37,19 @@ public interface IndexingHandler {
     void shutDown();
 
     /**
-     * Clear the index.
-     */
-    void clearIndex();
-
-    /**
-     * Index a list of documents.
+     * Rebuild the whole index from the database.
+     * The current index keeps serving searches until the new one replaces it.
      *
-     * @param documentList All documents
+     * @throws Exception e
      */
-    void createDocuments(List<Document> documentList);
+    void rebuildIndex() throws Exception;
 
     /**
-     * Index a list of files.
+     * Returns the progress of the current or last index rebuild.
      *
-     * @param fileList All files
+     * @return Rebuild progress
      */
-    void createFiles(List<File> fileList);
+    RebuildProgress getRebuildProgress();
 
     /**
      * Index a new document.
@@ -107,14 +104,25 @@ public interface IndexingHandler {
      */
     void deleteAcl(String sourceId, PermType perm, String targetId);
 
+    /**
+     * Suggest search terms according to the user query.
+     *
+     * @param search User search query
+     * @param count Maximum number of suggestions
+     * @return Suggested search terms
+     * @throws Exception e
+     */
+    List<String> suggestSearchTerms(String search, int count) throws Exception;
+
     /**
      * Searches documents by criteria.
      *
      * @param paginatedList List of documents (updated by side effects)
      * @param suggestionList Suggestion of search query (updated by side effects)
+     * @param facets Facet counts of all matching documents (updated by side effects, null to skip them)
      * @param criteria Search criteria
      * @param sortCriteria Sort criteria
      * @throws Exception e
      */
-    void findByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception;
+    void findByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentFacetsDto facets, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception;
 }
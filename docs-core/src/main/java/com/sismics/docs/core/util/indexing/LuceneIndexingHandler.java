@@ -2,57 +2,92 @@ package com.sismics.docs.core.util.indexing;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
 import com.sismics.docs.core.constant.ConfigType;
+import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.constant.PermType;
 import com.sismics.docs.core.dao.ConfigDao;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.DocumentPermissionDao;
+import com.sismics.docs.core.dao.FileDao;
 import com.sismics.docs.core.dao.criteria.DocumentCriteria;
 import com.sismics.docs.core.dao.dto.DocumentDto;
+import com.sismics.docs.core.dao.dto.DocumentFacetsDto;
 import com.sismics.docs.core.event.RebuildIndexAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.Config;
 import com.sismics.docs.core.model.jpa.Document;
 import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.util.ConfigUtil;
 import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.SecurityUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.docs.core.util.jpa.CountMode;
+import com.sismics.docs.core.util.jpa.PageCursor;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.core.util.jpa.QueryParam;
+import com.sismics.docs.core.util.jpa.QueryUtil;
 import com.sismics.docs.core.util.jpa.SortCriteria;
 import com.sismics.util.ClasspathScanner;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.*;
 import org.apache.lucene.queryparser.simple.SimpleQueryParser;
 import org.apache.lucene.search.*;
-import org.apache.lucene.search.highlight.Highlighter;
-import org.apache.lucene.search.highlight.QueryScorer;
-import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
-import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
-import org.apache.lucene.search.spell.LuceneDictionary;
-import org.apache.lucene.search.suggest.Lookup;
-import org.apache.lucene.search.suggest.analyzing.FuzzySuggester;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NativeFSLockFactory;
 import org.apache.lucene.store.NIOFSDirectory;
 import org.apache.lucene.store.NoLockFactory;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * Lucene indexing handler.
- * Documents and files are indexed in Lucene, but only used for fulltext search.
- * Other search criteria are still using the database.
+ * Documents are indexed with their readers, tags and files metadata, so that searches
+ * are filtered, sorted, paginated and faceted in Lucene. Only the returned page is loaded from the database.
+ * Readers and tags are indexed by the asynchronous listeners, so a new document or a new permission
+ * is only found once indexed. The returned page is still filtered on the effective permissions
+ * in the database, a revoked permission hides the document at once.
+ * Searches are served by a near-real-time reader opened from the index writer,
+ * so they see uncommitted changes. The reader is refreshed by the searches when the index changed.
+ * Commits are batched by a background thread according to {@link Constants#LUCENE_COMMIT_INTERVAL_ENV} and {@link Constants#LUCENE_COMMIT_OPERATIONS_ENV}.
+ * Full rebuilds are written to a shadow index with periodic checkpoints, then swapped in atomically.
  *
  * @author bgamard
  */
@@ -69,15 +104,182 @@ public class LuceneIndexingHandler implements IndexingHandler {
     private Directory directory;
 
     /**
-     * Directory reader.
+     * Commit user data key flagging a clean shutdown.
      */
-    private DirectoryReader directoryReader;
+    private static final String CLEAN_SHUTDOWN_KEY = "clean_shutdown";
+
+    /**
+     * Commit user data key storing the index schema version.
+     */
+    private static final String VERSION_KEY = "version";
+
+    /**
+     * Commit user data keys storing the checkpoint of a rebuild in the shadow index.
+     */
+    private static final String REBUILD_PHASE_KEY = "rebuild_phase";
+    private static final String REBUILD_CURSOR_KEY = "rebuild_cursor";
+    private static final String REBUILD_DONE_KEY = "rebuild_done";
+    private static final String REBUILD_DATE_KEY = "rebuild_date";
+
+    /**
+     * Rebuild phases.
+     */
+    private static final String REBUILD_PHASE_DOCUMENTS = "documents";
+    private static final String REBUILD_PHASE_FILES = "files";
+
+    /**
+     * Number of documents or files loaded from the database at once during a rebuild.
+     */
+    private static final int REBUILD_BATCH_SIZE = 100;
+
+    /**
+     * Minimum delay between two rebuild checkpoints (in milliseconds).
+     */
+    private static final long REBUILD_CHECKPOINT_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Changes made this long before a checkpoint are reindexed when a rebuild resumes (in milliseconds),
+     * to cover transactions committed after the checkpoint with an older date.
+     */
+    private static final long REBUILD_RESUME_MARGIN = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Current index schema version, the index is rebuilt if it doesn't match.
+     */
+    private static final String VERSION = "4";
+
+    /**
+     * File content field type, offsets are indexed with the postings for highlighting.
+     */
+    private static final FieldType CONTENT_FIELD_TYPE = new FieldType(TextField.TYPE_NOT_STORED);
+
+    static {
+        CONTENT_FIELD_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        CONTENT_FIELD_TYPE.freeze();
+    }
 
     /**
      * Index writer.
      */
     private IndexWriter indexWriter;
 
+    /**
+     * Near-real-time searcher manager.
+     */
+    private SearcherManager searcherManager;
+
+    /**
+     * Search terms suggester.
+     */
+    private TitleSuggester titleSuggester;
+
+    /**
+     * Background commit and maintenance executor.
+     */
+    private ScheduledExecutorService maintenanceExecutor;
+
+    /**
+     * Maximum delay between two commits (in milliseconds, 0 to commit after each operation).
+     */
+    private long commitInterval;
+
+    /**
+     * Number of pending operations triggering a commit.
+     */
+    private long commitOperations;
+
+    /**
+     * Minimum delay between two rebuilds of a stale suggester (in milliseconds).
+     */
+    private long suggestRebuildInterval;
+
+    /**
+     * Maximum number of characters of file content stored for highlighting (0 for no limit).
+     */
+    private int storedContentLimit;
+
+    /**
+     * Cache of search results (null if disabled).
+     */
+    private SearchResultCache searchResultCache;
+
+    /**
+     * Number of changes of indexed data, generation of cached search results.
+     * It is incremented before and after each change, a search running during a change
+     * is cached with a generation which can't be requested anymore.
+     */
+    private final AtomicLong changeCount = new AtomicLong();
+
+    /**
+     * Change count when the searcher was last refreshed.
+     */
+    private final AtomicLong refreshedChangeCount = new AtomicLong(-1);
+
+    /**
+     * Index storage (RAM, FILE or MMAP).
+     */
+    private String storage;
+
+    /**
+     * Number of threads indexing during a rebuild.
+     */
+    private int rebuildThreads;
+
+    /**
+     * Lock on the live index, writers and searches share it while a rebuild swaps the index exclusively.
+     */
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+    /**
+     * Lock held during a rebuild.
+     */
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+
+    /**
+     * Progress of the current or last rebuild.
+     */
+    private final RebuildProgress rebuildProgress = new RebuildProgress();
+
+    /**
+     * IDs of the documents and files modified during a rebuild, null if no rebuild is running.
+     */
+    private volatile Set<String> touchedIdSet;
+
+    /**
+     * True if the handler is shutting down, running rebuilds stop at the next batch.
+     */
+    private volatile boolean closing;
+
+    /**
+     * Timestamp of the last commit.
+     */
+    private volatile long lastCommitTimestamp;
+
+    /**
+     * Number of operations not yet committed.
+     */
+    private final AtomicLong pendingOperationCount = new AtomicLong();
+
+    /**
+     * Total number of indexing operations.
+     */
+    private final AtomicLong operationCount = new AtomicLong();
+
+    /**
+     * Total time spent in indexing operations (in nanoseconds).
+     */
+    private final AtomicLong operationTime = new AtomicLong();
+
+    /**
+     * Total number of commits.
+     */
+    private final AtomicLong commitCount = new AtomicLong();
+
+    /**
+     * Total time spent committing (in nanoseconds).
+     */
+    private final AtomicLong commitTime = new AtomicLong();
+
     @Override
     public boolean accept() {
         // Embedded Lucene can always start
@@ -87,15 +289,23 @@ public class LuceneIndexingHandler implements IndexingHandler {
     @Override
     public void startUp() throws Exception {
         try {
-            initLucene();
+            if (!initLucene()) {
+                // Uncommitted operations from the previous session are lost or the schema changed, rebuild everything
+                log.info("Lucene index is out of date, scheduling a full reindex");
+                RebuildIndexAsyncEvent rebuildIndexAsyncEvent = new RebuildIndexAsyncEvent();
+                AppContext.getInstance().getAsyncEventBus().post(rebuildIndexAsyncEvent);
+            } else if (indexWriter.getDocStats().numDocs == 0 && new DocumentDao().getDocumentCount() > 0) {
+                // Searches rely on the index, a fresh index (in RAM for example) must be filled
+                log.info("Lucene index is empty, scheduling a full reindex");
+                RebuildIndexAsyncEvent rebuildIndexAsyncEvent = new RebuildIndexAsyncEvent();
+                AppContext.getInstance().getAsyncEventBus().post(rebuildIndexAsyncEvent);
+            }
         } catch (Exception e) {
             // An error occurred initializing Lucene, the index is out of date or broken, delete everything
             log.info("Unable to initialize Lucene, cleaning up the index: " + e.getMessage());
-            Path luceneDirectory = DirectoryUtil.getLuceneDirectory();
-            Files.walk(luceneDirectory)
-                    .sorted(Comparator.reverseOrder())
-                    .map(Path::toFile)
-                    .forEach(java.io.File::delete);
+            shutDown();
+            deleteDirectory(DirectoryUtil.getLuceneDirectory());
+            deleteDirectory(DirectoryUtil.getLuceneSuggestDirectory());
 
             // Re-initialize and schedule a full reindex
             initLucene();
@@ -104,28 +314,56 @@ public class LuceneIndexingHandler implements IndexingHandler {
         }
     }
 
-    private void initLucene() throws Exception {
+    /**
+     * Initialize the Lucene directory, writer and searcher manager.
+     *
+     * @return False if the previous session was not shut down cleanly or the index schema is outdated
+     * @throws Exception e
+     */
+    private boolean initLucene() throws Exception {
         ConfigDao configDao = new ConfigDao();
         Config luceneStorageConfig = configDao.getById(ConfigType.LUCENE_DIRECTORY_STORAGE);
         String luceneStorage = luceneStorageConfig == null ? null : luceneStorageConfig.getValue();
 
         // RAM directory storage by default
         if (luceneStorage == null || luceneStorage.equals("RAM")) {
-            directory = new RAMDirectory();
+            storage = "RAM";
             log.info("Using RAM Lucene storage");
-        } else if (luceneStorage.equals("FILE")) {
-            Path luceneDirectory = DirectoryUtil.getLuceneDirectory();
-            log.info("Using file Lucene storage: {}", luceneDirectory);
-            directory = new NIOFSDirectory(luceneDirectory, NoLockFactory.INSTANCE);
+        } else if (luceneStorage.equals("FILE") || luceneStorage.equals("MMAP")) {
+            storage = luceneStorage;
+            log.info("Using {} Lucene storage: {}", luceneStorage, DirectoryUtil.getLuceneDirectory());
+        } else {
+            storage = "RAM";
+            log.warn("Unknown Lucene storage {}, using RAM", luceneStorage);
         }
+        String preload = Strings.nullToEmpty(System.getenv(Constants.LUCENE_PRELOAD_ENV)).trim();
+        directory = openDirectory(DirectoryUtil::getLuceneDirectory, preload.equals("all"));
+        Directory suggestDirectory = openDirectory(DirectoryUtil::getLuceneSuggestDirectory, preload.equals("all"));
 
-        // Create an index writer
-        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
-        config.setCommitOnClose(true);
-        config.setMergeScheduler(new ConcurrentMergeScheduler());
-        indexWriter = new IndexWriter(directory, config);
+        commitInterval = TimeUnit.SECONDS.toMillis(ConfigUtil.getEnvLongValue(Constants.LUCENE_COMMIT_INTERVAL_ENV,
+                Constants.DEFAULT_LUCENE_COMMIT_INTERVAL));
+        commitOperations = Math.max(1, ConfigUtil.getEnvLongValue(Constants.LUCENE_COMMIT_OPERATIONS_ENV,
+                Constants.DEFAULT_LUCENE_COMMIT_OPERATIONS));
+        suggestRebuildInterval = TimeUnit.SECONDS.toMillis(ConfigUtil.getEnvLongValue(Constants.LUCENE_SUGGEST_REBUILD_INTERVAL_ENV,
+                Constants.DEFAULT_LUCENE_SUGGEST_REBUILD_INTERVAL));
+        rebuildThreads = (int) Math.max(1, ConfigUtil.getEnvLongValue(Constants.LUCENE_REBUILD_THREADS_ENV,
+                Runtime.getRuntime().availableProcessors()));
+        closing = false;
+        storedContentLimit = (int) Math.min(Integer.MAX_VALUE - 1,
+                Math.max(0, ConfigUtil.getEnvLongValue(Constants.LUCENE_STORED_CONTENT_LIMIT_ENV, 0)));
+        long searchCacheSize = ConfigUtil.getEnvLongValue(Constants.LUCENE_SEARCH_CACHE_SIZE_ENV,
+                Constants.DEFAULT_LUCENE_SEARCH_CACHE_SIZE);
+        searchResultCache = searchCacheSize > 0 ? new SearchResultCache(searchCacheSize * 1024 * 1024) : null;
+
+        // Read the state of the last commit
+        boolean upToDate = true;
+        if (DirectoryReader.indexExists(directory)) {
+            Map<String, String> userData = SegmentInfos.readLatestCommit(directory).getUserData();
+            upToDate = !"false".equals(userData.get(CLEAN_SHUTDOWN_KEY))
+                    && VERSION.equals(userData.get(VERSION_KEY));
+        }
 
-        // Check index version and rebuild it if necessary
+        // Check index health before the writer takes the write lock, CheckIndex needs it too
         if (DirectoryReader.indexExists(directory)) {
             log.info("Checking index health and version");
             try (CheckIndex checkIndex = new CheckIndex(directory)) {
@@ -135,19 +373,150 @@ public class LuceneIndexingHandler implements IndexingHandler {
                 }
             }
         }
+
+        // Create an index writer
+        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+        config.setCommitOnClose(true);
+        config.setMergeScheduler(new ConcurrentMergeScheduler());
+        indexWriter = new IndexWriter(directory, config);
+
+        // Until the next clean shutdown, the index on disk may miss some operations
+        indexWriter.setLiveCommitData(getCommitData(commitInterval == 0).entrySet(), false);
+
+        // Open a near-real-time searcher manager on the index writer
+        searcherManager = new SearcherManager(indexWriter, null);
+
+        // Open the suggester, it is only built from scratch the first time
+        titleSuggester = new TitleSuggester(suggestDirectory);
+        if (titleSuggester.isEmpty()) {
+            rebuildSuggester();
+        }
+
+        // Start the background committer
+        lastCommitTimestamp = System.currentTimeMillis();
+        maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "lucene-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (commitInterval > 0) {
+            maintenanceExecutor.scheduleWithFixedDelay(this::commitIfNeeded, 1, 1, TimeUnit.SECONDS);
+        }
+        maintenanceExecutor.scheduleWithFixedDelay(this::rebuildSuggesterIfNeeded, 1, 1, TimeUnit.MINUTES);
+        if (storage.equals("MMAP") && !preload.isEmpty() && !preload.equals("all")) {
+            Set<String> extensionSet = new HashSet<>(Arrays.asList(preload.split("\\s*,\\s*")));
+            maintenanceExecutor.execute(() -> warmUp(directory, extensionSet));
+        }
+
+        return upToDate;
+    }
+
+    /**
+     * Open an index directory with the configured storage.
+     * Memory-mapped directories are locked natively, unlike the historical file storage.
+     *
+     * @param path Directory path (unused with the RAM storage)
+     * @param preload True to load memory-mapped files in memory on open
+     * @return Directory
+     * @throws IOException e
+     */
+    private Directory openDirectory(Supplier<Path> path, boolean preload) throws IOException {
+        switch (storage) {
+            case "FILE":
+                return new NIOFSDirectory(path.get(), NoLockFactory.INSTANCE);
+            case "MMAP":
+                MMapDirectory mmapDirectory = new MMapDirectory(path.get(), NativeFSLockFactory.INSTANCE);
+                mmapDirectory.setPreload(preload);
+                return mmapDirectory;
+            default:
+                return new RAMDirectory();
+        }
+    }
+
+    /**
+     * Read the index files with some extensions, so that they are in the OS cache before the first searches.
+     *
+     * @param directory Directory
+     * @param extensionSet File extensions to read (tim, tip, dvd...)
+     */
+    private void warmUp(Directory directory, Set<String> extensionSet) {
+        long startTime = System.currentTimeMillis();
+        long size = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try {
+            for (String fileName : directory.listAll()) {
+                if (!extensionSet.contains(IndexFileNames.getExtension(fileName))) {
+                    continue;
+                }
+                try (IndexInput input = directory.openInput(fileName, IOContext.READONCE)) {
+                    long remaining = input.length();
+                    while (remaining > 0) {
+                        int length = (int) Math.min(buffer.length, remaining);
+                        input.readBytes(buffer, 0, length);
+                        remaining -= length;
+                    }
+                    size += input.length();
+                } catch (NoSuchFileException | FileNotFoundException e) {
+                    // The file has been merged away since
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error warming up the index", e);
+        }
+        log.info("Lucene index warmed up: {} bytes in {}ms", size, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Build the user data stored with each commit.
+     *
+     * @param cleanShutdown True if the index on disk contains all operations
+     * @return Commit user data
+     */
+    private Map<String, String> getCommitData(boolean cleanShutdown) {
+        Map<String, String> commitData = new HashMap<>();
+        commitData.put(CLEAN_SHUTDOWN_KEY, Boolean.toString(cleanShutdown));
+        commitData.put(VERSION_KEY, VERSION);
+        return commitData;
     }
 
     @Override
     public void shutDown() {
-        if (directoryReader != null) {
+        // Stop the running rebuild, it will resume from its last checkpoint
+        closing = true;
+        try {
+            if (rebuildLock.tryLock(1, TimeUnit.MINUTES)) {
+                rebuildLock.unlock();
+            }
+        } catch (InterruptedException e) {
+            // NOP
+        }
+
+        if (maintenanceExecutor != null) {
+            maintenanceExecutor.shutdown();
+            try {
+                maintenanceExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                // NOP
+            }
+        }
+        if (titleSuggester != null) {
+            try {
+                titleSuggester.close();
+            } catch (IOException e) {
+                log.error("Error closing the suggester", e);
+            }
+        }
+        if (searcherManager != null) {
             try {
-                directoryReader.close();
+                searcherManager.close();
             } catch (IOException e) {
-                log.error("Error closing the index reader", e);
+                log.error("Error closing the searcher manager", e);
             }
         }
         if (indexWriter != null) {
             try {
+                // The writer commits pending operations on close
+                indexWriter.setLiveCommitData(getCommitData(true).entrySet());
                 indexWriter.close();
             } catch (IOException e) {
                 log.error("Error closing the index writer, index may be corrupt", e);
@@ -162,41 +531,19 @@ public class LuceneIndexingHandler implements IndexingHandler {
         }
     }
 
-    @Override
-    public void clearIndex() {
-        handle(IndexWriter::deleteAll);
-    }
-
-    @Override
-    public void createDocuments(List<Document> documentList) {
-        handle(indexWriter -> {
-            for (Document document : documentList) {
-                org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
-                indexWriter.addDocument(luceneDocument);
-            }
-        });
-    }
-
-    @Override
-    public void createFiles(List<File> fileList) {
-        handle(indexWriter -> {
-            for (File file : fileList) {
-                org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
-                indexWriter.addDocument(luceneDocument);
-            }
-        });
-    }
-
     @Override
     public void createDocument(final Document document) {
+        markTouched(document.getId());
         handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
+            org.apache.lucene.document.Document luceneDocument = getDocumentsFromDocuments(Collections.singletonList(document)).get(0);
             indexWriter.addDocument(luceneDocument);
+            titleSuggester.add(document.getTitle());
         });
     }
 
     @Override
     public void createFile(final File file) {
+        markTouched(file.getId());
         handle(indexWriter -> {
             org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
             indexWriter.addDocument(luceneDocument);
@@ -205,6 +552,7 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
     @Override
     public void updateFile(final File file) {
+        markTouched(file.getId());
         handle(indexWriter -> {
             org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
             indexWriter.updateDocument(new Term("id", file.getId()), luceneDocument);
@@ -213,136 +561,220 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
     @Override
     public void updateDocument(final Document document) {
+        markTouched(document.getId());
         handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
+            org.apache.lucene.document.Document luceneDocument = getDocumentsFromDocuments(Collections.singletonList(document)).get(0);
             indexWriter.updateDocument(new Term("id", document.getId()), luceneDocument);
+            titleSuggester.add(document.getTitle());
+            titleSuggester.markStale();
         });
     }
 
     @Override
     public void deleteDocument(final String id) {
+        markTouched(id);
         handle(indexWriter -> indexWriter.deleteDocuments(new Term("id", id)));
+        titleSuggester.markStale();
     }
 
     @Override
     public void createAcl(String sourceId, PermType perm, String targetId) {
-        // Lucene does not index ACLs
+        if (perm == PermType.READ) {
+            updateReaders(sourceId);
+        }
     }
 
     @Override
     public void deleteAcl(String sourceId, PermType perm, String targetId) {
-        // Lucene does not index ACLs
+        if (perm == PermType.READ) {
+            updateReaders(sourceId);
+        }
+    }
+
+    /**
+     * Reindex the documents whose readers depend on an ACL source.
+     * The source is either a document, or a tag whose readers are inherited by the tagged documents.
+     *
+     * @param sourceId ACL source ID
+     */
+    private void updateReaders(String sourceId) {
+        DocumentDao documentDao = new DocumentDao();
+        Document document = documentDao.getById(sourceId);
+        if (document != null) {
+            updateDocuments(Collections.singletonList(document));
+            return;
+        }
+
+        int offset = 0;
+        List<Document> documentList;
+        do {
+            documentList = documentDao.findByTagId(sourceId, offset, 100);
+            updateDocuments(documentList);
+            offset += 100;
+        } while (documentList.size() == 100);
+    }
+
+    /**
+     * Reindex some documents without touching their files.
+     *
+     * @param documentList Documents
+     */
+    private void updateDocuments(List<Document> documentList) {
+        if (documentList.isEmpty()) {
+            return;
+        }
+        for (Document document : documentList) {
+            markTouched(document.getId());
+        }
+        handle(indexWriter -> {
+            for (org.apache.lucene.document.Document luceneDocument : getDocumentsFromDocuments(documentList)) {
+                indexWriter.updateDocument(new Term("id", luceneDocument.get("id")), luceneDocument);
+            }
+        });
     }
 
     @Override
-    public void findByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception {
+    public void findByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentFacetsDto facets, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception {
+        SearchResultCache cache = searchResultCache;
+        if (cache == null) {
+            searchByCriteria(paginatedList, suggestionList, facets, criteria, sortCriteria);
+            return;
+        }
+
+        // The change count and the permissions version are read before searching,
+        // a result computed during a change is never requested again
+        List<Long> generation = Arrays.asList(changeCount.get(), DocumentPermissionDao.getVersion());
+        List<Object> key = cache.getKey(generation, criteria, sortCriteria, paginatedList, facets != null);
+        SearchResultCache.Result result = cache.get(key);
+        if (result == null) {
+            searchByCriteria(paginatedList, suggestionList, facets, criteria, sortCriteria);
+            result = new SearchResultCache.Result(paginatedList, suggestionList, facets);
+            cache.put(key, result);
+        } else {
+            result.copyTo(paginatedList, suggestionList, facets);
+        }
+    }
+
+    /**
+     * Searches documents by criteria, without cache.
+     *
+     * @param paginatedList List of documents (updated by side effects)
+     * @param suggestionList Suggestion of search query (updated by side effects)
+     * @param facets Facet counts of all matching documents (updated by side effects, null to skip them)
+     * @param criteria Search criteria
+     * @param sortCriteria Sort criteria
+     * @throws Exception e
+     */
+    private void searchByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentFacetsDto facets, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception {
         Map<String, Object> parameterMap = new HashMap<>();
         List<String> criteriaList = new ArrayList<>();
-        Map<String, String> documentSearchMap = Maps.newHashMap();
 
         StringBuilder sb = new StringBuilder("select distinct d.DOC_ID_C c0, d.DOC_TITLE_C c1, d.DOC_DESCRIPTION_C c2, d.DOC_CREATEDATE_D c3, d.DOC_LANGUAGE_C c4, d.DOC_IDFILE_C, ");
-        sb.append(" s.count c5, ");
-        sb.append(" f.count c6, ");
+        sb.append(" d.DOC_SHARECOUNT_N c5, ");
+        sb.append(" d.DOC_FILECOUNT_N c6, ");
         sb.append(" rs2.RTP_ID_C c7, rs2.RTP_NAME_C, d.DOC_UPDATEDATE_D c8 ");
         sb.append(" from T_DOCUMENT d ");
-        sb.append(" left join (SELECT count(s.SHA_ID_C) count, ac.ACL_SOURCEID_C " +
-                "   FROM T_SHARE s, T_ACL ac " +
-                "   WHERE ac.ACL_TARGETID_C = s.SHA_ID_C AND ac.ACL_DELETEDATE_D IS NULL AND " +
-                "         s.SHA_DELETEDATE_D IS NULL group by ac.ACL_SOURCEID_C) s on s.ACL_SOURCEID_C = d.DOC_ID_C " +
-                "  left join (SELECT count(f.FIL_ID_C) count, f.FIL_IDDOC_C " +
-                "   FROM T_FILE f " +
-                "   WHERE f.FIL_DELETEDATE_D is null group by f.FIL_IDDOC_C) f on f.FIL_IDDOC_C = d.DOC_ID_C ");
-        sb.append(" left join (select rs.*, rs3.idDocument " +
-                "from T_ROUTE_STEP rs " +
-                "join (select r.RTE_IDDOCUMENT_C idDocument, rs.RTP_IDROUTE_C idRoute, min(rs.RTP_ORDER_N) minOrder from T_ROUTE_STEP rs join T_ROUTE r on r.RTE_ID_C = rs.RTP_IDROUTE_C and r.RTE_DELETEDATE_D is null where rs.RTP_DELETEDATE_D is null and rs.RTP_ENDDATE_D is null group by rs.RTP_IDROUTE_C, r.RTE_IDDOCUMENT_C) rs3 on rs.RTP_IDROUTE_C = rs3.idRoute and rs.RTP_ORDER_N = rs3.minOrder " +
-                "where rs.RTP_IDTARGET_C in (:targetIdList)) rs2 on rs2.idDocument = d.DOC_ID_C ");
-
-        // Add search criterias
+        sb.append(" left join T_ROUTE_STEP rs2 on rs2.RTP_ID_C = d.DOC_IDCURRENTSTEP_C and rs2.RTP_IDTARGET_C in (:targetIdList) ");
+
+        // Add search criterias, ACLs are still checked on the page returned by the index
         if (criteria.getTargetIdList() != null) {
             if (!SecurityUtil.skipAclCheck(criteria.getTargetIdList())) {
-                // Read permission is enough for searching
-                sb.append(" left join T_ACL a on a.ACL_TARGETID_C in (:targetIdList) and a.ACL_SOURCEID_C = d.DOC_ID_C and a.ACL_PERM_C = 'READ' and a.ACL_DELETEDATE_D is null ");
-                sb.append(" left join T_DOCUMENT_TAG dta on dta.DOT_IDDOCUMENT_C = d.DOC_ID_C and dta.DOT_DELETEDATE_D is null ");
-                sb.append(" left join T_ACL a2 on a2.ACL_TARGETID_C in (:targetIdList) and a2.ACL_SOURCEID_C = dta.DOT_IDTAG_C and a2.ACL_PERM_C = 'READ' and a2.ACL_DELETEDATE_D is null ");
-                criteriaList.add("(a.ACL_ID_C is not null or a2.ACL_ID_C is not null)");
+                // Read permission is enough for searching, inherited from tags or not
+                criteriaList.add("exists (select p.DPE_IDDOCUMENT_C from T_DOCUMENT_PERMISSION p where p.DPE_IDDOCUMENT_C = d.DOC_ID_C and p.DPE_IDTARGET_C in (:targetIdList) and p.DPE_PERM_C = 'READ')");
             }
             parameterMap.put("targetIdList", criteria.getTargetIdList());
         }
+        Query fulltextQuery = null;
         if (!Strings.isNullOrEmpty(criteria.getSearch()) || !Strings.isNullOrEmpty(criteria.getFullSearch())) {
-            documentSearchMap = search(criteria.getSearch(), criteria.getFullSearch());
-            if (documentSearchMap.isEmpty()) {
-                // If the search doesn't find any document, the request should return nothing
-                documentSearchMap.put(UUID.randomUUID().toString(), null);
-            }
-            criteriaList.add("d.DOC_ID_C in :documentIdList");
-            parameterMap.put("documentIdList", documentSearchMap.keySet());
-
-            suggestSearchTerms(criteria.getFullSearch(), suggestionList);
-        }
-        if (criteria.getCreateDateMin() != null) {
-            criteriaList.add("d.DOC_CREATEDATE_D >= :createDateMin");
-            parameterMap.put("createDateMin", criteria.getCreateDateMin());
-        }
-        if (criteria.getCreateDateMax() != null) {
-            criteriaList.add("d.DOC_CREATEDATE_D <= :createDateMax");
-            parameterMap.put("createDateMax", criteria.getCreateDateMax());
-        }
-        if (criteria.getUpdateDateMin() != null) {
-            criteriaList.add("d.DOC_UPDATEDATE_D >= :updateDateMin");
-            parameterMap.put("updateDateMin", criteria.getUpdateDateMin());
+            fulltextQuery = buildQuery(criteria.getSearch(), criteria.getFullSearch());
+            suggestionList.addAll(suggestSearchTerms(criteria.getFullSearch(), 10));
         }
-        if (criteria.getUpdateDateMax() != null) {
-            criteriaList.add("d.DOC_UPDATEDATE_D <= :updateDateMax");
-            parameterMap.put("updateDateMax", criteria.getUpdateDateMax());
-        }
-        if (criteria.getTitle() != null) {
-            criteriaList.add("d.DOC_TITLE_C = :title");
-            parameterMap.put("title", criteria.getTitle());
-        }
-        if (!criteria.getTagIdList().isEmpty()) {
-            int index = 0;
-            for (List<String> tagIdList : criteria.getTagIdList()) {
-                List<String> tagCriteriaList = Lists.newArrayList();
-                for (String tagId : tagIdList) {
-                    sb.append(String.format("left join T_DOCUMENT_TAG dt%d on dt%d.DOT_IDDOCUMENT_C = d.DOC_ID_C and dt%d.DOT_IDTAG_C = :tagId%d and dt%d.DOT_DELETEDATE_D is null ", index, index, index, index, index));
-                    parameterMap.put("tagId" + index, tagId);
-                    tagCriteriaList.add(String.format("dt%d.DOT_ID_C is not null", index));
-                    index++;
+        List<String> pageIdList = null;
+        if (isSearchableInIndex(criteria, sortCriteria)) {
+            // The index handles all criteria, only the returned page is loaded from the database
+            pageIdList = searchPage(fulltextQuery, buildFilterQuery(criteria), paginatedList, sortCriteria, facets);
+            criteriaList.add("d.DOC_ID_C in :documentIdList");
+            parameterMap.put("documentIdList", pageIdList.isEmpty() ?
+                    Collections.singletonList(UUID.randomUUID().toString()) : pageIdList);
+        } else {
+            if (facets != null && (criteria.getActiveRoute() == null || !criteria.getActiveRoute())) {
+                // Only the sort is not supported by the index, it can still count the facets
+                searchFacets(fulltextQuery, buildFilterQuery(criteria), facets);
+            }
+            if (fulltextQuery != null) {
+                Collection<String> documentIdList = search(fulltextQuery);
+                if (documentIdList.isEmpty()) {
+                    // If the search doesn't find any document, the request should return nothing
+                    documentIdList = Collections.singletonList(UUID.randomUUID().toString());
                 }
-                criteriaList.add("(" + Joiner.on(" OR ").join(tagCriteriaList) + ")");
+                criteriaList.add("d.DOC_ID_C in :documentIdList");
+                parameterMap.put("documentIdList", documentIdList);
             }
-        }
-        if (criteria.getExcludedTagIdList() != null && !criteria.getExcludedTagIdList().isEmpty()) {
-            int index = 0;
-            for (List<String> tagIdList : criteria.getExcludedTagIdList()) {
-                List<String> tagCriteriaList = Lists.newArrayList();
-                for (String tagId : tagIdList) {
-                    sb.append(String.format("left join T_DOCUMENT_TAG dtex%d on dtex%d.DOT_IDDOCUMENT_C = d.DOC_ID_C and dtex%d.DOT_IDTAG_C = :tagIdEx%d and dtex%d.DOT_DELETEDATE_D is null ", index, index, index, index, index));
-                    parameterMap.put("tagIdEx" + index, tagId);
-                    tagCriteriaList.add(String.format("dtex%d.DOT_ID_C is null", index));
-                    index++;
+            if (criteria.getCreateDateMin() != null) {
+                criteriaList.add("d.DOC_CREATEDATE_D >= :createDateMin");
+                parameterMap.put("createDateMin", criteria.getCreateDateMin());
+            }
+            if (criteria.getCreateDateMax() != null) {
+                criteriaList.add("d.DOC_CREATEDATE_D <= :createDateMax");
+                parameterMap.put("createDateMax", criteria.getCreateDateMax());
+            }
+            if (criteria.getUpdateDateMin() != null) {
+                criteriaList.add("d.DOC_UPDATEDATE_D >= :updateDateMin");
+                parameterMap.put("updateDateMin", criteria.getUpdateDateMin());
+            }
+            if (criteria.getUpdateDateMax() != null) {
+                criteriaList.add("d.DOC_UPDATEDATE_D <= :updateDateMax");
+                parameterMap.put("updateDateMax", criteria.getUpdateDateMax());
+            }
+            if (criteria.getTitle() != null) {
+                criteriaList.add("d.DOC_TITLE_C = :title");
+                parameterMap.put("title", criteria.getTitle());
+            }
+            if (!criteria.getTagIdList().isEmpty()) {
+                int index = 0;
+                for (List<String> tagIdList : criteria.getTagIdList()) {
+                    List<String> tagCriteriaList = Lists.newArrayList();
+                    for (String tagId : tagIdList) {
+                        sb.append(String.format("left join T_DOCUMENT_TAG dt%d on dt%d.DOT_IDDOCUMENT_C = d.DOC_ID_C and dt%d.DOT_IDTAG_C = :tagId%d and dt%d.DOT_DELETEDATE_D is null ", index, index, index, index, index));
+                        parameterMap.put("tagId" + index, tagId);
+                        tagCriteriaList.add(String.format("dt%d.DOT_ID_C is not null", index));
+                        index++;
+                    }
+                    criteriaList.add("(" + Joiner.on(" OR ").join(tagCriteriaList) + ")");
                 }
-                criteriaList.add("(" + Joiner.on(" AND ").join(tagCriteriaList) + ")");
             }
-        }
-        if (criteria.getShared() != null && criteria.getShared()) {
-            criteriaList.add("s.count > 0");
-        }
-        if (criteria.getMimeType() != null) {
-            sb.append("left join T_FILE f0 on f0.FIL_IDDOC_C = d.DOC_ID_C and f0.FIL_MIMETYPE_C = :mimeType and f0.FIL_DELETEDATE_D is null");
-            parameterMap.put("mimeType", criteria.getMimeType());
-            criteriaList.add("f0.FIL_ID_C is not null");
-        }
-        if (criteria.getLanguage() != null) {
-            criteriaList.add("d.DOC_LANGUAGE_C = :language");
-            parameterMap.put("language", criteria.getLanguage());
-        }
-        if (criteria.getCreatorId() != null) {
-            criteriaList.add("d.DOC_IDUSER_C = :creatorId");
-            parameterMap.put("creatorId", criteria.getCreatorId());
-        }
-        if (criteria.getActiveRoute() != null && criteria.getActiveRoute()) {
-            criteriaList.add("rs2.RTP_ID_C is not null");
+            if (criteria.getExcludedTagIdList() != null && !criteria.getExcludedTagIdList().isEmpty()) {
+                int index = 0;
+                for (List<String> tagIdList : criteria.getExcludedTagIdList()) {
+                    List<String> tagCriteriaList = Lists.newArrayList();
+                    for (String tagId : tagIdList) {
+                        sb.append(String.format("left join T_DOCUMENT_TAG dtex%d on dtex%d.DOT_IDDOCUMENT_C = d.DOC_ID_C and dtex%d.DOT_IDTAG_C = :tagIdEx%d and dtex%d.DOT_DELETEDATE_D is null ", index, index, index, index, index));
+                        parameterMap.put("tagIdEx" + index, tagId);
+                        tagCriteriaList.add(String.format("dtex%d.DOT_ID_C is null", index));
+                        index++;
+                    }
+                    criteriaList.add("(" + Joiner.on(" AND ").join(tagCriteriaList) + ")");
+                }
+            }
+            if (criteria.getShared() != null && criteria.getShared()) {
+                criteriaList.add("d.DOC_SHARECOUNT_N > 0");
+            }
+            if (criteria.getMimeType() != null) {
+                sb.append("left join T_FILE f0 on f0.FIL_IDDOC_C = d.DOC_ID_C and f0.FIL_MIMETYPE_C = :mimeType and f0.FIL_DELETEDATE_D is null");
+                parameterMap.put("mimeType", criteria.getMimeType());
+                criteriaList.add("f0.FIL_ID_C is not null");
+            }
+            if (criteria.getLanguage() != null) {
+                criteriaList.add("d.DOC_LANGUAGE_C = :language");
+                parameterMap.put("language", criteria.getLanguage());
+            }
+            if (criteria.getCreatorId() != null) {
+                criteriaList.add("d.DOC_IDUSER_C = :creatorId");
+                parameterMap.put("creatorId", criteria.getCreatorId());
+            }
+            if (criteria.getActiveRoute() != null && criteria.getActiveRoute()) {
+                criteriaList.add("rs2.RTP_ID_C is not null");
+            }
         }
 
         criteriaList.add("d.DOC_DELETEDATE_D is null");
@@ -354,7 +786,15 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
         // Perform the search
         QueryParam queryParam = new QueryParam(sb.toString(), parameterMap);
-        List<Object[]> l = PaginatedLists.executePaginatedQuery(paginatedList, queryParam, sortCriteria);
+        List<Object[]> l;
+        if (pageIdList == null) {
+            l = PaginatedLists.executePaginatedQuery(paginatedList, queryParam, sortCriteria);
+        } else {
+            // The page is already sorted and counted by the index
+            l = getResultList(queryParam);
+            final List<String> indexOrderList = pageIdList;
+            l.sort(Comparator.comparingInt(o -> indexOrderList.indexOf((String) o[0])));
+        }
 
         // Assemble results
         List<DocumentDto> documentDtoList = new ArrayList<>();
@@ -374,46 +814,368 @@ public class LuceneIndexingHandler implements IndexingHandler {
             documentDto.setActiveRoute(o[i++] != null);
             documentDto.setCurrentStepName((String) o[i++]);
             documentDto.setUpdateTimestamp(((Timestamp) o[i]).getTime());
-            documentDto.setHighlight(documentSearchMap.get(documentDto.getId()));
             documentDtoList.add(documentDto);
         }
 
+        // Highlight only the documents of the page
+        if (fulltextQuery != null) {
+            highlight(fulltextQuery, documentDtoList);
+        }
+
         paginatedList.setResultList(documentDtoList);
     }
 
-    /**
-     * Suggest search terms according to the user query.
-     *
-     * @param search User search query
-     * @param suggestionList Suggestion of search query (updated by side effects)
-     * @throws Exception e
-     */
-    private void suggestSearchTerms(String search, List<String> suggestionList) throws Exception {
-        DirectoryReader directoryReader = getDirectoryReader();
-        if (directoryReader == null) {
+    @Override
+    public void rebuildIndex() throws Exception {
+        if (!rebuildLock.tryLock()) {
+            log.info("An index rebuild is already running");
             return;
         }
 
-        FuzzySuggester suggester = new FuzzySuggester(directory, "", new StandardAnalyzer());
-        LuceneDictionary dictionary = new LuceneDictionary(directoryReader, "title");
-        suggester.build(dictionary);
-        int lastIndex = search.lastIndexOf(' ');
-        String suggestQuery = search.substring(Math.max(lastIndex, 0));
-        List<Lookup.LookupResult> lookupResultList = suggester.lookup(suggestQuery, false, 10);
-        for (Lookup.LookupResult lookupResult : lookupResultList) {
-            suggestionList.add(lookupResult.key.toString());
+        Directory shadowDirectory = null;
+        IndexWriter shadowWriter = null;
+        ExecutorService rebuildExecutor = null;
+        boolean swapped = false;
+        try {
+            // Open the shadow index, resuming from its last checkpoint if possible
+            touchedIdSet = ConcurrentHashMap.newKeySet();
+            shadowDirectory = openDirectory(DirectoryUtil::getLuceneShadowDirectory, false);
+            Map<String, String> checkpoint = readCheckpoint(shadowDirectory);
+            IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+            config.setOpenMode(checkpoint == null ? IndexWriterConfig.OpenMode.CREATE : IndexWriterConfig.OpenMode.APPEND);
+            config.setCommitOnClose(false);
+            config.setMergeScheduler(new ConcurrentMergeScheduler());
+            shadowWriter = new IndexWriter(shadowDirectory, config);
+
+            String phase = REBUILD_PHASE_DOCUMENTS;
+            String cursor = null;
+            long doneCount = 0;
+            if (checkpoint != null) {
+                phase = checkpoint.get(REBUILD_PHASE_KEY);
+                cursor = checkpoint.get(REBUILD_CURSOR_KEY);
+                doneCount = Long.parseLong(checkpoint.get(REBUILD_DONE_KEY));
+                log.info("Resuming index rebuild from {} after {}", phase, cursor);
+
+                // Changes made since the checkpoint may be missing from the shadow index
+                Date checkpointDate = new Date(Long.parseLong(checkpoint.get(REBUILD_DATE_KEY)));
+                Set<String> idSet = touchedIdSet;
+                TransactionUtil.handle(() -> {
+                    idSet.addAll(new DocumentDao().findIdsModifiedSince(checkpointDate));
+                    idSet.addAll(new FileDao().findIdsModifiedSince(checkpointDate));
+                });
+            }
+            long[] totalCount = new long[1];
+            TransactionUtil.handle(() -> totalCount[0] = new DocumentDao().getDocumentCount() + new FileDao().getFileCount());
+            rebuildProgress.start(totalCount[0], doneCount);
+
+            rebuildExecutor = Executors.newFixedThreadPool(rebuildThreads, r -> {
+                Thread thread = new Thread(r, "lucene-rebuild");
+                thread.setDaemon(true);
+                return thread;
+            });
+            if (REBUILD_PHASE_DOCUMENTS.equals(phase)) {
+                if (!rebuildPhase(REBUILD_PHASE_DOCUMENTS, cursor, shadowWriter, rebuildExecutor)) {
+                    return;
+                }
+                cursor = null;
+            }
+            if (!rebuildPhase(REBUILD_PHASE_FILES, cursor, shadowWriter, rebuildExecutor)) {
+                return;
+            }
+
+            // Replace the live index
+            swapIndex(shadowWriter, shadowDirectory);
+            swapped = true;
+        } finally {
+            touchedIdSet = null;
+            rebuildProgress.stop();
+            if (rebuildExecutor != null) {
+                rebuildExecutor.shutdownNow();
+            }
+            if (shadowWriter != null && shadowWriter.isOpen()) {
+                // Keep the last checkpoint only
+                shadowWriter.rollback();
+            }
+            if (shadowDirectory != null) {
+                shadowDirectory.close();
+                if (swapped && !(shadowDirectory instanceof RAMDirectory)) {
+                    deleteDirectory(DirectoryUtil.getLuceneShadowDirectory());
+                }
+            }
+            rebuildLock.unlock();
         }
     }
 
+    @Override
+    public RebuildProgress getRebuildProgress() {
+        return rebuildProgress;
+    }
+
     /**
-     * Fulltext search in files and documents.
+     * Returns the checkpoint of a previous rebuild stored in a shadow index.
+     *
+     * @param shadowDirectory Shadow index directory
+     * @return Checkpoint commit user data, or null if the rebuild must start from scratch
+     * @throws IOException e
+     */
+    private Map<String, String> readCheckpoint(Directory shadowDirectory) throws IOException {
+        if (!DirectoryReader.indexExists(shadowDirectory)) {
+            return null;
+        }
+        Map<String, String> userData = SegmentInfos.readLatestCommit(shadowDirectory).getUserData();
+        if (!VERSION.equals(userData.get(VERSION_KEY)) || userData.get(REBUILD_PHASE_KEY) == null) {
+            return null;
+        }
+        return userData;
+    }
+
+    /**
+     * Index all documents or all files into the shadow index.
+     * Items are loaded by ID order from the database, while the previous batch is indexed by the rebuild threads.
+     *
+     * @param phase Rebuild phase
+     * @param cursor ID of the last item already indexed (null to start from the first one)
+     * @param shadowWriter Shadow index writer
+     * @param rebuildExecutor Rebuild threads
+     * @return False if the rebuild has been stopped
+     * @throws Exception e
+     */
+    private boolean rebuildPhase(String phase, String cursor, IndexWriter shadowWriter, ExecutorService rebuildExecutor) throws Exception {
+        rebuildProgress.setPhase(phase);
+        List<Future<?>> futureList = new ArrayList<>();
+        long lastCheckpointTimestamp = System.currentTimeMillis();
+        while (!closing) {
+            // Load and convert the next batch
+            List<org.apache.lucene.document.Document> luceneDocumentList = loadBatch(phase, cursor);
+
+            // Wait for the previous batch to be indexed
+            waitAll(futureList);
+            if (luceneDocumentList.isEmpty()) {
+                return true;
+            }
+
+            // Index the batch in parallel
+            int partitionSize = (luceneDocumentList.size() + rebuildThreads - 1) / rebuildThreads;
+            for (List<org.apache.lucene.document.Document> partition : Lists.partition(luceneDocumentList, partitionSize)) {
+                futureList.add(rebuildExecutor.submit(() -> {
+                    for (org.apache.lucene.document.Document luceneDocument : partition) {
+                        shadowWriter.addDocument(luceneDocument);
+                    }
+                    rebuildProgress.addDone(partition.size());
+                    return null;
+                }));
+            }
+            cursor = luceneDocumentList.get(luceneDocumentList.size() - 1).get("id");
+
+            if (System.currentTimeMillis() - lastCheckpointTimestamp >= REBUILD_CHECKPOINT_INTERVAL) {
+                waitAll(futureList);
+                checkpoint(shadowWriter, phase, cursor);
+                lastCheckpointTimestamp = System.currentTimeMillis();
+            }
+        }
+
+        // Save the progress before stopping
+        waitAll(futureList);
+        checkpoint(shadowWriter, phase, cursor);
+        log.info("Index rebuild stopped in {} after {}", phase, cursor);
+        return false;
+    }
+
+    /**
+     * Load the next batch of documents or files to index.
+     *
+     * @param phase Rebuild phase
+     * @param cursor ID of the last item already loaded
+     * @return Lucene documents, ordered by ID
+     * @throws Exception e
+     */
+    private List<org.apache.lucene.document.Document> loadBatch(String phase, String cursor) throws Exception {
+        List<List<org.apache.lucene.document.Document>> result = new ArrayList<>();
+        TransactionUtil.handle(() -> {
+            if (REBUILD_PHASE_DOCUMENTS.equals(phase)) {
+                result.add(getDocumentsFromDocuments(new DocumentDao().findAll(cursor, REBUILD_BATCH_SIZE)));
+            } else {
+                List<org.apache.lucene.document.Document> luceneDocumentList = new ArrayList<>();
+                for (File file : new FileDao().findAll(cursor, REBUILD_BATCH_SIZE)) {
+                    luceneDocumentList.add(getDocumentFromFile(file));
+                }
+                result.add(luceneDocumentList);
+            }
+        });
+        if (result.isEmpty()) {
+            throw new Exception("Error loading a batch of " + phase + " to index after " + cursor);
+        }
+        return result.get(0);
+    }
+
+    /**
+     * Wait for some indexing tasks to finish.
+     *
+     * @param futureList Indexing tasks (cleared)
+     * @throws Exception e
+     */
+    private void waitAll(List<Future<?>> futureList) throws Exception {
+        for (Future<?> future : futureList) {
+            future.get();
+        }
+        futureList.clear();
+    }
+
+    /**
+     * Commit the shadow index with the current rebuild position.
+     * Items modified before the checkpoint are reindexed first, so that resuming only needs recent changes.
+     *
+     * @param shadowWriter Shadow index writer
+     * @param phase Rebuild phase
+     * @param cursor ID of the last item indexed
+     * @throws Exception e
+     */
+    private void checkpoint(IndexWriter shadowWriter, String phase, String cursor) throws Exception {
+        long checkpointTimestamp = System.currentTimeMillis();
+        applyTouched(shadowWriter);
+
+        Map<String, String> commitData = getCommitData(false);
+        commitData.put(REBUILD_PHASE_KEY, phase);
+        if (cursor != null) {
+            commitData.put(REBUILD_CURSOR_KEY, cursor);
+        }
+        commitData.put(REBUILD_DONE_KEY, Long.toString(rebuildProgress.getDoneCount()));
+        commitData.put(REBUILD_DATE_KEY, Long.toString(checkpointTimestamp - REBUILD_RESUME_MARGIN));
+        shadowWriter.setLiveCommitData(commitData.entrySet());
+        shadowWriter.commit();
+    }
+
+    /**
+     * Reindex in the shadow index the documents and files modified since the rebuild started.
+     *
+     * @param shadowWriter Shadow index writer
+     * @throws Exception e
+     */
+    private void applyTouched(IndexWriter shadowWriter) throws Exception {
+        Set<String> idSet = touchedIdSet;
+        List<String> idList = new ArrayList<>(idSet);
+        idSet.removeAll(idList);
+        if (idList.isEmpty()) {
+            return;
+        }
+
+        List<Boolean> result = new ArrayList<>();
+        TransactionUtil.handle(() -> {
+            DocumentDao documentDao = new DocumentDao();
+            FileDao fileDao = new FileDao();
+            try {
+                List<Document> documentList = new ArrayList<>();
+                for (String id : idList) {
+                    Document document = documentDao.getById(id);
+                    File file = document == null ? fileDao.getActiveById(id) : null;
+                    if (document != null) {
+                        documentList.add(document);
+                    } else if (file != null) {
+                        shadowWriter.updateDocument(new Term("id", id), getDocumentFromFile(file));
+                    } else {
+                        shadowWriter.deleteDocuments(new Term("id", id));
+                    }
+                }
+                for (org.apache.lucene.document.Document luceneDocument : getDocumentsFromDocuments(documentList)) {
+                    shadowWriter.updateDocument(new Term("id", luceneDocument.get("id")), luceneDocument);
+                }
+                result.add(true);
+            } catch (IOException e) {
+                log.error("Error reindexing modified documents and files", e);
+            }
+        });
+        if (result.isEmpty()) {
+            throw new Exception("Error reindexing " + idList.size() + " modified documents and files");
+        }
+    }
+
+    /**
+     * Replace the content of the live index with the shadow index.
+     * Searches and writes are blocked during the swap, so they never see a partial index.
+     *
+     * @param shadowWriter Shadow index writer (closed)
+     * @param shadowDirectory Shadow index directory
+     * @throws Exception e
+     */
+    private void swapIndex(IndexWriter shadowWriter, Directory shadowDirectory) throws Exception {
+        indexLock.writeLock().lock();
+        try {
+            // Nothing can be modified anymore, catch up with the last changes
+            applyTouched(shadowWriter);
+            shadowWriter.commit();
+            shadowWriter.close();
+
+            changeCount.incrementAndGet();
+            indexWriter.deleteAll();
+            indexWriter.addIndexes(shadowDirectory);
+            searcherManager.maybeRefreshBlocking();
+            touchedIdSet = null;
+        } finally {
+            changeCount.incrementAndGet();
+            indexLock.writeLock().unlock();
+        }
+        pendingOperationCount.incrementAndGet();
+        commit();
+
+        // The titles have changed
+        titleSuggester.markStale();
+        rebuildSuggester();
+        log.info("Index rebuilt with {} documents and files", rebuildProgress.getDoneCount());
+    }
+
+    /**
+     * Remember a document or file modified during a rebuild.
+     *
+     * @param id Document or file ID
+     */
+    private void markTouched(String id) {
+        Set<String> idSet = touchedIdSet;
+        if (idSet != null) {
+            idSet.add(id);
+        }
+    }
+
+    @Override
+    public List<String> suggestSearchTerms(String search, int count) throws Exception {
+        return titleSuggester.lookup(search, count);
+    }
+
+    /**
+     * Rebuild the suggester from the titles currently indexed.
+     *
+     * @throws IOException e
+     */
+    private void rebuildSuggester() throws IOException {
+        IndexSearcher searcher = acquireSearcher();
+        try {
+            titleSuggester.build(searcher.getIndexReader());
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Rebuild the suggester if some titles have been removed and the last build is old enough.
+     */
+    private void rebuildSuggesterIfNeeded() {
+        if (titleSuggester.isStale()
+                && System.currentTimeMillis() - titleSuggester.getLastBuildTimestamp() >= suggestRebuildInterval) {
+            try {
+                rebuildSuggester();
+            } catch (Exception e) {
+                log.error("Error rebuilding the suggester", e);
+            }
+        }
+    }
+
+    /**
+     * Build the fulltext query on files and documents.
      *
      * @param searchQuery Search query on metadatas
      * @param fullSearchQuery Search query on all fields
-     * @return Map of document IDs as key and highlight as value
-     * @throws Exception e
+     * @return Query
      */
-    private Map<String, String> search(String searchQuery, String fullSearchQuery) throws Exception {
+    private Query buildQuery(String searchQuery, String fullSearchQuery) {
         // The fulltext query searches in all fields
         searchQuery = searchQuery + " " + fullSearchQuery;
 
@@ -421,7 +1183,7 @@ public class LuceneIndexingHandler implements IndexingHandler {
         Analyzer analyzer = new StandardAnalyzer();
 
         // Search on documents and files
-        BooleanQuery query = new BooleanQuery.Builder()
+        return new BooleanQuery.Builder()
                 .add(buildQueryParser(analyzer, "title").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "description").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "subject").parse(searchQuery), BooleanClause.Occur.SHOULD)
@@ -435,44 +1197,333 @@ public class LuceneIndexingHandler implements IndexingHandler {
                 .add(buildQueryParser(analyzer, "filename").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "content").parse(fullSearchQuery), BooleanClause.Occur.SHOULD)
                 .build();
+    }
 
-        // Search
-        DirectoryReader directoryReader = getDirectoryReader();
-        Map<String, String> documentMap = Maps.newHashMap();
-        if (directoryReader == null) {
-            // The directory reader is not yet initialized (probably because there is nothing indexed)
-            return documentMap;
-        }
-        IndexSearcher searcher = new IndexSearcher(directoryReader);
-        TopDocs topDocs = searcher.search(query, Integer.MAX_VALUE);
-        ScoreDoc[] docs = topDocs.scoreDocs;
-
-        SimpleHTMLFormatter simpleHTMLFormatter = new SimpleHTMLFormatter("<strong>", "</strong>");
-        SimpleHTMLEncoder simpleHTMLEncoder = new SimpleHTMLEncoder();
-        Highlighter highlighter = new Highlighter(simpleHTMLFormatter, simpleHTMLEncoder, new QueryScorer(query));
-
-        // Extract document IDs and highlights
-        for (ScoreDoc doc : docs) {
-            org.apache.lucene.document.Document document = searcher.doc(doc.doc);
-            String type = document.get("doctype");
-            String documentId = null;
-            String highlight = null;
-            if (type.equals("document")) {
-                documentId = document.get("id");
-            } else if (type.equals("file")) {
-                documentId = document.get("document_id");
-                String content = document.get("content");
-                if (content != null) {
-                    highlight = highlighter.getBestFragment(analyzer, "content", content);
-                }
+    /**
+     * Build a query matching the documents either directly or through one of their files.
+     *
+     * @param searcher Index searcher
+     * @param query Fulltext query
+     * @return Query on documents only
+     * @throws IOException e
+     */
+    private Query buildDocumentQuery(IndexSearcher searcher, Query query) throws IOException {
+        // Join the matching files to their documents
+        Query fileQuery = new BooleanQuery.Builder()
+                .add(query, BooleanClause.Occur.MUST)
+                .add(new TermQuery(new Term("doctype", "file")), BooleanClause.Occur.FILTER)
+                .build();
+        Set<BytesRef> documentIdSet = new HashSet<>();
+        searcher.search(fileQuery, new DocValuesCollector("document_id", documentIdSet));
+
+        return new BooleanQuery.Builder()
+                .add(new BooleanQuery.Builder()
+                        .add(query, BooleanClause.Occur.SHOULD)
+                        .add(new TermInSetQuery("id", documentIdSet), BooleanClause.Occur.SHOULD)
+                        .build(), BooleanClause.Occur.MUST)
+                .add(new TermQuery(new Term("doctype", "document")), BooleanClause.Occur.FILTER)
+                .build();
+    }
+
+    /**
+     * Fulltext search in files and documents.
+     *
+     * @param query Fulltext query
+     * @return IDs of all matching documents
+     * @throws Exception e
+     */
+    private Set<String> search(Query query) throws Exception {
+        Set<BytesRef> documentIdSet = new HashSet<>();
+        IndexSearcher searcher = acquireSearcher();
+        try {
+            searcher.search(buildDocumentQuery(searcher, query), new DocValuesCollector("id", documentIdSet));
+        } finally {
+            searcherManager.release(searcher);
+        }
+
+        Set<String> documentIdList = new HashSet<>();
+        for (BytesRef documentId : documentIdSet) {
+            documentIdList.add(documentId.utf8ToString());
+        }
+        return documentIdList;
+    }
+
+    /**
+     * Search documents, sorted and paginated by the index.
+     *
+     * @param fulltextQuery Fulltext query (optional)
+     * @param filterQuery Filter query on documents
+     * @param paginatedList Paginated list (result count updated by side effects)
+     * @param sortCriteria Sort criteria
+     * @param facets Facet counts, computed in the same pass (updated by side effects, null to skip them)
+     * @return IDs of the documents of the page, in order
+     * @throws Exception e
+     */
+    private List<String> searchPage(Query fulltextQuery, Query filterQuery, PaginatedList<DocumentDto> paginatedList, SortCriteria sortCriteria,
+                                    DocumentFacetsDto facets) throws Exception {
+        List<String> documentIdList = new ArrayList<>();
+        IndexSearcher searcher = acquireSearcher();
+        try {
+            // Start after the cursor or at the offset, and collect one more hit to know if there is a next page
+            FieldDoc after = getAfter(paginatedList.getCursor(), sortCriteria);
+            int start = after == null ? paginatedList.getOffset() : 0;
+            int numHits = start + paginatedList.getLimit() + 1;
+            int totalHitsThreshold;
+            switch (paginatedList.getCountMode()) {
+                case NONE:
+                    totalHitsThreshold = numHits;
+                    break;
+                case ESTIMATE:
+                    totalHitsThreshold = Math.max(numHits, PaginatedLists.ESTIMATE_COUNT_LIMIT);
+                    break;
+                default:
+                    totalHitsThreshold = Integer.MAX_VALUE;
+            }
+            TopFieldCollector collector = TopFieldCollector.create(getSort(sortCriteria), numHits, after, totalHitsThreshold);
+            Query query = buildSearchQuery(searcher, fulltextQuery, filterQuery);
+            if (facets == null) {
+                searcher.search(query, collector);
+            } else {
+                FacetCollector facetCollector = new FacetCollector();
+                searcher.search(query, MultiCollector.wrap(collector, facetCollector));
+                facetCollector.fill(facets);
+            }
+            TopDocs topDocs = collector.topDocs(start, paginatedList.getLimit() + 1);
+            if (paginatedList.getCountMode() != CountMode.NONE) {
+                paginatedList.setResultCount((int) topDocs.totalHits.value);
+                paginatedList.setResultCountExact(topDocs.totalHits.relation == TotalHits.Relation.EQUAL_TO);
             }
+            ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+            for (int i = 0; i < Math.min(scoreDocs.length, paginatedList.getLimit()); i++) {
+                documentIdList.add(searcher.doc(scoreDocs[i].doc, Collections.singleton("id")).get("id"));
+            }
+            if (scoreDocs.length > paginatedList.getLimit() && paginatedList.getLimit() > 0) {
+                Object value = ((FieldDoc) scoreDocs[paginatedList.getLimit() - 1]).fields[0];
+                paginatedList.setNextCursor(new PageCursor(sortCriteria,
+                        value instanceof BytesRef ? ((BytesRef) value).utf8ToString() : value,
+                        documentIdList.get(paginatedList.getLimit() - 1)));
+            }
+        } finally {
+            searcherManager.release(searcher);
+        }
+        return documentIdList;
+    }
 
-            if (documentId != null) {
-                documentMap.put(documentId, highlight);
+    /**
+     * Returns the last hit of the previous page from a cursor.
+     *
+     * @param cursor Cursor (optional)
+     * @param sortCriteria Sort criteria
+     * @return Last hit of the previous page, or null to start at the offset
+     */
+    private FieldDoc getAfter(PageCursor cursor, SortCriteria sortCriteria) {
+        if (cursor == null) {
+            return null;
+        }
+
+        // The ID is unique, the document of the cursor itself is always skipped
+        BytesRef id = new BytesRef(cursor.getId());
+        Object value = cursor.getValue();
+        switch (sortCriteria.getColumn()) {
+            case 0:
+                return new FieldDoc(Integer.MAX_VALUE, Float.NaN, new Object[] { id });
+            case 1:
+                value = value == null ? null : new BytesRef(value.toString());
+                break;
+            default:
+                value = value instanceof Date ? ((Date) value).getTime() : value == null ? 0L : value;
+        }
+        return new FieldDoc(Integer.MAX_VALUE, Float.NaN, new Object[] { value, id });
+    }
+
+    /**
+     * Count the facets of the matching documents, without sorting them.
+     *
+     * @param fulltextQuery Fulltext query (optional)
+     * @param filterQuery Filter query on documents
+     * @param facets Facet counts (updated by side effects)
+     * @throws Exception e
+     */
+    private void searchFacets(Query fulltextQuery, Query filterQuery, DocumentFacetsDto facets) throws Exception {
+        IndexSearcher searcher = acquireSearcher();
+        try {
+            FacetCollector facetCollector = new FacetCollector();
+            searcher.search(buildSearchQuery(searcher, fulltextQuery, filterQuery), facetCollector);
+            facetCollector.fill(facets);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Build the query on documents matching a fulltext query and a filter.
+     *
+     * @param searcher Index searcher
+     * @param fulltextQuery Fulltext query (optional)
+     * @param filterQuery Filter query on documents
+     * @return Query
+     * @throws IOException e
+     */
+    private Query buildSearchQuery(IndexSearcher searcher, Query fulltextQuery, Query filterQuery) throws IOException {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder()
+                .add(filterQuery, BooleanClause.Occur.FILTER);
+        if (fulltextQuery != null) {
+            builder.add(buildDocumentQuery(searcher, fulltextQuery), BooleanClause.Occur.MUST);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns true if the index can filter, sort and paginate a search by itself.
+     * Active routes are only known by the database.
+     *
+     * @param criteria Search criteria
+     * @param sortCriteria Sort criteria
+     * @return True if the search can be done in the index
+     */
+    private boolean isSearchableInIndex(DocumentCriteria criteria, SortCriteria sortCriteria) {
+        return getSort(sortCriteria) != null
+                && (criteria.getActiveRoute() == null || !criteria.getActiveRoute());
+    }
+
+    /**
+     * Build the query filtering documents on the search criteria.
+     *
+     * @param criteria Search criteria
+     * @return Filter query
+     */
+    private Query buildFilterQuery(DocumentCriteria criteria) {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder()
+                .add(new TermQuery(new Term("doctype", "document")), BooleanClause.Occur.FILTER);
+        if (criteria.getTargetIdList() != null && !SecurityUtil.skipAclCheck(criteria.getTargetIdList())) {
+            // Read permission is enough for searching
+            List<BytesRef> targetIdList = new ArrayList<>();
+            for (String targetId : criteria.getTargetIdList()) {
+                targetIdList.add(new BytesRef(targetId));
+            }
+            builder.add(new TermInSetQuery("reader", targetIdList), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getCreateDateMin() != null || criteria.getCreateDateMax() != null) {
+            builder.add(LongPoint.newRangeQuery("create_date",
+                    criteria.getCreateDateMin() == null ? Long.MIN_VALUE : criteria.getCreateDateMin().getTime(),
+                    criteria.getCreateDateMax() == null ? Long.MAX_VALUE : criteria.getCreateDateMax().getTime()),
+                    BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getUpdateDateMin() != null || criteria.getUpdateDateMax() != null) {
+            builder.add(LongPoint.newRangeQuery("update_date",
+                    criteria.getUpdateDateMin() == null ? Long.MIN_VALUE : criteria.getUpdateDateMin().getTime(),
+                    criteria.getUpdateDateMax() == null ? Long.MAX_VALUE : criteria.getUpdateDateMax().getTime()),
+                    BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getTitle() != null) {
+            builder.add(new TermQuery(new Term("title_sort", criteria.getTitle())), BooleanClause.Occur.FILTER);
+        }
+        for (List<String> tagIdList : criteria.getTagIdList()) {
+            // One of the tags of each group must be present
+            BooleanQuery.Builder tagBuilder = new BooleanQuery.Builder();
+            for (String tagId : tagIdList) {
+                tagBuilder.add(new TermQuery(new Term("tag", tagId)), BooleanClause.Occur.SHOULD);
+            }
+            builder.add(tagBuilder.build(), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getExcludedTagIdList() != null) {
+            for (List<String> tagIdList : criteria.getExcludedTagIdList()) {
+                for (String tagId : tagIdList) {
+                    builder.add(new TermQuery(new Term("tag", tagId)), BooleanClause.Occur.MUST_NOT);
+                }
             }
         }
+        if (criteria.getShared() != null && criteria.getShared()) {
+            builder.add(new TermQuery(new Term("shared", "true")), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getMimeType() != null) {
+            builder.add(new TermQuery(new Term("mime", criteria.getMimeType())), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getLanguage() != null) {
+            builder.add(new TermQuery(new Term("language", criteria.getLanguage())), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getCreatorId() != null) {
+            builder.add(new TermQuery(new Term("creator", criteria.getCreatorId())), BooleanClause.Occur.FILTER);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the index sort matching a sort criteria.
+     *
+     * @param sortCriteria Sort criteria
+     * @return Sort, or null if the column is not sortable in the index
+     */
+    private Sort getSort(SortCriteria sortCriteria) {
+        if (sortCriteria == null) {
+            return null;
+        }
 
-        return documentMap;
+        boolean reverse = !sortCriteria.isAsc();
+        SortField idSortField = new SortField("id", SortField.Type.STRING, reverse);
+        switch (sortCriteria.getColumn()) {
+            case 0:
+                return new Sort(idSortField);
+            case 1:
+                return new Sort(new SortField("title_sort", SortField.Type.STRING, reverse), idSortField);
+            case 3:
+                return new Sort(new SortField("create_date", SortField.Type.LONG, reverse), idSortField);
+            case 8:
+                return new Sort(new SortField("update_date", SortField.Type.LONG, reverse), idSortField);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Highlight the best matching file content of each document.
+     * Passages are found with the offsets stored in the postings, the content is not analyzed again.
+     *
+     * @param query Fulltext query
+     * @param documentDtoList Documents of the page (updated by side effects)
+     * @throws Exception e
+     */
+    private void highlight(Query query, List<DocumentDto> documentDtoList) throws Exception {
+        IndexSearcher searcher = acquireSearcher();
+        try {
+            // Find the best matching file of each document
+            List<DocumentDto> highlightedDtoList = new ArrayList<>();
+            List<ScoreDoc> scoreDocList = new ArrayList<>();
+            for (DocumentDto documentDto : documentDtoList) {
+                Query fileQuery = new BooleanQuery.Builder()
+                        .add(query, BooleanClause.Occur.MUST)
+                        .add(new TermQuery(new Term("doctype", "file")), BooleanClause.Occur.FILTER)
+                        .add(new TermQuery(new Term("document_id", documentDto.getId())), BooleanClause.Occur.FILTER)
+                        .build();
+                TopDocs topDocs = searcher.search(fileQuery, 1);
+                if (topDocs.scoreDocs.length > 0) {
+                    highlightedDtoList.add(documentDto);
+                    scoreDocList.add(topDocs.scoreDocs[0]);
+                }
+            }
+            if (scoreDocList.isEmpty()) {
+                return;
+            }
+
+            // Highlight all files at once
+            UnifiedHighlighter highlighter = new UnifiedHighlighter(searcher, new StandardAnalyzer()) {
+                @Override
+                protected int getMaxNoHighlightPassages(String field) {
+                    // Don't return the beginning of the content if nothing matches
+                    return 0;
+                }
+            };
+            highlighter.setFormatter(new DefaultPassageFormatter("<strong>", "</strong>", "... ", true));
+            highlighter.setMaxLength(storedContentLimit > 0 ? storedContentLimit : Integer.MAX_VALUE - 1);
+            TopDocs topDocs = new TopDocs(new TotalHits(scoreDocList.size(), TotalHits.Relation.EQUAL_TO),
+                    scoreDocList.toArray(new ScoreDoc[0]));
+            String[] highlights = highlighter.highlight("content", query, topDocs);
+            for (int i = 0; i < highlights.length; i++) {
+                highlightedDtoList.get(i).setHighlight(highlights[i]);
+            }
+        } finally {
+            searcherManager.release(searcher);
+        }
     }
 
     /**
@@ -497,8 +1548,23 @@ public class LuceneIndexingHandler implements IndexingHandler {
     private org.apache.lucene.document.Document getDocumentFromDocument(Document document) {
         org.apache.lucene.document.Document luceneDocument = new org.apache.lucene.document.Document();
         luceneDocument.add(new StringField("id", document.getId(), Field.Store.YES));
+        luceneDocument.add(new SortedDocValuesField("id", new BytesRef(document.getId())));
         luceneDocument.add(new StringField("doctype", "document", Field.Store.YES));
         luceneDocument.add(new TextField("title", document.getTitle(), Field.Store.NO));
+        luceneDocument.add(new StringField("title_sort", document.getTitle(), Field.Store.NO));
+        luceneDocument.add(new SortedDocValuesField("title_sort", new BytesRef(document.getTitle())));
+        luceneDocument.add(new StringField("creator", document.getUserId(), Field.Store.NO));
+        luceneDocument.add(new SortedSetDocValuesField("creator", new BytesRef(document.getUserId())));
+        if (document.getLanguage() != null) {
+            luceneDocument.add(new StringField("language", document.getLanguage(), Field.Store.NO));
+            luceneDocument.add(new SortedSetDocValuesField("language", new BytesRef(document.getLanguage())));
+        }
+        luceneDocument.add(new LongPoint("create_date", document.getCreateDate().getTime()));
+        luceneDocument.add(new NumericDocValuesField("create_date", document.getCreateDate().getTime()));
+        if (document.getUpdateDate() != null) {
+            luceneDocument.add(new LongPoint("update_date", document.getUpdateDate().getTime()));
+            luceneDocument.add(new NumericDocValuesField("update_date", document.getUpdateDate().getTime()));
+        }
         if (document.getDescription() != null) {
             luceneDocument.add(new TextField("description", document.getDescription(), Field.Store.NO));
         }
@@ -530,6 +1596,75 @@ public class LuceneIndexingHandler implements IndexingHandler {
         return luceneDocument;
     }
 
+    /**
+     * Build Lucene documents from database documents, with their readers, tags and files metadata.
+     * Linked data is loaded with a few queries for the whole list.
+     *
+     * @param documentList Documents
+     * @return Lucene documents, in the same order
+     */
+    private List<org.apache.lucene.document.Document> getDocumentsFromDocuments(List<Document> documentList) {
+        List<org.apache.lucene.document.Document> luceneDocumentList = new ArrayList<>();
+        for (List<Document> documentPartition : Lists.partition(documentList, 500)) {
+            List<String> documentIdList = new ArrayList<>();
+            for (Document document : documentPartition) {
+                documentIdList.add(document.getId());
+            }
+            Map<String, Object> parameterMap = new HashMap<>();
+            parameterMap.put("documentIdList", documentIdList);
+
+            // Readers from the document ACLs and the ACLs inherited from tags
+            SetMultimap<String, String> readerMap = HashMultimap.create();
+            for (Object[] o : getResultList(new QueryParam("select p.DPE_IDDOCUMENT_C, p.DPE_IDTARGET_C from T_DOCUMENT_PERMISSION p " +
+                    " where p.DPE_IDDOCUMENT_C in (:documentIdList) and p.DPE_PERM_C = 'READ'", parameterMap))) {
+                readerMap.put((String) o[0], (String) o[1]);
+            }
+
+            // Tags
+            SetMultimap<String, String> tagMap = HashMultimap.create();
+            for (Object[] o : getResultList(new QueryParam("select dt.DOT_IDDOCUMENT_C, dt.DOT_IDTAG_C from T_DOCUMENT_TAG dt " +
+                    " where dt.DOT_IDDOCUMENT_C in (:documentIdList) and dt.DOT_DELETEDATE_D is null", parameterMap))) {
+                tagMap.put((String) o[0], (String) o[1]);
+            }
+
+            // MIME types of the files
+            SetMultimap<String, String> mimeTypeMap = HashMultimap.create();
+            for (Object[] o : getResultList(new QueryParam("select f.FIL_IDDOC_C, f.FIL_MIMETYPE_C from T_FILE f " +
+                    " where f.FIL_IDDOC_C in (:documentIdList) and f.FIL_DELETEDATE_D is null", parameterMap))) {
+                if (o[1] != null) {
+                    mimeTypeMap.put((String) o[0], (String) o[1]);
+                }
+            }
+
+            // Shared documents
+            Set<String> sharedSet = new HashSet<>();
+            for (Object[] o : getResultList(new QueryParam("select d.DOC_ID_C, d.DOC_SHARECOUNT_N from T_DOCUMENT d " +
+                    " where d.DOC_ID_C in (:documentIdList) and d.DOC_SHARECOUNT_N > 0", parameterMap))) {
+                sharedSet.add((String) o[0]);
+            }
+
+            for (Document document : documentPartition) {
+                org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
+                for (String readerId : readerMap.get(document.getId())) {
+                    luceneDocument.add(new StringField("reader", readerId, Field.Store.NO));
+                }
+                for (String tagId : tagMap.get(document.getId())) {
+                    luceneDocument.add(new StringField("tag", tagId, Field.Store.NO));
+                    luceneDocument.add(new SortedSetDocValuesField("tag", new BytesRef(tagId)));
+                }
+                for (String mimeType : mimeTypeMap.get(document.getId())) {
+                    luceneDocument.add(new StringField("mime", mimeType, Field.Store.NO));
+                    luceneDocument.add(new SortedSetDocValuesField("mime", new BytesRef(mimeType)));
+                }
+                if (sharedSet.contains(document.getId())) {
+                    luceneDocument.add(new StringField("shared", "true", Field.Store.NO));
+                }
+                luceneDocumentList.add(luceneDocument);
+            }
+        }
+        return luceneDocumentList;
+    }
+
     /**
      * Build Lucene document from file.
      *
@@ -545,43 +1680,67 @@ public class LuceneIndexingHandler implements IndexingHandler {
         }
         if (file.getDocumentId() != null) {
             luceneDocument.add(new StringField("document_id", file.getDocumentId(), Field.Store.YES));
+            luceneDocument.add(new SortedDocValuesField("document_id", new BytesRef(file.getDocumentId())));
         }
         if (file.getContent() != null) {
-            luceneDocument.add(new TextField("content", file.getContent(), Field.Store.YES));
+            // The whole content is searchable, but only its beginning may be stored for highlighting
+            String content = file.getContent();
+            luceneDocument.add(new Field("content", content, CONTENT_FIELD_TYPE));
+            if (storedContentLimit > 0 && content.length() > storedContentLimit) {
+                content = content.substring(0, storedContentLimit);
+            }
+            luceneDocument.add(new StoredField("content", content));
         }
 
         return luceneDocument;
     }
 
     /**
-     * Returns a valid directory reader.
-     * Take care of reopening the reader if the index has changed
-     * and closing the previous one.
+     * Execute a native query and returns all results.
      *
-     * @return the directoryReader
+     * @param queryParam Query parameters
+     * @return List of results
      */
-    private DirectoryReader getDirectoryReader() {
-        if (directoryReader == null) {
-            try {
-                if (!DirectoryReader.indexExists(directory)) {
-                    return null;
-                }
-                directoryReader = DirectoryReader.open(directory);
-            } catch (IOException e) {
-                log.error("Error creating the directory reader", e);
-            }
-        } else {
-            try {
-                DirectoryReader newReader = DirectoryReader.openIfChanged(directoryReader);
-                if (newReader != null) {
-                    directoryReader.close();
-                    directoryReader = newReader;
-                }
-            } catch (IOException e) {
-                log.error("Error while reopening the directory reader", e);
+    @SuppressWarnings("unchecked")
+    private List<Object[]> getResultList(QueryParam queryParam) {
+        return QueryUtil.getNativeQuery(queryParam).getResultList();
+    }
+
+    /**
+     * Returns a searcher seeing uncommitted changes.
+     * The searcher is only refreshed if the index changed since the last refresh,
+     * and the search doesn't wait for a refresh already running in another thread.
+     * The searcher must be released to the searcher manager after use.
+     *
+     * @return Index searcher
+     * @throws IOException e
+     */
+    private IndexSearcher acquireSearcher() throws IOException {
+        indexLock.readLock().lock();
+        try {
+            // The change count is read before refreshing, a change running meanwhile is refreshed by the next search
+            long count = changeCount.get();
+            if (refreshedChangeCount.get() != count && searcherManager.maybeRefresh()) {
+                refreshedChangeCount.accumulateAndGet(count, Math::max);
             }
+            return searcherManager.acquire();
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Delete a directory and its content.
+     *
+     * @param path Directory
+     * @throws IOException e
+     */
+    private void deleteDirectory(Path path) throws IOException {
+        try (Stream<Path> pathStream = Files.walk(path)) {
+            pathStream.sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(java.io.File::delete);
         }
-        return directoryReader;
     }
 
     /**
@@ -590,16 +1749,301 @@ public class LuceneIndexingHandler implements IndexingHandler {
      * @param runnable Runnable
      */
     private void handle(LuceneRunnable runnable) {
+        long startTime = System.nanoTime();
+        changeCount.incrementAndGet();
+        indexLock.readLock().lock();
         try {
             runnable.run(indexWriter);
         } catch (Exception e) {
             log.error("Error in running index writing", e);
+        } finally {
+            changeCount.incrementAndGet();
+            indexLock.readLock().unlock();
+        }
+        operationTime.addAndGet(System.nanoTime() - startTime);
+        operationCount.incrementAndGet();
+
+        if (pendingOperationCount.incrementAndGet() >= commitOperations || commitInterval == 0) {
+            commit();
         }
+    }
 
+    /**
+     * Commit the index writer if the time threshold is reached.
+     */
+    private void commitIfNeeded() {
+        if (pendingOperationCount.get() > 0
+                && System.currentTimeMillis() - lastCommitTimestamp >= commitInterval) {
+            commit();
+        }
+    }
+
+    /**
+     * Commit pending operations to the index storage.
+     */
+    private synchronized void commit() {
+        long pendingCount = pendingOperationCount.getAndSet(0);
+        long startTime = System.nanoTime();
+        indexLock.readLock().lock();
         try {
             indexWriter.commit();
-        } catch (IOException e) {
+            titleSuggester.commit();
+            commitCount.incrementAndGet();
+            lastCommitTimestamp = System.currentTimeMillis();
+        } catch (Exception e) {
+            pendingOperationCount.addAndGet(pendingCount);
             log.error("Cannot commit index writer", e);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        commitTime.addAndGet(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Returns the total number of indexing operations.
+     *
+     * @return Operation count
+     */
+    public long getOperationCount() {
+        return operationCount.get();
+    }
+
+    /**
+     * Returns the average indexing operation latency.
+     *
+     * @return Average latency in milliseconds
+     */
+    public double getAverageOperationLatency() {
+        long count = operationCount.get();
+        return count == 0 ? 0 : operationTime.get() / 1e6 / count;
+    }
+
+    /**
+     * Returns the number of operations not yet committed.
+     *
+     * @return Pending operation count
+     */
+    public long getPendingOperationCount() {
+        return pendingOperationCount.get();
+    }
+
+    /**
+     * Returns the total number of commits.
+     *
+     * @return Commit count
+     */
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    /**
+     * Returns the average commit latency.
+     *
+     * @return Average latency in milliseconds
+     */
+    public double getAverageCommitLatency() {
+        long count = commitCount.get();
+        return count == 0 ? 0 : commitTime.get() / 1e6 / count;
+    }
+
+    /**
+     * Returns the number of searches served by the cache.
+     *
+     * @return Number of cache hits
+     */
+    public long getSearchCacheHitCount() {
+        return searchResultCache == null ? 0 : searchResultCache.getStats().hitCount();
+    }
+
+    /**
+     * Returns the number of searches not found in the cache.
+     *
+     * @return Number of cache misses
+     */
+    public long getSearchCacheMissCount() {
+        return searchResultCache == null ? 0 : searchResultCache.getStats().missCount();
+    }
+
+    /**
+     * Returns the ratio of searches served by the cache.
+     *
+     * @return Hit rate between 0 and 1
+     */
+    public double getSearchCacheHitRate() {
+        if (searchResultCache == null) {
+            return 0;
+        }
+        CacheStats stats = searchResultCache.getStats();
+        return stats.requestCount() == 0 ? 0 : stats.hitRate();
+    }
+
+    /**
+     * Returns the number of cached search results.
+     *
+     * @return Number of cached results
+     */
+    public long getSearchCacheCount() {
+        return searchResultCache == null ? 0 : searchResultCache.getCount();
+    }
+
+    /**
+     * Collector of the values of a sorted doc values field.
+     */
+    private static class DocValuesCollector extends SimpleCollector {
+        /**
+         * Field name.
+         */
+        private final String field;
+
+        /**
+         * Collected values (updated by side effects).
+         */
+        private final Set<BytesRef> valueSet;
+
+        /**
+         * Doc values of the current segment.
+         */
+        private SortedDocValues docValues;
+
+        DocValuesCollector(String field, Set<BytesRef> valueSet) {
+            this.field = field;
+            this.valueSet = valueSet;
+        }
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+            docValues = DocValues.getSorted(context.reader(), field);
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            if (docValues.advanceExact(doc)) {
+                valueSet.add(BytesRef.deepCopyOf(docValues.binaryValue()));
+            }
+        }
+
+        @Override
+        public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE_NO_SCORES;
+        }
+    }
+
+    /**
+     * Collector counting the matching documents by tag, MIME type, language, creator and creation year.
+     * Values are counted by ordinal in each segment, and only resolved once per segment.
+     */
+    private static class FacetCollector extends SimpleCollector {
+        /**
+         * Faceted multi-valued doc values fields.
+         */
+        private static final String[] FIELDS = { "tag", "mime", "language", "creator" };
+
+        /**
+         * Counts by field and value, over all segments.
+         */
+        private final List<Map<String, Long>> countMapList = new ArrayList<>();
+
+        /**
+         * Counts by creation year, over all segments.
+         */
+        private final Map<String, Long> yearCountMap = new HashMap<>();
+
+        /**
+         * Time zone of the creation years.
+         */
+        private final ZoneId zoneId = ZoneId.systemDefault();
+
+        /**
+         * Doc values of the current segment.
+         */
+        private final SortedSetDocValues[] docValues = new SortedSetDocValues[FIELDS.length];
+
+        /**
+         * Counts by ordinal of the current segment.
+         */
+        private final long[][] ordCounts = new long[FIELDS.length][];
+
+        /**
+         * Creation dates of the current segment.
+         */
+        private NumericDocValues createDateValues;
+
+        FacetCollector() {
+            for (int i = 0; i < FIELDS.length; i++) {
+                countMapList.add(new HashMap<>());
+            }
+        }
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+            flushSegment();
+            for (int i = 0; i < FIELDS.length; i++) {
+                docValues[i] = DocValues.getSortedSet(context.reader(), FIELDS[i]);
+                ordCounts[i] = new long[(int) docValues[i].getValueCount()];
+            }
+            createDateValues = DocValues.getNumeric(context.reader(), "create_date");
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            for (int i = 0; i < FIELDS.length; i++) {
+                if (docValues[i].advanceExact(doc)) {
+                    for (long ord = docValues[i].nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = docValues[i].nextOrd()) {
+                        ordCounts[i][(int) ord]++;
+                    }
+                }
+            }
+            if (createDateValues.advanceExact(doc)) {
+                String year = String.valueOf(Instant.ofEpochMilli(createDateValues.longValue()).atZone(zoneId).getYear());
+                yearCountMap.merge(year, 1L, Long::sum);
+            }
+        }
+
+        /**
+         * Resolve the counted ordinals of the current segment to their values.
+         *
+         * @throws IOException e
+         */
+        private void flushSegment() throws IOException {
+            for (int i = 0; i < FIELDS.length; i++) {
+                if (docValues[i] == null) {
+                    continue;
+                }
+                for (int ord = 0; ord < ordCounts[i].length; ord++) {
+                    if (ordCounts[i][ord] > 0) {
+                        countMapList.get(i).merge(docValues[i].lookupOrd(ord).utf8ToString(), ordCounts[i][ord], Long::sum);
+                    }
+                }
+                docValues[i] = null;
+            }
+        }
+
+        /**
+         * Fill the facets with the collected counts, by decreasing count.
+         *
+         * @param facets Facets (updated by side effects)
+         * @throws IOException e
+         */
+        void fill(DocumentFacetsDto facets) throws IOException {
+            flushSegment();
+            facets.setTagCountMap(sortByCount(countMapList.get(0)));
+            facets.setMimeTypeCountMap(sortByCount(countMapList.get(1)));
+            facets.setLanguageCountMap(sortByCount(countMapList.get(2)));
+            facets.setCreatorCountMap(sortByCount(countMapList.get(3)));
+            facets.setYearCountMap(sortByCount(yearCountMap));
+        }
+
+        private static Map<String, Long> sortByCount(Map<String, Long> countMap) {
+            Map<String, Long> sortedMap = new LinkedHashMap<>();
+            countMap.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                    .forEachOrdered(entry -> sortedMap.put(entry.getKey(), entry.getValue()));
+            return sortedMap;
+        }
+
+        @Override
+        public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE_NO_SCORES;
         }
     }
 
@@ -0,0 +1,115 @@
+package com.sismics.docs.core.util.indexing;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of an index rebuild.
+ */
+public class RebuildProgress {
+    /**
+     * True if a rebuild is running.
+     */
+    private volatile boolean running;
+
+    /**
+     * Current phase (documents or files).
+     */
+    private volatile String phase;
+
+    /**
+     * Number of documents and files to index.
+     */
+    private volatile long totalCount;
+
+    /**
+     * Number of documents and files indexed.
+     */
+    private final AtomicLong doneCount = new AtomicLong();
+
+    /**
+     * Number of documents and files already indexed when the rebuild started or resumed.
+     */
+    private volatile long initialDoneCount;
+
+    /**
+     * Start timestamp of the rebuild.
+     */
+    private volatile long startTimestamp;
+
+    /**
+     * Start a new rebuild, or resume a previous one.
+     *
+     * @param totalCount Number of documents and files to index
+     * @param doneCount Number of documents and files already indexed
+     */
+    void start(long totalCount, long doneCount) {
+        this.totalCount = totalCount;
+        this.doneCount.set(doneCount);
+        this.initialDoneCount = doneCount;
+        this.startTimestamp = System.currentTimeMillis();
+        this.phase = null;
+        this.running = true;
+    }
+
+    /**
+     * Mark the rebuild as finished.
+     */
+    void stop() {
+        running = false;
+    }
+
+    /**
+     * Add some indexed documents or files.
+     *
+     * @param count Number of documents or files indexed
+     */
+    void addDone(long count) {
+        doneCount.addAndGet(count);
+    }
+
+    void setPhase(String phase) {
+        this.phase = phase;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getDoneCount() {
+        return doneCount.get();
+    }
+
+    /**
+     * Returns the indexing rate since the rebuild started or resumed.
+     *
+     * @return Documents and files indexed per second
+     */
+    public double getRate() {
+        long elapsed = System.currentTimeMillis() - startTimestamp;
+        if (startTimestamp == 0 || elapsed <= 0) {
+            return 0;
+        }
+        return (doneCount.get() - initialDoneCount) * 1000d / elapsed;
+    }
+
+    /**
+     * Returns the estimated remaining time.
+     *
+     * @return Remaining time in seconds, or null if unknown
+     */
+    public Long getEta() {
+        double rate = getRate();
+        if (!running || rate <= 0) {
+            return null;
+        }
+        return (long) (Math.max(0, totalCount - doneCount.get()) / rate);
+    }
+}
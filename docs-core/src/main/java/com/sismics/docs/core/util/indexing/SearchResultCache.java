@@ -0,0 +1,272 @@
+package com.sismics.docs.core.util.indexing;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.sismics.docs.core.dao.criteria.DocumentCriteria;
+import com.sismics.docs.core.dao.dto.DocumentDto;
+import com.sismics.docs.core.dao.dto.DocumentFacetsDto;
+import com.sismics.docs.core.util.jpa.PageCursor;
+import com.sismics.docs.core.util.jpa.PaginatedList;
+import com.sismics.docs.core.util.jpa.SortCriteria;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Cache of document search results, bounded by an estimation of their size in memory.
+ * Results are keyed by the normalized search criteria, the searching targets, the sort, the page,
+ * and the generation of the data they were computed from. A new generation empties the cache.
+ */
+class SearchResultCache {
+    /**
+     * Cached results.
+     */
+    private final Cache<List<Object>, Result> cache;
+
+    /**
+     * Generation of the cached results.
+     */
+    private volatile List<Long> generation = Collections.emptyList();
+
+    /**
+     * Create a cache.
+     *
+     * @param maxSize Maximum size in bytes
+     */
+    SearchResultCache(long maxSize) {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxSize)
+                .weigher((List<Object> key, Result result) -> result.getSize())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Build the key of a search.
+     * Criteria with the same meaning share the same key: tags and targets are sorted, extra spaces are ignored.
+     *
+     * @param generation Generation of the index and database data
+     * @param criteria Search criteria
+     * @param sortCriteria Sort criteria
+     * @param paginatedList Requested page
+     * @param facets True if facets are requested
+     * @return Key
+     */
+    List<Object> getKey(List<Long> generation, DocumentCriteria criteria, SortCriteria sortCriteria,
+                        PaginatedList<DocumentDto> paginatedList, boolean facets) {
+        List<List<String>> tagIdList = new ArrayList<>();
+        for (List<String> tagIdGroup : criteria.getTagIdList()) {
+            tagIdList.add(new ArrayList<>(new TreeSet<>(tagIdGroup)));
+        }
+        tagIdList.sort(Comparator.comparing(List::toString));
+        TreeSet<String> excludedTagIdSet = new TreeSet<>();
+        if (criteria.getExcludedTagIdList() != null) {
+            for (List<String> tagIdGroup : criteria.getExcludedTagIdList()) {
+                excludedTagIdSet.addAll(tagIdGroup);
+            }
+        }
+
+        return Arrays.asList(generation,
+                criteria.getTargetIdList() == null ? null : new TreeSet<>(criteria.getTargetIdList()),
+                normalize(criteria.getSearch()),
+                normalize(criteria.getFullSearch()),
+                getTime(criteria.getCreateDateMin()),
+                getTime(criteria.getCreateDateMax()),
+                getTime(criteria.getUpdateDateMin()),
+                getTime(criteria.getUpdateDateMax()),
+                tagIdList,
+                excludedTagIdSet,
+                Boolean.TRUE.equals(criteria.getShared()),
+                criteria.getLanguage(),
+                criteria.getCreatorId(),
+                Boolean.TRUE.equals(criteria.getActiveRoute()),
+                criteria.getMimeType(),
+                criteria.getTitle(),
+                sortCriteria == null ? null : sortCriteria.getColumn(),
+                sortCriteria == null ? null : sortCriteria.isAsc(),
+                paginatedList.getOffset(),
+                paginatedList.getLimit(),
+                paginatedList.getCursor() == null ? null : paginatedList.getCursor().encode(),
+                paginatedList.getCountMode(),
+                facets);
+    }
+
+    /**
+     * Returns a cached result.
+     *
+     * @param key Key
+     * @return Result, or null if not cached
+     */
+    Result get(List<Object> key) {
+        checkGeneration(key);
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * Cache a result.
+     *
+     * @param key Key
+     * @param result Result
+     */
+    void put(List<Object> key, Result result) {
+        checkGeneration(key);
+        cache.put(key, result);
+    }
+
+    /**
+     * Returns the statistics of the cache.
+     *
+     * @return Statistics
+     */
+    CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Returns the number of cached results.
+     *
+     * @return Number of cached results
+     */
+    long getCount() {
+        return cache.size();
+    }
+
+    /**
+     * Empty the cache if a key comes from a newer generation.
+     * Entries of older generations can't be requested anymore, the memory is released at once.
+     *
+     * @param key Key
+     */
+    @SuppressWarnings("unchecked")
+    private void checkGeneration(List<Object> key) {
+        List<Long> keyGeneration = (List<Long>) key.get(0);
+        if (!keyGeneration.equals(generation)) {
+            synchronized (this) {
+                if (isNewer(keyGeneration, generation)) {
+                    generation = keyGeneration;
+                    cache.invalidateAll();
+                }
+            }
+        }
+    }
+
+    private static boolean isNewer(List<Long> generation, List<Long> otherGeneration) {
+        for (int i = 0; i < generation.size(); i++) {
+            if (i >= otherGeneration.size() || generation.get(i) > otherGeneration.get(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String normalize(String search) {
+        return Strings.isNullOrEmpty(search) ? null : search.trim().replaceAll("\\s+", " ");
+    }
+
+    private static Long getTime(Date date) {
+        return date == null ? null : date.getTime();
+    }
+
+    /**
+     * Cached result of a search.
+     */
+    static class Result {
+        /**
+         * Total number of matching documents.
+         */
+        private final int resultCount;
+
+        /**
+         * True if the total number of matching documents is exact.
+         */
+        private final boolean resultCountExact;
+
+        /**
+         * Position of the next page (null if this is the last page).
+         */
+        private final PageCursor nextCursor;
+
+        /**
+         * Documents of the page.
+         */
+        private final List<DocumentDto> documentDtoList;
+
+        /**
+         * Search suggestions.
+         */
+        private final List<String> suggestionList;
+
+        /**
+         * Facet counts (null if not requested).
+         */
+        private final DocumentFacetsDto facets;
+
+        Result(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentFacetsDto facets) {
+            this.resultCount = paginatedList.getResultCount();
+            this.resultCountExact = paginatedList.isResultCountExact();
+            this.nextCursor = paginatedList.getNextCursor();
+            this.documentDtoList = Collections.unmodifiableList(new ArrayList<>(paginatedList.getResultList()));
+            this.suggestionList = new ArrayList<>(suggestionList);
+            this.facets = facets;
+        }
+
+        /**
+         * Copy the result to the search output.
+         *
+         * @param paginatedList List of documents (updated by side effects)
+         * @param suggestionList Suggestion of search query (updated by side effects)
+         * @param facets Facet counts (updated by side effects, may be null)
+         */
+        void copyTo(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentFacetsDto facets) {
+            paginatedList.setResultCount(resultCount);
+            paginatedList.setResultCountExact(resultCountExact);
+            paginatedList.setNextCursor(nextCursor);
+            paginatedList.setResultList(documentDtoList);
+            suggestionList.addAll(this.suggestionList);
+            if (facets != null && this.facets != null) {
+                facets.setTagCountMap(this.facets.getTagCountMap());
+                facets.setMimeTypeCountMap(this.facets.getMimeTypeCountMap());
+                facets.setLanguageCountMap(this.facets.getLanguageCountMap());
+                facets.setCreatorCountMap(this.facets.getCreatorCountMap());
+                facets.setYearCountMap(this.facets.getYearCountMap());
+            }
+        }
+
+        /**
+         * Estimate the size of the result in memory.
+         *
+         * @return Size in bytes
+         */
+        int getSize() {
+            long size = 512;
+            for (DocumentDto documentDto : documentDtoList) {
+                size += 256 + 2L * (length(documentDto.getId()) + length(documentDto.getTitle())
+                        + length(documentDto.getDescription()) + length(documentDto.getHighlight())
+                        + length(documentDto.getFileId()) + length(documentDto.getLanguage())
+                        + length(documentDto.getCurrentStepName()));
+            }
+            for (String suggestion : suggestionList) {
+                size += 64 + 2L * suggestion.length();
+            }
+            if (facets != null) {
+                for (Map<String, Long> countMap : Arrays.asList(facets.getTagCountMap(), facets.getMimeTypeCountMap(),
+                        facets.getLanguageCountMap(), facets.getCreatorCountMap(), facets.getYearCountMap())) {
+                    size += 128L * countMap.size();
+                }
+            }
+            return (int) Math.min(Integer.MAX_VALUE, size);
+        }
+
+        private static int length(String value) {
+            return value == null ? 0 : value.length();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.sismics.docs.core.util.indexing;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.spell.LuceneDictionary;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Search terms suggester built from the document titles.
+ * The suggester is stored in its own Lucene directory, so it survives restarts.
+ * New titles are added incrementally, removed titles are only purged by a full rebuild.
+ */
+class TitleSuggester implements Closeable {
+    /**
+     * Analyzer.
+     */
+    private final Analyzer analyzer = new StandardAnalyzer();
+
+    /**
+     * Infix suggester.
+     */
+    private final AnalyzingInfixSuggester suggester;
+
+    /**
+     * True if some terms may not exist anymore in the index.
+     */
+    private volatile boolean stale;
+
+    /**
+     * True if some terms have been added since the last commit.
+     */
+    private volatile boolean dirty;
+
+    /**
+     * Timestamp of the last build.
+     */
+    private volatile long lastBuildTimestamp;
+
+    /**
+     * Open the suggester.
+     *
+     * @param directory Suggester directory
+     * @throws IOException e
+     */
+    TitleSuggester(Directory directory) throws IOException {
+        suggester = new AnalyzingInfixSuggester(directory, analyzer, analyzer,
+                AnalyzingInfixSuggester.DEFAULT_MIN_PREFIX_CHARS, true, true, false);
+    }
+
+    /**
+     * Returns true if the suggester contains no term.
+     *
+     * @return True if empty
+     * @throws IOException e
+     */
+    boolean isEmpty() throws IOException {
+        return suggester.getCount() == 0;
+    }
+
+    /**
+     * Rebuild the suggester from the titles of an index.
+     *
+     * @param reader Index reader
+     * @throws IOException e
+     */
+    synchronized void build(IndexReader reader) throws IOException {
+        stale = false;
+        suggester.build(new LuceneDictionary(reader, "title").getEntryIterator());
+        dirty = false;
+        lastBuildTimestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Add the terms of a title to the suggester.
+     *
+     * @param title Title
+     * @throws IOException e
+     */
+    synchronized void add(String title) throws IOException {
+        try (TokenStream tokenStream = analyzer.tokenStream("title", title)) {
+            CharTermAttribute term = tokenStream.addAttribute(CharTermAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                suggester.update(new BytesRef(term), null, 1, null);
+                dirty = true;
+            }
+            tokenStream.end();
+        }
+    }
+
+    /**
+     * Flag the suggester as containing terms which may have been removed from the index.
+     */
+    void markStale() {
+        stale = true;
+    }
+
+    /**
+     * Returns true if the suggester needs to be rebuilt.
+     *
+     * @return True if stale
+     */
+    boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Returns the timestamp of the last build.
+     *
+     * @return Timestamp
+     */
+    long getLastBuildTimestamp() {
+        return lastBuildTimestamp;
+    }
+
+    /**
+     * Suggest terms starting with the last word of a query.
+     *
+     * @param query User query
+     * @param count Maximum number of suggestions
+     * @return Suggested terms
+     * @throws IOException e
+     */
+    List<String> lookup(String query, int count) throws IOException {
+        List<String> suggestionList = new ArrayList<>();
+        suggester.refresh();
+        if (isEmpty()) {
+            return suggestionList;
+        }
+
+        int lastIndex = query.lastIndexOf(' ');
+        String suggestQuery = query.substring(Math.max(lastIndex, 0));
+        for (Lookup.LookupResult lookupResult : suggester.lookup(suggestQuery, count, true, false)) {
+            suggestionList.add(lookupResult.key.toString());
+        }
+        return suggestionList;
+    }
+
+    /**
+     * Persist the added terms.
+     *
+     * @throws IOException e
+     */
+    synchronized void commit() throws IOException {
+        if (dirty) {
+            suggester.commit();
+            dirty = false;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        commit();
+        suggester.close();
+    }
+}
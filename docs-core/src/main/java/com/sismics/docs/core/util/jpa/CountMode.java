@@ -0,0 +1,21 @@
+package com.sismics.docs.core.util.jpa;
+
+/**
+ * How the total number of records of a paginated list is computed.
+ */
+public enum CountMode {
+    /**
+     * Count all records.
+     */
+    EXACT,
+
+    /**
+     * Count records up to a limit, the total is a lower bound above it.
+     */
+    ESTIMATE,
+
+    /**
+     * Don't count records.
+     */
+    NONE
+}
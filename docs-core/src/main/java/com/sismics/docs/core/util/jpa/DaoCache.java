@@ -0,0 +1,153 @@
+package com.sismics.docs.core.util.jpa;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.util.ConfigUtil;
+import com.sismics.util.context.ThreadLocalContext;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache of read-mostly data loaded by a DAO, shared by all transactions.
+ * The DAO writes invalidate the cache at once and after the transaction commit.
+ * A transaction which has invalidated a cache doesn't use it anymore, so uncommitted data is never cached.
+ *
+ * @param <K> Key type
+ * @param <V> Value type, the cached values must not be modified
+ */
+public class DaoCache<K, V> {
+    /**
+     * All DAO caches.
+     */
+    private static final List<DaoCache<?, ?>> cacheList = new CopyOnWriteArrayList<>();
+
+    /**
+     * Maximum time to live of a cached value in minutes, in case the database is modified from outside.
+     */
+    private static final long EXPIRATION = 10;
+
+    /**
+     * Cache name.
+     */
+    private final String name;
+
+    /**
+     * Cached values (null if caches are disabled).
+     */
+    private final Cache<K, V> cache;
+
+    /**
+     * Number of invalidations, a value loaded during an invalidation is not kept.
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Create a DAO cache.
+     *
+     * @param name Cache name
+     */
+    public DaoCache(String name) {
+        this.name = name;
+        long maxSize = ConfigUtil.getEnvLongValue(Constants.DAO_CACHE_SIZE_ENV, Constants.DEFAULT_DAO_CACHE_SIZE);
+        if (maxSize > 0) {
+            cache = CacheBuilder.newBuilder()
+                    .maximumSize(maxSize)
+                    .expireAfterWrite(EXPIRATION, TimeUnit.MINUTES)
+                    .recordStats()
+                    .build();
+        } else {
+            cache = null;
+        }
+        cacheList.add(this);
+    }
+
+    /**
+     * Returns a cached value, or load it.
+     *
+     * @param key Key
+     * @param loader Loads the value from the database, null values are not cached
+     * @return Value
+     */
+    public V get(K key, Supplier<V> loader) {
+        if (cache == null || ThreadLocalContext.get().isModifiedCache(this)) {
+            return loader.get();
+        }
+
+        V value = cache.getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+
+        long loadVersion = version.get();
+        value = loader.get();
+        if (value != null) {
+            cache.put(key, value);
+            if (version.get() != loadVersion) {
+                // The value may have been loaded before an invalidation
+                cache.invalidate(key);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Invalidate all values, called by the DAO on each write.
+     * The cache is invalidated again after the transaction commit.
+     */
+    public void invalidate() {
+        invalidateAll();
+        ThreadLocalContext.get().addModifiedCache(this);
+    }
+
+    /**
+     * Invalidate all values.
+     */
+    public void invalidateAll() {
+        version.incrementAndGet();
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Getter of name.
+     *
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of cached values.
+     *
+     * @return Number of cached values
+     */
+    public long getCount() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * Returns the statistics of the cache since startup.
+     *
+     * @return Cache statistics
+     */
+    public CacheStats getStats() {
+        return cache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+    }
+
+    /**
+     * Returns all DAO caches.
+     *
+     * @return DAO caches
+     */
+    public static List<DaoCache<?, ?>> getCacheList() {
+        return cacheList;
+    }
+}
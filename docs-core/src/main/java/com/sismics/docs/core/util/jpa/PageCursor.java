@@ -0,0 +1,153 @@
+package com.sismics.docs.core.util.jpa;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Position in a sorted list, after which the next page starts.
+ * The cursor holds the sort value and the ID of the last record of a page,
+ * it is exchanged with clients as an opaque string.
+ */
+public class PageCursor {
+    /**
+     * Sort column of the list.
+     */
+    private final int column;
+
+    /**
+     * Sort order of the list.
+     */
+    private final boolean asc;
+
+    /**
+     * Sort value of the last record (String, Long, Date, Boolean or null).
+     */
+    private final Object value;
+
+    /**
+     * ID of the last record.
+     */
+    private final String id;
+
+    /**
+     * Constructor of PageCursor.
+     *
+     * @param sortCriteria Sort criteria of the list
+     * @param value Sort value of the last record
+     * @param id ID of the last record
+     */
+    public PageCursor(SortCriteria sortCriteria, Object value, String id) {
+        this(sortCriteria.getColumn(), sortCriteria.isAsc(), value, id);
+    }
+
+    private PageCursor(int column, boolean asc, Object value, String id) {
+        this.column = column;
+        this.asc = asc;
+        if (value instanceof Number) {
+            this.value = ((Number) value).longValue();
+        } else if (value instanceof Date) {
+            this.value = new Timestamp(((Date) value).getTime());
+        } else {
+            this.value = value;
+        }
+        this.id = id;
+    }
+
+    /**
+     * Returns true if the cursor has been built with this sort.
+     *
+     * @param sortCriteria Sort criteria
+     * @return True if the cursor can be used with this sort
+     */
+    public boolean matches(SortCriteria sortCriteria) {
+        return sortCriteria != null && sortCriteria.getColumn() == column && sortCriteria.isAsc() == asc;
+    }
+
+    /**
+     * Getter of value.
+     *
+     * @return value
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * Getter of id.
+     *
+     * @return id
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Encode the cursor to an opaque string.
+     *
+     * @return Encoded cursor
+     */
+    public String encode() {
+        JsonArrayBuilder json = Json.createArrayBuilder()
+                .add(column)
+                .add(asc);
+        if (value == null) {
+            json.add("z").addNull();
+        } else if (value instanceof Long) {
+            json.add("l").add((Long) value);
+        } else if (value instanceof Timestamp) {
+            json.add("t").add(((Timestamp) value).getTime());
+        } else if (value instanceof Boolean) {
+            json.add("b").add((Boolean) value);
+        } else {
+            json.add("s").add(value.toString());
+        }
+        json.add(id);
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(json.build().toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a cursor.
+     *
+     * @param cursor Encoded cursor
+     * @return Cursor
+     * @throws IllegalArgumentException If the cursor is malformed
+     */
+    public static PageCursor decode(String cursor) {
+        try (JsonReader reader = Json.createReader(new StringReader(
+                new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)))) {
+            JsonArray json = reader.readArray();
+            Object value;
+            switch (json.getString(2)) {
+                case "z":
+                    value = null;
+                    break;
+                case "l":
+                    value = json.getJsonNumber(3).longValueExact();
+                    break;
+                case "t":
+                    value = new Date(json.getJsonNumber(3).longValueExact());
+                    break;
+                case "b":
+                    value = json.get(3) == JsonValue.TRUE;
+                    break;
+                case "s":
+                    value = json.getString(3);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown cursor value type");
+            }
+            return new PageCursor(json.getInt(0), json.getBoolean(1), value, json.getString(4));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed cursor", e);
+        }
+    }
+}
@@ -23,6 +23,26 @@ public class PaginatedList<T> {
      */
     private int resultCount;
     
+    /**
+     * True if the total number of records is exact, false if it is a lower bound.
+     */
+    private boolean resultCountExact = true;
+
+    /**
+     * How the total number of records is computed.
+     */
+    private CountMode countMode = CountMode.EXACT;
+
+    /**
+     * Start the page after this cursor instead of the offset (optional).
+     */
+    private PageCursor cursor;
+
+    /**
+     * Cursor of the next page (null if this is the last page).
+     */
+    private PageCursor nextCursor;
+
     /**
      * List of records of the current page.
      */
@@ -92,4 +112,76 @@ public class PaginatedList<T> {
     public int getOffset() {
         return offset;
     }
+
+    /**
+     * Getter of resultCountExact.
+     *
+     * @return resultCountExact
+     */
+    public boolean isResultCountExact() {
+        return resultCountExact;
+    }
+
+    /**
+     * Setter of resultCountExact.
+     *
+     * @param resultCountExact resultCountExact
+     */
+    public void setResultCountExact(boolean resultCountExact) {
+        this.resultCountExact = resultCountExact;
+    }
+
+    /**
+     * Getter of countMode.
+     *
+     * @return countMode
+     */
+    public CountMode getCountMode() {
+        return countMode;
+    }
+
+    /**
+     * Setter of countMode.
+     *
+     * @param countMode countMode
+     */
+    public void setCountMode(CountMode countMode) {
+        this.countMode = countMode;
+    }
+
+    /**
+     * Getter of cursor.
+     *
+     * @return cursor
+     */
+    public PageCursor getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Setter of cursor.
+     *
+     * @param cursor cursor
+     */
+    public void setCursor(PageCursor cursor) {
+        this.cursor = cursor;
+    }
+
+    /**
+     * Getter of nextCursor.
+     *
+     * @return nextCursor
+     */
+    public PageCursor getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Setter of nextCursor.
+     *
+     * @param nextCursor nextCursor
+     */
+    public void setNextCursor(PageCursor nextCursor) {
+        this.nextCursor = nextCursor;
+    }
 }
@@ -1,7 +1,11 @@
 package com.sismics.docs.core.util.jpa;
 
 import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Utilities for paginated lists.
@@ -19,6 +23,11 @@ public class PaginatedLists {
      */
     private static final int MAX_PAGE_SIZE = 100;
 
+    /**
+     * Maximum number of records counted when the total is estimated.
+     */
+    public static final int ESTIMATE_COUNT_LIMIT = 1000;
+
     /**
      * Constructs a paginated list.
      * 
@@ -49,22 +58,35 @@ public class PaginatedLists {
     }
     
     /**
-     * Executes a native count(*) request to count the number of results.
+     * Executes a native count(*) request to count the number of results, according to the count mode.
      * 
      * @param paginatedList Paginated list object containing parameters, and into which results are added by side effects
      * @param queryParam Query parameters
      */
     private static <E> void executeCountQuery(PaginatedList<E> paginatedList, QueryParam queryParam) {
+        if (paginatedList.getCountMode() == CountMode.NONE) {
+            return;
+        }
+
         StringBuilder sb = new StringBuilder("select count(*) as result_count from (");
         sb.append(queryParam.getQueryString());
+        if (paginatedList.getCountMode() == CountMode.ESTIMATE) {
+            // Stop counting after the limit
+            sb.append(" limit ").append(ESTIMATE_COUNT_LIMIT + 1);
+        }
         sb.append(") as t1");
 
         QueryParam countQueryParam = new QueryParam(sb.toString(), queryParam.getParameterMap());
         
         Query q = QueryUtil.getNativeQuery(countQueryParam);
         
-        Number resultCount = (Number) q.getSingleResult();
-        paginatedList.setResultCount(resultCount.intValue());
+        int resultCount = ((Number) q.getSingleResult()).intValue();
+        if (resultCount > ESTIMATE_COUNT_LIMIT && paginatedList.getCountMode() == CountMode.ESTIMATE) {
+            paginatedList.setResultCount(ESTIMATE_COUNT_LIMIT);
+            paginatedList.setResultCountExact(false);
+        } else {
+            paginatedList.setResultCount(resultCount);
+        }
     }
 
     /**
@@ -97,15 +119,80 @@ public class PaginatedLists {
 
     /**
      * Executes a paginated request with 2 native queries (one to count the number of results, and one to return the page).
+     * The page starts after the cursor if there is one, or else at the offset.
+     * The cursor of the next page is set if there are more results.
      * 
      * @param paginatedList Paginated list object containing parameters, and into which results are added by side effects
-     * @param queryParam Query parameters
+     * @param queryParam Query parameters, the ID must be the c0 column
      * @param sortCriteria Sort criteria
      * @return List of results
      */
+    @SuppressWarnings("unchecked")
     public static <E> List<Object[]> executePaginatedQuery(PaginatedList<E> paginatedList, QueryParam queryParam, SortCriteria sortCriteria) {
-        QueryParam sortedQueryParam = QueryUtil.getSortedQueryParam(queryParam, sortCriteria);
-        executeCountQuery(paginatedList, sortedQueryParam);
-        return executeResultQuery(paginatedList, sortedQueryParam);
+        if (sortCriteria == null) {
+            return executePaginatedQuery(paginatedList, queryParam);
+        }
+        executeCountQuery(paginatedList, queryParam);
+
+        // Fetch one more record to know if there is a next page
+        Query q = QueryUtil.getNativeQuery(getKeysetQueryParam(queryParam, sortCriteria, paginatedList.getCursor()));
+        if (paginatedList.getCursor() == null) {
+            q.setFirstResult(paginatedList.getOffset());
+        }
+        q.setMaxResults(paginatedList.getLimit() + 1);
+        List<Object[]> l = q.getResultList();
+
+        // Remove the sort value and ID added at the end of each record
+        List<Object[]> resultList = new ArrayList<>();
+        for (Object[] o : l.subList(0, Math.min(l.size(), paginatedList.getLimit()))) {
+            resultList.add(Arrays.copyOf(o, o.length - 2));
+        }
+        if (l.size() > paginatedList.getLimit() && paginatedList.getLimit() > 0) {
+            Object[] o = l.get(paginatedList.getLimit() - 1);
+            paginatedList.setNextCursor(new PageCursor(sortCriteria, o[o.length - 2], (String) o[o.length - 1]));
+        }
+        return resultList;
+    }
+
+    /**
+     * Returns the query of a page starting after a cursor.
+     * Records are sorted on the sort column then on the ID, so that the position of a record is unique.
+     * Null values are sorted last whatever the database.
+     *
+     * @param queryParam Query parameters, the ID must be the c0 column
+     * @param sortCriteria Sort criteria
+     * @param cursor Cursor (optional)
+     * @return Query parameters, the sort value and the ID are added at the end of each record
+     */
+    private static QueryParam getKeysetQueryParam(QueryParam queryParam, SortCriteria sortCriteria, PageCursor cursor) {
+        String column = "t.c" + sortCriteria.getColumn();
+        String order = sortCriteria.isAsc() ? " asc" : " desc";
+        String comparator = sortCriteria.isAsc() ? " > " : " < ";
+        boolean idSort = sortCriteria.getColumn() == 0;
+        Map<String, Object> parameterMap = new HashMap<>(queryParam.getParameterMap());
+
+        StringBuilder sb = new StringBuilder("select t.*, ");
+        sb.append(column).append(" sort_value, t.c0 sort_id from (");
+        sb.append(queryParam.getQueryString());
+        sb.append(") t ");
+        if (cursor != null) {
+            parameterMap.put("cursorId", cursor.getId());
+            if (idSort) {
+                sb.append(" where t.c0").append(comparator).append(":cursorId ");
+            } else if (cursor.getValue() == null) {
+                // Only null values can follow a null value
+                sb.append(" where ").append(column).append(" is null and t.c0").append(comparator).append(":cursorId ");
+            } else {
+                parameterMap.put("cursorValue", cursor.getValue());
+                sb.append(" where (").append(column).append(comparator).append(":cursorValue");
+                sb.append(" or ").append(column).append(" = :cursorValue and t.c0").append(comparator).append(":cursorId");
+                sb.append(" or ").append(column).append(" is null) ");
+            }
+        }
+        sb.append(" order by ").append(column).append(order).append(" nulls last");
+        if (!idSort) {
+            sb.append(", t.c0").append(order);
+        }
+        return new QueryParam(sb.toString(), parameterMap);
     }
 }
@@ -1,7 +1,9 @@
 package com.sismics.util;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -24,4 +26,62 @@ public class HttpUtil {
     public static String buildExpiresHeader(long futureTime) {
         return EXPIRES_FORMAT.format(new Date().getTime() + futureTime);
     }
+
+    /**
+     * Parse a Range HTTP header.
+     *
+     * @param range Range header (optional)
+     * @param size Size of the resource
+     * @param maxRangeCount Maximum number of ranges
+     * @return Ranges as first and last byte positions, empty if none is satisfiable,
+     * or null if the whole resource is to be sent
+     */
+    public static List<long[]> parseRange(String range, long size, int maxRangeCount) {
+        if (range == null || !range.startsWith("bytes=")) {
+            return null;
+        }
+
+        List<long[]> rangeList = new ArrayList<>();
+        String[] specList = range.substring("bytes=".length()).split(",");
+        if (specList.length > maxRangeCount) {
+            return null;
+        }
+        for (String spec : specList) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                long start;
+                long end;
+                if (first.isEmpty()) {
+                    // Suffix range
+                    long length = Long.parseLong(last);
+                    if (length == 0) {
+                        continue;
+                    }
+                    start = Math.max(size - length, 0);
+                    end = size - 1;
+                } else {
+                    start = Long.parseLong(first);
+                    if (!last.isEmpty() && Long.parseLong(last) < start) {
+                        return null;
+                    }
+                    end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+                }
+                if (start < 0) {
+                    return null;
+                }
+                if (start < size) {
+                    rangeList.add(new long[] { start, end });
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return rangeList;
+    }
 }
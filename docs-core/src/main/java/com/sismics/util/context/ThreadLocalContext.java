@@ -1,11 +1,17 @@
 package com.sismics.util.context;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.jpa.AuditLog;
+import com.sismics.docs.core.util.ConfigUtil;
+import com.sismics.docs.core.util.jpa.DaoCache;
 
 import javax.persistence.EntityManager;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Context associated to a user request, and stored in a ThreadLocal.
@@ -17,17 +23,43 @@ public class ThreadLocalContext {
      * ThreadLocal to store the context.
      */
     private static final ThreadLocal<ThreadLocalContext> threadLocalContext = new ThreadLocal<>();
+
+    /**
+     * True if the persistence context of the user requests is kept for the whole request.
+     */
+    private static volatile boolean requestCacheEnabled = ConfigUtil.getEnvBooleanValue(Constants.JPA_REQUEST_CACHE_ENV, false);
     
     /**
      * Entity manager.
      */
     private EntityManager entityManager;
 
+    /**
+     * True if the persistence context is kept for the whole request.
+     * Otherwise, it is cleared every time the entity manager is requested.
+     */
+    private boolean requestCache;
+
     /**
      * List of async events posted during this request.
      */
     private List<Object> asyncEventList = Lists.newArrayList();
 
+    /**
+     * DAO caches modified during this request.
+     */
+    private Set<DaoCache<?, ?>> modifiedCacheSet = Sets.newHashSet();
+
+    /**
+     * Other cache invalidations to repeat after the transaction commit.
+     */
+    private List<Runnable> commitInvalidationList = Lists.newArrayList();
+
+    /**
+     * Audit logs created during this request, not yet written.
+     */
+    private List<AuditLog> auditLogList = Lists.newArrayList();
+
     /**
      * Private constructor.
      */
@@ -62,12 +94,23 @@ public class ThreadLocalContext {
      * @return entityManager
      */
     public EntityManager getEntityManager() {
-        if (entityManager != null && entityManager.isOpen()) {
+        if (!requestCache) {
             // This disables the L1 cache
+            clearEntityManager();
+        }
+        return entityManager;
+    }
+
+    /**
+     * Flushes the pending changes and detaches all loaded entities.
+     * Bulk and native updates bypass the loaded entities, so this must be called after them
+     * to avoid writing back stale values when the persistence context is kept for the request.
+     */
+    public void clearEntityManager() {
+        if (entityManager != null && entityManager.isOpen()) {
             entityManager.flush();
             entityManager.clear();
         }
-        return entityManager;
     }
 
     /**
@@ -79,6 +122,96 @@ public class ThreadLocalContext {
         this.entityManager = entityManager;
     }
 
+    /**
+     * Setter of requestCache.
+     *
+     * @param requestCache requestCache
+     */
+    public void setRequestCache(boolean requestCache) {
+        this.requestCache = requestCache;
+    }
+
+    /**
+     * Returns true if the persistence context of the user requests is kept for the whole request.
+     *
+     * @return Request cache enabled
+     */
+    public static boolean isRequestCacheEnabled() {
+        return requestCacheEnabled;
+    }
+
+    /**
+     * Keep the persistence context of the user requests for the whole request, or clear it on every access.
+     *
+     * @param requestCacheEnabled Request cache enabled
+     */
+    public static void setRequestCacheEnabled(boolean requestCacheEnabled) {
+        ThreadLocalContext.requestCacheEnabled = requestCacheEnabled;
+    }
+
+    /**
+     * Mark a DAO cache as modified in the current transaction.
+     *
+     * @param cache DAO cache
+     */
+    public void addModifiedCache(DaoCache<?, ?> cache) {
+        modifiedCacheSet.add(cache);
+    }
+
+    /**
+     * Returns true if a DAO cache has been modified in the current transaction.
+     *
+     * @param cache DAO cache
+     * @return True if modified
+     */
+    public boolean isModifiedCache(DaoCache<?, ?> cache) {
+        return modifiedCacheSet.contains(cache);
+    }
+
+    /**
+     * Invalidate the DAO caches modified in the transaction, after its commit.
+     * Another transaction may have cached the previous values in the meantime.
+     */
+    public void invalidateModifiedCaches() {
+        for (DaoCache<?, ?> cache : modifiedCacheSet) {
+            cache.invalidateAll();
+        }
+        modifiedCacheSet.clear();
+        for (Runnable invalidation : commitInvalidationList) {
+            invalidation.run();
+        }
+        commitInvalidationList.clear();
+    }
+
+    /**
+     * Add a cache invalidation to repeat after the transaction commit.
+     *
+     * @param invalidation Cache invalidation
+     */
+    public void addCommitInvalidation(Runnable invalidation) {
+        commitInvalidationList.add(invalidation);
+    }
+
+    /**
+     * Add an audit log to write with the others of the request.
+     *
+     * @param auditLog Audit log
+     */
+    public void addAuditLog(AuditLog auditLog) {
+        auditLogList.add(auditLog);
+    }
+
+    /**
+     * Returns and forgets the audit logs not yet written.
+     *
+     * @return Audit logs
+     */
+    public List<AuditLog> drainAuditLogs() {
+        List<AuditLog> drainedList = auditLogList;
+        auditLogList = Lists.newArrayList();
+        return drainedList;
+    }
+
     /**
      * Add an async event to the queue to be fired after the current request.
      *
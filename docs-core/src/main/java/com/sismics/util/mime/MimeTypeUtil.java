@@ -2,8 +2,12 @@ package com.sismics.util.mime;
 
 import java.io.IOException;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 /**
  * Utility to check MIME types.
@@ -11,6 +15,11 @@ import java.nio.file.Path;
  * @author bgamard
  */
 public class MimeTypeUtil {
+    /**
+     * Number of first bytes needed to guess a MIME type from the content.
+     */
+    public static final int HEADER_SIZE = 128;
+
     /**
      * Try to guess the MIME type of a file.
      * 
@@ -32,6 +41,86 @@ public class MimeTypeUtil {
 
         return mimeType;
     }
+
+    /**
+     * Try to guess the MIME type of a file from its name, then from its first bytes.
+     *
+     * @param header First bytes of the file, up to HEADER_SIZE
+     * @param name File name, can be null
+     * @return MIME type
+     */
+    public static String guessMimeType(byte[] header, String name) {
+        String mimeType = null;
+        if (name != null) {
+            try {
+                mimeType = Files.probeContentType(Paths.get(name));
+            } catch (IOException | InvalidPathException e) {
+                // Not a valid file name, try the file name map
+            }
+            if (mimeType == null) {
+                mimeType = URLConnection.getFileNameMap().getContentTypeFor(name);
+            }
+        }
+
+        if (mimeType == null) {
+            mimeType = guessMimeTypeFromContent(header);
+        }
+
+        if (mimeType == null) {
+            return MimeType.DEFAULT;
+        }
+
+        return mimeType;
+    }
+
+    /**
+     * Guess the MIME type of a file from its magic number.
+     *
+     * @param header First bytes of the file
+     * @return MIME type, or null if unknown
+     */
+    private static String guessMimeTypeFromContent(byte[] header) {
+        if (startsWith(header, 0, "%PDF-".getBytes(StandardCharsets.US_ASCII))) {
+            return MimeType.APPLICATION_PDF;
+        }
+        if (startsWith(header, 0, new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' })) {
+            return MimeType.IMAGE_PNG;
+        }
+        if (startsWith(header, 0, new byte[] { (byte) 0xff, (byte) 0xd8, (byte) 0xff })) {
+            return MimeType.IMAGE_JPEG;
+        }
+        if (startsWith(header, 0, "GIF87a".getBytes(StandardCharsets.US_ASCII))
+                || startsWith(header, 0, "GIF89a".getBytes(StandardCharsets.US_ASCII))) {
+            return MimeType.IMAGE_GIF;
+        }
+        if (startsWith(header, 0, new byte[] { 0x1a, 0x45, (byte) 0xdf, (byte) 0xa3 })) {
+            return MimeType.VIDEO_WEBM;
+        }
+        if (startsWith(header, 4, "ftyp".getBytes(StandardCharsets.US_ASCII))) {
+            return MimeType.VIDEO_MP4;
+        }
+        if (startsWith(header, 0, new byte[] { 'P', 'K', 3, 4 })) {
+            // OpenDocument files start with an uncompressed "mimetype" entry
+            if (startsWith(header, 30, ("mimetype" + MimeType.OPEN_DOCUMENT_TEXT).getBytes(StandardCharsets.US_ASCII))) {
+                return MimeType.OPEN_DOCUMENT_TEXT;
+            }
+            return MimeType.APPLICATION_ZIP;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if some bytes are found at an offset.
+     *
+     * @param data Data
+     * @param offset Offset in the data
+     * @param prefix Searched bytes
+     * @return True if the bytes are found
+     */
+    private static boolean startsWith(byte[] data, int offset, byte[] prefix) {
+        return data.length >= offset + prefix.length
+                && Arrays.equals(data, offset, offset + prefix.length, prefix, 0, prefix.length);
+    }
     
     /**
      * Get a file extension linked to a MIME type.
@@ -0,0 +1,7 @@
+alter table T_DOCUMENT add column DOC_SHARECOUNT_N int not null default 0;
+alter table T_DOCUMENT add column DOC_FILECOUNT_N int not null default 0;
+alter table T_DOCUMENT add column DOC_IDCURRENTSTEP_C varchar(36);
+update T_DOCUMENT set DOC_SHARECOUNT_N = (select count(s.SHA_ID_C) from T_SHARE s, T_ACL ac where ac.ACL_SOURCEID_C = DOC_ID_C and ac.ACL_TARGETID_C = s.SHA_ID_C and ac.ACL_DELETEDATE_D is null and s.SHA_DELETEDATE_D is null);
+update T_DOCUMENT set DOC_FILECOUNT_N = (select count(f.FIL_ID_C) from T_FILE f where f.FIL_IDDOC_C = DOC_ID_C and f.FIL_DELETEDATE_D is null);
+update T_DOCUMENT set DOC_IDCURRENTSTEP_C = (select rs.RTP_ID_C from T_ROUTE_STEP rs join T_ROUTE r on r.RTE_ID_C = rs.RTP_IDROUTE_C and r.RTE_DELETEDATE_D is null where r.RTE_IDDOCUMENT_C = DOC_ID_C and rs.RTP_DELETEDATE_D is null and rs.RTP_ENDDATE_D is null order by rs.RTP_ORDER_N asc limit 1);
+update T_CONFIG set CFG_VALUE_C = '28' where CFG_ID_C = 'DB_VERSION';
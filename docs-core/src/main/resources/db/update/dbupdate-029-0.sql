@@ -0,0 +1,4 @@
+create cached table T_DOCUMENT_PERMISSION ( DPE_IDDOCUMENT_C varchar(36) not null, DPE_IDTARGET_C varchar(36) not null, DPE_PERM_C varchar(30) not null, primary key (DPE_IDDOCUMENT_C, DPE_IDTARGET_C, DPE_PERM_C) );
+create index IDX_DPE_IDTARGET_C on T_DOCUMENT_PERMISSION (DPE_IDTARGET_C);
+insert into T_DOCUMENT_PERMISSION (DPE_IDDOCUMENT_C, DPE_IDTARGET_C, DPE_PERM_C) select a.ACL_SOURCEID_C, a.ACL_TARGETID_C, a.ACL_PERM_C from T_ACL a join T_DOCUMENT d on d.DOC_ID_C = a.ACL_SOURCEID_C and d.DOC_DELETEDATE_D is null where a.ACL_DELETEDATE_D is null union select dt.DOT_IDDOCUMENT_C, a.ACL_TARGETID_C, a.ACL_PERM_C from T_DOCUMENT_TAG dt join T_DOCUMENT d on d.DOC_ID_C = dt.DOT_IDDOCUMENT_C and d.DOC_DELETEDATE_D is null join T_ACL a on a.ACL_SOURCEID_C = dt.DOT_IDTAG_C and a.ACL_DELETEDATE_D is null where dt.DOT_DELETEDATE_D is null;
+update T_CONFIG set CFG_VALUE_C = '29' where CFG_ID_C = 'DB_VERSION';
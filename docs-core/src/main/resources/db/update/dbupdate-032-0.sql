@@ -0,0 +1,6 @@
+create cached table T_FILE_BLOB ( FBL_ID_C varchar(36) not null, FBL_HASH_C varchar(64) not null, FBL_KEY_C varchar(100) not null, FBL_REFCOUNT_N int not null, FBL_CREATEDATE_D datetime not null, primary key (FBL_ID_C) );
+create index IDX_FBL_HASH_C on T_FILE_BLOB (FBL_HASH_C);
+alter table T_FILE add column FIL_IDBLOB_C varchar(36);
+alter table T_FILE add column FIL_BLOBKEY_C varchar(100);
+create index IDX_FIL_IDBLOB_C on T_FILE (FIL_IDBLOB_C);
+update T_CONFIG set CFG_VALUE_C = '32' where CFG_ID_C = 'DB_VERSION';
@@ -0,0 +1,78 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.io.ByteStreams;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measure the latency of decrypting a thumbnail, with and without the derived key cache,
+ * then the encryption throughput of each cipher provider.
+ * Not run with the tests, launch it with:
+ * java -cp ... com.sismics.docs.core.util.EncryptionBenchmark [thumbnails] [thumbnail size in KB] [file size in MB]
+ */
+public class EncryptionBenchmark {
+    public static void main(String[] args) throws Exception {
+        int thumbnailCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int thumbnailSize = (args.length > 1 ? Integer.parseInt(args[1]) : 20) * 1024;
+        int fileSize = (args.length > 2 ? Integer.parseInt(args[2]) : 256) * 1024 * 1024;
+        String privateKey = EncryptionUtil.generatePrivateKey();
+
+        // Encrypt a random thumbnail
+        byte[] thumbnail = new byte[thumbnailSize];
+        new Random(42).nextBytes(thumbnail);
+        Cipher cipher = EncryptionUtil.getEncryptionCipher(privateKey);
+        byte[] encryptedThumbnail = cipher.doFinal(thumbnail);
+
+        System.out.println(String.format(Locale.ENGLISH, "%d thumbnails of %d KB", thumbnailCount, thumbnailSize / 1024));
+        System.out.println("key cache | p50 (ms) | p99 (ms) | mean (ms)");
+        for (boolean cached : new boolean[] { false, true, false, true }) {
+            double[] latencyList = new double[thumbnailCount];
+            for (int i = 0; i < thumbnailCount; i++) {
+                if (!cached) {
+                    EncryptionUtil.evictKey(privateKey);
+                }
+                long startTime = System.nanoTime();
+                byte[] decrypted = ByteStreams.toByteArray(EncryptionUtil.decryptInputStream(
+                        new ByteArrayInputStream(encryptedThumbnail), privateKey));
+                latencyList[i] = (System.nanoTime() - startTime) / 1e6;
+                if (decrypted.length != thumbnailSize) {
+                    throw new IllegalStateException("Wrong decrypted size");
+                }
+            }
+            Arrays.sort(latencyList);
+            System.out.println(String.format(Locale.ENGLISH, "%-9s | %8.3f | %8.3f | %9.3f", cached ? "yes" : "no",
+                    latencyList[thumbnailCount / 2], latencyList[thumbnailCount * 99 / 100],
+                    Arrays.stream(latencyList).average().orElse(0)));
+        }
+
+        // Encryption throughput, as a file upload, download or export does it
+        byte[] file = new byte[fileSize];
+        new Random(42).nextBytes(file);
+        byte[] buffer = new byte[8192];
+        System.out.println(String.format(Locale.ENGLISH, "%nFile of %d MB", fileSize / 1024 / 1024));
+        System.out.println("provider | round | throughput (MB/s)");
+        for (int round = 1; round <= 3; round++) {
+            for (String providerName : new String[] { "SunJCE", "BC" }) {
+                Provider provider = Security.getProvider(providerName);
+                long startTime = System.nanoTime();
+                try (InputStream inputStream = new CipherInputStream(new ByteArrayInputStream(file),
+                        EncryptionUtil.getCipher(privateKey, Cipher.ENCRYPT_MODE, provider))) {
+                    while (inputStream.read(buffer) != -1) {
+                        // Only the encryption is measured
+                    }
+                }
+                double seconds = (System.nanoTime() - startTime) / 1e9;
+                System.out.println(String.format(Locale.ENGLISH, "%-8s | %5d | %17.1f",
+                        providerName, round, fileSize / 1024.0 / 1024.0 / seconds));
+            }
+        }
+    }
+}
@@ -2,12 +2,16 @@ package com.sismics.docs.core.util;
 
 import com.google.common.base.Strings;
 import com.google.common.io.ByteStreams;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.junit.Assert;
 import org.junit.Test;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.security.Provider;
+import java.security.Security;
 
 /**
  * Test of the encryption utilities.
@@ -47,4 +51,79 @@ public class TestEncryptUtil {
         
         Assert.assertEquals(encryptedData.length, assertData.length);
     }
+
+    @Test
+    public void evictKeyTest() throws Exception {
+        byte[] assertData = ByteStreams.toByteArray(this.getClass().getResourceAsStream("/file/udhr.pdf"));
+
+        // The derived key is cached, then derived again after its eviction
+        for (int i = 0; i < 2; i++) {
+            InputStream inputStream = EncryptionUtil.decryptInputStream(
+                    this.getClass().getResourceAsStream("/file/udhr_encrypted.pdf"), "OnceUponATime");
+            Assert.assertArrayEquals(assertData, ByteStreams.toByteArray(inputStream));
+        }
+        EncryptionUtil.evictKey("OnceUponATime");
+        InputStream inputStream = EncryptionUtil.decryptInputStream(
+                this.getClass().getResourceAsStream("/file/udhr_encrypted.pdf"), "OnceUponATime");
+        Assert.assertArrayEquals(assertData, ByteStreams.toByteArray(inputStream));
+    }
+
+    @Test
+    public void cipherProviderTest() throws Exception {
+        // The files are encrypted by the JDK's AES
+        Assert.assertEquals("SunJCE", EncryptionUtil.getEncryptionCipher("OnceUponATime").getProvider().getName());
+
+        // The files stored with Bouncy Castle's AES are decrypted identically, and the other way around
+        byte[] data = ByteStreams.toByteArray(this.getClass().getResourceAsStream("/file/udhr.pdf"));
+        byte[] encryptedData = ByteStreams.toByteArray(this.getClass().getResourceAsStream("/file/udhr_encrypted.pdf"));
+        for (String providerName : new String[] { "SunJCE", BouncyCastleProvider.PROVIDER_NAME }) {
+            Provider provider = Security.getProvider(providerName);
+            Assert.assertArrayEquals(encryptedData, EncryptionUtil.getCipher("OnceUponATime", Cipher.ENCRYPT_MODE, provider).doFinal(data));
+            Assert.assertArrayEquals(data, EncryptionUtil.getCipher("OnceUponATime", Cipher.DECRYPT_MODE, provider).doFinal(encryptedData));
+        }
+    }
+
+    @Test
+    public void wrapKeyTest() throws Exception {
+        String blobKey = EncryptionUtil.generateBlobKey();
+        Assert.assertEquals(64, blobKey.length());
+        Assert.assertNotEquals(blobKey, EncryptionUtil.generateBlobKey());
+
+        // Only the wrapping private key unwraps the key
+        String wrappedKey = EncryptionUtil.wrapKey(blobKey, "OnceUponATime");
+        Assert.assertEquals(blobKey, EncryptionUtil.unwrapKey(wrappedKey, "OnceUponATime"));
+        try {
+            EncryptionUtil.unwrapKey(wrappedKey, "TheEnd");
+            Assert.fail();
+        } catch (Exception e) {
+            // NOP
+        }
+
+        // The blob key encrypts like a private key
+        byte[] data = ByteStreams.toByteArray(this.getClass().getResourceAsStream("/file/udhr.pdf"));
+        byte[] encryptedData = EncryptionUtil.getEncryptionCipher(blobKey).doFinal(data);
+        InputStream inputStream = EncryptionUtil.decryptInputStream(new ByteArrayInputStream(encryptedData),
+                EncryptionUtil.unwrapKey(wrappedKey, "OnceUponATime"));
+        Assert.assertArrayEquals(data, ByteStreams.toByteArray(inputStream));
+    }
+
+    @Test
+    public void wrapContentKeyTest() throws Exception {
+        String blobKey = EncryptionUtil.generateBlobKey();
+        long keyCacheSize = EncryptionUtil.getKeyCacheSize();
+
+        // Only the wrapping content key unwraps the key, the keys derived from the contents are not cached
+        String wrappedKey = EncryptionUtil.wrapContentKey(blobKey, "ContentOnceUponATime");
+        Assert.assertEquals(blobKey, EncryptionUtil.unwrapContentKey(wrappedKey, "ContentOnceUponATime"));
+        try {
+            EncryptionUtil.unwrapContentKey(wrappedKey, "ContentTheEnd");
+            Assert.fail();
+        } catch (Exception e) {
+            // NOP
+        }
+        Assert.assertEquals(keyCacheSize, EncryptionUtil.getKeyCacheSize());
+
+        // The content keys derive like the private keys
+        Assert.assertEquals(blobKey, EncryptionUtil.unwrapKey(wrappedKey, "ContentOnceUponATime"));
+    }
 }
@@ -0,0 +1,34 @@
+package com.sismics.docs.core.util.authentication;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+
+/**
+ * Test of the principal cache.
+ */
+public class TestPrincipalCache {
+    @Test
+    public void expiryTest() throws Exception {
+        PrincipalCache<String> principalCache = new PrincipalCache<>();
+
+        // A principal without expiration date is cached
+        principalCache.put("token1", "user1", "principal1", PrincipalCache.getVersion(), null);
+        Assert.assertEquals("principal1", principalCache.get("token1"));
+
+        // A principal is not returned after the expiration of its token
+        principalCache.put("token2", "user1", "principal2", PrincipalCache.getVersion(), new Date(System.currentTimeMillis() + 200));
+        Assert.assertEquals("principal2", principalCache.get("token2"));
+        Thread.sleep(300);
+        Assert.assertNull(principalCache.get("token2"));
+
+        // A principal of an expired token is not returned
+        principalCache.put("token3", "user1", "principal3", PrincipalCache.getVersion(), new Date());
+        Assert.assertNull(principalCache.get("token3"));
+
+        // A principal resolved before an invalidation is not cached
+        principalCache.put("token4", "user1", "principal4", PrincipalCache.getVersion() - 1, null);
+        Assert.assertNull(principalCache.get("token4"));
+    }
+}
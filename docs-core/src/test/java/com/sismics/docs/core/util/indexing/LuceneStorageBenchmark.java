@@ -0,0 +1,181 @@
+package com.sismics.docs.core.util.indexing;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.NativeFSLockFactory;
+import org.apache.lucene.store.NoLockFactory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Compare the Lucene storages (RAM, FILE, MMAP) on a synthetic corpus.
+ * Not run with the tests, launch it with a large enough heap:
+ * java -Xmx2g -cp ... com.sismics.docs.core.util.indexing.LuceneStorageBenchmark [documents] [queries]
+ */
+public class LuceneStorageBenchmark {
+    /**
+     * Vocabulary size of the synthetic corpus.
+     */
+    private static final int VOCABULARY_SIZE = 50000;
+
+    /**
+     * Number of words of each file content.
+     */
+    private static final int CONTENT_WORDS = 300;
+
+    public static void main(String[] args) throws Exception {
+        int documentCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        String[] vocabulary = buildVocabulary();
+
+        System.out.println(String.format(Locale.ENGLISH, "%d documents, %d queries, JVM max heap %d MB",
+                documentCount, queryCount, Runtime.getRuntime().maxMemory() / 1024 / 1024));
+        System.out.println("storage | index time (s) | heap after indexing (MB) | index size (MB) | search p50 (ms) | search p99 (ms)");
+        for (String storage : Arrays.asList("RAM", "FILE", "MMAP")) {
+            Path path = Files.createTempDirectory("lucene-benchmark");
+            try {
+                run(storage, path, vocabulary, documentCount, queryCount);
+            } finally {
+                try (Stream<Path> pathStream = Files.walk(path)) {
+                    pathStream.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(java.io.File::delete);
+                }
+            }
+        }
+    }
+
+    /**
+     * Index the corpus in a storage and search it.
+     */
+    private static void run(String storage, Path path, String[] vocabulary, int documentCount, int queryCount) throws Exception {
+        long heapBefore = usedHeap();
+        long startTime = System.nanoTime();
+        Directory directory = openDirectory(storage, path);
+        Random random = new Random(42);
+        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+        try (IndexWriter indexWriter = new IndexWriter(directory, config)) {
+            for (int i = 0; i < documentCount; i++) {
+                String id = String.format(Locale.ENGLISH, "%08d", i);
+                String title = randomText(random, vocabulary, 5);
+                Document document = new Document();
+                document.add(new StringField("id", id, Field.Store.YES));
+                document.add(new StringField("doctype", "document", Field.Store.YES));
+                document.add(new TextField("title", title, Field.Store.NO));
+                document.add(new SortedDocValuesField("title_sort", new BytesRef(title)));
+                document.add(new TextField("content", randomText(random, vocabulary, CONTENT_WORDS), Field.Store.YES));
+                indexWriter.addDocument(document);
+            }
+            indexWriter.forceMerge(1);
+        }
+        double indexTime = (System.nanoTime() - startTime) / 1e9;
+
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            long heapAfter = usedHeap();
+            long indexSize = 0;
+            for (String fileName : directory.listAll()) {
+                indexSize += directory.fileLength(fileName);
+            }
+
+            // Warm up, then measure
+            Sort sort = new Sort(new SortField("title_sort", SortField.Type.STRING));
+            search(searcher, sort, random, vocabulary, queryCount / 5);
+            long[] latencies = search(searcher, sort, random, vocabulary, queryCount);
+            Arrays.sort(latencies);
+            System.out.println(String.format(Locale.ENGLISH, "%s | %.1f | %d | %d | %.3f | %.3f", storage, indexTime,
+                    (heapAfter - heapBefore) / 1024 / 1024, indexSize / 1024 / 1024,
+                    latencies[latencies.length / 2] / 1e6, latencies[latencies.length * 99 / 100] / 1e6));
+        }
+        directory.close();
+    }
+
+    /**
+     * Run random two-term queries sorted by title, returning the 10 first documents.
+     */
+    private static long[] search(IndexSearcher searcher, Sort sort, Random random, String[] vocabulary, int queryCount) throws Exception {
+        long[] latencies = new long[queryCount];
+        for (int i = 0; i < queryCount; i++) {
+            BooleanQuery query = new BooleanQuery.Builder()
+                    .add(new TermQuery(new Term("content", randomWord(random, vocabulary))), BooleanClause.Occur.MUST)
+                    .add(new TermQuery(new Term("content", randomWord(random, vocabulary))), BooleanClause.Occur.SHOULD)
+                    .add(new TermQuery(new Term("doctype", "document")), BooleanClause.Occur.FILTER)
+                    .build();
+            long startTime = System.nanoTime();
+            searcher.search(query, 10, sort);
+            latencies[i] = System.nanoTime() - startTime;
+        }
+        return latencies;
+    }
+
+    private static Directory openDirectory(String storage, Path path) throws Exception {
+        switch (storage) {
+            case "FILE":
+                return new NIOFSDirectory(path, NoLockFactory.INSTANCE);
+            case "MMAP":
+                return new MMapDirectory(path, NativeFSLockFactory.INSTANCE);
+            default:
+                return new RAMDirectory();
+        }
+    }
+
+    private static String[] buildVocabulary() {
+        Random random = new Random(0);
+        String[] vocabulary = new String[VOCABULARY_SIZE];
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = 3 + random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                sb.append((char) ('a' + random.nextInt(26)));
+            }
+            vocabulary[i] = sb.toString();
+        }
+        return vocabulary;
+    }
+
+    /**
+     * Pick a word with a Zipf-like distribution, like in natural language.
+     */
+    private static String randomWord(Random random, String[] vocabulary) {
+        return vocabulary[(int) Math.min(vocabulary.length - 1, Math.pow(vocabulary.length, random.nextDouble()) - 1)];
+    }
+
+    private static String randomText(Random random, String[] vocabulary, int wordCount) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < wordCount; i++) {
+            sb.append(randomWord(random, vocabulary)).append(' ');
+        }
+        return sb.toString();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+}
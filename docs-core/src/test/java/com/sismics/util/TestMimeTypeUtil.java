@@ -5,6 +5,7 @@ import com.sismics.util.mime.MimeTypeUtil;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -68,4 +69,36 @@ public class TestMimeTypeUtil {
         path = Paths.get(ClassLoader.getSystemResource("file/video.mp4").toURI());
         Assert.assertEquals(MimeType.VIDEO_MP4, MimeTypeUtil.guessMimeType(path, "video.mp4"));
     }
+
+    @Test
+    public void guessFromHeaderTest() throws Exception {
+        // Detect from the file name first
+        Assert.assertEquals(MimeType.OFFICE_DOCUMENT, MimeTypeUtil.guessMimeType(readHeader("file/document.docx"), "document.docx"));
+        Assert.assertEquals(MimeType.TEXT_CSV, MimeTypeUtil.guessMimeType(readHeader("file/document.csv"), "document.csv"));
+
+        // Detect from the content without a file name
+        Assert.assertEquals(MimeType.OPEN_DOCUMENT_TEXT, MimeTypeUtil.guessMimeType(readHeader("file/document.odt"), null));
+        Assert.assertEquals(MimeType.APPLICATION_PDF, MimeTypeUtil.guessMimeType(readHeader("file/udhr.pdf"), null));
+        Assert.assertEquals(MimeType.IMAGE_JPEG, MimeTypeUtil.guessMimeType(readHeader("file/apollo_portrait.jpg"), null));
+        Assert.assertEquals(MimeType.IMAGE_GIF, MimeTypeUtil.guessMimeType(readHeader("file/image.gif"), null));
+        Assert.assertEquals(MimeType.IMAGE_PNG, MimeTypeUtil.guessMimeType(readHeader("file/image.png"), null));
+        Assert.assertEquals(MimeType.APPLICATION_ZIP, MimeTypeUtil.guessMimeType(readHeader("file/document.zip"), null));
+        Assert.assertEquals(MimeType.VIDEO_WEBM, MimeTypeUtil.guessMimeType(readHeader("file/video.webm"), null));
+        Assert.assertEquals(MimeType.VIDEO_MP4, MimeTypeUtil.guessMimeType(readHeader("file/video.mp4"), null));
+        Assert.assertEquals(MimeType.DEFAULT, MimeTypeUtil.guessMimeType(readHeader("file/document.txt"), null));
+        Assert.assertEquals(MimeType.DEFAULT, MimeTypeUtil.guessMimeType(new byte[0], null));
+    }
+
+    /**
+     * Read the first bytes of a test file.
+     *
+     * @param name Resource name
+     * @return First bytes
+     * @throws Exception e
+     */
+    private byte[] readHeader(String name) throws Exception {
+        try (InputStream inputStream = ClassLoader.getSystemResourceAsStream(name)) {
+            return inputStream.readNBytes(MimeTypeUtil.HEADER_SIZE);
+        }
+    }
 }
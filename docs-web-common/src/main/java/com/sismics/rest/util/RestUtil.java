@@ -1,8 +1,9 @@
 package com.sismics.rest.util;
 
 import com.sismics.docs.core.model.jpa.File;
-import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.jpa.CountMode;
+import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.rest.exception.ServerException;
 import com.sismics.util.JsonUtil;
 
@@ -32,9 +33,24 @@ public class RestUtil {
                     .add("mimetype", fileDb.getMimeType())
                     .add("document_id", JsonUtil.nullable(fileDb.getDocumentId()))
                     .add("create_date", fileDb.getCreateDate().getTime())
-                    .add("size", Files.size(DirectoryUtil.getStorageDirectory().resolve(fileDb.getId())));
+                    .add("size", Files.size(FileUtil.getStoredFile(fileDb)));
         } catch (IOException e) {
             throw new ServerException("FileError", "Unable to get the size of " + fileDb.getId(), e);
         }
     }
+
+    /**
+     * Add the pagination of a list to its JSON representation.
+     * The total is omitted if it hasn't been counted.
+     *
+     * @param json JSON response
+     * @param paginatedList Paginated list
+     */
+    public static void addPagination(JsonObjectBuilder json, PaginatedList<?> paginatedList) {
+        if (paginatedList.getCountMode() != CountMode.NONE) {
+            json.add("total", paginatedList.getResultCount())
+                    .add("total_exact", paginatedList.isResultCountExact());
+        }
+        json.add("next_cursor", JsonUtil.nullable(paginatedList.getNextCursor() == null ? null : paginatedList.getNextCursor().encode()));
+    }
 }
@@ -1,6 +1,9 @@
 package com.sismics.rest.util;
 
 import com.google.common.base.Strings;
+import com.sismics.docs.core.util.jpa.CountMode;
+import com.sismics.docs.core.util.jpa.PageCursor;
+import com.sismics.docs.core.util.jpa.SortCriteria;
 import com.sismics.rest.exception.ClientException;
 import org.apache.commons.lang.StringUtils;
 import org.joda.time.DateTime;
@@ -221,4 +224,48 @@ public class ValidationUtil {
             throw new ClientException("ValidationError", MessageFormat.format("{0} must be a date", name));
         }
     }
+
+    /**
+     * Validates and decodes a page cursor.
+     *
+     * @param s String to validate
+     * @param name Name of the parameter
+     * @param sortCriteria Sort criteria of the list
+     * @return Decoded cursor, or null if the string is empty
+     * @throws ClientException
+     */
+    public static PageCursor validateCursor(String s, String name, SortCriteria sortCriteria) throws ClientException {
+        if (Strings.isNullOrEmpty(s)) {
+            return null;
+        }
+        PageCursor cursor;
+        try {
+            cursor = PageCursor.decode(s);
+        } catch (IllegalArgumentException e) {
+            throw new ClientException("ValidationError", MessageFormat.format("{0} is not a valid cursor", name));
+        }
+        if (!cursor.matches(sortCriteria)) {
+            throw new ClientException("ValidationError", MessageFormat.format("{0} has been built with another sort", name));
+        }
+        return cursor;
+    }
+
+    /**
+     * Validates and parses a count mode (exact, estimate or none).
+     *
+     * @param s String to validate
+     * @param name Name of the parameter
+     * @return Count mode, exact if the string is empty
+     * @throws ClientException
+     */
+    public static CountMode validateCountMode(String s, String name) throws ClientException {
+        if (Strings.isNullOrEmpty(s)) {
+            return CountMode.EXACT;
+        }
+        try {
+            return CountMode.valueOf(s.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ClientException("ValidationError", MessageFormat.format("{0} must be exact, estimate or none", name));
+        }
+    }
 }
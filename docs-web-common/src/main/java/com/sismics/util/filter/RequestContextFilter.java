@@ -1,6 +1,7 @@
 package com.sismics.util.filter;
 
 import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.util.AuditLogUtil;
 import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.TransactionUtil;
 import com.sismics.util.EnvironmentUtil;
@@ -81,6 +82,7 @@ public class RequestContextFilter implements Filter {
         }
         ThreadLocalContext context = ThreadLocalContext.get();
         context.setEntityManager(em);
+        context.setRequestCache(ThreadLocalContext.isRequestCacheEnabled());
         EntityTransaction tx = em.getTransaction();
         tx.begin();
         
@@ -116,12 +118,25 @@ public class RequestContextFilter implements Filter {
                 HttpServletResponse r = (HttpServletResponse) response;
                 int statusClass = r.getStatus() / 100;
                 if (statusClass == 2 || statusClass == 3) {
+                    boolean committed = false;
                     try {
+                        AuditLogUtil.beforeCommit();
                         em.getTransaction().commit();
+                        committed = true;
                     } catch (Exception e) {
                         log.error("Error during commit", e);
+                        rollback(em);
                         r.sendError(500);
                     }
+
+                    // The data is written, an error here must not fail the request
+                    if (committed) {
+                        try {
+                            AuditLogUtil.afterCommit();
+                        } catch (Exception e) {
+                            log.error("Error after commit", e);
+                        }
+                    }
                 } else {
                     em.getTransaction().rollback();
                 }
@@ -134,6 +149,8 @@ public class RequestContextFilter implements Filter {
             }
         }
 
+        context.invalidateModifiedCaches();
+
         // Fire all pending async events after request transaction commit.
         // This way, all modifications done during this request are available in the listeners.
         context.fireAllAsyncEvents();
@@ -141,6 +158,21 @@ public class RequestContextFilter implements Filter {
         ThreadLocalContext.cleanup();
     }
 
+    /**
+     * Rollback the transaction after a failed commit, if it is still active.
+     *
+     * @param em Entity manager
+     */
+    private void rollback(EntityManager em) {
+        try {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+        } catch (Exception e) {
+            log.error("Error during rollback", e);
+        }
+    }
+
     /**
      * Add no-cache header.
      *
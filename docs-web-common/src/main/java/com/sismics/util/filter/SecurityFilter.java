@@ -7,6 +7,7 @@ import com.sismics.docs.core.dao.RoleBaseFunctionDao;
 import com.sismics.docs.core.dao.criteria.GroupCriteria;
 import com.sismics.docs.core.dao.dto.GroupDto;
 import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.authentication.PrincipalCache;
 import com.sismics.security.AnonymousPrincipal;
 import com.sismics.security.UserPrincipal;
 import org.joda.time.DateTimeZone;
@@ -16,6 +17,7 @@ import org.slf4j.LoggerFactory;
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -39,6 +41,11 @@ public abstract class SecurityFilter implements Filter {
      */
     static final Logger LOG = LoggerFactory.getLogger(SecurityFilter.class);
 
+    /**
+     * Cache of the principals by authentication token.
+     */
+    private static final PrincipalCache<UserPrincipal> principalCache = new PrincipalCache<>();
+
     /**
      * Returns true if the supplied request has an UserPrincipal.
      *
@@ -127,8 +134,19 @@ public abstract class SecurityFilter implements Filter {
         HttpServletRequest request = (HttpServletRequest) req;
 
         if (!hasIdentifiedUser(request)) {
-            User user = authenticate(request);
-            injectUser(request, user);
+            String tokenId = getAuthenticationToken(request);
+            UserPrincipal userPrincipal = tokenId == null ? null : principalCache.get(tokenId);
+            if (userPrincipal != null) {
+                request.setAttribute(PRINCIPAL_ATTRIBUTE, userPrincipal);
+            } else {
+                long version = PrincipalCache.getVersion();
+                User user = authenticate(request);
+                injectUser(request, user);
+                if (tokenId != null && hasIdentifiedUser(request)) {
+                    principalCache.put(tokenId, user.getId(), (UserPrincipal) request.getAttribute(PRINCIPAL_ATTRIBUTE),
+                            version, getAuthenticationExpiryDate(tokenId));
+                }
+            }
         }
 
         filterChain.doFilter(request, response);
@@ -142,4 +160,24 @@ public abstract class SecurityFilter implements Filter {
      */
     protected abstract User authenticate(HttpServletRequest request);
 
+    /**
+     * Returns the authentication token of the request, the principals are cached by token.
+     *
+     * @param request HTTP request
+     * @return Authentication token or null if the authentication doesn't use a token
+     */
+    protected String getAuthenticationToken(HttpServletRequest request) {
+        return null;
+    }
+
+    /**
+     * Returns the expiration date of an authentication token, the principal is not cached past this date.
+     *
+     * @param tokenId Authentication token
+     * @return Expiration date or null if the token doesn't expire
+     */
+    protected Date getAuthenticationExpiryDate(String tokenId) {
+        return null;
+    }
+
 }
\ No newline at end of file
@@ -1,13 +1,14 @@
 package com.sismics.util.filter;
 
+import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.AuthenticationTokenDao;
 import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.AuthenticationToken;
 import com.sismics.docs.core.model.jpa.User;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
-import java.text.MessageFormat;
 import java.util.Date;
 
 /**
@@ -27,12 +28,12 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
     /**
      * Lifetime of the authentication token in seconds, since login.
      */
-    public static final int TOKEN_LONG_LIFETIME = 3600 * 24 * 365 * 20;
+    public static final int TOKEN_LONG_LIFETIME = Constants.AUTHENTICATION_TOKEN_LONG_LIFETIME;
     
     /**
      * Lifetime of the authentication token in seconds, since last connection.
      */
-    private static final int TOKEN_SESSION_LIFETIME = 3600 * 24;
+    private static final int TOKEN_SESSION_LIFETIME = Constants.AUTHENTICATION_TOKEN_SESSION_LIFETIME;
 
     /**
      * Extracts and returns an authentication token from a cookie list.
@@ -53,16 +54,23 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
     }
 
     /**
-     * Deletes an expired authentication token.
+     * Returns the expiration date of a token.
      *
-     * @param authTokenID auth token ID
+     * @param authenticationToken Authentication token
+     * @return Expiration date
      */
-    private void handleExpiredToken(AuthenticationTokenDao dao, String authTokenID) {
-        try {
-            dao.delete(authTokenID);
-        } catch (Exception e) {
-            if (LOG.isErrorEnabled())
-                LOG.error(MessageFormat.format("Error deleting authentication token {0} ", authTokenID), e);
+    private Date getTokenExpiryDate(AuthenticationToken authenticationToken) {
+        final long creationDate = authenticationToken.getCreationDate().getTime();
+        if (authenticationToken.isLongLasted()) {
+            return new Date(creationDate + ((long) TOKEN_LONG_LIFETIME) * 1000L);
+        } else {
+            long date = authenticationToken.getLastConnectionDate() != null ?
+                    authenticationToken.getLastConnectionDate().getTime() : creationDate;
+            Date pendingDate = AppContext.getInstance().getSessionService().getPendingConnectionDate(authenticationToken.getId());
+            if (pendingDate != null) {
+                date = Math.max(date, pendingDate.getTime());
+            }
+            return new Date(date + ((long) TOKEN_SESSION_LIFETIME) * 1000L);
         }
     }
 
@@ -73,15 +81,19 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
      * @return Token expired
      */
     private boolean isTokenExpired(AuthenticationToken authenticationToken) {
-        final long now = new Date().getTime();
-        final long creationDate = authenticationToken.getCreationDate().getTime();
-        if (authenticationToken.isLongLasted()) {
-            return now >= creationDate + ((long) TOKEN_LONG_LIFETIME) * 1000L;
-        } else {
-            long date = authenticationToken.getLastConnectionDate() != null ?
-                    authenticationToken.getLastConnectionDate().getTime() : creationDate;
-            return now >= date + ((long) TOKEN_SESSION_LIFETIME) * 1000L;
-        }
+        return new Date().getTime() >= getTokenExpiryDate(authenticationToken).getTime();
+    }
+
+    @Override
+    protected String getAuthenticationToken(HttpServletRequest request) {
+        return extractAuthToken(request.getCookies());
+    }
+
+    @Override
+    protected Date getAuthenticationExpiryDate(String tokenId) {
+        // The token has just been loaded in the persistence context by the authentication
+        AuthenticationToken authToken = new AuthenticationTokenDao().get(tokenId);
+        return authToken == null ? new Date() : getTokenExpiryDate(authToken);
     }
 
     @Override
@@ -100,7 +112,7 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
         }
 
         if (isTokenExpired(authToken)) {
-            handleExpiredToken(authTokenDao, authTokenId);
+            // The expired tokens are deleted by the session service
             return null;
         }
 
@@ -1,20 +1,30 @@
 package com.sismics.docs.rest.resource;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.CacheStats;
 import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.ConfigDao;
 import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.DocumentPermissionDao;
+import com.sismics.docs.core.dao.FileBlobDao;
 import com.sismics.docs.core.dao.FileDao;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.event.RebuildIndexAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.Config;
 import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.service.AuditLogArchiveService;
 import com.sismics.docs.core.service.InboxService;
+import com.sismics.docs.core.service.SessionService;
+import com.sismics.docs.core.util.AuditLogUtil;
 import com.sismics.docs.core.util.ConfigUtil;
 import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.authentication.LdapAuthenticationHandler;
+import com.sismics.docs.core.util.indexing.IndexingHandler;
+import com.sismics.docs.core.util.indexing.LuceneIndexingHandler;
+import com.sismics.docs.core.util.indexing.RebuildProgress;
+import com.sismics.docs.core.util.jpa.DaoCache;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.rest.constant.BaseFunction;
@@ -75,6 +85,29 @@ public class AppResource extends BaseResource {
      * @apiSuccess {String} active_user_count Number of active users
      * @apiSuccess {String} global_storage_current Global storage currently used (in bytes)
      * @apiSuccess {String} global_storage_quota Maximum global storage (in bytes)
+     * @apiSuccess {Number} index_operation_count Number of indexing operations since startup
+     * @apiSuccess {Number} index_operation_latency Average indexing operation latency (in milliseconds)
+     * @apiSuccess {Number} index_pending_count Number of indexing operations not yet committed
+     * @apiSuccess {Number} index_commit_count Number of index commits since startup
+     * @apiSuccess {Number} index_commit_latency Average index commit latency (in milliseconds)
+     * @apiSuccess {Number} search_cache_count Number of cached search results
+     * @apiSuccess {Number} search_cache_hit_count Number of searches served by the cache since startup
+     * @apiSuccess {Number} search_cache_miss_count Number of searches not found in the cache since startup
+     * @apiSuccess {Number} search_cache_hit_rate Ratio of searches served by the cache (between 0 and 1)
+     * @apiSuccess {Number} session_flushed_count Number of last connection dates written since startup
+     * @apiSuccess {Number} session_pending_count Number of last connection dates not yet written
+     * @apiSuccess {Number} session_purged_count Number of expired authentication tokens deleted since startup
+     * @apiSuccess {Number} audit_log_written_count Number of audit logs written since startup
+     * @apiSuccess {Number} audit_log_batch_count Number of audit log batches written since startup
+     * @apiSuccess {Number} audit_log_batch_latency Average audit log batch write latency (in milliseconds)
+     * @apiSuccess {Number} audit_log_pending_count Number of audit logs waiting to be written in asynchronous mode
+     * @apiSuccess {Number} audit_log_removed_count Number of audit logs removed after their retention period since startup
+     * @apiSuccess {Object[]} dao_caches Caches of read-mostly data
+     * @apiSuccess {String} dao_caches.name Cache name
+     * @apiSuccess {Number} dao_caches.count Number of cached values
+     * @apiSuccess {Number} dao_caches.hit_count Number of reads served by the cache since startup
+     * @apiSuccess {Number} dao_caches.miss_count Number of reads not found in the cache since startup
+     * @apiSuccess {Number} dao_caches.hit_rate Ratio of reads served by the cache (between 0 and 1)
      * @apiPermission none
      * @apiVersion 1.5.0
      *
@@ -109,6 +142,40 @@ public class AppResource extends BaseResource {
         if (globalQuota > 0) {
             response.add("global_storage_quota", globalQuota);
         }
+        IndexingHandler indexingHandler = AppContext.getInstance().getIndexingHandler();
+        if (indexingHandler instanceof LuceneIndexingHandler) {
+            LuceneIndexingHandler luceneIndexingHandler = (LuceneIndexingHandler) indexingHandler;
+            response.add("index_operation_count", luceneIndexingHandler.getOperationCount())
+                    .add("index_operation_latency", luceneIndexingHandler.getAverageOperationLatency())
+                    .add("index_pending_count", luceneIndexingHandler.getPendingOperationCount())
+                    .add("index_commit_count", luceneIndexingHandler.getCommitCount())
+                    .add("index_commit_latency", luceneIndexingHandler.getAverageCommitLatency())
+                    .add("search_cache_count", luceneIndexingHandler.getSearchCacheCount())
+                    .add("search_cache_hit_count", luceneIndexingHandler.getSearchCacheHitCount())
+                    .add("search_cache_miss_count", luceneIndexingHandler.getSearchCacheMissCount())
+                    .add("search_cache_hit_rate", luceneIndexingHandler.getSearchCacheHitRate());
+        }
+        SessionService sessionService = AppContext.getInstance().getSessionService();
+        response.add("session_flushed_count", sessionService.getFlushedConnectionCount())
+                .add("session_pending_count", sessionService.getPendingConnectionCount())
+                .add("session_purged_count", sessionService.getPurgedTokenCount());
+        response.add("audit_log_written_count", AuditLogUtil.getWrittenCount())
+                .add("audit_log_batch_count", AuditLogUtil.getBatchCount())
+                .add("audit_log_batch_latency", AuditLogUtil.getAverageBatchLatency())
+                .add("audit_log_pending_count", AppContext.getInstance().getAuditLogService().getPendingCount());
+        AuditLogArchiveService auditLogArchiveService = AppContext.getInstance().getAuditLogArchiveService();
+        response.add("audit_log_removed_count", auditLogArchiveService == null ? 0 : auditLogArchiveService.getRemovedCount());
+        JsonArrayBuilder daoCaches = Json.createArrayBuilder();
+        for (DaoCache<?, ?> cache : DaoCache.getCacheList()) {
+            CacheStats stats = cache.getStats();
+            daoCaches.add(Json.createObjectBuilder()
+                    .add("name", cache.getName())
+                    .add("count", cache.getCount())
+                    .add("hit_count", stats.hitCount())
+                    .add("miss_count", stats.missCount())
+                    .add("hit_rate", stats.requestCount() == 0 ? 0 : stats.hitRate()));
+        }
+        response.add("dao_caches", daoCaches);
 
         return Response.ok().entity(response.build()).build();
     }
@@ -598,6 +665,47 @@ public class AppResource extends BaseResource {
         return Response.ok().entity(response.build()).build();
     }
     
+    /**
+     * Returns the progress of the search index rebuild.
+     *
+     * @api {get} /app/batch/reindex Get the search index rebuild progress
+     * @apiName GetAppBatchReindex
+     * @apiGroup App
+     * @apiSuccess {Boolean} running True if a rebuild is running
+     * @apiSuccess {String} phase Current phase (documents or files)
+     * @apiSuccess {Number} done Number of documents and files indexed
+     * @apiSuccess {Number} total Number of documents and files to index
+     * @apiSuccess {Number} rate Documents and files indexed per second
+     * @apiSuccess {Number} eta Estimated remaining time in seconds
+     * @apiError (client) ForbiddenError Access denied
+     * @apiPermission admin
+     * @apiVersion 1.11.0
+     *
+     * @return Response
+     */
+    @GET
+    @Path("batch/reindex")
+    public Response batchReindexProgress() {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        checkBaseFunction(BaseFunction.ADMIN);
+
+        RebuildProgress rebuildProgress = AppContext.getInstance().getIndexingHandler().getRebuildProgress();
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("running", rebuildProgress.isRunning())
+                .add("done", rebuildProgress.getDoneCount())
+                .add("total", rebuildProgress.getTotalCount())
+                .add("rate", rebuildProgress.getRate());
+        if (rebuildProgress.getPhase() != null) {
+            response.add("phase", rebuildProgress.getPhase());
+        }
+        if (rebuildProgress.getEta() != null) {
+            response.add("eta", rebuildProgress.getEta());
+        }
+        return Response.ok().entity(response.build()).build();
+    }
+
     /**
      * Clean storage.
      *
@@ -606,7 +714,7 @@ public class AppResource extends BaseResource {
      * @apiGroup App
      * @apiSuccess {String} status Status OK
      * @apiError (client) ForbiddenError Access denied
-     * @apiError (server) FileError Error deleting orphan files
+     * @apiError (server) FileError Error deleting orphan files or blobs
      * @apiPermission admin
      * @apiVersion 1.5.0
      *
@@ -709,6 +817,25 @@ public class AppResource extends BaseResource {
         log.info("Deleting {} soft deleted documents", em.createQuery("delete Document d where d.deleteDate is not null").executeUpdate());
         log.info("Deleting {} soft deleted users", em.createQuery("delete User u where u.deleteDate is not null").executeUpdate());
         log.info("Deleting {} soft deleted groups", em.createQuery("delete Group g where g.deleteDate is not null").executeUpdate());
+
+        // Count again the references to the deduplicated blobs, and delete the orphan blobs
+        FileBlobDao fileBlobDao = new FileBlobDao();
+        log.info("Deleting {} unreferenced blobs", fileBlobDao.rebuildReferenceCounts());
+        Set<String> blobIdSet = new HashSet<>(fileBlobDao.findAllIds());
+        try (DirectoryStream<java.nio.file.Path> storedBlobList = Files.newDirectoryStream(DirectoryUtil.getBlobDirectory())) {
+            for (java.nio.file.Path storedBlob : storedBlobList) {
+                String blobId = storedBlob.getFileName().toString().split("_")[0];
+                if (!blobIdSet.contains(blobId)) {
+                    log.info("Deleting orphan blob at this location: {}", storedBlob);
+                    Files.delete(storedBlob);
+                }
+            }
+        } catch (IOException e) {
+            throw new ServerException("FileError", "Error deleting orphan blobs", e);
+        }
+
+        // Compute again the effective permissions on documents
+        new DocumentPermissionDao().rebuild();
         
         // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
@@ -11,6 +11,8 @@ import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.core.util.jpa.SortCriteria;
 import com.sismics.rest.exception.ForbiddenClientException;
+import com.sismics.rest.util.RestUtil;
+import com.sismics.rest.util.ValidationUtil;
 import com.sismics.util.JsonUtil;
 
 import javax.json.Json;
@@ -37,7 +39,13 @@ public class AuditLogResource extends BaseResource {
      * @apiName GetAuditlog
      * @apiGroup Auditlog
      * @apiParam {String} [document] Document ID
-     * @apiSuccess {String} total Total number of logs
+     * @apiParam {Number} [limit] Total number of logs to return (default 20)
+     * @apiParam {Number} [offset] Start at this index
+     * @apiParam {String} [cursor] Start after this position (next_cursor of the previous page, ignores offset)
+     * @apiParam {String="exact","estimate","none"} [count] How to count the logs (default exact)
+     * @apiSuccess {String} total Total number of logs (not returned if count is none)
+     * @apiSuccess {Boolean} total_exact False if the total is a lower bound
+     * @apiSuccess {String} next_cursor Position of the next page, null if this is the last page
      * @apiSuccess {Object[]} logs List of logs
      * @apiSuccess {String} logs.id ID
      * @apiSuccess {String} logs.username Username
@@ -54,14 +62,21 @@ public class AuditLogResource extends BaseResource {
      * @return Response
      */
     @GET
-    public Response list(@QueryParam("document") String documentId) {
+    public Response list(
+            @QueryParam("document") String documentId,
+            @QueryParam("limit") Integer limit,
+            @QueryParam("offset") Integer offset,
+            @QueryParam("cursor") String cursor,
+            @QueryParam("count") String count) {
         if (!authenticate()) {
             throw new ForbiddenClientException();
         }
         
         // On a document or a user?
-        PaginatedList<AuditLogDto> paginatedList = PaginatedLists.create(20, 0);
+        PaginatedList<AuditLogDto> paginatedList = PaginatedLists.create(limit == null ? 20 : limit, offset);
         SortCriteria sortCriteria = new SortCriteria(1, false);
+        paginatedList.setCursor(ValidationUtil.validateCursor(cursor, "cursor", sortCriteria));
+        paginatedList.setCountMode(ValidationUtil.validateCountMode(count, "count"));
         AuditLogCriteria criteria = new AuditLogCriteria();
         if (Strings.isNullOrEmpty(documentId)) {
             // Search logs for a user
@@ -95,8 +110,8 @@ public class AuditLogResource extends BaseResource {
 
         // Send the response
         JsonObjectBuilder response = Json.createObjectBuilder()
-                .add("logs", logs)
-                .add("total", paginatedList.getResultCount());
+                .add("logs", logs);
+        RestUtil.addPagination(response, paginatedList);
         return Response.ok().entity(response.build()).build();
     }
 }
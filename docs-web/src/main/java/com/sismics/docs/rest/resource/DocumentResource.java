@@ -33,7 +33,6 @@ import com.sismics.util.EmailUtil;
 import com.sismics.util.JsonUtil;
 import com.sismics.util.context.ThreadLocalContext;
 import com.sismics.util.mime.MimeType;
-import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.glassfish.jersey.media.multipart.FormDataBodyPart;
 import org.glassfish.jersey.media.multipart.FormDataParam;
@@ -59,6 +58,7 @@ import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * Document REST resources.
@@ -182,11 +182,8 @@ public class DocumentResource extends BaseResource {
         } else {
             // Add tags visible by the current user on this document
             TagDao tagDao = new TagDao();
-            tagDtoList = tagDao.findByCriteria(
-                    new TagCriteria()
-                            .setTargetIdList(getTargetIdList(null)) // No tags for shares
-                            .setDocumentId(documentId),
-                    new SortCriteria(1, true));
+            tagDtoList = tagDao.getByDocumentIdList(Collections.singleton(documentId), getTargetIdList(null)) // No tags for shares
+                    .getOrDefault(documentId, Collections.emptyList());
             JsonArrayBuilder tags = Json.createArrayBuilder();
             for (TagDto tagDto : tagDtoList) {
                 tags.add(Json.createObjectBuilder()
@@ -214,10 +211,12 @@ public class DocumentResource extends BaseResource {
         // Add computed ACL
         if (tagDtoList != null) {
             JsonArrayBuilder aclList = Json.createArrayBuilder();
+            AclDao aclDao = new AclDao();
+            Map<String, List<AclDto>> aclDtoMap = aclDao.getBySourceIdList(
+                    tagDtoList.stream().map(TagDto::getId).collect(Collectors.toList()), AclType.USER)
+                    .stream().collect(Collectors.groupingBy(AclDto::getSourceId));
             for (TagDto tagDto : tagDtoList) {
-                AclDao aclDao = new AclDao();
-                List<AclDto> aclDtoList = aclDao.getBySourceId(tagDto.getId(), AclType.USER);
-                for (AclDto aclDto : aclDtoList) {
+                for (AclDto aclDto : aclDtoMap.getOrDefault(tagDto.getId(), Collections.emptyList())) {
                     aclList.add(Json.createObjectBuilder()
                             .add("perm", aclDto.getPerm().name())
                             .add("source_id", tagDto.getId())
@@ -330,14 +329,10 @@ public class DocumentResource extends BaseResource {
         
         // Get files
         FileDao fileDao = new FileDao();
-        UserDao userDao = new UserDao();
         final List<File> fileList = fileDao.getByDocumentId(null, documentId);
-        for (File file : fileList) {
-            // A file is always encrypted by the creator of it
-            // Store its private key to decrypt it
-            User user = userDao.getById(file.getUserId());
-            file.setPrivateKey(user.getPrivateKey());
-        }
+
+        // A file is always encrypted by the creator of it
+        FileUtil.setPrivateKeys(fileList);
         
         // Convert to PDF
         StreamingOutput stream = outputStream -> {
@@ -366,7 +361,12 @@ public class DocumentResource extends BaseResource {
      * @apiParam {Boolean} asc If true, sort in ascending order
      * @apiParam {String} search Search query (see "Document search syntax" on the top of the page for explanations)
      * @apiParam {Booleans} files If true includes files information
-     * @apiSuccess {Number} total Total number of documents
+     * @apiParam {Boolean} facets If true includes the facet counts of all matching documents
+     * @apiParam {String} cursor Start after this position (next_cursor of the previous page, ignores offset)
+     * @apiParam {String="exact","estimate","none"} count How to count the documents (default exact)
+     * @apiSuccess {Number} total Total number of documents (not returned if count is none)
+     * @apiSuccess {Boolean} total_exact False if the total is a lower bound
+     * @apiSuccess {String} next_cursor Position of the next page, null if this is the last page
      * @apiSuccess {Object[]} documents List of documents
      * @apiSuccess {String} documents.id ID
      * @apiSuccess {String} documents.highlight Search highlight (for fulltext search)
@@ -391,6 +391,24 @@ public class DocumentResource extends BaseResource {
      * @apiSuccess {String} documents.files.mimetype MIME type
      * @apiSuccess {String} documents.files.create_date Create date (timestamp)
      * @apiSuccess {String[]} suggestions List of search suggestions
+     * @apiSuccess {Object} facets Facet counts, by decreasing count (not computed with the workflow:me search)
+     * @apiSuccess {Object[]} facets.tags Tags visible by the user
+     * @apiSuccess {String} facets.tags.id ID
+     * @apiSuccess {String} facets.tags.name Name
+     * @apiSuccess {String} facets.tags.color Color
+     * @apiSuccess {Number} facets.tags.count Number of documents
+     * @apiSuccess {Object[]} facets.mime_types MIME types of the files
+     * @apiSuccess {String} facets.mime_types.value MIME type
+     * @apiSuccess {Number} facets.mime_types.count Number of documents
+     * @apiSuccess {Object[]} facets.languages Languages
+     * @apiSuccess {String} facets.languages.value Language
+     * @apiSuccess {Number} facets.languages.count Number of documents
+     * @apiSuccess {Object[]} facets.creators Creators
+     * @apiSuccess {String} facets.creators.value Username
+     * @apiSuccess {Number} facets.creators.count Number of documents
+     * @apiSuccess {Object[]} facets.years Creation years
+     * @apiSuccess {String} facets.years.value Year
+     * @apiSuccess {Number} facets.years.count Number of documents
      * @apiError (client) ForbiddenError Access denied
      * @apiError (server) SearchError Error searching in documents
      * @apiPermission user
@@ -402,6 +420,7 @@ public class DocumentResource extends BaseResource {
      * @param asc Sorting
      * @param search Search query
      * @param files Files list
+     * @param facets Facet counts
      * @return Response
      */
     @GET
@@ -412,7 +431,10 @@ public class DocumentResource extends BaseResource {
             @QueryParam("sort_column") Integer sortColumn,
             @QueryParam("asc") Boolean asc,
             @QueryParam("search") String search,
-            @QueryParam("files") Boolean files) {
+            @QueryParam("files") Boolean files,
+            @QueryParam("facets") Boolean facets,
+            @QueryParam("cursor") String cursor,
+            @QueryParam("count") String count) {
         if (!authenticate()) {
             throw new ForbiddenClientException();
         }
@@ -423,30 +445,31 @@ public class DocumentResource extends BaseResource {
         TagDao tagDao = new TagDao();
         PaginatedList<DocumentDto> paginatedList = PaginatedLists.create(limit, offset);
         List<String> suggestionList = Lists.newArrayList();
+        DocumentFacetsDto documentFacetsDto = Boolean.TRUE == facets ? new DocumentFacetsDto() : null;
         SortCriteria sortCriteria = new SortCriteria(sortColumn, asc);
+        paginatedList.setCursor(ValidationUtil.validateCursor(cursor, "cursor", sortCriteria));
+        paginatedList.setCountMode(ValidationUtil.validateCountMode(count, "count"));
         DocumentCriteria documentCriteria = parseSearchQuery(search);
         documentCriteria.setTargetIdList(getTargetIdList(null));
         try {
-            AppContext.getInstance().getIndexingHandler().findByCriteria(paginatedList, suggestionList, documentCriteria, sortCriteria);
+            AppContext.getInstance().getIndexingHandler().findByCriteria(paginatedList, suggestionList, documentFacetsDto, documentCriteria, sortCriteria);
         } catch (Exception e) {
             throw new ServerException("SearchError", "Error searching in documents", e);
         }
 
-        // Find the files of the documents
-        List<File> filesList = null;
-        if (Boolean.TRUE == files) {
-            Iterable<String> documentsIds = CollectionUtils.collect(paginatedList.getResultList(), DocumentDto::getId);
+        // Find the tags accessible by the current user and the files of all documents at once
+        List<String> documentIdList = paginatedList.getResultList().stream().map(DocumentDto::getId).collect(Collectors.toList());
+        Map<String, List<TagDto>> tagDtoMap = tagDao.getByDocumentIdList(documentIdList, getTargetIdList(null));
+        Map<String, List<File>> fileMap = null;
+        if (Boolean.TRUE == files && !documentIdList.isEmpty()) {
             FileDao fileDao = new FileDao();
-            filesList = fileDao.getByDocumentsIds(documentsIds);
+            fileMap = fileDao.getByDocumentsIds(documentIdList).stream()
+                    .collect(Collectors.groupingBy(File::getDocumentId));
         }
 
         for (DocumentDto documentDto : paginatedList.getResultList()) {
-            // Get tags accessible by the current user on this document
-            List<TagDto> tagDtoList = tagDao.findByCriteria(new TagCriteria()
-                    .setTargetIdList(getTargetIdList(null))
-                    .setDocumentId(documentDto.getId()), new SortCriteria(1, true));
             JsonArrayBuilder tags = Json.createArrayBuilder();
-            for (TagDto tagDto : tagDtoList) {
+            for (TagDto tagDto : tagDtoMap.getOrDefault(documentDto.getId(), Collections.emptyList())) {
                 tags.add(Json.createObjectBuilder()
                         .add("id", tagDto.getId())
                         .add("name", tagDto.getName())
@@ -469,8 +492,7 @@ public class DocumentResource extends BaseResource {
                     .add("tags", tags);
             if (Boolean.TRUE == files) {
                 JsonArrayBuilder filesArrayBuilder = Json.createArrayBuilder();
-                // Find files matching the document
-                Collection<File> filesOfDocument = CollectionUtils.select(filesList, file -> file.getDocumentId().equals(documentDto.getId()));
+                List<File> filesOfDocument = fileMap == null ? Collections.emptyList() : fileMap.getOrDefault(documentDto.getId(), Collections.emptyList());
                 for (File fileDb : filesOfDocument) {
                     filesArrayBuilder.add(RestUtil.fileToJsonObjectBuilder(fileDb));
                 }
@@ -484,13 +506,120 @@ public class DocumentResource extends BaseResource {
             suggestions.add(suggestion);
         }
 
-        response.add("total", paginatedList.getResultCount())
-                .add("documents", documents)
+        RestUtil.addPagination(response, paginatedList);
+        response.add("documents", documents)
                 .add("suggestions", suggestions);
+        if (documentFacetsDto != null) {
+            response.add("facets", buildFacets(documentFacetsDto));
+        }
         
         return Response.ok().entity(response.build()).build();
     }
+
+    /**
+     * Build the facets of a document search.
+     * Only the tags visible by the current user are returned.
+     *
+     * @param documentFacetsDto Facet counts
+     * @return Facets JSON
+     */
+    private JsonObjectBuilder buildFacets(DocumentFacetsDto documentFacetsDto) {
+        TagDao tagDao = new TagDao();
+        Map<String, TagDto> tagDtoMap = new HashMap<>();
+        for (TagDto tagDto : tagDao.findByCriteria(new TagCriteria().setTargetIdList(getTargetIdList(null)), null)) {
+            tagDtoMap.put(tagDto.getId(), tagDto);
+        }
+        JsonArrayBuilder tags = Json.createArrayBuilder();
+        for (Map.Entry<String, Long> entry : documentFacetsDto.getTagCountMap().entrySet()) {
+            TagDto tagDto = tagDtoMap.get(entry.getKey());
+            if (tagDto != null) {
+                tags.add(Json.createObjectBuilder()
+                        .add("id", tagDto.getId())
+                        .add("name", tagDto.getName())
+                        .add("color", tagDto.getColor())
+                        .add("count", entry.getValue()));
+            }
+        }
+
+        UserDao userDao = new UserDao();
+        Map<String, Long> creatorCountMap = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : documentFacetsDto.getCreatorCountMap().entrySet()) {
+            User user = userDao.getById(entry.getKey());
+            if (user != null) {
+                creatorCountMap.put(user.getUsername(), entry.getValue());
+            }
+        }
+
+        return Json.createObjectBuilder()
+                .add("tags", tags)
+                .add("mime_types", buildFacet(documentFacetsDto.getMimeTypeCountMap()))
+                .add("languages", buildFacet(documentFacetsDto.getLanguageCountMap()))
+                .add("creators", buildFacet(creatorCountMap))
+                .add("years", buildFacet(documentFacetsDto.getYearCountMap()));
+    }
+
+    /**
+     * Build a facet from counts by value.
+     *
+     * @param countMap Counts by value
+     * @return Facet JSON
+     */
+    private JsonArrayBuilder buildFacet(Map<String, Long> countMap) {
+        JsonArrayBuilder facet = Json.createArrayBuilder();
+        for (Map.Entry<String, Long> entry : countMap.entrySet()) {
+            facet.add(Json.createObjectBuilder()
+                    .add("value", entry.getKey())
+                    .add("count", entry.getValue()));
+        }
+        return facet;
+    }
     
+    /**
+     * Suggest search terms for autocompletion.
+     *
+     * @api {get} /document/suggest Suggest search terms
+     * @apiName GetDocumentSuggest
+     * @apiGroup Document
+     * @apiParam {String} search Search query, the last word is completed
+     * @apiParam {Number} limit Maximum number of suggestions (default 10)
+     * @apiSuccess {String[]} suggestions List of search suggestions
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (client) ValidationError Validation error
+     * @apiError (server) SearchError Error searching in documents
+     * @apiPermission user
+     * @apiVersion 1.11.0
+     *
+     * @param search Search query
+     * @param limit Maximum number of suggestions
+     * @return Response
+     */
+    @GET
+    @Path("suggest")
+    public Response suggest(
+            @QueryParam("search") String search,
+            @QueryParam("limit") Integer limit) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        ValidationUtil.validateRequired(search, "search");
+
+        List<String> suggestionList;
+        try {
+            suggestionList = AppContext.getInstance().getIndexingHandler()
+                    .suggestSearchTerms(search, limit == null ? 10 : Math.min(Math.max(limit, 1), 100));
+        } catch (Exception e) {
+            throw new ServerException("SearchError", "Error searching in documents", e);
+        }
+
+        JsonArrayBuilder suggestions = Json.createArrayBuilder();
+        for (String suggestion : suggestionList) {
+            suggestions.add(suggestion);
+        }
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("suggestions", suggestions);
+        return Response.ok().entity(response.build()).build();
+    }
+
     /**
      * Parse a query according to the specified syntax, eg.:
      * tag:assurance tag:other before:2012 after:2011-09 shared:yes lang:fra thing
@@ -1071,7 +1200,7 @@ public class DocumentResource extends BaseResource {
         long totalSize = 0L;
         for (File file : fileList) {
             // Store the file size to update the quota
-            java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
+            java.nio.file.Path storedFile = FileUtil.getStoredFile(file);
             try {
                 totalSize += Files.size(storedFile);
             } catch (IOException e) {
@@ -1082,6 +1211,7 @@ public class DocumentResource extends BaseResource {
             FileDeletedAsyncEvent fileDeletedAsyncEvent = new FileDeletedAsyncEvent();
             fileDeletedAsyncEvent.setUserId(principal.getId());
             fileDeletedAsyncEvent.setFileId(file.getId());
+            fileDeletedAsyncEvent.setBlobId(file.getBlobId());
             ThreadLocalContext.get().addAsyncEvent(fileDeletedAsyncEvent);
         }
 
@@ -3,6 +3,7 @@ package com.sismics.docs.rest.resource;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import com.sismics.docs.core.constant.PermType;
 import com.sismics.docs.core.dao.AclDao;
 import com.sismics.docs.core.dao.DocumentDao;
@@ -12,10 +13,8 @@ import com.sismics.docs.core.dao.dto.DocumentDto;
 import com.sismics.docs.core.event.DocumentUpdatedAsyncEvent;
 import com.sismics.docs.core.event.FileDeletedAsyncEvent;
 import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
-import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
-import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.EncryptionUtil;
 import com.sismics.docs.core.util.FileUtil;
 import com.sismics.rest.exception.ClientException;
@@ -39,16 +38,23 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.StreamingOutput;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -59,6 +65,16 @@ import java.util.zip.ZipOutputStream;
  */
 @Path("/file")
 public class FileResource extends BaseResource {
+    /**
+     * Maximum number of ranges of a file request.
+     */
+    private static final int MAX_RANGE_COUNT = 20;
+
+    /**
+     * Maximum size of an upload request besides the file: boundaries, part headers and the other fields.
+     */
+    private static final long MULTIPART_OVERHEAD = 64 * 1024;
+
     /**
      * Add a file (with or without a document).
      *
@@ -76,15 +92,17 @@ public class FileResource extends BaseResource {
      * @apiError (client) ForbiddenError Access denied
      * @apiError (client) ValidationError Validation error
      * @apiError (client) NotFound Document not found
-     * @apiError (server) StreamError Error reading the input file
-     * @apiError (server) ErrorGuessMime Error guessing mime type
+     * @apiError (client) StreamError Error reading the input file
+     * @apiError (client) ErrorGuessMime Error guessing mime type
      * @apiError (client) QuotaReached Quota limit reached
      * @apiError (server) FileError Error adding a file
      * @apiPermission user
      * @apiVersion 1.5.0
      *
      * @param documentId Document ID
+     * @param previousFileId ID of the previous version of the file
      * @param fileBodyPart File to add
+     * @param contentLength Request size
      * @return Response
      */
     @PUT
@@ -92,7 +110,8 @@ public class FileResource extends BaseResource {
     public Response add(
             @FormDataParam("id") String documentId,
             @FormDataParam("previousFileId") String previousFileId,
-            @FormDataParam("file") FormDataBodyPart fileBodyPart) {
+            @FormDataParam("file") FormDataBodyPart fileBodyPart,
+            @HeaderParam("Content-Length") Long contentLength) {
         if (!authenticate()) {
             throw new ForbiddenClientException();
         }
@@ -112,28 +131,20 @@ public class FileResource extends BaseResource {
             }
         }
         
-        // Keep unencrypted data temporary on disk
+        // Encrypt the file to the storage while reading it
         String name = fileBodyPart.getContentDisposition() != null ?
                 URLDecoder.decode(fileBodyPart.getContentDisposition().getFileName(), StandardCharsets.UTF_8) : null;
-        java.nio.file.Path unencryptedFile;
-        long fileSize;
-        try {
-            unencryptedFile = AppContext.getInstance().getFileService().createTemporaryFile(name);
-            Files.copy(fileBodyPart.getValueAs(InputStream.class), unencryptedFile, StandardCopyOption.REPLACE_EXISTING);
-            fileSize = Files.size(unencryptedFile);
-        } catch (IOException e) {
-            throw new ServerException("StreamError", "Error reading the input file", e);
-        }
-
-        try {
-            String fileId = FileUtil.createFile(name, previousFileId, unencryptedFile, fileSize, documentDto == null ?
-                    null : documentDto.getLanguage(), principal.getId(), documentId);
+        try (CountingInputStream inputStream = new CountingInputStream(fileBodyPart.getValueAs(InputStream.class))) {
+            // The request size minus the multipart overhead is a size the file reaches at least, to check the quotas before reading it
+            long minimumSize = contentLength == null ? -1 : Math.max(contentLength - MULTIPART_OVERHEAD, -1);
+            String fileId = FileUtil.createFile(name, previousFileId, inputStream, minimumSize,
+                    documentDto == null ? null : documentDto.getLanguage(), principal.getId(), documentId);
 
             // Always return OK
             JsonObjectBuilder response = Json.createObjectBuilder()
                     .add("status", "ok")
                     .add("id", fileId)
-                    .add("size", fileSize);
+                    .add("size", inputStream.getCount());
             return Response.ok().entity(response.build()).build();
         } catch (IOException e) {
             throw new ClientException(e.getMessage(), e.getMessage(), e);
@@ -198,8 +209,8 @@ public class FileResource extends BaseResource {
         
         // Raise a new file updated event and document updated event (it wasn't sent during file creation)
         try {
-            java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(id);
-            java.nio.file.Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.getPrivateKey());
+            java.nio.file.Path storedFile = FileUtil.getStoredFile(file);
+            java.nio.file.Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, FileUtil.getPrivateKey(file, user.getPrivateKey()));
             FileUtil.startProcessingFile(id);
             FileUpdatedAsyncEvent fileUpdatedAsyncEvent = new FileUpdatedAsyncEvent();
             fileUpdatedAsyncEvent.setUserId(principal.getId());
@@ -306,8 +317,8 @@ public class FileResource extends BaseResource {
 
         // Start the processing asynchronously
         try {
-            java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(id);
-            java.nio.file.Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.getPrivateKey());
+            java.nio.file.Path storedFile = FileUtil.getStoredFile(file);
+            java.nio.file.Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, FileUtil.getPrivateKey(file, user.getPrivateKey()));
             FileUtil.startProcessingFile(id);
             FileUpdatedAsyncEvent event = new FileUpdatedAsyncEvent();
             event.setUserId(principal.getId());
@@ -525,7 +536,7 @@ public class FileResource extends BaseResource {
         // Update the user quota
         UserDao userDao = new UserDao();
         User user = userDao.getById(principal.getId());
-        java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(id);
+        java.nio.file.Path storedFile = FileUtil.getStoredFile(file);
         try {
             user.setStorageCurrent(user.getStorageCurrent() - Files.size(storedFile));
             userDao.updateQuota(user);
@@ -537,6 +548,7 @@ public class FileResource extends BaseResource {
         FileDeletedAsyncEvent fileDeletedAsyncEvent = new FileDeletedAsyncEvent();
         fileDeletedAsyncEvent.setUserId(principal.getId());
         fileDeletedAsyncEvent.setFileId(file.getId());
+        fileDeletedAsyncEvent.setBlobId(file.getBlobId());
         ThreadLocalContext.get().addAsyncEvent(fileDeletedAsyncEvent);
         
         if (file.getDocumentId() != null) {
@@ -562,8 +574,12 @@ public class FileResource extends BaseResource {
      * @apiParam {String} id File ID
      * @apiParam {String} share Share ID
      * @apiParam {String="web","thumb","content"} [size] Size variation
+     * @apiHeader {String} [Range] Byte ranges to return, in a multipart/byteranges response if there are several
+     * @apiHeader {String} [If-Range] ETag the ranges are valid for
+     * @apiHeader {String} [If-None-Match] ETag of the cached file, the response is a 304 if it is still valid
      * @apiSuccess {Object} file The file data is the whole response
      * @apiError (client) SizeError Size must be web or thumb
+     * @apiError (client) RangeNotSatisfiable None of the ranges is in the file
      * @apiError (client) ForbiddenError Access denied or document not visible
      * @apiError (client) NotFound File not found
      * @apiError (server) ServiceUnavailable Error reading the file
@@ -571,6 +587,11 @@ public class FileResource extends BaseResource {
      * @apiVersion 1.5.0
      *
      * @param fileId File ID
+     * @param shareId Share ID
+     * @param size Size variation
+     * @param range Range header
+     * @param ifRange If-Range header
+     * @param ifNoneMatch If-None-Match header
      * @return Response
      */
     @GET
@@ -579,7 +600,10 @@ public class FileResource extends BaseResource {
     public Response data(
             @PathParam("id") final String fileId,
             @QueryParam("share") String shareId,
-            @QueryParam("size") String size) {
+            @QueryParam("size") String size,
+            @HeaderParam("Range") String range,
+            @HeaderParam("If-Range") String ifRange,
+            @HeaderParam("If-None-Match") String ifNoneMatch) {
         authenticate();
         
         if (size != null && !Lists.newArrayList("web", "thumb", "content").contains(size)) {
@@ -601,7 +625,7 @@ public class FileResource extends BaseResource {
                         .build();
             }
 
-            storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId + "_" + size);
+            storedFile = FileUtil.getStoredFile(file, size);
             mimeType = MimeType.IMAGE_JPEG; // Thumbnails are JPEG
             decrypt = true; // Thumbnails are encrypted
             if (!Files.exists(storedFile)) {
@@ -614,46 +638,98 @@ public class FileResource extends BaseResource {
                 decrypt = false;
             }
         } else {
-            storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId);
+            storedFile = FileUtil.getStoredFile(file);
             mimeType = file.getMimeType();
             decrypt = true; // Original files are encrypted
         }
         
-        // Stream the output and decrypt it if necessary
-        StreamingOutput stream;
-        
         // A file is always encrypted by the creator of it
         User user = userDao.getById(file.getUserId());
-        
-        // Write the decrypted file to the output
+
+        // The stored files of a file ID and version never change, except the thumbnails on reprocessing
+        String eTag = null;
+        if (decrypt) {
+            try {
+                eTag = "\"" + fileId + "-" + file.getVersion()
+                        + (size == null ? "" : "-" + size + "-" + Files.getLastModifiedTime(storedFile).toMillis()) + "\"";
+            } catch (IOException e) {
+                return Response.status(Status.SERVICE_UNAVAILABLE).build();
+            }
+            if (ifNoneMatch != null && (ifNoneMatch.trim().equals("*") || Lists.newArrayList(ifNoneMatch.split(",")).stream()
+                    .map(String::trim).anyMatch(eTag::equals))) {
+                return Response.notModified()
+                        .header(HttpHeaders.ETAG, eTag)
+                        .header(HttpHeaders.CACHE_CONTROL, "private")
+                        .build();
+            }
+        }
+
+        // Open the file and decrypt it if necessary, the decryption can start anywhere
+        SeekableByteChannel channel;
+        long fileSize;
         try {
-            InputStream fileInputStream = Files.newInputStream(storedFile);
-            final InputStream responseInputStream = decrypt ?
-                    EncryptionUtil.decryptInputStream(fileInputStream, user.getPrivateKey()) : fileInputStream;
-                    
-            stream = outputStream -> {
-                try {
-                    ByteStreams.copy(responseInputStream, outputStream);
-                } finally {
-                    try {
-                        responseInputStream.close();
-                        outputStream.close();
-                    } catch (IOException e) {
-                        // Ignore
-                    }
-                }
-            };
+            channel = decrypt ? EncryptionUtil.decryptChannel(storedFile, FileUtil.getPrivateKey(file, user.getPrivateKey())) : Files.newByteChannel(storedFile);
+            fileSize = channel.size();
         } catch (Exception e) {
             return Response.status(Status.SERVICE_UNAVAILABLE).build();
         }
 
-        Response.ResponseBuilder builder = Response.ok(stream)
-                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + file.getFullName("data") + "\"")
-                .header(HttpHeaders.CONTENT_TYPE, mimeType);
+        // Ranges are ignored if they are requested for another version of the file
+        List<long[]> rangeList = null;
+        if (ifRange == null || ifRange.equals(eTag)) {
+            rangeList = HttpUtil.parseRange(range, fileSize, MAX_RANGE_COUNT);
+        }
+        if (rangeList != null && rangeList.isEmpty()) {
+            closeQuietly(channel);
+            return Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", "bytes */" + fileSize)
+                    .build();
+        }
+
+        // Stream the output
+        Response.ResponseBuilder builder;
+        if (rangeList == null) {
+            builder = Response.ok((StreamingOutput) outputStream -> writeRange(channel, 0, fileSize, outputStream))
+                    .header(HttpHeaders.CONTENT_TYPE, mimeType)
+                    .header(HttpHeaders.CONTENT_LENGTH, fileSize);
+        } else if (rangeList.size() == 1) {
+            long[] byteRange = rangeList.get(0);
+            builder = Response.status(Status.PARTIAL_CONTENT)
+                    .entity((StreamingOutput) outputStream -> writeRange(channel, byteRange[0], byteRange[1] + 1, outputStream))
+                    .header(HttpHeaders.CONTENT_TYPE, mimeType)
+                    .header(HttpHeaders.CONTENT_LENGTH, byteRange[1] - byteRange[0] + 1)
+                    .header("Content-Range", "bytes " + byteRange[0] + "-" + byteRange[1] + "/" + fileSize);
+        } else {
+            String boundary = UUID.randomUUID().toString();
+            final List<long[]> byteRangeList = rangeList;
+            final String partMimeType = mimeType;
+            builder = Response.status(Status.PARTIAL_CONTENT)
+                    .entity((StreamingOutput) outputStream -> {
+                        try {
+                            for (long[] byteRange : byteRangeList) {
+                                outputStream.write(("--" + boundary + "\r\n"
+                                        + HttpHeaders.CONTENT_TYPE + ": " + partMimeType + "\r\n"
+                                        + "Content-Range: bytes " + byteRange[0] + "-" + byteRange[1] + "/" + fileSize + "\r\n\r\n")
+                                        .getBytes(StandardCharsets.US_ASCII));
+                                copyRange(channel, byteRange[0], byteRange[1] + 1, outputStream);
+                                outputStream.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+                            }
+                            outputStream.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+                        } finally {
+                            closeQuietly(channel);
+                            closeQuietly(outputStream);
+                        }
+                    })
+                    .header(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+        }
+
+        builder.header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + file.getFullName("data") + "\"")
+                .header("Accept-Ranges", "bytes");
         if (decrypt) {
             // Cache real files
             builder.header(HttpHeaders.CACHE_CONTROL, "private")
-                    .header(HttpHeaders.EXPIRES, HttpUtil.buildExpiresHeader(3_600_000L * 24L * 365L));
+                    .header(HttpHeaders.EXPIRES, HttpUtil.buildExpiresHeader(3_600_000L * 24L * 365L))
+                    .header(HttpHeaders.ETAG, eTag);
         } else {
             // Do not cache the temporary thumbnail
             builder.header(HttpHeaders.CACHE_CONTROL, "no-store, must-revalidate")
@@ -662,6 +738,53 @@ public class FileResource extends BaseResource {
         return builder.build();
     }
 
+    /**
+     * Write a range of a file, then close the file and the output.
+     *
+     * @param channel File channel
+     * @param start Position of the first byte
+     * @param end Position after the last byte
+     * @param outputStream Output
+     * @throws IOException e
+     */
+    private void writeRange(SeekableByteChannel channel, long start, long end, OutputStream outputStream) throws IOException {
+        try {
+            copyRange(channel, start, end, outputStream);
+        } finally {
+            closeQuietly(channel);
+            closeQuietly(outputStream);
+        }
+    }
+
+    /**
+     * Copy a range of a file.
+     *
+     * @param channel File channel
+     * @param start Position of the first byte
+     * @param end Position after the last byte
+     * @param outputStream Output
+     * @throws IOException e
+     */
+    private void copyRange(SeekableByteChannel channel, long start, long end, OutputStream outputStream) throws IOException {
+        if (channel.position() != start) {
+            channel.position(start);
+        }
+        ByteStreams.copy(ByteStreams.limit(Channels.newInputStream(channel), end - start), outputStream);
+    }
+
+    /**
+     * Close a resource, ignoring errors.
+     *
+     * @param closeable Resource
+     */
+    private void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
     /**
      * Returns all files from a document, zipped.
      *
@@ -732,7 +855,8 @@ public class FileResource extends BaseResource {
      * Sent the content of a list of files.
      */
     private Response sendZippedFiles(String zipFileName, List<File> fileList) {
-        final UserDao userDao = new UserDao();
+        // Files are encrypted by their creator
+        FileUtil.setPrivateKeys(fileList);
 
         // Create the ZIP stream
         StreamingOutput stream = outputStream -> {
@@ -740,13 +864,11 @@ public class FileResource extends BaseResource {
                 // Add each file to the ZIP stream
                 int index = 0;
                 for (File file : fileList) {
-                    java.nio.file.Path storedfile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
+                    java.nio.file.Path storedfile = FileUtil.getStoredFile(file);
                     InputStream fileInputStream = Files.newInputStream(storedfile);
 
                     // Add the decrypted file to the ZIP stream
-                    // Files are encrypted by the creator of them
-                    User user = userDao.getById(file.getUserId());
-                    try (InputStream decryptedStream = EncryptionUtil.decryptInputStream(fileInputStream, user.getPrivateKey())) {
+                    try (InputStream decryptedStream = EncryptionUtil.decryptInputStream(fileInputStream, file.getPrivateKey())) {
                         ZipEntry zipEntry = new ZipEntry(index + "-" + file.getFullName(Integer.toString(index)));
                         zipOutputStream.putNextEntry(zipEntry);
                         ByteStreams.copy(decryptedStream, zipOutputStream);
@@ -794,8 +916,19 @@ public class FileResource extends BaseResource {
     private List<File> findFiles(List<String> filesIds) {
         FileDao fileDao = new FileDao();
         List<File> files = fileDao.getFiles(filesIds);
+
+        // Check the accessibility of all documents at once
+        Set<String> documentIdSet = files.stream()
+                .map(File::getDocumentId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Set<String> readableDocumentIdSet = new AclDao().findPermitted(documentIdSet, PermType.READ, getTargetIdList(null));
         for (File file : files) {
-            checkFileAccessible(null, file);
+            if (file.getDocumentId() == null) {
+                checkFileAccessible(null, file);
+            } else if (!readableDocumentIdSet.contains(file.getDocumentId())) {
+                throw new ForbiddenClientException();
+            }
         }
         return files;
     }
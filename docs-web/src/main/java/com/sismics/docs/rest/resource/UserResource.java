@@ -18,11 +18,14 @@ import com.sismics.docs.core.model.jpa.*;
 import com.sismics.docs.core.util.ConfigUtil;
 import com.sismics.docs.core.util.RoutingUtil;
 import com.sismics.docs.core.util.authentication.AuthenticationUtil;
+import com.sismics.docs.core.util.jpa.PaginatedList;
+import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.core.util.jpa.SortCriteria;
 import com.sismics.docs.rest.constant.BaseFunction;
 import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.exception.ServerException;
+import com.sismics.rest.util.RestUtil;
 import com.sismics.rest.util.ValidationUtil;
 import com.sismics.security.UserPrincipal;
 import com.sismics.util.JsonUtil;
@@ -159,10 +162,11 @@ public class UserResource extends BaseResource {
         }
         user = userDao.update(user, principal.getId());
         
-        // Change the password
+        // Change the password and close the other sessions
         if (StringUtils.isNotBlank(password)) {
             user.setPassword(password);
             userDao.updatePassword(user, principal.getId());
+            new AuthenticationTokenDao().deleteByUserId(user.getId(), getAuthToken());
         }
         
         // Always return OK
@@ -244,10 +248,11 @@ public class UserResource extends BaseResource {
         }
         user = userDao.update(user, principal.getId());
         
-        // Change the password
+        // Change the password and close the sessions
         if (StringUtils.isNotBlank(password)) {
             user.setPassword(password);
             userDao.updatePassword(user, principal.getId());
+            new AuthenticationTokenDao().deleteByUserId(user.getId());
         }
         
         // Always return OK
@@ -483,6 +488,7 @@ public class UserResource extends BaseResource {
             FileDeletedAsyncEvent fileDeletedAsyncEvent = new FileDeletedAsyncEvent();
             fileDeletedAsyncEvent.setUserId(principal.getId());
             fileDeletedAsyncEvent.setFileId(file.getId());
+            fileDeletedAsyncEvent.setBlobId(file.getBlobId());
             ThreadLocalContext.get().addAsyncEvent(fileDeletedAsyncEvent);
         }
         
@@ -565,6 +571,7 @@ public class UserResource extends BaseResource {
             FileDeletedAsyncEvent fileDeletedAsyncEvent = new FileDeletedAsyncEvent();
             fileDeletedAsyncEvent.setUserId(principal.getId());
             fileDeletedAsyncEvent.setFileId(file.getId());
+            fileDeletedAsyncEvent.setBlobId(file.getBlobId());
             ThreadLocalContext.get().addAsyncEvent(fileDeletedAsyncEvent);
         }
         
@@ -649,10 +656,8 @@ public class UserResource extends BaseResource {
                 response.add("is_default_password", Constants.DEFAULT_ADMIN_PASSWORD.equals(adminUser.getPassword()));
             }
         } else {
-            // Update the last connection date
-            String authToken = getAuthToken();
-            AuthenticationTokenDao authenticationTokenDao = new AuthenticationTokenDao();
-            authenticationTokenDao.updateLastConnectionDate(authToken);
+            // Update the last connection date, it is written with the next batch
+            AppContext.getInstance().getSessionService().updateLastConnectionDate(getAuthToken());
             
             // Build the response
             response.add("anonymous", false);
@@ -756,7 +761,13 @@ public class UserResource extends BaseResource {
      * @apiParam {Number} sort_column Column index to sort on
      * @apiParam {Boolean} asc If true, sort in ascending order
      * @apiParam {String} group Filter on this group
+     * @apiParam {Number} [limit] Total number of users to return, all users are returned if neither limit nor cursor is set
+     * @apiParam {String} [cursor] Start after this position (next_cursor of the previous page)
+     * @apiParam {String="exact","estimate","none"} [count] How to count the users of a page (default exact)
      * @apiSuccess {Object[]} users List of users
+     * @apiSuccess {Number} total Total number of users (only when paginated, not returned if count is none)
+     * @apiSuccess {Boolean} total_exact False if the total is a lower bound (only when paginated)
+     * @apiSuccess {String} next_cursor Position of the next page, null if this is the last page (only when paginated)
      * @apiSuccess {String} users.id ID
      * @apiSuccess {String} users.username Username
      * @apiSuccess {String} users.email E-mail
@@ -779,13 +790,22 @@ public class UserResource extends BaseResource {
     public Response list(
             @QueryParam("sort_column") Integer sortColumn,
             @QueryParam("asc") Boolean asc,
-            @QueryParam("group") String groupName) {
+            @QueryParam("group") String groupName,
+            @QueryParam("limit") Integer limit,
+            @QueryParam("cursor") String cursor,
+            @QueryParam("count") String count) {
         if (!authenticate()) {
             throw new ForbiddenClientException();
         }
         
         JsonArrayBuilder users = Json.createArrayBuilder();
         SortCriteria sortCriteria = new SortCriteria(sortColumn, asc);
+        PaginatedList<UserDto> paginatedList = null;
+        if (limit != null || !Strings.isNullOrEmpty(cursor)) {
+            paginatedList = PaginatedLists.create(limit, null);
+            paginatedList.setCursor(ValidationUtil.validateCursor(cursor, "cursor", sortCriteria));
+            paginatedList.setCountMode(ValidationUtil.validateCountMode(count, "count"));
+        }
 
         // Validate the group
         String groupId = null;
@@ -798,7 +818,14 @@ public class UserResource extends BaseResource {
         }
         
         UserDao userDao = new UserDao();
-        List<UserDto> userDtoList = userDao.findByCriteria(new UserCriteria().setGroupId(groupId), sortCriteria);
+        UserCriteria userCriteria = new UserCriteria().setGroupId(groupId);
+        List<UserDto> userDtoList;
+        if (paginatedList == null) {
+            userDtoList = userDao.findByCriteria(userCriteria, sortCriteria);
+        } else {
+            userDao.findByCriteria(paginatedList, userCriteria, sortCriteria);
+            userDtoList = paginatedList.getResultList();
+        }
         for (UserDto userDto : userDtoList) {
             users.add(Json.createObjectBuilder()
                     .add("id", userDto.getId())
@@ -813,6 +840,9 @@ public class UserResource extends BaseResource {
         
         JsonObjectBuilder response = Json.createObjectBuilder()
                 .add("users", users);
+        if (paginatedList != null) {
+            RestUtil.addPagination(response, paginatedList);
+        }
         return Response.ok().entity(response.build()).build();
     }
     
@@ -855,8 +885,12 @@ public class UserResource extends BaseResource {
                         .add("create_date", authenticationToken.getCreationDate().getTime())
                         .add("ip", JsonUtil.nullable(authenticationToken.getIp()))
                         .add("user_agent", JsonUtil.nullable(authenticationToken.getUserAgent()));
-                if (authenticationToken.getLastConnectionDate() != null) {
-                    session.add("last_connection_date", authenticationToken.getLastConnectionDate().getTime());
+                Date lastConnectionDate = AppContext.getInstance().getSessionService().getPendingConnectionDate(authenticationToken.getId());
+                if (lastConnectionDate == null) {
+                    lastConnectionDate = authenticationToken.getLastConnectionDate();
+                }
+                if (lastConnectionDate != null) {
+                    session.add("last_connection_date", lastConnectionDate.getTime());
                 }
                 session.add("current", authenticationToken.getId().equals(authToken));
                 sessions.add(session);
@@ -1152,6 +1186,7 @@ public class UserResource extends BaseResource {
         // Change the password
         user.setPassword(password);
         user = userDao.updatePassword(user, principal.getId());
+        new AuthenticationTokenDao().deleteByUserId(user.getId());
 
         // Deletes password recovery requests
         passwordRecoveryDao.deleteActiveByLogin(user.getUsername());
@@ -1,5 +1,13 @@
 package com.sismics.docs.rest;
 
+import com.sismics.docs.core.constant.AclType;
+import com.sismics.docs.core.constant.PermType;
+import com.sismics.docs.core.dao.AclDao;
+import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.jpa.Acl;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.util.context.ThreadLocalContext;
 import com.sismics.util.filter.TokenBasedSecurityFilter;
 import org.junit.Assert;
 import org.junit.Test;
@@ -11,6 +19,8 @@ import javax.ws.rs.core.Form;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 /**
@@ -449,5 +459,237 @@ public class TestAclResource extends BaseJerseyTest {
                         .param("title", "My super document 1")
                         .param("tags", tag1Id)
                         .param("language", "eng")), JsonObject.class);
+
+        // acltag1 deletes tag1
+        target().path("/tag/" + tag1Id).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, acltag1Token)
+                .delete(JsonObject.class);
+
+        // acltag2 cannot see document1 anymore
+        json = target().path("/document/list")
+                .queryParam("sort_column", 3)
+                .queryParam("asc", true)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, acltag2Token)
+                .get(JsonObject.class);
+        documents = json.getJsonArray("documents");
+        Assert.assertEquals(0, documents.size());
+        Assert.assertEquals(0, json.getJsonNumber("total").intValue());
+    }
+
+    /**
+     * Test the effective permissions of the documents after each change of their ACLs.
+     */
+    @Test
+    public void testDocumentPermission() {
+        // Login perm1 and perm2
+        clientUtil.createUser("perm1");
+        String perm1Token = clientUtil.login("perm1");
+        clientUtil.createGroup("permgroup");
+        clientUtil.createUser("perm2", "permgroup");
+        String perm2Token = clientUtil.login("perm2");
+
+        // perm1 creates a tag and a tagged document, perm2 cannot see it
+        String tagId = target().path("/tag").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, perm1Token)
+                .put(Entity.form(new Form()
+                        .param("name", "PermTag")
+                        .param("color", "#ff0000")), JsonObject.class)
+                .getString("id");
+        String document1Id = target().path("/document").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, perm1Token)
+                .put(Entity.form(new Form()
+                        .param("title", "Permission document 1")
+                        .param("tags", tagId)
+                        .param("language", "eng")), JsonObject.class)
+                .getString("id");
+        assertReadable(false, perm2Token, document1Id);
+
+        // An ACL on the tag gives access to the document
+        String perm2Id = addAcl(perm1Token, tagId, "perm2", "USER");
+        assertReadable(true, perm2Token, document1Id);
+
+        // The access is lost when the tag is removed from the document
+        target().path("/document/" + document1Id).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, perm1Token)
+                .post(Entity.form(new Form()
+                        .param("title", "Permission document 1")
+                        .param("language", "eng")), JsonObject.class);
+        assertReadable(false, perm2Token, document1Id);
+
+        // The access is back when the tag is added again, and lost when the ACL of the tag is removed
+        target().path("/document/" + document1Id).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, perm1Token)
+                .post(Entity.form(new Form()
+                        .param("title", "Permission document 1")
+                        .param("tags", tagId)
+                        .param("language", "eng")), JsonObject.class);
+        assertReadable(true, perm2Token, document1Id);
+        target().path("/acl/" + tagId + "/READ/" + perm2Id).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, perm1Token)
+                .delete(JsonObject.class);
+        assertReadable(false, perm2Token, document1Id);
+
+        // An ACL for a group of perm2 gives access to the document, until it is revoked
+        String groupId = addAcl(perm1Token, document1Id, "permgroup", "GROUP");
+        assertReadable(true, perm2Token, document1Id);
+        Assert.assertEquals(1, countPermissions(groupId));
+        target().path("/acl/" + document1Id + "/READ/" + groupId).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, perm1Token)
+                .delete(JsonObject.class);
+        assertReadable(false, perm2Token, document1Id);
+        Assert.assertEquals(0, countPermissions(groupId));
+
+        // A share gives access to the document, until it is removed
+        String shareId = target().path("/share").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, perm1Token)
+                .put(Entity.form(new Form()
+                        .param("id", document1Id)
+                        .param("name", "Permission share")), JsonObject.class)
+                .getString("id");
+        Assert.assertEquals(Status.OK.getStatusCode(), target().path("/document/" + document1Id)
+                .queryParam("share", shareId)
+                .request()
+                .get()
+                .getStatus());
+        Assert.assertEquals(1, countPermissions(shareId));
+        target().path("/share/" + shareId).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, perm1Token)
+                .delete(JsonObject.class);
+        Assert.assertEquals(Status.NOT_FOUND.getStatusCode(), target().path("/document/" + document1Id)
+                .queryParam("share", shareId)
+                .request()
+                .get()
+                .getStatus());
+        Assert.assertEquals(0, countPermissions(shareId));
+        assertReadable(false, perm2Token, document1Id);
+
+        // perm2 gets access to the documents of perm3, directly and through a tag
+        clientUtil.createUser("perm3");
+        String perm3Token = clientUtil.login("perm3");
+        String document3Id = clientUtil.createDocument(perm3Token);
+        addAcl(perm3Token, document3Id, "perm2", "USER");
+        String perm3Id = addAcl(perm1Token, tagId, "perm3", "USER");
+        assertReadable(true, perm2Token, document3Id);
+        assertReadable(true, perm3Token, document1Id);
+        Assert.assertEquals(3, countPermissions(perm3Id)); // READ and WRITE on its document, READ on document1
+
+        // The deletion of perm3 removes the access to its documents and its own permissions
+        String adminToken = clientUtil.login("admin", "admin", false);
+        target().path("/user/perm3").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .delete(JsonObject.class);
+        assertReadable(false, perm2Token, document3Id);
+        Assert.assertEquals(0, countPermissions(perm3Id));
+        assertReadable(true, perm1Token, document1Id);
+    }
+
+    /**
+     * Test the delay between a change of the permissions and its indexing.
+     * The permissions are changed without event, the indexing listener is called explicitly.
+     */
+    @Test
+    public void testIndexedReaders() {
+        // Login index1 and index2
+        clientUtil.createUser("index1");
+        String index1Token = clientUtil.login("index1");
+        clientUtil.createUser("index2");
+        String index2Token = clientUtil.login("index2");
+        AtomicReference<String> index2Id = new AtomicReference<>();
+        TransactionUtil.handle(() -> index2Id.set(new UserDao().getActiveByUsername("index2").getId()));
+        String documentId = clientUtil.createDocument(index1Token);
+        assertReadable(false, index2Token, documentId);
+
+        // A new permission is checked at once, but the document is only listed once indexed
+        TransactionUtil.handle(() -> {
+            Acl acl = new Acl();
+            acl.setSourceId(documentId);
+            acl.setPerm(PermType.READ);
+            acl.setTargetId(index2Id.get());
+            acl.setType(AclType.USER);
+            new AclDao().create(acl, "admin");
+        });
+        Assert.assertEquals(Status.OK.getStatusCode(), target().path("/document/" + documentId).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, index2Token)
+                .get()
+                .getStatus());
+        Assert.assertFalse(isListed(index2Token, documentId));
+        TransactionUtil.handle(() -> AppContext.getInstance().getIndexingHandler().createAcl(documentId, PermType.READ, index2Id.get()));
+        assertReadable(true, index2Token, documentId);
+
+        // A revoked permission hides the document at once, even from the cached searches
+        TransactionUtil.handle(() -> new AclDao().delete(documentId, PermType.READ, index2Id.get(), "admin", AclType.USER));
+        assertReadable(false, index2Token, documentId);
+        TransactionUtil.handle(() -> AppContext.getInstance().getIndexingHandler().deleteAcl(documentId, PermType.READ, index2Id.get()));
+        assertReadable(false, index2Token, documentId);
+    }
+
+    /**
+     * Add an ACL READ.
+     *
+     * @param token Authentication token
+     * @param sourceId Source ID
+     * @param target Target name
+     * @param type Target type
+     * @return Target ID
+     */
+    private String addAcl(String token, String sourceId, String target, String type) {
+        return target().path("/acl").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                .put(Entity.form(new Form()
+                        .param("source", sourceId)
+                        .param("perm", "READ")
+                        .param("target", target)
+                        .param("type", type)), JsonObject.class)
+                .getString("id");
+    }
+
+    /**
+     * Check if a document can be read and is listed.
+     *
+     * @param readable True if the document must be readable
+     * @param token Authentication token
+     * @param documentId Document ID
+     */
+    private void assertReadable(boolean readable, String token, String documentId) {
+        Response response = target().path("/document/" + documentId).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                .get();
+        Assert.assertEquals(readable ? Status.OK.getStatusCode() : Status.NOT_FOUND.getStatusCode(), response.getStatus());
+        Assert.assertEquals(readable, isListed(token, documentId));
+    }
+
+    /**
+     * Checks if a document is in the document list.
+     *
+     * @param token Authentication token
+     * @param documentId Document ID
+     * @return True if the document is listed
+     */
+    private boolean isListed(String token, String documentId) {
+        JsonArray documents = target().path("/document/list").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                .get(JsonObject.class)
+                .getJsonArray("documents");
+        boolean listed = false;
+        for (int i = 0; i < documents.size(); i++) {
+            listed |= documents.getJsonObject(i).getString("id").equals(documentId);
+        }
+        return listed;
+    }
+
+    /**
+     * Returns the number of effective permissions given to a target.
+     *
+     * @param targetId Target ID
+     * @return Number of permissions
+     */
+    private int countPermissions(String targetId) {
+        AtomicInteger count = new AtomicInteger();
+        TransactionUtil.handle(() -> count.set(((Number) ThreadLocalContext.get().getEntityManager()
+                .createNativeQuery("select count(*) from T_DOCUMENT_PERMISSION where DPE_IDTARGET_C = :targetId")
+                .setParameter("targetId", targetId)
+                .getSingleResult()).intValue()));
+        return count.get();
     }
-}
\ No newline at end of file
+}
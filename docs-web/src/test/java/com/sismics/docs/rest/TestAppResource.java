@@ -44,12 +44,39 @@ public class TestAppResource extends BaseJerseyTest {
         Assert.assertEquals("eng", json.getString("default_language"));
         Assert.assertTrue(json.containsKey("global_storage_current"));
         Assert.assertTrue(json.getJsonNumber("active_user_count").longValue() > 0);
+        Assert.assertTrue(json.containsKey("index_operation_count"));
+        Assert.assertTrue(json.containsKey("index_commit_count"));
+        Assert.assertTrue(json.containsKey("search_cache_hit_rate"));
+        Assert.assertTrue(json.containsKey("session_pending_count"));
+        Assert.assertTrue(json.containsKey("session_purged_count"));
+        Assert.assertTrue(json.containsKey("audit_log_written_count"));
+        Assert.assertTrue(json.containsKey("audit_log_batch_latency"));
+
+        // The configuration is read from its cache
+        json = target().path("/app").request()
+                .get(JsonObject.class);
+        JsonObject configCache = null;
+        for (JsonObject daoCache : json.getJsonArray("dao_caches").getValuesAs(JsonObject.class)) {
+            if (daoCache.getString("name").equals("config")) {
+                configCache = daoCache;
+            }
+        }
+        Assert.assertNotNull(configCache);
+        Assert.assertTrue(configCache.getJsonNumber("hit_count").longValue() > 0);
+        Assert.assertTrue(configCache.getJsonNumber("hit_rate").doubleValue() > 0);
 
         // Rebuild Lucene index
         Response response = target().path("/app/batch/reindex").request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
                 .post(Entity.form(new Form()));
         Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+
+        // Check the rebuild progress
+        json = target().path("/app/batch/reindex").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        Assert.assertFalse(json.getBoolean("running"));
+        Assert.assertEquals(json.getJsonNumber("total").longValue(), json.getJsonNumber("done").longValue());
         
         // Clean storage
         response = target().path("/app/batch/clean_storage").request()
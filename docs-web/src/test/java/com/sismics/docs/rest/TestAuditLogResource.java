@@ -1,14 +1,36 @@
 package com.sismics.docs.rest;
 
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.service.AuditLogArchiveService;
+import com.sismics.docs.core.util.AuditLogUtil;
+import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.util.context.ThreadLocalContext;
 import com.sismics.util.filter.TokenBasedSecurityFilter;
+import org.joda.time.DateTime;
 import org.junit.Assert;
 import org.junit.Test;
 
+import javax.json.Json;
 import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Form;
+import javax.ws.rs.core.Response;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Test the audit log resource.
@@ -118,8 +140,197 @@ public class TestAuditLogResource extends BaseJerseyTest {
         Assert.assertEquals(countByClass(logs, "Document"), 1);
         Assert.assertEquals(countByClass(logs, "Acl"), 2);
         Assert.assertEquals(countByClass(logs, "File"), 1);
+
+        // Get the logs for the document one page at a time
+        json = target().path("/auditlog")
+                .queryParam("document", document1Id)
+                .queryParam("limit", 3)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, auditlog1Token)
+                .get(JsonObject.class);
+        Assert.assertEquals(3, json.getJsonArray("logs").size());
+        Assert.assertEquals(4, json.getJsonNumber("total").intValue());
+        Assert.assertEquals(logs.getJsonObject(2).getString("id"), json.getJsonArray("logs").getJsonObject(2).getString("id"));
+        json = target().path("/auditlog")
+                .queryParam("document", document1Id)
+                .queryParam("limit", 3)
+                .queryParam("cursor", json.getString("next_cursor"))
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, auditlog1Token)
+                .get(JsonObject.class);
+        Assert.assertEquals(1, json.getJsonArray("logs").size());
+        Assert.assertEquals(logs.getJsonObject(3).getString("id"), json.getJsonArray("logs").getJsonObject(0).getString("id"));
+        Assert.assertTrue(json.isNull("next_cursor"));
     }
     
+    /**
+     * Test the writing of the audit logs in batches, before and after the commit.
+     *
+     * @throws Exception e
+     */
+    @Test
+    public void testAuditLogBatch() throws Exception {
+        // Login auditlog_batch
+        clientUtil.createUser("auditlog_batch");
+        String auditlogBatchToken = clientUtil.login("auditlog_batch");
+
+        // Create a document, its audit logs are written in one batch
+        long batchCount = AuditLogUtil.getBatchCount();
+        long writtenCount = AuditLogUtil.getWrittenCount();
+        String document1Id = clientUtil.createDocument(auditlogBatchToken);
+        Assert.assertEquals(batchCount + 1, AuditLogUtil.getBatchCount());
+        Assert.assertEquals(writtenCount + 3, AuditLogUtil.getWrittenCount());
+        JsonArray logs = getDocumentLogs(document1Id, auditlogBatchToken);
+        Assert.assertEquals(3, logs.size());
+        Assert.assertEquals(1, countByClass(logs, "Document"));
+        Assert.assertEquals(2, countByClass(logs, "Acl"));
+
+        // Create a document in a rolled back request, no audit log is written
+        createRolledBackDocument(auditlogBatchToken);
+        Assert.assertEquals(batchCount + 1, AuditLogUtil.getBatchCount());
+        Assert.assertEquals(1, getUserLogs(auditlogBatchToken).size());
+
+        boolean async = AuditLogUtil.isAsync();
+        AuditLogUtil.setAsync(true);
+        try {
+            // Create a document in asynchronous mode, its audit logs are written after the commit
+            String document2Id = clientUtil.createDocument(auditlogBatchToken);
+            for (int i = 0; i < 100 && getDocumentLogs(document2Id, auditlogBatchToken).size() < 3; i++) {
+                Thread.sleep(100);
+            }
+            logs = getDocumentLogs(document2Id, auditlogBatchToken);
+            Assert.assertEquals(3, logs.size());
+            Assert.assertEquals(1, countByClass(logs, "Document"));
+            Assert.assertEquals(2, countByClass(logs, "Acl"));
+
+            // Create a document in a rolled back request, no audit log is queued
+            createRolledBackDocument(auditlogBatchToken);
+            Assert.assertEquals(0, AppContext.getInstance().getAuditLogService().getPendingCount());
+        } finally {
+            AuditLogUtil.setAsync(async);
+        }
+        Assert.assertEquals(2, getUserLogs(auditlogBatchToken).size());
+    }
+
+    /**
+     * Test the archive of the audit logs older than the retention period.
+     *
+     * @throws Exception e
+     */
+    @Test
+    public void testAuditLogArchive() throws Exception {
+        // Login auditlog_archive
+        clientUtil.createUser("auditlog_archive");
+        String auditlogArchiveToken = clientUtil.login("auditlog_archive");
+
+        // Create a document and make its audit logs 2 days old
+        String document1Id = clientUtil.createDocument(auditlogArchiveToken);
+        TransactionUtil.handle(() -> ThreadLocalContext.get().getEntityManager()
+                .createNativeQuery("update T_AUDIT_LOG set LOG_CREATEDATE_D = :date"
+                        + " where LOG_IDUSER_C = (select USE_ID_C from T_USER where USE_USERNAME_C = 'auditlog_archive')")
+                .setParameter("date", DateTime.now().minusDays(2).toDate())
+                .executeUpdate());
+
+        // Create a recent document
+        String document2Id = clientUtil.createDocument(auditlogArchiveToken);
+
+        // Archive the audit logs older than 1 day
+        Path archiveDirectory = DirectoryUtil.getAuditLogArchiveDirectory();
+        Set<Path> previousFileSet = listFiles(archiveDirectory);
+        AuditLogArchiveService auditLogArchiveService = new AuditLogArchiveService(1);
+        auditLogArchiveService.archiveAuditLogs();
+        Assert.assertEquals(3, auditLogArchiveService.getRemovedCount());
+
+        // The archive contains the old audit logs, one per line
+        Set<Path> fileSet = listFiles(archiveDirectory);
+        fileSet.removeAll(previousFileSet);
+        Assert.assertEquals(1, fileSet.size());
+        List<JsonObject> archivedList = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(fileSet.iterator().next())), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                archivedList.add(Json.createReader(new StringReader(line)).readObject());
+            }
+        }
+        Assert.assertEquals(3, archivedList.size());
+        int documentCount = 0;
+        for (JsonObject archived : archivedList) {
+            Assert.assertEquals("CREATE", archived.getString("type"));
+            if (archived.getString("entity_class").equals("Document")) {
+                Assert.assertEquals(document1Id, archived.getString("entity_id"));
+                documentCount++;
+            }
+        }
+        Assert.assertEquals(1, documentCount);
+
+        // The old audit logs are removed from the database, the recent ones are kept
+        Assert.assertEquals(0, getDocumentLogs(document1Id, auditlogArchiveToken).size());
+        Assert.assertEquals(3, getDocumentLogs(document2Id, auditlogArchiveToken).size());
+
+        // Nothing is left to archive
+        auditLogArchiveService.archiveAuditLogs();
+        Assert.assertEquals(3, auditLogArchiveService.getRemovedCount());
+    }
+
+    /**
+     * Returns the files of a directory.
+     *
+     * @param directory Directory
+     * @return Files
+     * @throws IOException e
+     */
+    private Set<Path> listFiles(Path directory) throws IOException {
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.collect(Collectors.toSet());
+        }
+    }
+
+    /**
+     * Create a document with an unknown metadata, the request is rolled back after the document creation.
+     *
+     * @param token Authentication token
+     */
+    private void createRolledBackDocument(String token) {
+        Response response = target().path("/document").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                .put(Entity.form(new Form()
+                        .param("title", "Rolled back document")
+                        .param("language", "eng")
+                        .param("metadata_id", "unknown")
+                        .param("metadata_value", "value")));
+        Assert.assertEquals(Response.Status.BAD_REQUEST, Response.Status.fromStatusCode(response.getStatus()));
+    }
+
+    /**
+     * Returns the audit logs of a document.
+     *
+     * @param documentId Document ID
+     * @param token Authentication token
+     * @return Logs
+     */
+    private JsonArray getDocumentLogs(String documentId, String token) {
+        return target().path("/auditlog")
+                .queryParam("document", documentId)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                .get(JsonObject.class)
+                .getJsonArray("logs");
+    }
+
+    /**
+     * Returns the audit logs of the current user.
+     *
+     * @param token Authentication token
+     * @return Logs
+     */
+    private JsonArray getUserLogs(String token) {
+        return target().path("/auditlog").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                .get(JsonObject.class)
+                .getJsonArray("logs");
+    }
+
     /**
      * Count logs by class.
      * 
@@ -19,6 +19,7 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Date;
 
 /**
@@ -125,6 +126,101 @@ public class TestDocumentResource extends BaseJerseyTest {
         Assert.assertEquals("SuperTag", tags.getJsonObject(1).getString("name"));
         Assert.assertEquals("#ffff00", tags.getJsonObject(1).getString("color"));
         Assert.assertFalse(documents.getJsonObject(0).getBoolean("active_route"));
+        Assert.assertNull(json.get("facets"));
+
+        // List all documents with facets
+        json = target().path("/document/list")
+                .queryParam("sort_column", 3)
+                .queryParam("asc", true)
+                .queryParam("facets", true)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .get(JsonObject.class);
+        JsonObject facets = json.getJsonObject("facets");
+        JsonArray facet = facets.getJsonArray("tags");
+        Assert.assertEquals(2, facet.size());
+        Assert.assertEquals(tag2Id, facet.getJsonObject(0).getString("id"));
+        Assert.assertEquals("HR", facet.getJsonObject(0).getString("name"));
+        Assert.assertEquals(2, facet.getJsonObject(0).getInt("count"));
+        Assert.assertEquals(tag1Id, facet.getJsonObject(1).getString("id"));
+        Assert.assertEquals(1, facet.getJsonObject(1).getInt("count"));
+        facet = facets.getJsonArray("mime_types");
+        Assert.assertEquals(1, facet.size());
+        Assert.assertEquals("image/png", facet.getJsonObject(0).getString("value"));
+        Assert.assertEquals(1, facet.getJsonObject(0).getInt("count"));
+        facet = facets.getJsonArray("languages");
+        Assert.assertEquals(1, facet.size());
+        Assert.assertEquals("eng", facet.getJsonObject(0).getString("value"));
+        Assert.assertEquals(2, facet.getJsonObject(0).getInt("count"));
+        facet = facets.getJsonArray("creators");
+        Assert.assertEquals(1, facet.size());
+        Assert.assertEquals("document1", facet.getJsonObject(0).getString("value"));
+        Assert.assertEquals(2, facet.getJsonObject(0).getInt("count"));
+        Assert.assertEquals(2, facets.getJsonArray("years").getJsonObject(0).getInt("count"));
+
+        // Facets are restricted to the search
+        json = target().path("/document/list")
+                .queryParam("search", "tag:SuperTag")
+                .queryParam("facets", true)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .get(JsonObject.class);
+        Assert.assertEquals(1, json.getJsonNumber("total").intValue());
+        facet = json.getJsonObject("facets").getJsonArray("tags");
+        Assert.assertEquals(2, facet.size());
+        Assert.assertEquals(1, facet.getJsonObject(0).getInt("count"));
+        Assert.assertEquals(1, facet.getJsonObject(1).getInt("count"));
+        Assert.assertEquals(1, json.getJsonObject("facets").getJsonArray("languages").getJsonObject(0).getInt("count"));
+
+        // The same search is served by the cache
+        long hitCount = target().path("/app").request()
+                .get(JsonObject.class).getJsonNumber("search_cache_hit_count").longValue();
+        json = target().path("/document/list")
+                .queryParam("search", " tag:SuperTag  ")
+                .queryParam("facets", true)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .get(JsonObject.class);
+        Assert.assertEquals(1, json.getJsonNumber("total").intValue());
+        Assert.assertEquals(document1Id, json.getJsonArray("documents").getJsonObject(0).getString("id"));
+        Assert.assertEquals(2, json.getJsonObject("facets").getJsonArray("tags").size());
+        Assert.assertEquals(hitCount + 1, target().path("/app").request()
+                .get(JsonObject.class).getJsonNumber("search_cache_hit_count").longValue());
+
+        // List all documents one page at a time
+        json = target().path("/document/list")
+                .queryParam("sort_column", 3)
+                .queryParam("asc", true)
+                .queryParam("limit", 1)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .get(JsonObject.class);
+        Assert.assertEquals(2, json.getJsonNumber("total").intValue());
+        Assert.assertTrue(json.getBoolean("total_exact"));
+        Assert.assertEquals(1, json.getJsonArray("documents").size());
+        Assert.assertEquals(document1Id, json.getJsonArray("documents").getJsonObject(0).getString("id"));
+        String cursor = json.getString("next_cursor");
+        json = target().path("/document/list")
+                .queryParam("sort_column", 3)
+                .queryParam("asc", true)
+                .queryParam("limit", 1)
+                .queryParam("cursor", cursor)
+                .queryParam("count", "none")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .get(JsonObject.class);
+        Assert.assertNull(json.get("total"));
+        Assert.assertEquals(1, json.getJsonArray("documents").size());
+        Assert.assertEquals(documents.getJsonObject(1).getString("id"), json.getJsonArray("documents").getJsonObject(0).getString("id"));
+        Assert.assertTrue(json.isNull("next_cursor"));
+
+        // A cursor can't be used with another sort
+        Assert.assertEquals(Status.BAD_REQUEST, Status.fromStatusCode(target().path("/document/list")
+                .queryParam("sort_column", 1)
+                .queryParam("cursor", cursor)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .get().getStatus()));
 
         // List all documents from document3
         json = target().path("/document/list")
@@ -180,6 +276,14 @@ public class TestDocumentResource extends BaseJerseyTest {
         String suggestion = json.getJsonArray("suggestions").getString(0);
         Assert.assertEquals("document", suggestion);
 
+        // Check autocomplete suggestions
+        json = target().path("/document/suggest")
+                .queryParam("search", "my super docu")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .get(JsonObject.class);
+        Assert.assertEquals("document", json.getJsonArray("suggestions").getString(0));
+
         // Search documents
         Assert.assertEquals(1, searchDocuments("full:uranium full:einstein", document1Token));
         Assert.assertEquals(2, searchDocuments("tit*", document1Token));
@@ -195,6 +299,26 @@ public class TestDocumentResource extends BaseJerseyTest {
         Assert.assertEquals(1, searchDocuments("software", document1Token));
         Assert.assertEquals(1, searchDocuments("greenland", document1Token));
         Assert.assertEquals(1, searchDocuments("public domain", document1Token));
+
+        // Search documents as admin, sorted and paginated by the index
+        String adminToken = clientUtil.login("admin", "admin", false);
+        json = target().path("/document/list")
+                .queryParam("search", "greenland")
+                .queryParam("sort_column", 1)
+                .queryParam("asc", true)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        Assert.assertEquals(1, json.getJsonNumber("total").intValue());
+        Assert.assertEquals(document1Id, json.getJsonArray("documents").getJsonObject(0).getString("id"));
+        json = target().path("/document/list")
+                .queryParam("search", "greenland")
+                .queryParam("offset", 1)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        Assert.assertEquals(1, json.getJsonNumber("total").intValue());
+        Assert.assertEquals(0, json.getJsonArray("documents").size());
         Assert.assertEquals(0, searchDocuments("by:document3", document1Token));
         Assert.assertEquals(2, searchDocuments("by:document1", document1Token));
         Assert.assertEquals(0, searchDocuments("by:nobody", document1Token));
@@ -229,6 +353,15 @@ public class TestDocumentResource extends BaseJerseyTest {
         Assert.assertEquals(0, searchDocuments("lang:fra", document1Token));
         Assert.assertEquals(0, searchDocuments("title:Unknown title", document3Token));
 
+        // Rebuild the index, searches are the same
+        target().path("/app/batch/reindex").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .post(Entity.form(new Form()), JsonObject.class);
+        Assert.assertEquals(2, searchDocuments("title", document1Token));
+        Assert.assertEquals(1, searchDocuments("tag:super tag:hr", document1Token));
+        Assert.assertEquals(1, searchDocuments("mime:image/png", document1Token));
+        Assert.assertEquals(1, searchDocuments("shared:yes", document1Token));
+
         // Get document 1
         json = target().path("/document/" + document1Id).request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
@@ -436,6 +569,56 @@ public class TestDocumentResource extends BaseJerseyTest {
         return json.getJsonArray("documents").size();
     }
     
+    /**
+     * Test the search of shared documents when the index can't handle the search.
+     */
+    @Test
+    public void testSharedSearchFallback() {
+        // Login admin and document_shared
+        String adminToken = clientUtil.login("admin", "admin", false);
+        clientUtil.createGroup("document_shared_group");
+        clientUtil.createUser("document_shared", "document_shared_group");
+        String documentSharedToken = clientUtil.login("document_shared");
+
+        // Create two documents, share the first one
+        String document1Id = clientUtil.createDocument(documentSharedToken);
+        String document2Id = clientUtil.createDocument(documentSharedToken);
+        target().path("/share").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentSharedToken)
+                .put(Entity.form(new Form()
+                        .param("id", document1Id)), JsonObject.class);
+
+        // Start a workflow on both documents with a step for document_shared
+        String routeModelId = target().path("/routemodel").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .put(Entity.form(new Form()
+                        .param("name", "Shared search workflow")
+                        .param("steps", "[{\"type\":\"VALIDATE\",\"transitions\":[{\"name\":\"VALIDATED\",\"actions\":[]}],\"target\":{\"name\":\"document_shared_group\",\"type\":\"GROUP\"},\"name\":\"Check the document\"}]")), JsonObject.class)
+                .getString("id");
+        for (String documentId : Arrays.asList(document1Id, document2Id)) {
+            target().path("/route/start").request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                    .post(Entity.form(new Form()
+                            .param("documentId", documentId)
+                            .param("routeModelId", routeModelId)), JsonObject.class);
+        }
+
+        // The workflow criteria is only searched in the database
+        Assert.assertEquals(2, searchDocuments("workflow:me", documentSharedToken));
+        Assert.assertEquals(1, searchDocuments("shared:yes workflow:me", documentSharedToken));
+
+        // So is a sort on the language
+        JsonArray documents = target().path("/document/list")
+                .queryParam("search", "shared:yes")
+                .queryParam("sort_column", 4)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentSharedToken)
+                .get(JsonObject.class)
+                .getJsonArray("documents");
+        Assert.assertEquals(1, documents.size());
+        Assert.assertEquals(document1Id, documents.getJsonObject(0).getString("id"));
+    }
+
     /**
      * Test ODT extraction.
      * 
@@ -610,6 +793,7 @@ public class TestDocumentResource extends BaseJerseyTest {
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentPlainToken)
                 .get(JsonObject.class);
         Assert.assertEquals(1, json.getJsonArray("documents").size());
+        Assert.assertTrue(json.getJsonArray("documents").getJsonObject(0).getString("highlight").contains("<strong>love</strong>"));
 
         // Get the file thumbnail data
         Response response = target().path("/file/" + file1Id + "/data")
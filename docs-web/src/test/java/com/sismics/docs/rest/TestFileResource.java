@@ -2,13 +2,23 @@ package com.sismics.docs.rest;
 
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Resources;
+import com.sismics.docs.core.dao.FileBlobDao;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.dto.FileBlobDto;
+import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.util.context.ThreadLocalContext;
 import com.sismics.util.filter.TokenBasedSecurityFilter;
+import com.sismics.util.jpa.EMF;
 import com.sismics.util.mime.MimeType;
 import com.sismics.util.mime.MimeTypeUtil;
 import org.glassfish.jersey.media.multipart.FormDataMultiPart;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
 import org.glassfish.jersey.media.multipart.file.StreamDataBodyPart;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -16,13 +26,17 @@ import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Form;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -58,6 +72,40 @@ public class TestFileResource extends BaseJerseyTest {
         InputStream is = (InputStream) response.getEntity();
         byte[] fileBytes = ByteStreams.toByteArray(is);
         Assert.assertTrue(fileBytes.length > 0);
+        Assert.assertEquals("bytes", response.getHeaderString("Accept-Ranges"));
+        String eTag = response.getHeaderString(HttpHeaders.ETAG);
+        Assert.assertNotNull(eTag);
+
+        // Get a range of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=1000-1999")
+                .get();
+        Assert.assertEquals(Status.PARTIAL_CONTENT, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("bytes 1000-1999/" + fileBytes.length, response.getHeaderString("Content-Range"));
+        Assert.assertArrayEquals(Arrays.copyOfRange(fileBytes, 1000, 2000), ByteStreams.toByteArray((InputStream) response.getEntity()));
+
+        // Get several ranges of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=0-9,-10")
+                .get();
+        Assert.assertEquals(Status.PARTIAL_CONTENT, Status.fromStatusCode(response.getStatus()));
+        Assert.assertTrue(response.getHeaderString(HttpHeaders.CONTENT_TYPE).startsWith("multipart/byteranges"));
+
+        // Get a range outside of the file data
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header("Range", "bytes=" + fileBytes.length + "-")
+                .get();
+        Assert.assertEquals(Status.REQUESTED_RANGE_NOT_SATISFIABLE, Status.fromStatusCode(response.getStatus()));
+
+        // The file data is not modified
+        response = target().path("/file/" + file1Id + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, file1Token)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .get();
+        Assert.assertEquals(Status.NOT_MODIFIED, Status.fromStatusCode(response.getStatus()));
         
         // Get the thumbnail data
         response = target().path("/file/" + file1Id + "/data")
@@ -489,4 +537,236 @@ public class TestFileResource extends BaseJerseyTest {
                 .get(JsonObject.class);
         Assert.assertEquals(585282L, json.getJsonNumber("storage_current").longValue());
     }
+
+    /**
+     * Test a file filling the quota exactly.
+     *
+     * @throws Exception e
+     */
+    @Test
+    public void testQuotaExactFit() throws Exception {
+        // Login file_quota_exact, the quota is the size of a file (292641 bytes)
+        clientUtil.createUser("file_quota_exact", 292641);
+        String fileQuotaExactToken = clientUtil.login("file_quota_exact");
+
+        // Add the file, the request is larger than the quota but the file fits
+        clientUtil.addFileToDocument(FILE_EINSTEIN_ROOSEVELT_LETTER_PNG, fileQuotaExactToken, null);
+        JsonObject json = target().path("/user").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileQuotaExactToken)
+                .get(JsonObject.class);
+        Assert.assertEquals(292641L, json.getJsonNumber("storage_current").longValue());
+
+        // Add a small file, the quota is reached
+        try {
+            clientUtil.addFileToDocument(FILE_DOCUMENT_TXT, fileQuotaExactToken, null);
+            Assert.fail();
+        } catch (javax.ws.rs.BadRequestException ignored) {
+        }
+
+        // Login file_quota_small, a file much larger than the quota is rejected before reading it
+        clientUtil.createUser("file_quota_small", 1000);
+        String fileQuotaSmallToken = clientUtil.login("file_quota_small");
+        try {
+            clientUtil.addFileToDocument(FILE_EINSTEIN_ROOSEVELT_LETTER_PNG, fileQuotaSmallToken, null);
+            Assert.fail();
+        } catch (javax.ws.rs.BadRequestException ignored) {
+        }
+        json = target().path("/user").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileQuotaSmallToken)
+                .get(JsonObject.class);
+        Assert.assertEquals(0L, json.getJsonNumber("storage_current").longValue());
+    }
+
+    /**
+     * Test the request-scoped persistence context.
+     *
+     * @throws Exception e
+     */
+    @Test
+    public void testRequestCache() throws Exception {
+        // Login file_request_cache
+        clientUtil.createUser("file_request_cache");
+        String fileRequestCacheToken = clientUtil.login("file_request_cache");
+
+        // Add a file to a document
+        String document1Id = clientUtil.createDocument(fileRequestCacheToken);
+        String file1Id = clientUtil.addFileToDocument(FILE_PIA_00452_JPG, fileRequestCacheToken, document1Id);
+
+        // Count the SQL statements of the same requests with and without the request cache
+        Statistics statistics = EMF.get().unwrap(SessionFactory.class).getStatistics();
+        boolean requestCacheEnabled = ThreadLocalContext.isRequestCacheEnabled();
+        boolean statisticsEnabled = statistics.isStatisticsEnabled();
+        statistics.setStatisticsEnabled(true);
+        long[] statementCount = new long[2];
+        byte[][] fileBytes = new byte[2][];
+        try {
+            for (int i = 0; i < 2; i++) {
+                // A new session, its principal is not cached yet
+                String token = clientUtil.login("file_request_cache");
+                ThreadLocalContext.setRequestCacheEnabled(i == 1);
+                statistics.clear();
+                Response response = target().path("/file/" + file1Id + "/data").request()
+                        .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                        .get();
+                Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+                fileBytes[i] = ByteStreams.toByteArray((InputStream) response.getEntity());
+                statementCount[i] = statistics.getPrepareStatementCount();
+            }
+        } finally {
+            ThreadLocalContext.setRequestCacheEnabled(requestCacheEnabled);
+            statistics.setStatisticsEnabled(statisticsEnabled);
+        }
+        Assert.assertArrayEquals(fileBytes[0], fileBytes[1]);
+        Assert.assertTrue(statementCount[1] < statementCount[0]);
+
+        // Delete the file, the quota update reuses the user loaded by the security filter
+        ThreadLocalContext.setRequestCacheEnabled(true);
+        try {
+            JsonObject json = target().path("/file/" + file1Id).request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileRequestCacheToken)
+                    .delete(JsonObject.class);
+            Assert.assertEquals("ok", json.getString("status"));
+        } finally {
+            ThreadLocalContext.setRequestCacheEnabled(requestCacheEnabled);
+        }
+
+        // Check current quota
+        JsonObject json = target().path("/user").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileRequestCacheToken)
+                .get(JsonObject.class);
+        Assert.assertEquals(0L, json.getJsonNumber("storage_current").longValue());
+    }
+
+    /**
+     * Test the deduplicated storage.
+     *
+     * @throws Exception e
+     */
+    @Test
+    public void testDeduplication() throws Exception {
+        boolean deduplicationEnabled = FileUtil.isDeduplicationEnabled();
+        FileUtil.setDeduplicationEnabled(true);
+        try {
+            // Login file_dedup1 and file_dedup2
+            clientUtil.createUser("file_dedup1");
+            String fileDedup1Token = clientUtil.login("file_dedup1");
+            clientUtil.createUser("file_dedup2");
+            String fileDedup2Token = clientUtil.login("file_dedup2");
+
+            // Both users add the same file
+            String document1Id = clientUtil.createDocument(fileDedup1Token);
+            String file1Id = clientUtil.addFileToDocument(FILE_DOCUMENT_TXT, fileDedup1Token, document1Id);
+            String document2Id = clientUtil.createDocument(fileDedup2Token);
+            String file2Id = clientUtil.addFileToDocument(FILE_DOCUMENT_TXT, fileDedup2Token, document2Id);
+
+            // The content is stored once in a blob referenced twice
+            File file1 = getFile(file1Id);
+            String blobId = file1.getBlobId();
+            Assert.assertNotNull(blobId);
+            Assert.assertEquals(blobId, getFile(file2Id).getBlobId());
+            List<FileBlobDto> blobList = getBlobs(file1.getHash());
+            Assert.assertEquals(1, blobList.size());
+            Assert.assertEquals(blobId, blobList.get(0).getId());
+            Assert.assertEquals(2, blobList.get(0).getRefCount());
+            Path blobFile = DirectoryUtil.getBlobDirectory().resolve(blobId);
+            Assert.assertTrue(Files.exists(blobFile));
+            Assert.assertFalse(Files.exists(DirectoryUtil.getStorageDirectory().resolve(file1Id)));
+            Assert.assertFalse(Files.exists(DirectoryUtil.getStorageDirectory().resolve(file2Id)));
+
+            // Each user gets his own file only
+            byte[] fileBytes = Resources.toByteArray(Resources.getResource(FILE_DOCUMENT_TXT));
+            Assert.assertArrayEquals(fileBytes, getFileData(file1Id, fileDedup1Token));
+            Assert.assertArrayEquals(fileBytes, getFileData(file2Id, fileDedup2Token));
+            Response response = target().path("/file/" + file1Id + "/data").request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileDedup2Token)
+                    .get();
+            Assert.assertNotEquals(Status.OK.getStatusCode(), response.getStatus());
+
+            // Add a new version with the same content, it reuses the blob and its extracted content
+            String file3Id;
+            try (InputStream is = Resources.getResource(FILE_DOCUMENT_TXT).openStream()) {
+                StreamDataBodyPart streamDataBodyPart = new StreamDataBodyPart("file", is, "document.txt");
+                try (FormDataMultiPart multiPart = new FormDataMultiPart()) {
+                    JsonObject json = target()
+                            .register(MultiPartFeature.class)
+                            .path("/file").request()
+                            .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileDedup1Token)
+                            .put(Entity.entity(
+                                    multiPart
+                                            .field("id", document1Id)
+                                            .field("previousFileId", file1Id)
+                                            .bodyPart(streamDataBodyPart),
+                                    MediaType.MULTIPART_FORM_DATA_TYPE), JsonObject.class);
+                    file3Id = json.getString("id");
+                }
+            }
+            File file3 = getFile(file3Id);
+            Assert.assertEquals(blobId, file3.getBlobId());
+            Assert.assertEquals(3, getBlobs(file1.getHash()).get(0).getRefCount());
+            Assert.assertNotNull(file1.getContent());
+            Assert.assertEquals(file1.getContent(), file3.getContent());
+            Assert.assertArrayEquals(fileBytes, getFileData(file3Id, fileDedup1Token));
+
+            // Delete the file of file_dedup2, the blob is kept for the others
+            JsonObject json = target().path("/file/" + file2Id).request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileDedup2Token)
+                    .delete(JsonObject.class);
+            Assert.assertEquals("ok", json.getString("status"));
+            Assert.assertEquals(2, getBlobs(file1.getHash()).get(0).getRefCount());
+            Assert.assertTrue(Files.exists(blobFile));
+            Assert.assertArrayEquals(fileBytes, getFileData(file1Id, fileDedup1Token));
+
+            // Delete the last files, the blob is deleted
+            for (String fileId : Arrays.asList(file1Id, file3Id)) {
+                json = target().path("/file/" + fileId).request()
+                        .cookie(TokenBasedSecurityFilter.COOKIE_NAME, fileDedup1Token)
+                        .delete(JsonObject.class);
+                Assert.assertEquals("ok", json.getString("status"));
+            }
+            Assert.assertTrue(getBlobs(file1.getHash()).isEmpty());
+            Assert.assertFalse(Files.exists(blobFile));
+        } finally {
+            FileUtil.setDeduplicationEnabled(deduplicationEnabled);
+        }
+    }
+
+    /**
+     * Returns a file from the database.
+     *
+     * @param fileId File ID
+     * @return File
+     */
+    private File getFile(String fileId) {
+        AtomicReference<File> file = new AtomicReference<>();
+        TransactionUtil.handle(() -> file.set(new FileDao().getFile(fileId)));
+        return file.get();
+    }
+
+    /**
+     * Returns the blobs with some content.
+     *
+     * @param hash Hash of the content
+     * @return List of blobs
+     */
+    private List<FileBlobDto> getBlobs(String hash) {
+        AtomicReference<List<FileBlobDto>> blobList = new AtomicReference<>();
+        TransactionUtil.handle(() -> blobList.set(new FileBlobDao().findByHash(hash)));
+        return blobList.get();
+    }
+
+    /**
+     * Returns the content of a file.
+     *
+     * @param fileId File ID
+     * @param token Authentication token
+     * @return File content
+     * @throws Exception e
+     */
+    private byte[] getFileData(String fileId, String token) throws Exception {
+        Response response = target().path("/file/" + fileId + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                .get();
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+        return ByteStreams.toByteArray((InputStream) response.getEntity());
+    }
 }
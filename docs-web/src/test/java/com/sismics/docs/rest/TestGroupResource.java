@@ -10,6 +10,7 @@ import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Form;
 import javax.ws.rs.core.Response;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -189,4 +190,150 @@ public class TestGroupResource extends BaseJerseyTest {
         Assert.assertTrue(groupList.contains("g11"));
         Assert.assertTrue(groupList.contains("g112"));
     }
-}
\ No newline at end of file
+
+    /**
+     * Test the ACLs inherited through the group hierarchy.
+     */
+    @Test
+    public void testGroupHierarchyAcl() {
+        // Login admin
+        String adminToken = clientUtil.login("admin", "admin", false);
+
+        // Create the hierarchy gh1 > gh11 > gh111 with a user in gh111
+        clientUtil.createGroup("gh1");
+        clientUtil.createGroup("gh11", "gh1");
+        clientUtil.createGroup("gh111", "gh11");
+        clientUtil.createUser("grouphierarchy", "gh111");
+        String userToken = clientUtil.login("grouphierarchy");
+
+        // Admin shares a document with the root group only
+        String documentId = clientUtil.createDocument(adminToken);
+        target().path("/acl").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .put(Entity.form(new Form()
+                        .param("source", documentId)
+                        .param("perm", "READ")
+                        .param("target", "gh1")
+                        .param("type", "GROUP")), JsonObject.class);
+
+        // The user of the grandchild group gets the ACL of the root group
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), getDocumentStatus(userToken, documentId));
+        Assert.assertTrue(isDocumentListed(userToken, documentId));
+
+        // Unlink gh11 from gh1, the ACL is lost
+        target().path("/group/gh11").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .post(Entity.form(new Form()
+                        .param("name", "gh11")), JsonObject.class);
+        Assert.assertEquals(Response.Status.NOT_FOUND.getStatusCode(), getDocumentStatus(userToken, documentId));
+        Assert.assertFalse(isDocumentListed(userToken, documentId));
+
+        // Link it again, the ACL is back
+        target().path("/group/gh11").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .post(Entity.form(new Form()
+                        .param("name", "gh11")
+                        .param("parent", "gh1")), JsonObject.class);
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), getDocumentStatus(userToken, documentId));
+        Assert.assertTrue(isDocumentListed(userToken, documentId));
+
+        // Delete the intermediate group, the ACL is lost
+        target().path("/group/gh11").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .delete(JsonObject.class);
+        Assert.assertEquals(Response.Status.NOT_FOUND.getStatusCode(), getDocumentStatus(userToken, documentId));
+        Assert.assertFalse(isDocumentListed(userToken, documentId));
+        Assert.assertEquals(Arrays.asList("gh111"), getUserGroups(userToken));
+
+        // Create a cycle gc1 > gc2 > gc1 with a user in gc1 and a document shared with gc2
+        clientUtil.createGroup("gc1");
+        clientUtil.createGroup("gc2", "gc1");
+        clientUtil.createUser("groupcycle", "gc1");
+        String cycleToken = clientUtil.login("groupcycle");
+        String cycleDocumentId = clientUtil.createDocument(adminToken);
+        target().path("/acl").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .put(Entity.form(new Form()
+                        .param("source", cycleDocumentId)
+                        .param("perm", "READ")
+                        .param("target", "gc2")
+                        .param("type", "GROUP")), JsonObject.class);
+        Assert.assertEquals(Response.Status.NOT_FOUND.getStatusCode(), getDocumentStatus(cycleToken, cycleDocumentId));
+        target().path("/group/gc1").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .post(Entity.form(new Form()
+                        .param("name", "gc1")
+                        .param("parent", "gc2")), JsonObject.class);
+
+        // Every group of the cycle is an ancestor of the others
+        List<String> groupList = getUserGroups(cycleToken);
+        Assert.assertEquals(2, groupList.size());
+        Assert.assertTrue(groupList.contains("gc1"));
+        Assert.assertTrue(groupList.contains("gc2"));
+        Assert.assertEquals(Response.Status.OK.getStatusCode(), getDocumentStatus(cycleToken, cycleDocumentId));
+        Assert.assertTrue(isDocumentListed(cycleToken, cycleDocumentId));
+
+        // A user of the other group of the cycle gets the same groups
+        target().path("/group/gc2").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .put(Entity.form(new Form()
+                        .param("username", "grouphierarchy")), JsonObject.class);
+        groupList = getUserGroups(userToken);
+        Assert.assertEquals(3, groupList.size());
+        Assert.assertTrue(groupList.contains("gc1"));
+        Assert.assertTrue(groupList.contains("gc2"));
+        Assert.assertTrue(groupList.contains("gh111"));
+    }
+
+    /**
+     * Returns the HTTP status of a document.
+     *
+     * @param token Authentication token
+     * @param documentId Document ID
+     * @return HTTP status
+     */
+    private int getDocumentStatus(String token, String documentId) {
+        return target().path("/document/" + documentId).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                .get()
+                .getStatus();
+    }
+
+    /**
+     * Checks if a document is in the document list of a user.
+     *
+     * @param token Authentication token
+     * @param documentId Document ID
+     * @return True if the document is listed
+     */
+    private boolean isDocumentListed(String token, String documentId) {
+        JsonArray documents = target().path("/document/list").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                .get(JsonObject.class)
+                .getJsonArray("documents");
+        for (int i = 0; i < documents.size(); i++) {
+            if (documents.getJsonObject(i).getString("id").equals(documentId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the computed groups of a user.
+     *
+     * @param token Authentication token
+     * @return Group names
+     */
+    private List<String> getUserGroups(String token) {
+        JsonArray groups = target().path("/user").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                .get(JsonObject.class)
+                .getJsonArray("groups");
+        List<String> groupList = new ArrayList<>();
+        for (int i = 0; i < groups.size(); i++) {
+            groupList.add(groups.getString(i));
+        }
+        return groupList;
+    }
+}
@@ -99,4 +99,110 @@ public class TestSecurity extends BaseJerseyTest {
                 .get()
                 .getStatus());
     }
-}
\ No newline at end of file
+
+    /**
+     * Test that the cached principals are not used after a change of the session or the user.
+     */
+    @Test
+    public void testPrincipalCache() {
+        // Create a user
+        clientUtil.createUser("testcache");
+        String adminToken = clientUtil.login("admin", "admin", false);
+
+        // User testcache logs out, the token is refused
+        String testCacheToken = clientUtil.login("testcache");
+        Assert.assertEquals(Status.OK.getStatusCode(), getSessionStatus(testCacheToken));
+        clientUtil.logout(testCacheToken);
+        Assert.assertEquals(Status.FORBIDDEN.getStatusCode(), getSessionStatus(testCacheToken));
+
+        // User testcache changes his password, only the session changing it is kept
+        testCacheToken = clientUtil.login("testcache");
+        String otherToken = clientUtil.login("testcache");
+        Assert.assertEquals(Status.OK.getStatusCode(), getSessionStatus(otherToken));
+        JsonObject json = target().path("/user").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, testCacheToken)
+                .post(Entity.form(new Form()
+                        .param("password", "87654321")), JsonObject.class);
+        Assert.assertEquals("ok", json.getString("status"));
+        Assert.assertEquals(Status.FORBIDDEN.getStatusCode(), getSessionStatus(otherToken));
+        Assert.assertEquals(Status.OK.getStatusCode(), getSessionStatus(testCacheToken));
+
+        // Admin changes the password of testcache, all the sessions are closed
+        json = target().path("/user/testcache").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .post(Entity.form(new Form()
+                        .param("password", "12345678")), JsonObject.class);
+        Assert.assertEquals("ok", json.getString("status"));
+        Assert.assertEquals(Status.FORBIDDEN.getStatusCode(), getSessionStatus(testCacheToken));
+
+        // Admin disables testcache, the token is refused
+        testCacheToken = clientUtil.login("testcache");
+        Assert.assertEquals(Status.OK.getStatusCode(), getSessionStatus(testCacheToken));
+        target().path("/user/testcache").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .post(Entity.form(new Form()
+                        .param("disabled", "true")), JsonObject.class);
+        Assert.assertEquals(Status.FORBIDDEN.getStatusCode(), getSessionStatus(testCacheToken));
+        target().path("/user/testcache").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .post(Entity.form(new Form()
+                        .param("disabled", "false")), JsonObject.class);
+
+        // Admin creates a document readable by a group of testcache
+        clientUtil.createGroup("testcachegroup");
+        target().path("/group/testcachegroup").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .put(Entity.form(new Form()
+                        .param("username", "testcache")), JsonObject.class);
+        String documentId = clientUtil.createDocument(adminToken);
+        target().path("/acl").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .put(Entity.form(new Form()
+                        .param("source", documentId)
+                        .param("perm", "READ")
+                        .param("target", "testcachegroup")
+                        .param("type", "GROUP")), JsonObject.class);
+        testCacheToken = clientUtil.login("testcache");
+        Assert.assertEquals(Status.OK.getStatusCode(), getDocumentStatus(testCacheToken, documentId));
+
+        // Admin removes testcache from the group, the document is not readable anymore
+        target().path("/group/testcachegroup/testcache").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .delete(JsonObject.class);
+        Assert.assertEquals(Status.NOT_FOUND.getStatusCode(), getDocumentStatus(testCacheToken, documentId));
+        Assert.assertEquals(Status.OK.getStatusCode(), getSessionStatus(testCacheToken));
+
+        // Admin deletes testcache, the token is refused
+        target().path("/user/testcache").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .delete(JsonObject.class);
+        Assert.assertEquals(Status.FORBIDDEN.getStatusCode(), getSessionStatus(testCacheToken));
+    }
+
+    /**
+     * Returns the HTTP status of the list of sessions.
+     *
+     * @param token Authentication token
+     * @return HTTP status
+     */
+    private int getSessionStatus(String token) {
+        return target().path("/user/session").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                .get()
+                .getStatus();
+    }
+
+    /**
+     * Returns the HTTP status of a document.
+     *
+     * @param token Authentication token
+     * @param documentId Document ID
+     * @return HTTP status
+     */
+    private int getDocumentStatus(String token, String documentId) {
+        return target().path("/document/" + documentId).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                .get()
+                .getStatus();
+    }
+}
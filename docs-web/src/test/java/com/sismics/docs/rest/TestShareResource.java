@@ -75,6 +75,8 @@ public class TestShareResource extends BaseJerseyTest {
                 .request()
                 .get(JsonObject.class);
         Assert.assertEquals(document1Id, json.getString("id"));
+        Assert.assertTrue(json.getBoolean("shared"));
+        Assert.assertEquals(1, json.getInt("file_count"));
         Assert.assertEquals(3, json.getJsonArray("acls").size()); // 2 for the creator, 1 for the share
 
         // Get all comments from this document anonymously
@@ -120,6 +122,12 @@ public class TestShareResource extends BaseJerseyTest {
                 .delete(JsonObject.class);
         Assert.assertEquals("ok", json.getString("status"));
 
+        // The document is not shared anymore
+        json = target().path("/document/" + document1Id).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, share1Token)
+                .get(JsonObject.class);
+        Assert.assertFalse(json.getBoolean("shared"));
+
         // Deletes the share again
         response = target().path("/share/" + share1Id).request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, share1Token)
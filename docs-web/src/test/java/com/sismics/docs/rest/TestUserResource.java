@@ -1,5 +1,11 @@
 package com.sismics.docs.rest;
 
+import com.sismics.docs.core.dao.AuthenticationTokenDao;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.jpa.AuthenticationToken;
+import com.sismics.docs.core.service.SessionService;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.util.context.ThreadLocalContext;
 import com.sismics.util.filter.TokenBasedSecurityFilter;
 import com.sismics.util.totp.GoogleAuthenticator;
 import org.junit.Assert;
@@ -13,6 +19,7 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -493,4 +500,118 @@ public class TestUserResource extends BaseJerseyTest {
         json = response.readEntity(JsonObject.class);
         Assert.assertEquals("KeyNotFound", json.getString("type"));
     }
-}
\ No newline at end of file
+
+    /**
+     * Test the batched last connection dates and the purge of the expired sessions.
+     */
+    @Test
+    public void testSessionService() {
+        SessionService sessionService = AppContext.getInstance().getSessionService();
+
+        // Create and login a user
+        clientUtil.createUser("sessionservice");
+        String sessionToken = clientUtil.login("sessionservice");
+
+        // The last connection date is pending until the next batch
+        target().path("/user").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, sessionToken)
+                .get(JsonObject.class);
+        Date pendingDate = sessionService.getPendingConnectionDate(sessionToken);
+        Assert.assertNotNull(pendingDate);
+        Assert.assertEquals(pendingDate.getTime(), getCurrentSession(sessionToken).getJsonNumber("last_connection_date").longValue());
+
+        // Write the batch, the last connection date is read from the database
+        long flushedCount = sessionService.getFlushedConnectionCount();
+        sessionService.flushConnections();
+        Assert.assertNull(sessionService.getPendingConnectionDate(sessionToken));
+        Assert.assertTrue(sessionService.getFlushedConnectionCount() > flushedCount);
+        Assert.assertEquals(pendingDate, getAuthenticationToken(sessionToken).getLastConnectionDate());
+        Assert.assertEquals(pendingDate.getTime(), getCurrentSession(sessionToken).getJsonNumber("last_connection_date").longValue());
+
+        // A batch which cannot be written is kept for the next one
+        target().path("/user").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, sessionToken)
+                .get(JsonObject.class);
+        Date failedDate = sessionService.getPendingConnectionDate(sessionToken);
+        flushedCount = sessionService.getFlushedConnectionCount();
+        renameLastConnectionDateColumn("AUT_LASTCONNECTIONDATE_D", "AUT_LASTCONNECTIONDATE_TMP");
+        try {
+            sessionService.flushConnections();
+        } finally {
+            renameLastConnectionDateColumn("AUT_LASTCONNECTIONDATE_TMP", "AUT_LASTCONNECTIONDATE_D");
+        }
+        Assert.assertEquals(failedDate, sessionService.getPendingConnectionDate(sessionToken));
+        Assert.assertEquals(flushedCount, sessionService.getFlushedConnectionCount());
+        sessionService.flushConnections();
+        Assert.assertNull(sessionService.getPendingConnectionDate(sessionToken));
+        Assert.assertEquals(failedDate, getAuthenticationToken(sessionToken).getLastConnectionDate());
+
+        // Expire a second session
+        String expiredToken = clientUtil.login("sessionservice");
+        sessionService.flushConnections();
+        TransactionUtil.handle(() -> ThreadLocalContext.get().getEntityManager()
+                .createNativeQuery("update T_AUTHENTICATION_TOKEN set AUT_CREATIONDATE_D = :date, AUT_LASTCONNECTIONDATE_D = :date where AUT_ID_C = :id")
+                .setParameter("date", new Date(0))
+                .setParameter("id", expiredToken)
+                .executeUpdate());
+
+        // The purge deletes the expired session only
+        long purgedCount = sessionService.getPurgedTokenCount();
+        sessionService.purgeExpiredTokens();
+        Assert.assertTrue(sessionService.getPurgedTokenCount() > purgedCount);
+        Assert.assertNull(getAuthenticationToken(expiredToken));
+        Assert.assertNotNull(getAuthenticationToken(sessionToken));
+        Response response = target().path("/user/session").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, expiredToken)
+                .get();
+        Assert.assertEquals(Status.FORBIDDEN, Status.fromStatusCode(response.getStatus()));
+        JsonArray sessions = target().path("/user/session").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, sessionToken)
+                .get(JsonObject.class)
+                .getJsonArray("sessions");
+        Assert.assertEquals(1, sessions.size());
+    }
+
+    /**
+     * Returns the current session in the list of sessions.
+     *
+     * @param token Authentication token
+     * @return Session
+     */
+    private JsonObject getCurrentSession(String token) {
+        JsonArray sessions = target().path("/user/session").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, token)
+                .get(JsonObject.class)
+                .getJsonArray("sessions");
+        for (int i = 0; i < sessions.size(); i++) {
+            if (sessions.getJsonObject(i).getBoolean("current")) {
+                return sessions.getJsonObject(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Rename the last connection date column of the authentication tokens.
+     *
+     * @param name Column name
+     * @param newName New column name
+     */
+    private void renameLastConnectionDateColumn(String name, String newName) {
+        TransactionUtil.handle(() -> ThreadLocalContext.get().getEntityManager()
+                .createNativeQuery("alter table T_AUTHENTICATION_TOKEN alter column " + name + " rename to " + newName)
+                .executeUpdate());
+    }
+
+    /**
+     * Returns an authentication token from the database.
+     *
+     * @param token Authentication token ID
+     * @return Authentication token
+     */
+    private AuthenticationToken getAuthenticationToken(String token) {
+        AtomicReference<AuthenticationToken> authenticationToken = new AtomicReference<>();
+        TransactionUtil.handle(() -> authenticationToken.set(new AuthenticationTokenDao().get(token)));
+        return authenticationToken.get();
+    }
+}